@@ -9,4 +9,14 @@ NOT_OK=1
 
 echo "Doing healthtest."
 
+# The scorer serves /health when started with -metricsPort.
+# Set RISK_SCORER_METRICS_PORT to the same port to check it.
+
+if [ -n "${RISK_SCORER_METRICS_PORT}" ]; then
+  if ! wget -q -O - "http://localhost:${RISK_SCORER_METRICS_PORT}/health"; then
+    echo "Risk scorer is not healthy."
+    exit ${NOT_OK}
+  fi
+fi
+
 exit ${OK}
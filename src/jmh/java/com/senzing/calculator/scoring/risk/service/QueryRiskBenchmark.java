@@ -0,0 +1,81 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of match keys and evaluating them against the query risk criteria, with and without the match key cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryRiskBenchmark {
+
+  // The criteria of the README example.
+  private static final String[][] CRITERIA = {
+      { "+NAME+DOB", "R" }, { "+NAME+ADDRESS", "Y" }, { "+NAME+PHONE", "Y" }, { "+NAME+SSN", "R" } };
+  private static final String[] MATCH_KEYS = {
+      "+NAME+SSN", "+SURNAME+ADDRESS", "+NAME+DOB+ADDRESS-SSN", "+ADDRESS+PHONE (Ambiguous)",
+      "+NAME+DOB+PHONE+EMAIL-DRLIC", "+EMAIL", "+NAME-DOB", "+NAME+ADDRESS+PHONE+SSN+DOB+EMAIL" };
+
+  @State(Scope.Thread)
+  public static class MatchKeys {
+    private int next;
+
+    String nextKey() {
+      next = (next + 1) % MATCH_KEYS.length;
+      return MATCH_KEYS[next];
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Matcher {
+    // 0 evaluates every match key, the default size keeps them all.
+    @Param({ "0", "10000" })
+    public int cacheSize;
+
+    QueryRiskMatcher matcher;
+    RiskScorer riskScorer = new RiskScorer();
+
+    @Setup
+    public void setup() throws ParseException {
+      List<QueryRiskData> criteria = new ArrayList<>();
+      for (String[] criterion : CRITERIA) {
+        QueryRiskData queryRiskData = new QueryRiskData();
+        queryRiskData.setCriteriaString(criterion[0]);
+        queryRiskData.setCriteriaList(QueryRiskMatcher.parseMatchKey(criterion[0]));
+        queryRiskData.setScore(criterion[1]);
+        criteria.add(queryRiskData);
+      }
+      matcher = new QueryRiskMatcher(criteria, cacheSize);
+    }
+  }
+
+  @Benchmark
+  public List<String> parseMatchKey(MatchKeys matchKeys) throws ParseException {
+    return QueryRiskMatcher.parseMatchKey(matchKeys.nextKey());
+  }
+
+  @Benchmark
+  public RiskScore match(MatchKeys matchKeys, Matcher matcher) throws ParseException {
+    matcher.riskScorer.reset();
+    matcher.matcher.match(matchKeys.nextKey(), matcher.riskScorer);
+    return matcher.riskScorer.getQueryRiskScore();
+  }
+}
@@ -0,0 +1,99 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the reasons of a score, including the shortening of long feature lists, and the cost of a scorer reused
+ * from entity to entity against a new one per entity.  Run with -prof gc to see the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RiskScorerBenchmark {
+
+  // Number of shared features and exclusive values, the reasons shorten lists longer than a few entries.
+  @Param({ "1", "10", "100" })
+  public int findings;
+
+  private List<FeatData> sharedF1s;
+  private List<FeatData> sharedExclusives;
+  private List<String> exclusiveValues;
+  private RiskScorer filledScorer;
+  private RiskScorer reusedScorer;
+
+  @Setup
+  public void setup() {
+    sharedF1s = features("PHONE", findings);
+    sharedExclusives = features("PASSPORT", findings);
+    exclusiveValues = new ArrayList<>();
+    for (int i = 0; i < findings; i++) {
+      exclusiveValues.add("P" + (100000 + i));
+    }
+    filledScorer = new RiskScorer();
+    fill(filledScorer);
+    reusedScorer = new RiskScorer();
+  }
+
+  @Benchmark
+  public String getReason() {
+    return filledScorer.getReason();
+  }
+
+  @Benchmark
+  public String getReasonDetail() {
+    return filledScorer.getReasonDetail();
+  }
+
+  @Benchmark
+  public String scoreWithReusedScorer() {
+    reusedScorer.reset();
+    fill(reusedScorer);
+    return reusedScorer.getReason();
+  }
+
+  @Benchmark
+  public String scoreWithNewScorer() {
+    RiskScorer riskScorer = new RiskScorer();
+    fill(riskScorer);
+    return riskScorer.getReason();
+  }
+
+  private void fill(RiskScorer riskScorer) {
+    riskScorer.setOneAndOnlyOneDOB(true);
+    riskScorer.setOneOrLessSSN(true);
+    riskScorer.setOneOrMoreAddress(true);
+    riskScorer.addSharedF1s(sharedF1s);
+    riskScorer.addSharedExclusives(sharedExclusives);
+    riskScorer.addMultipleExclusives("PASSPORT", exclusiveValues);
+    riskScorer.addTrustedSource("TRUSTED");
+    riskScorer.addQueryRisk("+NAME+DOB", "R");
+  }
+
+  private static List<FeatData> features(String featureType, int count) {
+    List<FeatData> features = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      FeatData featData = new FeatData();
+      featData.setFeature(featureType);
+      featData.setDescription(featureType + " VALUE " + i);
+      features.add(featData);
+    }
+    return features;
+  }
+}
@@ -0,0 +1,89 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.senzing.calculator.scoring.risk.service.ScoringWorkerPool.EntityScorer;
+import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Scoring a burst of entities on the worker pool and on virtual threads, with a scorer which mostly waits the
+ * way G2 and the database calls do.  The virtual executor needs Java 21, run with -P benchmark,java21.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScoringExecutorBenchmark {
+
+  private static final int BURST = 1000;
+
+  @Param({ "platform", "virtual" })
+  public String executor;
+
+  // Worker threads, or entities scored at once on virtual threads.
+  @Param({ "8", "64", "256" })
+  public int threads;
+
+  // Time an entity waits on G2 and the database.
+  @Param({ "1" })
+  public int waitMillis;
+
+  private ScoringExecutor scoringExecutor;
+  private final Semaphore scored = new Semaphore(0);
+  private long nextEntityID;
+
+  @Setup
+  public void setup() {
+    EntityScorer scorer = (entityIDs, context) -> {
+      try {
+        Thread.sleep(waitMillis * (long) entityIDs.size());
+      } catch (InterruptedException e) {
+        throw new ServiceExecutionException(e);
+      }
+      scored.release(entityIDs.size());
+    };
+    // The scorer doesn't use the database, the services are only held by the contexts.
+    List<DatabaseService> dbServices = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      dbServices.add(new DatabaseService());
+    }
+    if (executor.equals("virtual")) {
+      scoringExecutor = new VirtualThreadScoringExecutor(scorer, dbServices, BURST);
+    } else {
+      scoringExecutor = new ScoringWorkerPool(scorer, dbServices, BURST, 1);
+    }
+    scoringExecutor.start();
+  }
+
+  @TearDown
+  public void tearDown() {
+    scoringExecutor.shutdown();
+  }
+
+  @Benchmark
+  public void scoreBurst() throws ServiceExecutionException, InterruptedException {
+    for (int i = 0; i < BURST; i++) {
+      scoringExecutor.submit(nextEntityID++);
+    }
+    scored.acquire(BURST);
+  }
+}
@@ -0,0 +1,126 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Looking up the entities sharing the features of an entity in RES_FEAT_EKEY, in an SQLite database on disk.
+ * Compares the JSON lookup with the primitive one, with and without the feature cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SharedFeatureLookupBenchmark {
+
+  private static final int LENS_ID = 1;
+  private static final int ENTITY_COUNT = 50000;
+  private static final int FEATURE_COUNT = 100000;
+  // Entities owning each feature, most features are owned by a single entity.
+  private static final int MAX_OWNERS = 3;
+  // Feature ID sets looked up in turn, so the lookups don't all hit the same rows.
+  private static final int LOOKUP_SETS = 64;
+
+  // Number of feature IDs of the scored entity.
+  @Param({ "10", "100", "1000" })
+  public int ids;
+
+  // The feature cache only serves findSharedFeatures.
+  @Param({ "false", "true" })
+  public boolean cached;
+
+  private File dbFile;
+  private DatabaseService dbService;
+  private List<List<Long>> lookups;
+  private int next;
+
+  @Setup
+  public void setup() throws IOException, SQLException {
+    dbFile = File.createTempFile("risk-score-benchmark-", ".db");
+    String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+    Random random = new Random(42);
+    try (Connection connection = DriverManager.getConnection(url)) {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("CREATE TABLE RES_FEAT_EKEY(LENS_ID SMALLINT, LIB_FEAT_ID BIGINT, UTYPE_CODE VARCHAR(50), RES_ENT_ID BIGINT)");
+        statement.execute("CREATE INDEX RES_FEAT_EKEY_FEAT ON RES_FEAT_EKEY(LIB_FEAT_ID, LENS_ID)");
+      }
+      connection.setAutoCommit(false);
+      try (PreparedStatement insert = connection.prepareStatement("INSERT INTO RES_FEAT_EKEY VALUES (?, ?, '', ?)")) {
+        for (long libFeatID = 1; libFeatID <= FEATURE_COUNT; libFeatID++) {
+          int owners = 1 + (random.nextInt(10) == 0 ? random.nextInt(MAX_OWNERS) : 0);
+          for (int i = 0; i < owners; i++) {
+            insert.setInt(1, LENS_ID);
+            insert.setLong(2, libFeatID);
+            insert.setLong(3, 1 + random.nextInt(ENTITY_COUNT));
+            insert.addBatch();
+          }
+        }
+        insert.executeBatch();
+      }
+      connection.commit();
+    }
+
+    lookups = new ArrayList<>(LOOKUP_SETS);
+    for (int i = 0; i < LOOKUP_SETS; i++) {
+      List<Long> featureIDs = new ArrayList<>(ids);
+      for (int j = 0; j < ids; j++) {
+        featureIDs.add(1L + random.nextInt(FEATURE_COUNT));
+      }
+      lookups.add(featureIDs);
+    }
+
+    dbService = new DatabaseService();
+    dbService.init(url);
+    if (cached) {
+      dbService.setFeatureCache(new FeatureEntityCache(LENS_ID, (long) FEATURE_COUNT * MAX_OWNERS, 0));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    dbService.close();
+    dbFile.delete();
+  }
+
+  @Benchmark
+  @SuppressWarnings("deprecation")
+  public String findEntitiesByFeatureIDs() throws ServiceExecutionException {
+    return dbService.findEntitiesByFeatureIDs(nextLookup(), 1, LENS_ID);
+  }
+
+  @Benchmark
+  public SharedFeatures findSharedFeatures() throws ServiceExecutionException {
+    return dbService.findSharedFeatures(nextLookup(), 1, LENS_ID);
+  }
+
+  private List<Long> nextLookup() {
+    next = (next + 1) % LOOKUP_SETS;
+    return lookups.get(next);
+  }
+}
@@ -0,0 +1,111 @@
+package com.senzing.calculator.scoring.risk.service.entity;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Collecting the features, data sources and relationships from getEntity documents of growing size, with both
+ * entity parsers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EntityExtractionBenchmark {
+
+  private static final String[] FEATURE_TYPES = { "NAME", "ADDRESS", "PHONE", "SSN", "DOB", "PASSPORT", "EMAIL" };
+  // The types the rules collect values for, the others are only counted.
+  private static final Set<String> COLLECTED = new HashSet<>(Arrays.asList("ADDRESS", "PHONE", "PASSPORT", "EMAIL"));
+
+  // Number of features in the entity. There is a record and a related entity for every 5 features.
+  @Param({ "10", "100", "1000" })
+  public int features;
+
+  @Param({ "dom", "streaming" })
+  public String parser;
+
+  private String entityJson;
+  private EntityExtractor extractor;
+
+  @Setup
+  public void setup() {
+    entityJson = buildEntity(features);
+    extractor = "dom".equals(parser) ? new DomEntityExtractor(COLLECTED) : new StreamingEntityExtractor(COLLECTED);
+  }
+
+  @Benchmark
+  public EntityData extract() {
+    return extractor.extract(entityJson);
+  }
+
+  // Builds a document shaped like the output of getEntity with full features and feature statistics.
+  private static String buildEntity(int featureCount) {
+    JsonObjectBuilder featureSection = Json.createObjectBuilder();
+    for (int t = 0; t < FEATURE_TYPES.length; t++) {
+      JsonArrayBuilder values = Json.createArrayBuilder();
+      for (int i = t; i < featureCount; i += FEATURE_TYPES.length) {
+        String description = FEATURE_TYPES[t] + " VALUE " + i;
+        values.add(Json.createObjectBuilder()
+            .add("FEAT_DESC", description)
+            .add("LIB_FEAT_ID", 1000 + i)
+            .add("UTYPE_CODE", i % 2 == 0 ? "PRIMARY" : "")
+            .add("FEAT_DESC_VALUES", Json.createArrayBuilder().add(Json.createObjectBuilder()
+                .add("FEAT_DESC", description)
+                .add("LIB_FEAT_ID", 1000 + i)
+                .add("USED_FOR_CAND", "Y")
+                .add("USED_FOR_SCORING", "Y")
+                .add("ENTITY_COUNT", 1 + i % 3)
+                .add("CANDIDATE_CAP_REACHED", "N")
+                .add("SCORING_CAP_REACHED", "N")
+                .add("SUPPRESSED", "N"))));
+      }
+      featureSection.add(FEATURE_TYPES[t], values);
+    }
+    int others = Math.max(1, featureCount / 5);
+    JsonArrayBuilder records = Json.createArrayBuilder();
+    JsonArrayBuilder relatedEntities = Json.createArrayBuilder();
+    for (int i = 0; i < others; i++) {
+      records.add(Json.createObjectBuilder()
+          .add("JSON_DATA", Json.createObjectBuilder().add("RECORD_ID", "R" + i))
+          .add("DATA_SOURCE", i % 2 == 0 ? "CUSTOMERS" : "WATCHLIST")
+          .add("ENTITY_TYPE", "PEOPLE"));
+      relatedEntities.add(Json.createObjectBuilder()
+          .add("ENTITY_ID", 2000 + i)
+          .add("LENS_CODE", "DEFAULT")
+          .add("MATCH_LEVEL", 3)
+          .add("MATCH_LEVEL_CODE", i % 3 == 0 ? "POSSIBLY_SAME" : "POSSIBLY_RELATED")
+          .add("MATCH_KEY", "+NAME+ADDRESS-DOB")
+          .add("IS_DISCLOSED", 0)
+          .add("IS_AMBIGUOUS", 0)
+          .add("ENTITY_NAME", "RELATED " + i));
+    }
+    return Json.createObjectBuilder()
+        .add("RESOLVED_ENTITY", Json.createObjectBuilder()
+            .add("ENTITY_ID", 1)
+            .add("LENS_CODE", "DEFAULT")
+            .add("FEATURES", featureSection)
+            .add("RECORDS", records))
+        .add("RELATED_ENTITIES", relatedEntities)
+        .build().toString();
+  }
+}
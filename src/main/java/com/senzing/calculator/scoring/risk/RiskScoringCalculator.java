@@ -1,22 +1,37 @@
 package com.senzing.calculator.scoring.risk;
 
 import java.io.StringReader;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.json.Json;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 
 import com.senzing.util.JsonUtilities;
 import com.senzing.listener.communication.ConsumerType;
 import com.senzing.listener.communication.MessageConsumer;
 import com.senzing.listener.communication.MessageConsumerFactory;
+import com.senzing.calculator.scoring.risk.consumer.RabbitMQBatchConsumer;
 import com.senzing.calculator.scoring.risk.data.CommandOptions;
 import com.senzing.calculator.scoring.risk.service.RiskScoringService;
+import com.senzing.calculator.scoring.risk.service.ScoringContext;
+import com.senzing.calculator.scoring.risk.service.rescore.BulkRescorer;
 
 public class RiskScoringCalculator {
 
+  private static final int DEFAULT_RESCORE_PARTITIONS = 64;
+  private static final int DEFAULT_RESCORE_PAGE_SIZE = 1000;
+  private static final int DEFAULT_RESCORE_LEASE_SECONDS = 300;
+
   public void run(String configText) throws Exception {
 
     JsonObject config = JsonUtilities.parseJsonObject(configText);
+    if (Boolean.parseBoolean(JsonUtilities.getString(config, CommandOptions.RESCORE, ""))) {
+      rescore(config);
+      return;
+    }
     String consumerType = JsonUtilities.getString(config, CommandOptions.CONSUMER_TYPE);
     if (consumerType == null || consumerType.isEmpty()) {
       consumerType = "RABBIT_MQ";
@@ -26,12 +41,70 @@ public class RiskScoringCalculator {
 
     service.init(config);
 
-    MessageConsumer consumer = MessageConsumerFactory.generateMessageConsumer(ConsumerType.valueOf(consumerType), config);
+    // RabbitMQ messages are acknowledged by the calculator's own consumer, once their scores are committed.
+    MessageConsumer consumer;
+    if (consumerType.equals("RABBIT_MQ")) {
+      consumer = RabbitMQBatchConsumer.fromConfig(config);
+    } else {
+      consumer = MessageConsumerFactory.generateMessageConsumer(ConsumerType.valueOf(consumerType), config);
+    }
     consumer.consume(service);
 
     while (service.isServiceUp()) {
       Thread.sleep(30000);
     }
+    consumer.destroy();
     service.destroy();
   }
+
+  /*
+   * Rescores all resolved entities on the scoring threads and returns when done.
+   */
+  private void rescore(JsonObject config) throws Exception {
+    int threads = getInteger(config, CommandOptions.SCORING_THREADS, 1);
+    int partitions = getInteger(config, CommandOptions.RESCORE_PARTITIONS, DEFAULT_RESCORE_PARTITIONS);
+    int pageSize = getInteger(config, CommandOptions.RESCORE_PAGE_SIZE, DEFAULT_RESCORE_PAGE_SIZE);
+    int leaseSeconds = getInteger(config, CommandOptions.RESCORE_LEASE_SECONDS, DEFAULT_RESCORE_LEASE_SECONDS);
+    if (threads < 1 || partitions < 1 || pageSize < 1 || leaseSeconds < 1) {
+      throw new IllegalArgumentException(CommandOptions.SCORING_THREADS + ", " + CommandOptions.RESCORE_PARTITIONS
+          + ", " + CommandOptions.RESCORE_PAGE_SIZE + " and " + CommandOptions.RESCORE_LEASE_SECONDS + " must be at least 1");
+    }
+    String instanceID = JsonUtilities.getString(config, CommandOptions.RESCORE_INSTANCE_ID, "");
+    if (instanceID.isEmpty()) {
+      instanceID = InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+    }
+
+    // The rescoring threads score and commit the entities themselves, so the service is set up without the worker
+    // pool, the coalescer and the writer thread, and with enough connections for the rescoring threads and for
+    // renewing their leases.
+    JsonObjectBuilder serviceConfig = Json.createObjectBuilder(config);
+    serviceConfig.add(CommandOptions.SCORING_THREADS, "1");
+    serviceConfig.add(CommandOptions.SCORING_EXECUTOR, "platform");
+    serviceConfig.add(CommandOptions.WRITE_QUEUE_SIZE, "0");
+    serviceConfig.add(CommandOptions.COALESCE_MILLIS, "0");
+    if (getInteger(config, CommandOptions.DB_POOL_MAX_SIZE, 0) == 0) {
+      serviceConfig.add(CommandOptions.DB_POOL_MAX_SIZE, String.valueOf(threads + 2));
+    }
+    RiskScoringService service = new RiskScoringService();
+    service.init(serviceConfig.build());
+
+    List<ScoringContext> contexts = new ArrayList<>();
+    try {
+      for (int i = 0; i < threads; i++) {
+        contexts.add(service.createScoringContext());
+      }
+      new BulkRescorer(service::rescoreEntities, contexts, service.getLensID(), partitions, pageSize, instanceID,
+          leaseSeconds * 1000L).run();
+    } finally {
+      for (ScoringContext context : contexts) {
+        context.getDbService().close();
+      }
+      service.destroy();
+    }
+  }
+
+  private static int getInteger(JsonObject config, String key, int defaultValue) {
+    String value = JsonUtilities.getString(config, key, "");
+    return value.isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+  }
 }
@@ -51,6 +51,38 @@ public class RiskScoringCalculatorApp {
       configValues.put(CommandOptions.JDBC_CONNECTION, config.getConfigValue(ConfigKeys.JDBC_CONNECTION));
       configValues.put(CommandOptions.TRUSTED_SOURCES, config.getConfigValue(ConfigKeys.TRUSTED_SOURCES));
       configValues.put(CommandOptions.QUERY_RISK_CRITERIA, config.getConfigValue(ConfigKeys.QUERY_RISK_CRITERIA));
+      configValues.put(CommandOptions.SCORING_THREADS, config.getConfigValue(ConfigKeys.SCORING_THREADS));
+      configValues.put(CommandOptions.SCORING_QUEUE_SIZE, config.getConfigValue(ConfigKeys.SCORING_QUEUE_SIZE));
+      configValues.put(CommandOptions.WRITE_BATCH_SIZE, config.getConfigValue(ConfigKeys.WRITE_BATCH_SIZE));
+      configValues.put(CommandOptions.WRITE_BATCH_MILLIS, config.getConfigValue(ConfigKeys.WRITE_BATCH_MILLIS));
+      configValues.put(CommandOptions.WRITE_QUEUE_SIZE, config.getConfigValue(ConfigKeys.WRITE_QUEUE_SIZE));
+      configValues.put(CommandOptions.COALESCE_MILLIS, config.getConfigValue(ConfigKeys.COALESCE_MILLIS));
+      configValues.put(CommandOptions.COALESCE_MAX_PENDING, config.getConfigValue(ConfigKeys.COALESCE_MAX_PENDING));
+      configValues.put(CommandOptions.ENTITY_PARSER, config.getConfigValue(ConfigKeys.ENTITY_PARSER));
+      configValues.put(CommandOptions.SCORING_BATCH_SIZE, config.getConfigValue(ConfigKeys.SCORING_BATCH_SIZE));
+      configValues.put(CommandOptions.FEATURE_CACHE_SIZE, config.getConfigValue(ConfigKeys.FEATURE_CACHE_SIZE));
+      configValues.put(CommandOptions.FEATURE_CACHE_TTL_MILLIS, config.getConfigValue(ConfigKeys.FEATURE_CACHE_TTL_MILLIS));
+      configValues.put(CommandOptions.IN_CLAUSE_BUCKETS, config.getConfigValue(ConfigKeys.IN_CLAUSE_BUCKETS));
+      configValues.put(CommandOptions.DB_POOL_MIN_SIZE, config.getConfigValue(ConfigKeys.DB_POOL_MIN_SIZE));
+      configValues.put(CommandOptions.DB_POOL_MAX_SIZE, config.getConfigValue(ConfigKeys.DB_POOL_MAX_SIZE));
+      configValues.put(CommandOptions.DB_POOL_MAX_WAIT_MILLIS, config.getConfigValue(ConfigKeys.DB_POOL_MAX_WAIT_MILLIS));
+      configValues.put(CommandOptions.MATCH_KEY_CACHE_SIZE, config.getConfigValue(ConfigKeys.MATCH_KEY_CACHE_SIZE));
+      configValues.put(CommandOptions.SCHEMA_VERSION, config.getConfigValue(ConfigKeys.SCHEMA_VERSION));
+      configValues.put(CommandOptions.METRICS_PORT, config.getConfigValue(ConfigKeys.METRICS_PORT));
+      configValues.put(CommandOptions.HEALTH_MAX_LAG_MILLIS, config.getConfigValue(ConfigKeys.HEALTH_MAX_LAG_MILLIS));
+      configValues.put(CommandOptions.RESCORE_PARTITIONS, config.getConfigValue(ConfigKeys.RESCORE_PARTITIONS));
+      configValues.put(CommandOptions.RESCORE_PAGE_SIZE, config.getConfigValue(ConfigKeys.RESCORE_PAGE_SIZE));
+      configValues.put(CommandOptions.RESCORE_INSTANCE_ID, config.getConfigValue(ConfigKeys.RESCORE_INSTANCE_ID));
+      configValues.put(CommandOptions.RESCORE_LEASE_SECONDS, config.getConfigValue(ConfigKeys.RESCORE_LEASE_SECONDS));
+      configValues.put(CommandOptions.SCORE_FINGERPRINT_CACHE_SIZE, config.getConfigValue(ConfigKeys.SCORE_FINGERPRINT_CACHE_SIZE));
+      configValues.put(CommandOptions.SCORING_EXECUTOR, config.getConfigValue(ConfigKeys.SCORING_EXECUTOR));
+      configValues.put(CommandOptions.G2_CONCURRENCY, config.getConfigValue(ConfigKeys.G2_CONCURRENCY));
+      configValues.put(CommandOptions.PREFETCH_DEPTH, config.getConfigValue(ConfigKeys.PREFETCH_DEPTH));
+      configValues.put(CommandOptions.PREFETCH_MAX_MEGABYTES, config.getConfigValue(ConfigKeys.PREFETCH_MAX_MEGABYTES));
+      configValues.put(CommandOptions.MQ_PREFETCH, config.getConfigValue(ConfigKeys.RABBITMQ_PREFETCH));
+      configValues.put(CommandOptions.MQ_ACK_BATCH_SIZE, config.getConfigValue(ConfigKeys.RABBITMQ_ACK_BATCH_SIZE));
+      configValues.put(CommandOptions.MQ_ACK_MILLIS, config.getConfigValue(ConfigKeys.RABBITMQ_ACK_MILLIS));
+      configValues.put(CommandOptions.VIRTUAL_CONCURRENCY, config.getConfigValue(ConfigKeys.VIRTUAL_CONCURRENCY));
       configValues.put(RabbitMQConsumer.MQ_HOST_KEY, config.getConfigValue(ConfigKeys.RABBITMQ_HOST));
       configValues.put(RabbitMQConsumer.MQ_QUEUE_KEY, config.getConfigValue(ConfigKeys.RABBITMQ_NAME));
       configValues.put(RabbitMQConsumer.MQ_USER_KEY, config.getConfigValue(ConfigKeys.RABBITMQ_USER_NAME));
@@ -72,6 +104,39 @@ public class RiskScoringCalculatorApp {
     // Scoring options
     options.addOption(CommandOptions.TRUSTED_SOURCES, true, "List of trusted sources used for scoring");
     options.addOption(CommandOptions.QUERY_RISK_CRITERIA, true, "List of query risk scoring criteria");
+    options.addOption(CommandOptions.SCORING_THREADS, true, "Number of threads scoring entities concurrently");
+    options.addOption(CommandOptions.SCORING_QUEUE_SIZE, true, "Maximum number of entities waiting per scoring thread");
+    options.addOption(CommandOptions.WRITE_BATCH_SIZE, true, "Number of risk scores committed together");
+    options.addOption(CommandOptions.WRITE_BATCH_MILLIS, true, "Maximum milliseconds a risk score waits before being committed");
+    options.addOption(CommandOptions.WRITE_QUEUE_SIZE, true, "Maximum number of risk scores waiting for the writer thread");
+    options.addOption(CommandOptions.COALESCE_MILLIS, true, "Milliseconds an affected entity is held to coalesce repeats");
+    options.addOption(CommandOptions.COALESCE_MAX_PENDING, true, "Maximum number of entities held for coalescing");
+    options.addOption(CommandOptions.ENTITY_PARSER, true, "How G2 entity documents are read: dom or streaming");
+    options.addOption(CommandOptions.SCORING_BATCH_SIZE, true, "Maximum number of entities whose shared features are looked up together");
+    options.addOption(CommandOptions.FEATURE_CACHE_SIZE, true, "Maximum number of feature to entity links cached, 0 for no cache");
+    options.addOption(CommandOptions.FEATURE_CACHE_TTL_MILLIS, true, "Milliseconds a cached feature is used before it is looked up again");
+    options.addOption(CommandOptions.IN_CLAUSE_BUCKETS, true, "Comma separated IN list sizes for feature lookups");
+    options.addOption(CommandOptions.DB_POOL_MIN_SIZE, true, "Number of database connections kept open");
+    options.addOption(CommandOptions.DB_POOL_MAX_SIZE, true, "Maximum number of database connections");
+    options.addOption(CommandOptions.DB_POOL_MAX_WAIT_MILLIS, true, "Milliseconds to wait for a database connection");
+    options.addOption(CommandOptions.MATCH_KEY_CACHE_SIZE, true, "Maximum number of match keys cached");
+    options.addOption(CommandOptions.SCHEMA_VERSION, true, "Version of the RES_RISK_SCORE schema, 2, 3 or 4");
+    options.addOption(CommandOptions.METRICS_PORT, true, "Port of the HTTP server for /metrics and /health, 0 for none");
+    options.addOption(CommandOptions.HEALTH_MAX_LAG_MILLIS, true, "Milliseconds without progress before /health fails");
+    options.addOption(CommandOptions.RESCORE, false, "Rescore all resolved entities instead of reading the queue");
+    options.addOption(CommandOptions.RESCORE_PARTITIONS, true, "Number of entity ID ranges a rescoring is split into");
+    options.addOption(CommandOptions.RESCORE_PAGE_SIZE, true, "Number of entities rescored between checkpoints");
+    options.addOption(CommandOptions.RESCORE_INSTANCE_ID, true, "ID of this instance among the instances rescoring together");
+    options.addOption(CommandOptions.RESCORE_LEASE_SECONDS, true, "Seconds a rescoring partition stays leased to an instance which stopped");
+    options.addOption(CommandOptions.SCORE_FINGERPRINT_CACHE_SIZE, true, "Number of entities whose score fingerprint is kept to skip unchanged scores, 0 to write all");
+    options.addOption(CommandOptions.SCORING_EXECUTOR, true, "What the entities are scored on: platform or virtual threads");
+    options.addOption(CommandOptions.G2_CONCURRENCY, true, "Maximum number of G2 calls made at once with virtual threads");
+    options.addOption(CommandOptions.PREFETCH_DEPTH, true, "Number of entities whose G2 document is fetched ahead of scoring, 0 for none");
+    options.addOption(CommandOptions.PREFETCH_MAX_MEGABYTES, true, "Maximum size in megabytes of the G2 documents fetched ahead");
+    options.addOption(CommandOptions.MQ_PREFETCH, true, "Maximum number of RabbitMQ messages delivered but not acknowledged yet");
+    options.addOption(CommandOptions.MQ_ACK_BATCH_SIZE, true, "Number of RabbitMQ messages acknowledged at once");
+    options.addOption(CommandOptions.MQ_ACK_MILLIS, true, "Maximum time in milliseconds a processed RabbitMQ message waits to be acknowledged");
+    options.addOption(CommandOptions.VIRTUAL_CONCURRENCY, true, "Maximum number of entities scored at once on virtual threads");
     // Options for consumer.
     options.addOption(RabbitMQConsumer.MQ_HOST_KEY, true, "Host for RabbitMQ");
     options.addOption(RabbitMQConsumer.MQ_USER_KEY, true, "User name for RabbitMQ");
@@ -86,6 +151,41 @@ public class RiskScoringCalculatorApp {
     addCommandLineValue(commandLine, CommandOptions.JDBC_CONNECTION);
     addCommandLineValue(commandLine, CommandOptions.TRUSTED_SOURCES);
     addCommandLineValue(commandLine, CommandOptions.QUERY_RISK_CRITERIA);
+    addCommandLineValue(commandLine, CommandOptions.SCORING_THREADS);
+    addCommandLineValue(commandLine, CommandOptions.SCORING_QUEUE_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.WRITE_BATCH_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.WRITE_BATCH_MILLIS);
+    addCommandLineValue(commandLine, CommandOptions.WRITE_QUEUE_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.COALESCE_MILLIS);
+    addCommandLineValue(commandLine, CommandOptions.COALESCE_MAX_PENDING);
+    addCommandLineValue(commandLine, CommandOptions.ENTITY_PARSER);
+    addCommandLineValue(commandLine, CommandOptions.SCORING_BATCH_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.FEATURE_CACHE_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.FEATURE_CACHE_TTL_MILLIS);
+    addCommandLineValue(commandLine, CommandOptions.IN_CLAUSE_BUCKETS);
+    addCommandLineValue(commandLine, CommandOptions.DB_POOL_MIN_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.DB_POOL_MAX_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.DB_POOL_MAX_WAIT_MILLIS);
+    addCommandLineValue(commandLine, CommandOptions.MATCH_KEY_CACHE_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.SCHEMA_VERSION);
+    addCommandLineValue(commandLine, CommandOptions.METRICS_PORT);
+    addCommandLineValue(commandLine, CommandOptions.HEALTH_MAX_LAG_MILLIS);
+    if (commandLine.hasOption(CommandOptions.RESCORE)) {
+      configValues.put(CommandOptions.RESCORE, Boolean.TRUE.toString());
+    }
+    addCommandLineValue(commandLine, CommandOptions.RESCORE_PARTITIONS);
+    addCommandLineValue(commandLine, CommandOptions.RESCORE_PAGE_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.RESCORE_INSTANCE_ID);
+    addCommandLineValue(commandLine, CommandOptions.RESCORE_LEASE_SECONDS);
+    addCommandLineValue(commandLine, CommandOptions.SCORE_FINGERPRINT_CACHE_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.SCORING_EXECUTOR);
+    addCommandLineValue(commandLine, CommandOptions.G2_CONCURRENCY);
+    addCommandLineValue(commandLine, CommandOptions.PREFETCH_DEPTH);
+    addCommandLineValue(commandLine, CommandOptions.PREFETCH_MAX_MEGABYTES);
+    addCommandLineValue(commandLine, CommandOptions.MQ_PREFETCH);
+    addCommandLineValue(commandLine, CommandOptions.MQ_ACK_BATCH_SIZE);
+    addCommandLineValue(commandLine, CommandOptions.MQ_ACK_MILLIS);
+    addCommandLineValue(commandLine, CommandOptions.VIRTUAL_CONCURRENCY);
     addCommandLineValue(commandLine, RabbitMQConsumer.MQ_HOST_KEY);
     addCommandLineValue(commandLine, RabbitMQConsumer.MQ_USER_KEY);
     addCommandLineValue(commandLine, RabbitMQConsumer.MQ_PASSWORD_KEY);
@@ -102,8 +202,11 @@ public class RiskScoringCalculatorApp {
     List<String> unsetParameters = new ArrayList<>();
     checkParameter(unsetParameters, CommandOptions.INI_FILE);
     checkParameter(unsetParameters, CommandOptions.JDBC_CONNECTION);
-    checkParameter(unsetParameters, RabbitMQConsumer.MQ_HOST_KEY);
-    checkParameter(unsetParameters, RabbitMQConsumer.MQ_QUEUE_KEY);
+    // Rescoring doesn't read the queue.
+    if (!configValues.containsKey(CommandOptions.RESCORE)) {
+      checkParameter(unsetParameters, RabbitMQConsumer.MQ_HOST_KEY);
+      checkParameter(unsetParameters, RabbitMQConsumer.MQ_QUEUE_KEY);
+    }
 
     if (!unsetParameters.isEmpty()) {
       System.out.println("No configuration found for parameters: " + String.join(", ", unsetParameters));
@@ -141,6 +244,39 @@ public class RiskScoringCalculatorApp {
     System.out.println("                                                          [-mqPassword <queue server password>]");
     System.out.println("                                                          [-trustedSources <comma separated list of trusted sources used for scoring>]");
     System.out.println("                                                          [-queryRiskCriteria <list of query risk criteria. See below at *>]");
+    System.out.println("                                                          [-scoringThreads <number of threads scoring entities, default 1>]");
+    System.out.println("                                                          [-scoringQueueSize <entities waiting per scoring thread, default 1000>]");
+    System.out.println("                                                          [-writeBatchSize <rows per commit, default 1>]");
+    System.out.println("                                                          [-writeBatchMillis <milliseconds before a partial batch is committed, default 1000>]");
+    System.out.println("                                                          [-writeQueueSize <scores waiting for the writer thread, default 0 (no writer thread)>]");
+    System.out.println("                                                          [-coalesceMillis <milliseconds affected entities are held to coalesce repeats, default 0>]");
+    System.out.println("                                                          [-coalesceMaxPending <entities held for coalescing, default 10000>]");
+    System.out.println("                                                          [-entityParser <dom or streaming, default dom>]");
+    System.out.println("                                                          [-scoringBatchSize <entities looked up together, default 1>]");
+    System.out.println("                                                          [-featureCacheSize <feature to entity links cached, default 0 (no cache)>]");
+    System.out.println("                                                          [-featureCacheTtlMillis <milliseconds a cached feature is used, default 60000>]");
+    System.out.println("                                                          [-inClauseBuckets <comma separated IN list sizes, default 1,2,4,8,16,32,64>]");
+    System.out.println("                                                          [-dbPoolMinSize <number of connections kept open, default 1>]");
+    System.out.println("                                                          [-dbPoolMaxSize <maximum number of connections, default scoring threads plus 2>]");
+    System.out.println("                                                          [-dbPoolMaxWaitMillis <milliseconds to wait for a connection, default 30000>]");
+    System.out.println("                                                          [-matchKeyCacheSize <number of match keys cached, default 10000>]");
+    System.out.println("                                                          [-schemaVersion <RES_RISK_SCORE schema version, 2, 3 or 4, default 2>]");
+    System.out.println("                                                          [-metricsPort <port for /metrics and /health, default 0, no server>]");
+    System.out.println("                                                          [-healthMaxLagMillis <milliseconds without progress before unhealthy, default 60000>]");
+    System.out.println("                                                          [-rescore (rescores all resolved entities and exits, no queue is read)]");
+    System.out.println("                                                          [-rescorePartitions <number of ID ranges rescored, default 64>]");
+    System.out.println("                                                          [-rescorePageSize <entities between checkpoints, default 1000>]");
+    System.out.println("                                                          [-rescoreInstanceId <ID of this rescoring instance, default host name and process ID>]");
+    System.out.println("                                                          [-rescoreLeaseSeconds <seconds before the partitions of a stopped instance are taken over, default 300>]");
+    System.out.println("                                                          [-scoreFingerprintCacheSize <entities whose score fingerprint is kept, default 0 (every score written)>]");
+    System.out.println("                                                          [-scoringExecutor <platform or virtual, default platform>]");
+    System.out.println("                                                          [-g2Concurrency <number, default the number of processors>]");
+    System.out.println("                                                          [-prefetchDepth <entities fetched ahead, default 0 (none)>]");
+    System.out.println("                                                          [-prefetchMaxMegabytes <megabytes, default 64>]");
+    System.out.println("                                                          [-mqPrefetch <unacknowledged messages, default 200>]");
+    System.out.println("                                                          [-mqAckBatchSize <messages per ack, default 100>]");
+    System.out.println("                                                          [-mqAckMillis <milliseconds, default 1000>]");
+    System.out.println("                                                          [-virtualConcurrency <entities scored at once, default 64>]");
     System.out.println("");
     System.out.println("* Example of queryRiskCriteria: +NAME+DOB:R;+NAME+ADDRESS:Y;+NAME+PHONE:Y;+NAME+SSN:R");
     System.out.println("");
@@ -10,4 +10,36 @@ public class ConfigKeys {
   public static final String CONSUMER_TYPE = "riskscorer.consumer.type";
   public static final String TRUSTED_SOURCES = "riskscorer.scoring.sources.trusted";
   public static final String QUERY_RISK_CRITERIA = "riskscorer.scoring.query.risk.criteria";
+  public static final String SCORING_THREADS = "riskscorer.scoring.threads";
+  public static final String SCORING_QUEUE_SIZE = "riskscorer.scoring.queue.size";
+  public static final String WRITE_BATCH_SIZE = "riskscorer.db.write.batch.size";
+  public static final String WRITE_BATCH_MILLIS = "riskscorer.db.write.batch.millis";
+  public static final String WRITE_QUEUE_SIZE = "riskscorer.db.write.queue.size";
+  public static final String COALESCE_MILLIS = "riskscorer.scoring.coalesce.millis";
+  public static final String COALESCE_MAX_PENDING = "riskscorer.scoring.coalesce.max.pending";
+  public static final String ENTITY_PARSER = "riskscorer.scoring.entity.parser";
+  public static final String SCORING_BATCH_SIZE = "riskscorer.scoring.batch.size";
+  public static final String FEATURE_CACHE_SIZE = "riskscorer.scoring.feature.cache.size";
+  public static final String FEATURE_CACHE_TTL_MILLIS = "riskscorer.scoring.feature.cache.ttl.millis";
+  public static final String IN_CLAUSE_BUCKETS = "riskscorer.db.in.clause.buckets";
+  public static final String DB_POOL_MIN_SIZE = "riskscorer.db.pool.min.size";
+  public static final String DB_POOL_MAX_SIZE = "riskscorer.db.pool.max.size";
+  public static final String DB_POOL_MAX_WAIT_MILLIS = "riskscorer.db.pool.max.wait.millis";
+  public static final String MATCH_KEY_CACHE_SIZE = "riskscorer.scoring.match.key.cache.size";
+  public static final String SCHEMA_VERSION = "riskscorer.db.schema.version";
+  public static final String METRICS_PORT = "riskscorer.metrics.port";
+  public static final String HEALTH_MAX_LAG_MILLIS = "riskscorer.health.max.lag.millis";
+  public static final String RESCORE_PARTITIONS = "riskscorer.rescore.partitions";
+  public static final String RESCORE_PAGE_SIZE = "riskscorer.rescore.page.size";
+  public static final String RESCORE_INSTANCE_ID = "riskscorer.rescore.instance.id";
+  public static final String RESCORE_LEASE_SECONDS = "riskscorer.rescore.lease.seconds";
+  public static final String SCORE_FINGERPRINT_CACHE_SIZE = "riskscorer.score.fingerprint.cache.size";
+  public static final String SCORING_EXECUTOR = "riskscorer.scoring.executor";
+  public static final String G2_CONCURRENCY = "riskscorer.g2.concurrency";
+  public static final String PREFETCH_DEPTH = "riskscorer.prefetch.depth";
+  public static final String PREFETCH_MAX_MEGABYTES = "riskscorer.prefetch.max.megabytes";
+  public static final String RABBITMQ_PREFETCH = "riskscorer.rabbitmq.prefetch";
+  public static final String RABBITMQ_ACK_BATCH_SIZE = "riskscorer.rabbitmq.ack.batch.size";
+  public static final String RABBITMQ_ACK_MILLIS = "riskscorer.rabbitmq.ack.millis";
+  public static final String VIRTUAL_CONCURRENCY = "riskscorer.virtual.concurrency";
 }
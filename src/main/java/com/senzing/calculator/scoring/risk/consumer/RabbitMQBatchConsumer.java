@@ -0,0 +1,255 @@
+package com.senzing.calculator.scoring.risk.consumer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.json.JsonObject;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import com.senzing.calculator.scoring.risk.data.CommandOptions;
+import com.senzing.calculator.scoring.risk.service.CommittingListenerService;
+import com.senzing.listener.communication.MessageConsumer;
+import com.senzing.listener.communication.rabbitmq.RabbitMQConsumer;
+import com.senzing.listener.service.ListenerService;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+import com.senzing.util.JsonUtilities;
+
+/**
+ * Consumes a RabbitMQ queue and acknowledges the messages only once the scores of their entities are committed,
+ * so a message is never lost when the calculator stops or the database fails after it was received.
+ *
+ * The broker delivers up to the prefetch count of messages not acknowledged yet.  They are processed in delivery
+ * order on a thread of the consumer, and once the ack batch size of them were processed, or the oldest of them
+ * has waited the ack interval, the service is flushed and all of them are acknowledged with one multiple ack.
+ * If the flush fails they are requeued.  A batch made only of redelivered messages is rejected without requeueing
+ * instead, to the dead letter exchange of the queue if it has one, so messages which can't be scored don't circle
+ * forever.  A message whose processing fails is settled the same way on its own, once the messages before it are
+ * acknowledged.
+ */
+public class RabbitMQBatchConsumer implements MessageConsumer {
+
+  public static final int DEFAULT_PREFETCH = 200;
+  public static final int DEFAULT_ACK_BATCH_SIZE = 100;
+  public static final long DEFAULT_ACK_MILLIS = 1000;
+
+  // Queued ahead of the deliveries to stop the processing thread.
+  private static final Delivery STOP_SIGNAL = new Delivery(null, null, null);
+
+  private final ConnectionFactory connectionFactory;
+  private final String queueName;
+  private final int prefetchCount;
+  private final int ackBatchSize;
+  private final long ackMillis;
+  // Handed over by the connection thread, bounded by the prefetch count.
+  private final BlockingDeque<Delivery> deliveries = new LinkedBlockingDeque<>();
+  private final Thread processingThread;
+  private CommittingListenerService service;
+  private Connection connection;
+  private Channel channel;
+  // Messages processed and not acknowledged yet, used by the processing thread only.
+  private int unackedCount;
+  private long lastUnackedTag;
+  private long firstUnackedTime;
+  private boolean allRedelivered;
+
+  /**
+   * Creates the consumer.
+   *
+   * @param connectionFactory Connects to the broker
+   * @param queueName Name of the queue consumed
+   * @param prefetchCount Maximum number of messages delivered and not acknowledged yet
+   * @param ackBatchSize Number of messages acknowledged at once, at most the prefetch count
+   * @param ackMillis Maximum time a processed message waits to be acknowledged
+   */
+  public RabbitMQBatchConsumer(ConnectionFactory connectionFactory, String queueName, int prefetchCount,
+      int ackBatchSize, long ackMillis) {
+    if (prefetchCount < 1 || ackBatchSize < 1 || ackMillis < 1) {
+      throw new IllegalArgumentException("Prefetch, ack batch size and ack interval must be at least 1, they were "
+          + prefetchCount + ", " + ackBatchSize + " and " + ackMillis);
+    }
+    if (ackBatchSize > prefetchCount) {
+      throw new IllegalArgumentException("Ack batch size " + ackBatchSize + " is larger than the prefetch "
+          + prefetchCount + ", the broker would stop delivering before a batch is full");
+    }
+    this.connectionFactory = connectionFactory;
+    this.queueName = queueName;
+    this.prefetchCount = prefetchCount;
+    this.ackBatchSize = ackBatchSize;
+    this.ackMillis = ackMillis;
+    this.processingThread = new Thread(this::run, "risk-mq-consumer");
+  }
+
+  /**
+   * Creates the consumer from the configuration of the calculator.
+   *
+   * @param config The RabbitMQ host, queue and credentials, and optionally the prefetch and ack settings
+   *
+   * @return The consumer
+   */
+  public static RabbitMQBatchConsumer fromConfig(JsonObject config) {
+    ConnectionFactory connectionFactory = new ConnectionFactory();
+    connectionFactory.setHost(JsonUtilities.getString(config, RabbitMQConsumer.MQ_HOST_KEY));
+    String userName = JsonUtilities.getString(config, RabbitMQConsumer.MQ_USER_KEY, "");
+    if (!userName.isEmpty()) {
+      connectionFactory.setUsername(userName);
+      connectionFactory.setPassword(JsonUtilities.getString(config, RabbitMQConsumer.MQ_PASSWORD_KEY, ""));
+    }
+    return new RabbitMQBatchConsumer(connectionFactory, JsonUtilities.getString(config, RabbitMQConsumer.MQ_QUEUE_KEY),
+        (int) getLong(config, CommandOptions.MQ_PREFETCH, DEFAULT_PREFETCH),
+        (int) getLong(config, CommandOptions.MQ_ACK_BATCH_SIZE, DEFAULT_ACK_BATCH_SIZE),
+        getLong(config, CommandOptions.MQ_ACK_MILLIS, DEFAULT_ACK_MILLIS));
+  }
+
+  /**
+   * Connects to the broker and starts handing the messages to the service.
+   *
+   * @param service The service processing the messages, it has to be a {@link CommittingListenerService}
+   */
+  @Override
+  public void consume(ListenerService service) throws IOException, TimeoutException {
+    if (!(service instanceof CommittingListenerService)) {
+      throw new IllegalArgumentException("Messages can only be acknowledged after commit with a "
+          + CommittingListenerService.class.getSimpleName());
+    }
+    this.service = (CommittingListenerService) service;
+    connection = connectionFactory.newConnection();
+    channel = connection.createChannel();
+    channel.basicQos(prefetchCount);
+    processingThread.start();
+    channel.basicConsume(queueName, false, new DefaultConsumer(channel) {
+      @Override
+      public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+        deliveries.add(new Delivery(envelope, properties, body));
+      }
+    });
+  }
+
+  /**
+   * Stops once the message being processed is done, acknowledges what was processed and closes the connection.
+   * Messages delivered but not processed are requeued by the broker.
+   */
+  @Override
+  public void destroy() {
+    if (processingThread.isAlive()) {
+      deliveries.addFirst(STOP_SIGNAL);
+      try {
+        processingThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    try {
+      if (channel != null && channel.isOpen()) {
+        channel.close();
+      }
+      if (connection != null && connection.isOpen()) {
+        connection.close();
+      }
+    } catch (IOException | TimeoutException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void run() {
+    while (true) {
+      Delivery delivery;
+      try {
+        delivery = deliveries.poll(millisUntilAck(), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        break;
+      }
+      if (delivery == STOP_SIGNAL) {
+        break;
+      }
+      if (delivery != null) {
+        process(delivery);
+      }
+      if (unackedCount >= ackBatchSize
+          || (unackedCount > 0 && System.currentTimeMillis() - firstUnackedTime >= ackMillis)) {
+        acknowledge();
+      }
+    }
+    if (unackedCount > 0) {
+      acknowledge();
+    }
+  }
+
+  private long millisUntilAck() {
+    if (unackedCount == 0) {
+      return ackMillis;
+    }
+    return Math.max(1, firstUnackedTime + ackMillis - System.currentTimeMillis());
+  }
+
+  private void process(Delivery delivery) {
+    Envelope envelope = delivery.getEnvelope();
+    try {
+      service.process(JsonUtilities.parseJsonObject(new String(delivery.getBody(), StandardCharsets.UTF_8)));
+    } catch (ServiceExecutionException | RuntimeException e) {
+      System.err.println("Failed to process message " + envelope.getDeliveryTag());
+      e.printStackTrace();
+      if (unackedCount > 0) {
+        acknowledge();
+      }
+      reject(envelope.getDeliveryTag(), false, envelope.isRedeliver());
+      return;
+    }
+    if (unackedCount == 0) {
+      firstUnackedTime = System.currentTimeMillis();
+      allRedelivered = true;
+    }
+    unackedCount++;
+    lastUnackedTag = envelope.getDeliveryTag();
+    allRedelivered &= envelope.isRedeliver();
+  }
+
+  /**
+   * Commits the scores of the messages processed so far and acknowledges them, or rejects them if the commit
+   * failed.
+   */
+  private void acknowledge() {
+    boolean committed;
+    try {
+      service.flush();
+      committed = true;
+    } catch (ServiceExecutionException | RuntimeException e) {
+      System.err.println("Failed to commit the scores of " + unackedCount + " messages");
+      e.printStackTrace();
+      committed = false;
+    }
+    try {
+      if (committed) {
+        channel.basicAck(lastUnackedTag, true);
+      } else {
+        reject(lastUnackedTag, true, allRedelivered);
+      }
+    } catch (IOException e) {
+      // The broker requeues the messages once the channel is gone.
+      e.printStackTrace();
+    }
+    unackedCount = 0;
+  }
+
+  private void reject(long deliveryTag, boolean multiple, boolean redelivered) {
+    try {
+      channel.basicNack(deliveryTag, multiple, !redelivered);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static long getLong(JsonObject config, String key, long defaultValue) {
+    String value = JsonUtilities.getString(config, key, "");
+    return value.isEmpty() ? defaultValue : Long.parseLong(value);
+  }
+}
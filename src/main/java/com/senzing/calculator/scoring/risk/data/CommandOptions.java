@@ -6,4 +6,37 @@ public class CommandOptions {
   public static final String TRUSTED_SOURCES = "trustedSources";
   public static final String QUERY_RISK_CRITERIA = "queryRiskCriteria";
   public static final String CONSUMER_TYPE = "mqType";
+  public static final String SCORING_THREADS = "scoringThreads";
+  public static final String SCORING_QUEUE_SIZE = "scoringQueueSize";
+  public static final String WRITE_BATCH_SIZE = "writeBatchSize";
+  public static final String WRITE_BATCH_MILLIS = "writeBatchMillis";
+  public static final String WRITE_QUEUE_SIZE = "writeQueueSize";
+  public static final String COALESCE_MILLIS = "coalesceMillis";
+  public static final String COALESCE_MAX_PENDING = "coalesceMaxPending";
+  public static final String ENTITY_PARSER = "entityParser";
+  public static final String SCORING_BATCH_SIZE = "scoringBatchSize";
+  public static final String FEATURE_CACHE_SIZE = "featureCacheSize";
+  public static final String FEATURE_CACHE_TTL_MILLIS = "featureCacheTtlMillis";
+  public static final String IN_CLAUSE_BUCKETS = "inClauseBuckets";
+  public static final String DB_POOL_MIN_SIZE = "dbPoolMinSize";
+  public static final String DB_POOL_MAX_SIZE = "dbPoolMaxSize";
+  public static final String DB_POOL_MAX_WAIT_MILLIS = "dbPoolMaxWaitMillis";
+  public static final String MATCH_KEY_CACHE_SIZE = "matchKeyCacheSize";
+  public static final String SCHEMA_VERSION = "schemaVersion";
+  public static final String METRICS_PORT = "metricsPort";
+  public static final String HEALTH_MAX_LAG_MILLIS = "healthMaxLagMillis";
+  public static final String RESCORE = "rescore";
+  public static final String RESCORE_PARTITIONS = "rescorePartitions";
+  public static final String RESCORE_PAGE_SIZE = "rescorePageSize";
+  public static final String RESCORE_INSTANCE_ID = "rescoreInstanceId";
+  public static final String RESCORE_LEASE_SECONDS = "rescoreLeaseSeconds";
+  public static final String SCORE_FINGERPRINT_CACHE_SIZE = "scoreFingerprintCacheSize";
+  public static final String SCORING_EXECUTOR = "scoringExecutor";
+  public static final String G2_CONCURRENCY = "g2Concurrency";
+  public static final String PREFETCH_DEPTH = "prefetchDepth";
+  public static final String PREFETCH_MAX_MEGABYTES = "prefetchMaxMegabytes";
+  public static final String MQ_PREFETCH = "mqPrefetch";
+  public static final String MQ_ACK_BATCH_SIZE = "mqAckBatchSize";
+  public static final String MQ_ACK_MILLIS = "mqAckMillis";
+  public static final String VIRTUAL_CONCURRENCY = "virtualConcurrency";
 }
@@ -0,0 +1,18 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import com.senzing.listener.service.ListenerService;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * A listener service which finishes the work of the messages in the background, and can tell when it is committed
+ * so the messages can be acknowledged.
+ */
+public interface CommittingListenerService extends ListenerService {
+
+  /**
+   * Returns once the work of all the messages processed so far is committed.
+   *
+   * @throws ServiceExecutionException If the work of some of the messages failed since the last flush
+   */
+  void flush() throws ServiceExecutionException;
+}
@@ -0,0 +1,195 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Holds affected entity IDs for a short window before they are scored.  If the same entity is affected again
+ * while it is waiting, the repeat is dropped since the one scoring pass happens after all of the changes.
+ * Entities are released in the order they first arrived.
+ */
+public class EntityCoalescer {
+
+  /**
+   * Receives the entities once their window has passed.  Entities released at the same time are
+   * handed over together, in arrival order.
+   */
+  public interface EntitySink {
+    void accept(List<Long> entityIDs) throws ServiceExecutionException;
+  }
+
+  private final EntitySink sink;
+  private final long windowMillis;
+  private final int maxPending;
+  // Entity ID to the time it arrived, in arrival order.
+  private final LinkedHashMap<Long, Long> pending = new LinkedHashMap<>();
+  private final Thread releaseThread;
+  private boolean stopping;
+  // Set to release everything held, and while what was released is handed over.
+  private boolean flushing;
+  private boolean releasing;
+  private long receivedCount;
+  private long coalescedCount;
+
+  /**
+   * Creates the coalescer.
+   *
+   * @param sink Receives the entities to be scored
+   * @param windowMillis Time an entity is held, in milliseconds, before it is released for scoring
+   * @param maxPending Maximum number of entities held.  When reached, the oldest are released early.
+   */
+  public EntityCoalescer(EntitySink sink, long windowMillis, int maxPending) {
+    this.sink = sink;
+    this.windowMillis = windowMillis;
+    this.maxPending = Math.max(1, maxPending);
+    this.releaseThread = new Thread(this::run, "risk-scoring-coalescer");
+  }
+
+  public void start() {
+    releaseThread.start();
+  }
+
+  /**
+   * Adds an entity for scoring.  Blocks while the maximum number of entities are held and the entity
+   * isn't one of them, until the oldest have been released.
+   *
+   * @param entityID ID of the affected entity
+   *
+   * @throws ServiceExecutionException
+   */
+  public synchronized void offer(long entityID) throws ServiceExecutionException {
+    receivedCount++;
+    try {
+      while (pending.size() >= maxPending && !pending.containsKey(entityID) && !stopping) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceExecutionException(e);
+    }
+    if (pending.putIfAbsent(entityID, System.currentTimeMillis()) != null) {
+      coalescedCount++;
+    } else {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Releases all held entities now and returns once they have been handed over.
+   *
+   * @throws InterruptedException
+   */
+  public synchronized void flush() throws InterruptedException {
+    flushing = true;
+    notifyAll();
+    while ((flushing || releasing) && !stopping) {
+      wait();
+    }
+  }
+
+  /**
+   * Releases all held entities and stops.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      stopping = true;
+      notifyAll();
+    }
+    try {
+      releaseThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns the number of entity IDs received.
+   */
+  public synchronized long getReceivedCount() {
+    return receivedCount;
+  }
+
+  /**
+   * Returns the number of entity IDs dropped because the entity was already waiting to be scored,
+   * i.e. the number of scorings avoided.
+   */
+  public synchronized long getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  public synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  private void run() {
+    while (true) {
+      List<Long> released;
+      boolean stop;
+      try {
+        synchronized (this) {
+          while (!stopping && !flushing && !isHeadDue()) {
+            if (pending.isEmpty()) {
+              wait();
+            } else {
+              long oldest = pending.values().iterator().next();
+              wait(Math.max(1, oldest + windowMillis - System.currentTimeMillis()));
+            }
+          }
+          stop = stopping;
+          released = releaseDue(stop || flushing);
+          flushing = false;
+          releasing = !released.isEmpty();
+          notifyAll();
+        }
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (!released.isEmpty()) {
+        try {
+          sink.accept(released);
+        } catch (ServiceExecutionException | RuntimeException e) {
+          System.err.println("Failed to score entities " + released);
+          e.printStackTrace();
+        }
+        synchronized (this) {
+          releasing = false;
+          notifyAll();
+        }
+      }
+      if (stop) {
+        return;
+      }
+    }
+  }
+
+  private boolean isHeadDue() {
+    if (pending.isEmpty()) {
+      return false;
+    }
+    if (pending.size() >= maxPending) {
+      return true;
+    }
+    long oldest = pending.values().iterator().next();
+    return System.currentTimeMillis() - oldest >= windowMillis;
+  }
+
+  private List<Long> releaseDue(boolean releaseAll) {
+    List<Long> released = new ArrayList<>();
+    long cutoff = System.currentTimeMillis() - windowMillis;
+    Iterator<Map.Entry<Long, Long>> iterator = pending.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Long, Long> entry = iterator.next();
+      if (!releaseAll && entry.getValue() > cutoff && pending.size() < maxPending) {
+        break;
+      }
+      released.add(entry.getKey());
+      iterator.remove();
+    }
+    return released;
+  }
+}
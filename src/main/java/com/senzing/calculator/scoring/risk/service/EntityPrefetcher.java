@@ -0,0 +1,276 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Fetches the G2 documents of the entities about to be scored on a thread of its own, so G2 works on the next
+ * entities while the current ones are scored and written.  The entities are hinted in the order they are handed
+ * to scoring, and documents are fetched ahead for up to the depth of them.
+ *
+ * The documents held are also bounded by their size in memory, estimated at two bytes a character.  The size is
+ * only known once a document is fetched, so the limit is checked before each fetch and can be overshot by one
+ * document.  An entity hinted again once its document has been fetched is fetched again, since it changed
+ * meanwhile.  Documents not taken within a while are dropped, they are likely stale and take up room.
+ */
+public class EntityPrefetcher {
+
+  /**
+   * Fetches the document of an entity from G2.
+   */
+  public interface EntityFetcher {
+    String fetch(long entityID) throws ServiceExecutionException;
+  }
+
+  // The fetch of a hinted entity, from the hint until its document is taken.
+  private static class Prefetch {
+    private boolean started;
+    private boolean done;
+    private String document;
+    private ServiceExecutionException failure;
+    private long fetchedTime;
+
+    long bytes() {
+      return document == null ? 0 : 2L * document.length();
+    }
+  }
+
+  private static final long MAX_AGE_MILLIS = 30000;
+
+  private final EntityFetcher fetcher;
+  private final int depth;
+  private final long maxBytes;
+  // Hinted entities in hint order, the fetched ones are before the others.
+  private final LinkedHashMap<Long, Prefetch> prefetches = new LinkedHashMap<>();
+  private final Thread fetchThread;
+  // Entities being fetched or fetched, and the size of the fetched documents.
+  private int heldCount;
+  private long heldBytes;
+  private boolean stopping;
+  private long hitCount;
+  private long missCount;
+  private long droppedCount;
+
+  /**
+   * Creates the prefetcher.
+   *
+   * @param fetcher Fetches the documents from G2
+   * @param depth Maximum number of entities fetched ahead
+   * @param maxBytes Maximum estimated size of the documents held
+   */
+  public EntityPrefetcher(EntityFetcher fetcher, int depth, long maxBytes) {
+    if (depth < 1 || maxBytes < 1) {
+      throw new IllegalArgumentException("Depth and maximum bytes must be at least 1, they were " + depth + " and "
+          + maxBytes);
+    }
+    this.fetcher = fetcher;
+    this.depth = depth;
+    this.maxBytes = maxBytes;
+    this.fetchThread = new Thread(this::run, "risk-entity-prefetcher");
+  }
+
+  public void start() {
+    fetchThread.start();
+  }
+
+  /**
+   * Tells the prefetcher which entities are to be scored next, in the order they will be.
+   *
+   * @param entityIDs IDs of the entities handed to scoring
+   */
+  public synchronized void hint(List<Long> entityIDs) {
+    for (long entityID : entityIDs) {
+      Prefetch prefetch = prefetches.get(entityID);
+      if (prefetch != null && !prefetch.started) {
+        continue;
+      }
+      if (prefetch != null) {
+        release(entityID, prefetch);
+      }
+      prefetches.put(entityID, new Prefetch());
+    }
+    notifyAll();
+  }
+
+  /**
+   * Gets the document of an entity.  A document fetched ahead is handed over, one being fetched is waited for,
+   * and any other is fetched on the calling thread.
+   *
+   * @param entityID ID of the entity
+   *
+   * @return The document of the entity
+   *
+   * @throws ServiceExecutionException If G2 failed to return the entity
+   */
+  public String get(long entityID) throws ServiceExecutionException {
+    Prefetch prefetch;
+    synchronized (this) {
+      prefetch = prefetches.get(entityID);
+      if (prefetch != null) {
+        release(entityID, prefetch);
+        notifyAll();
+      }
+      if (prefetch == null || !prefetch.started) {
+        missCount++;
+        prefetch = null;
+      } else {
+        hitCount++;
+        try {
+          while (!prefetch.done) {
+            wait();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ServiceExecutionException(e);
+        }
+      }
+    }
+    if (prefetch == null) {
+      return fetcher.fetch(entityID);
+    }
+    if (prefetch.failure != null) {
+      throw prefetch.failure;
+    }
+    return prefetch.document;
+  }
+
+  /**
+   * Stops fetching once the fetch under way is done.  Entities hinted but not fetched are fetched by the
+   * scoring when it gets to them.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      stopping = true;
+      notifyAll();
+    }
+    try {
+      fetchThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns the number of documents which had been fetched ahead, or were being fetched, when needed.
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of documents fetched when needed since they hadn't been fetched ahead.
+   */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the number of documents fetched ahead but dropped because they weren't taken in time.
+   */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Returns the estimated size of the documents held.
+   */
+  public synchronized long getHeldBytes() {
+    return heldBytes;
+  }
+
+  private void run() {
+    while (true) {
+      long entityID;
+      Prefetch prefetch;
+      synchronized (this) {
+        Map.Entry<Long, Prefetch> next = null;
+        try {
+          while (!stopping && (next = nextToFetch()) == null) {
+            // Woken up by hints and takes, or to drop the documents not taken.
+            wait(MAX_AGE_MILLIS);
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (stopping) {
+          return;
+        }
+        entityID = next.getKey();
+        prefetch = next.getValue();
+        prefetch.started = true;
+        heldCount++;
+      }
+      String document = null;
+      ServiceExecutionException failure = null;
+      try {
+        document = fetcher.fetch(entityID);
+      } catch (ServiceExecutionException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        failure = new ServiceExecutionException(e);
+      }
+      synchronized (this) {
+        prefetch.document = document;
+        prefetch.failure = failure;
+        prefetch.fetchedTime = System.currentTimeMillis();
+        prefetch.done = true;
+        // Not held anymore if it was taken or hinted again while fetched.
+        if (prefetches.get(entityID) == prefetch) {
+          heldBytes += prefetch.bytes();
+        }
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Finds the first hinted entity not fetched yet, if there is room for it.
+   */
+  private Map.Entry<Long, Prefetch> nextToFetch() {
+    dropExpired();
+    if (heldCount >= depth || heldBytes >= maxBytes) {
+      return null;
+    }
+    for (Map.Entry<Long, Prefetch> entry : prefetches.entrySet()) {
+      if (!entry.getValue().started) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private void dropExpired() {
+    long cutoff = System.currentTimeMillis() - MAX_AGE_MILLIS;
+    Iterator<Prefetch> iterator = prefetches.values().iterator();
+    while (iterator.hasNext()) {
+      Prefetch prefetch = iterator.next();
+      if (!prefetch.started) {
+        // The fetched ones are ahead of the others.
+        return;
+      }
+      if (prefetch.done && prefetch.fetchedTime < cutoff) {
+        iterator.remove();
+        heldCount--;
+        heldBytes -= prefetch.bytes();
+        droppedCount++;
+      }
+    }
+  }
+
+  /**
+   * Stops holding a hinted entity.
+   */
+  private void release(long entityID, Prefetch prefetch) {
+    prefetches.remove(entityID);
+    if (prefetch.started) {
+      heldCount--;
+    }
+    if (prefetch.done) {
+      heldBytes -= prefetch.bytes();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the scoring rules do with the values of one feature type.  The roles of all feature types are compiled
+ * from the G2 configuration at init, so an entity is scored by going through its feature types once and looking
+ * each up here.  A feature type can have several roles, like a F1 type which is also F1 exclusive.
+ */
+class FeatureTypeRole {
+
+  // Values are collected to find F1 features shared with other entities.
+  static final int F1 = 1;
+  // Multiple values count as red and the values are collected to find shared exclusives.
+  static final int F1_EXCLUSIVE = 1 << 1;
+  // F1 exclusive for some usage types only, from CFG_FBOVR.
+  static final int F1_EXCLUSIVE_OVERRIDE = 1 << 2;
+  // Only the number of values is looked at, like for SSN and DOB.
+  static final int COUNTED = 1 << 3;
+  // The value is a manual risk score.
+  static final int SCORE_OVERRIDE = 1 << 4;
+
+  // Roles needing the feature values rather than just their count.
+  private static final int COLLECTED = F1 | F1_EXCLUSIVE | F1_EXCLUSIVE_OVERRIDE | SCORE_OVERRIDE;
+
+  private final String featureType;
+  private int roles;
+  private List<String> overrideUsageTypes;
+
+  FeatureTypeRole(String featureType) {
+    this.featureType = featureType;
+  }
+
+  String getFeatureType() {
+    return featureType;
+  }
+
+  boolean has(int role) {
+    return (roles & role) != 0;
+  }
+
+  void add(int role) {
+    roles |= role;
+  }
+
+  /**
+   * Makes the feature type F1 exclusive for values of a usage type.
+   */
+  void addOverrideUsageType(String usageType) {
+    roles |= F1_EXCLUSIVE_OVERRIDE;
+    if (overrideUsageTypes == null) {
+      overrideUsageTypes = new ArrayList<>(1);
+    }
+    if (!overrideUsageTypes.contains(usageType)) {
+      overrideUsageTypes.add(usageType);
+    }
+  }
+
+  /**
+   * Returns the usage types the feature type is F1 exclusive for by override.
+   */
+  List<String> getOverrideUsageTypes() {
+    return overrideUsageTypes != null ? overrideUsageTypes : Collections.emptyList();
+  }
+
+  /**
+   * Tells if the values of the feature type need to be extracted from the entity documents.
+   */
+  boolean isCollected() {
+    return has(COLLECTED);
+  }
+}
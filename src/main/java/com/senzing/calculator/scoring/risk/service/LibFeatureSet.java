@@ -0,0 +1,78 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Features of one entity by LIB_FEAT_ID, with their feature type and description.  Entries are kept in parallel
+ * arrays which are cleared and reused for the next entity, and a {@link FeatData} is only created for a feature
+ * that ends up in a reason.  An entity has few features of the types looked at, so lookups scan the arrays.
+ */
+class LibFeatureSet {
+
+  private long[] libFeatIDs = new long[8];
+  private String[] featureTypes = new String[8];
+  private String[] descriptions = new String[8];
+  private int size;
+
+  void clear() {
+    // Drop the strings so they don't outlive the entity.
+    Arrays.fill(featureTypes, 0, size, null);
+    Arrays.fill(descriptions, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * Adds a feature, replacing type and description if it is there already.
+   */
+  void put(long libFeatID, String featureType, String description) {
+    int index = indexOf(libFeatID);
+    if (index < 0) {
+      if (size == libFeatIDs.length) {
+        libFeatIDs = Arrays.copyOf(libFeatIDs, size * 2);
+        featureTypes = Arrays.copyOf(featureTypes, size * 2);
+        descriptions = Arrays.copyOf(descriptions, size * 2);
+      }
+      index = size++;
+      libFeatIDs[index] = libFeatID;
+    }
+    featureTypes[index] = featureType;
+    descriptions[index] = description;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gives the position of a feature, or -1 if it is not in the set.
+   */
+  int indexOf(long libFeatID) {
+    for (int i = 0; i < size; i++) {
+      if (libFeatIDs[i] == libFeatID) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Creates the reason data of the feature at a position.
+   */
+  FeatData toFeatData(int index) {
+    FeatData featData = new FeatData();
+    featData.setFeature(featureTypes[index]);
+    featData.setDescription(descriptions[index]);
+    return featData;
+  }
+
+  void collectFeatureIDs(Set<Long> featureIDs) {
+    for (int i = 0; i < size; i++) {
+      featureIDs.add(libFeatIDs[i]);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.Set;
+
+import com.senzing.calculator.scoring.risk.service.entity.EntityData;
+
+/**
+ * An entity with the rules not needing other entities applied, waiting for the lookup of its shared features.
+ * Instances belong to a {@link ScoringContext} and are reset and reused for the next entity.
+ */
+class PreparedEntity {
+
+  private final RiskScorer riskScorer = new RiskScorer();
+  // The F1, F1E, F1ES and their overrides.
+  final LibFeatureSet f1ExLibFeats = new LibFeatureSet();
+  final LibFeatureSet f1OvrExLibFeats = new LibFeatureSet();
+  final LibFeatureSet f1LibFeats = new LibFeatureSet();
+  private long entityID;
+  private EntityData entity;
+  // Time spent on the rules before the lookup.
+  private long scoringNanos;
+
+  /**
+   * Clears everything collected for the previous entity.
+   */
+  void reset(long entityID) {
+    this.entityID = entityID;
+    this.entity = null;
+    this.scoringNanos = 0;
+    riskScorer.reset();
+    f1ExLibFeats.clear();
+    f1OvrExLibFeats.clear();
+    f1LibFeats.clear();
+  }
+
+  long getEntityID() {
+    return entityID;
+  }
+
+  RiskScorer getRiskScorer() {
+    return riskScorer;
+  }
+
+  EntityData getEntity() {
+    return entity;
+  }
+
+  void setEntity(EntityData entity) {
+    this.entity = entity;
+  }
+
+  long getScoringNanos() {
+    return scoringNanos;
+  }
+
+  void setScoringNanos(long scoringNanos) {
+    this.scoringNanos = scoringNanos;
+  }
+
+  void collectFeatureIDs(Set<Long> featureIDs) {
+    f1ExLibFeats.collectFeatureIDs(featureIDs);
+    f1OvrExLibFeats.collectFeatureIDs(featureIDs);
+    f1LibFeats.collectFeatureIDs(featureIDs);
+  }
+}
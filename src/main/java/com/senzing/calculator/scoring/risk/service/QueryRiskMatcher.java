@@ -0,0 +1,175 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Query risk criteria compiled for matching against match keys. Every token used by a criterion, like +NAME or
+ * -DOB, gets a bit position. A criterion becomes the mask of its tokens and a match key the set of its tokens
+ * known to the criteria, so checking a criterion is one AND and compare per 64 tokens.
+ *
+ * The same few match keys show up on most relationships, so the criteria each match key fulfills are cached.
+ * The cache is bounded, once it is full keys not seen before are evaluated every time.
+ *
+ * All methods are thread safe, instances are meant to be shared by the scoring threads.
+ */
+class QueryRiskMatcher {
+
+  private static final QueryRiskData[] NO_CRITERIA = new QueryRiskData[0];
+
+  private final Map<String, Integer> tokenBits = new HashMap<>();
+  private final QueryRiskData[] criteria;
+  private final long[][] criteriaMasks;
+  private final int words;
+  // Match key to the criteria it fulfills.
+  private final Map<String, QueryRiskData[]> matchKeyCache = new ConcurrentHashMap<>();
+  private final int maxCacheSize;
+  private final LongAdder cacheHitCount = new LongAdder();
+  private final LongAdder cacheMissCount = new LongAdder();
+
+  /**
+   * Compiles the criteria without caching match keys.
+   *
+   * @param queryRiskCriteria Criteria in the order they are reported in
+   */
+  QueryRiskMatcher(List<QueryRiskData> queryRiskCriteria) {
+    this(queryRiskCriteria, 0);
+  }
+
+  /**
+   * Compiles the criteria.
+   *
+   * @param queryRiskCriteria Criteria in the order they are reported in
+   * @param maxCacheSize Maximum number of match keys whose result is cached. 0 turns the cache off.
+   */
+  QueryRiskMatcher(List<QueryRiskData> queryRiskCriteria, int maxCacheSize) {
+    this.maxCacheSize = maxCacheSize;
+    for (QueryRiskData queryRiskData : queryRiskCriteria) {
+      for (String token : queryRiskData.getCriteriaList()) {
+        tokenBits.putIfAbsent(token, tokenBits.size());
+      }
+    }
+    words = Math.max(1, (tokenBits.size() + 63) / 64);
+    criteria = queryRiskCriteria.toArray(new QueryRiskData[0]);
+    criteriaMasks = new long[criteria.length][];
+    for (int i = 0; i < criteria.length; i++) {
+      long[] mask = new long[words];
+      for (String token : criteria[i].getCriteriaList()) {
+        int bit = tokenBits.get(token);
+        mask[bit >>> 6] |= 1L << bit;
+      }
+      criteriaMasks[i] = mask;
+    }
+  }
+
+  /**
+   * Checks a match key against all criteria and adds the ones it fulfills to the risk scorer.
+   *
+   * @param matchKey Match key of a relationship, like +NAME+ADDRESS-DOB
+   * @param riskScorer Risk scorer updated with the fulfilled criteria
+   *
+   * @throws ParseException If the match key is badly formed
+   */
+  void match(String matchKey, RiskScorer riskScorer) throws ParseException {
+    if (criteria.length == 0 || matchKey.isEmpty()) {
+      return;
+    }
+    QueryRiskData[] matched = maxCacheSize > 0 ? matchKeyCache.get(matchKey) : null;
+    if (matched != null) {
+      cacheHitCount.increment();
+    } else {
+      matched = evaluate(matchKey);
+      if (maxCacheSize > 0) {
+        cacheMissCount.increment();
+        if (matchKeyCache.size() < maxCacheSize) {
+          matchKeyCache.put(matchKey, matched);
+        }
+      }
+    }
+    for (QueryRiskData queryRiskData : matched) {
+      riskScorer.addQueryRisk(queryRiskData.getCriteriaString(), queryRiskData.getScore());
+    }
+  }
+
+  long getCacheHitCount() {
+    return cacheHitCount.sum();
+  }
+
+  long getCacheMissCount() {
+    return cacheMissCount.sum();
+  }
+
+  /**
+   * Returns the number of match keys cached.
+   */
+  int getCacheSize() {
+    return matchKeyCache.size();
+  }
+
+  // Finds the criteria fulfilled by a match key, in the configured order.
+  private QueryRiskData[] evaluate(String matchKey) throws ParseException {
+    long[] keyBits = new long[words];
+    int tokenBegin = matchKey.length();
+    while (tokenBegin > 0) {
+      int tokenEnd = tokenBegin;
+      tokenBegin = previousTokenBegin(matchKey, tokenEnd);
+      Integer bit = tokenBits.get(matchKey.substring(tokenBegin, tokenEnd).trim());
+      if (bit != null) {
+        keyBits[bit >>> 6] |= 1L << bit;
+      }
+    }
+    List<QueryRiskData> matched = new ArrayList<>();
+    for (int i = 0; i < criteria.length; i++) {
+      if (containsAll(keyBits, criteriaMasks[i])) {
+        matched.add(criteria[i]);
+      }
+    }
+    return matched.isEmpty() ? NO_CRITERIA : matched.toArray(NO_CRITERIA);
+  }
+
+  /**
+   * Parses match key of format +NAME+PHONE_NUMBER+ADDRESS-DOB into its tokens, last token first.
+   *
+   * @param matchKey Match key to parse
+   *
+   * @return The tokens with their leading sign, like +NAME
+   *
+   * @throws ParseException If the match key is badly formed
+   */
+  static List<String> parseMatchKey(String matchKey) throws ParseException {
+    List<String> result = new ArrayList<>();
+    int tokenBegin = matchKey.length();
+    while (tokenBegin > 0) {
+      int tokenEnd = tokenBegin;
+      tokenBegin = previousTokenBegin(matchKey, tokenEnd);
+      result.add(matchKey.substring(tokenBegin, tokenEnd).trim());
+    }
+    return result;
+  }
+
+  private static int previousTokenBegin(String matchKey, int tokenEnd) throws ParseException {
+    int lastPlus = matchKey.lastIndexOf('+', tokenEnd - 1);
+    int lastMinus = matchKey.lastIndexOf('-', tokenEnd - 1);
+    // This is for special cases of keys like this: +NAME+ADDRESS (Ambiguous)
+    int lastParen = matchKey.lastIndexOf('(', tokenEnd - 1);
+    int tokenBegin = Math.max(lastParen, Math.max(lastPlus, lastMinus));
+    if (tokenBegin < 0) {
+      throw new ParseException("Badly formed match key: " + matchKey, tokenBegin);
+    }
+    return tokenBegin;
+  }
+
+  private static boolean containsAll(long[] bits, long[] mask) {
+    for (int i = 0; i < mask.length; i++) {
+      if ((bits[i] & mask[i]) != mask[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
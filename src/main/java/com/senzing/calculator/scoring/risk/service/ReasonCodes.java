@@ -0,0 +1,170 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+
+/**
+ * Reasons for the risk scores as bits of one integer, stored in the REASON_CODES column of schema v3.  Reasons
+ * naming features or sources, like the shared F1 features, take their text from the reason detail, a JSON array
+ * with one string per such reason in the order of the codes.
+ *
+ * The bits are in the order the reasons are listed in, so decoding gives the same document as
+ * {@link RiskScorer#getReason()}.  Bits must never be renumbered once written to a database.
+ */
+public final class ReasonCodes {
+
+  // Quality reasons.
+  public static final int AMBIGUOUS = 1;
+  public static final int MULTIPLE_DOBS = 1 << 1;
+  public static final int MULTIPLE_EXCLUSIVES = 1 << 2;
+  public static final int SHARED_EXCLUSIVES = 1 << 3;
+  public static final int TRUSTED_SOURCE_EXISTS = 1 << 4;
+  public static final int ONE_DOB = 1 << 5;
+  public static final int ONE_SSN = 1 << 6;
+  public static final int ONE_OR_MORE_ADDRESS = 1 << 7;
+  public static final int NO_TRUSTED_SOURCE = 1 << 8;
+  public static final int NOT_ONE_DOB = 1 << 9;
+  public static final int NOT_ONE_SSN = 1 << 10;
+  public static final int NO_ADDRESS = 1 << 11;
+  // Collision reasons.
+  public static final int RED_DATA_QUALITY = 1 << 12;
+  public static final int MANUAL_RED = 1 << 13;
+  public static final int GREEN_DATA_QUALITY = 1 << 14;
+  public static final int NO_POSSIBLE_MATCH = 1 << 15;
+  public static final int NO_SHARED_F1 = 1 << 16;
+  public static final int MANUAL_YELLOW = 1 << 17;
+  public static final int NOT_GREEN_DATA_QUALITY = 1 << 18;
+  public static final int POSSIBLE_MATCH = 1 << 19;
+  public static final int SHARES_F1 = 1 << 20;
+
+  private static final int LAST_QUALITY_CODE = NO_ADDRESS;
+  private static final int LAST_CODE = SHARES_F1;
+  // Reasons followed by a detail.
+  private static final int DETAILED = MULTIPLE_EXCLUSIVES | SHARED_EXCLUSIVES | TRUSTED_SOURCE_EXISTS | SHARES_F1;
+
+  private static final String[] TEXTS = {
+      "Ambiguous relationships",
+      "More than one DOB",
+      "More than one F1E or F1ES of the same type",
+      "F1E or F1ES shared with other entities",
+      "At least 1 trusted source record",
+      "One and only one DOB",
+      "One or less SSN",
+      "One or more addresses",
+      "No record from trusted source",
+      "Not one and only one DOB",
+      "More than one SSN",
+      "No address",
+      "Red data quality",
+      "Manually flagged red",
+      "Green data quality",
+      "No possible match",
+      "No shared F1 types with other entities",
+      "Manually flagged yellow",
+      "Data quality not green",
+      "Possible match exists",
+      "Shares F1 types with other entities"
+  };
+
+  private ReasonCodes() {
+  }
+
+  /**
+   * Gives the text of a single reason code, without its detail.
+   *
+   * @param code One of the reason codes
+   *
+   * @return Text of the reason
+   */
+  public static String getText(int code) {
+    if (Integer.bitCount(code) != 1 || code > LAST_CODE) {
+      throw new IllegalArgumentException("Not a reason code: " + code);
+    }
+    return TEXTS[Integer.numberOfTrailingZeros(code)];
+  }
+
+  /**
+   * Tells if a reason is followed by a detail.
+   */
+  public static boolean hasDetail(int code) {
+    return (DETAILED & code) != 0;
+  }
+
+  /**
+   * Expands reason codes into the reason document written to the REASON column before schema v3.
+   *
+   * @param codes Reason codes
+   * @param detail Reason detail as stored, may be null if no reason has a detail
+   *
+   * @return JSON document with the quality and collision reasons
+   */
+  public static String toReason(int codes, String detail) {
+    return toReason(codes, parseDetail(detail));
+  }
+
+  /**
+   * Encodes the details of the reasons into the reason detail column.
+   *
+   * @param details One string per reason with a detail, in the order of the codes
+   *
+   * @return JSON array of the details, null if there are none
+   */
+  public static String formatDetail(List<String> details) {
+    if (details.isEmpty()) {
+      return null;
+    }
+    JsonArrayBuilder builder = Json.createArrayBuilder();
+    for (String detail : details) {
+      builder.add(detail);
+    }
+    return builder.build().toString();
+  }
+
+  static String toReason(int codes, List<String> details) {
+    List<String> qualityReasons = new ArrayList<>();
+    List<String> collisionReasons = new ArrayList<>();
+    int detailIndex = 0;
+    for (int code = 1; code <= LAST_CODE && code > 0; code <<= 1) {
+      if ((codes & code) == 0) {
+        continue;
+      }
+      String text = getText(code);
+      if (hasDetail(code)) {
+        String detail = detailIndex < details.size() ? details.get(detailIndex) : "";
+        detailIndex++;
+        text = text + " - " + detail;
+      }
+      if (code <= LAST_QUALITY_CODE) {
+        qualityReasons.add(text);
+      } else {
+        collisionReasons.add(text);
+      }
+    }
+    JsonObjectBuilder rootObject = Json.createObjectBuilder();
+    rootObject.add("Quality", Json.createArrayBuilder(qualityReasons).build());
+    rootObject.add("Collision", Json.createArrayBuilder(collisionReasons).build());
+    return rootObject.build().toString();
+  }
+
+  private static List<String> parseDetail(String detail) {
+    if (detail == null || detail.isEmpty()) {
+      return Collections.emptyList();
+    }
+    try (JsonReader reader = Json.createReader(new StringReader(detail))) {
+      JsonArray array = reader.readArray();
+      List<String> details = new ArrayList<>(array.size());
+      for (int i = 0; i < array.size(); i++) {
+        details.add(array.getString(i));
+      }
+      return details;
+    }
+  }
+}
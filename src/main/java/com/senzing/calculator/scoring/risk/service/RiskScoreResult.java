@@ -0,0 +1,110 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * The scores calculated for an entity, ready to be written to RES_RISK_SCORE.  Null scores mean the entity
+ * no longer exists and its row is removed.  The reason is either text, for schema v2, or {@link ReasonCodes}
+ * with their detail, for schema v3.
+ */
+public class RiskScoreResult {
+
+  private final long entityID;
+  private final int lensID;
+  private final String qualityScore;
+  private final String collisionScore;
+  private final String queryScore;
+  private final String reason;
+  private final String queryReason;
+  private final Integer reasonCodes;
+  private final String reasonDetail;
+
+  public RiskScoreResult(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+      String reason, String queryReason) {
+    this.entityID = entityID;
+    this.lensID = lensID;
+    this.qualityScore = qualityScore;
+    this.collisionScore = collisionScore;
+    this.queryScore = queryScore;
+    this.reason = reason;
+    this.queryReason = queryReason;
+    this.reasonCodes = null;
+    this.reasonDetail = null;
+  }
+
+  public RiskScoreResult(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+      int reasonCodes, String reasonDetail, String queryReason) {
+    this.entityID = entityID;
+    this.lensID = lensID;
+    this.qualityScore = qualityScore;
+    this.collisionScore = collisionScore;
+    this.queryScore = queryScore;
+    this.reason = null;
+    this.queryReason = queryReason;
+    this.reasonCodes = reasonCodes;
+    this.reasonDetail = reasonDetail;
+  }
+
+  /**
+   * Creates a result that removes the scores of an entity.
+   */
+  public static RiskScoreResult removed(long entityID, int lensID) {
+    return new RiskScoreResult(entityID, lensID, null, null, null, null, null);
+  }
+
+  public long getEntityID() {
+    return entityID;
+  }
+
+  public int getLensID() {
+    return lensID;
+  }
+
+  public String getQualityScore() {
+    return qualityScore;
+  }
+
+  public String getCollisionScore() {
+    return collisionScore;
+  }
+
+  public String getQueryScore() {
+    return queryScore;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+  public String getQueryReason() {
+    return queryReason;
+  }
+
+  /**
+   * Returns the reason codes, null if the reason is text.
+   */
+  public Integer getReasonCodes() {
+    return reasonCodes;
+  }
+
+  public String getReasonDetail() {
+    return reasonDetail;
+  }
+
+  /**
+   * Writes the result with the post matching the form of its reason.
+   *
+   * @param dbService Service writing to RES_RISK_SCORE
+   *
+   * @throws ServiceExecutionException
+   */
+  public void postTo(DatabaseService dbService) throws ServiceExecutionException {
+    if (reasonCodes != null) {
+      dbService.postRiskScore(entityID, lensID, qualityScore, collisionScore, queryScore, reasonCodes.intValue(),
+          reasonDetail, queryReason);
+    } else {
+      dbService.postRiskScore(entityID, lensID, qualityScore, collisionScore, queryScore, reason, queryReason);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.calculator.scoring.risk.service.metrics.LatencyRecorder;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Writes risk scores to RES_RISK_SCORE on a dedicated thread so the scoring threads don't wait for the
+ * database.  Scores are handed over through a bounded queue; when it is full the scoring threads block
+ * until the writer catches up.
+ */
+public class RiskScoreWriter {
+
+  // Number of scores taken off the queue at a time.
+  private static final int DRAIN_SIZE = 256;
+
+  // Signals the writer thread to stop once everything queued ahead of it has been written.
+  private static final RiskScoreResult STOP_SIGNAL = RiskScoreResult.removed(Long.MIN_VALUE, 0);
+  // Signals the writer thread to commit everything queued ahead of it.
+  private static final RiskScoreResult FLUSH_SIGNAL = RiskScoreResult.removed(Long.MIN_VALUE, 1);
+
+  private final DatabaseService dbService;
+  private final BlockingQueue<RiskScoreResult> queue;
+  private final Thread writerThread;
+  private final LatencyRecorder writeLatency;
+  // Flush signals queued and handled, and scores or commits which failed, guarded by the writer.
+  private long flushRequestCount;
+  private long flushDoneCount;
+  private long failureCount;
+
+  /**
+   * Creates the writer.  The database service is used by the writer thread only.
+   *
+   * @param dbService Database service the scores are written with
+   * @param queueSize Maximum number of scores waiting to be written before write() blocks
+   */
+  public RiskScoreWriter(DatabaseService dbService, int queueSize) {
+    this(dbService, queueSize, new LatencyRecorder());
+  }
+
+  /**
+   * Creates the writer, recording how long each post takes.
+   *
+   * @param dbService Database service the scores are written with
+   * @param queueSize Maximum number of scores waiting to be written before write() blocks
+   * @param writeLatency Recorder of the time taken by each post
+   */
+  public RiskScoreWriter(DatabaseService dbService, int queueSize, LatencyRecorder writeLatency) {
+    this.dbService = dbService;
+    this.writeLatency = writeLatency;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+    this.writerThread = new Thread(this::run, "risk-score-writer");
+  }
+
+  public void start() {
+    writerThread.start();
+  }
+
+  /**
+   * Queues a score for writing.  Blocks while the queue is full.
+   *
+   * @param result Score to be written
+   *
+   * @throws ServiceExecutionException
+   */
+  public void write(RiskScoreResult result) throws ServiceExecutionException {
+    try {
+      queue.put(result);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceExecutionException(e);
+    }
+  }
+
+  /**
+   * Returns once everything queued so far has been written and committed.  Whatever failed is counted, see
+   * {@link #getFailureCount()}.
+   *
+   * @throws ServiceExecutionException
+   */
+  public void flush() throws ServiceExecutionException {
+    long request;
+    synchronized (this) {
+      request = ++flushRequestCount;
+    }
+    write(FLUSH_SIGNAL);
+    try {
+      synchronized (this) {
+        while (flushDoneCount < request) {
+          wait();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceExecutionException(e);
+    }
+  }
+
+  /**
+   * Writes everything still queued, commits it and closes the database service.
+   */
+  public void shutdown() {
+    try {
+      queue.put(STOP_SIGNAL);
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    dbService.close();
+  }
+
+  public int getQueuedCount() {
+    return queue.size();
+  }
+
+  /**
+   * Returns the number of scores which failed to be written and of group commits which failed, plus those of the
+   * timer of the database service.
+   */
+  public synchronized long getFailureCount() {
+    return failureCount + dbService.getBackgroundFailureCount();
+  }
+
+  private synchronized void failed() {
+    failureCount++;
+  }
+
+  private void run() {
+    List<RiskScoreResult> results = new ArrayList<>(DRAIN_SIZE);
+    while (true) {
+      try {
+        results.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(results, DRAIN_SIZE - 1);
+      for (RiskScoreResult result : results) {
+        if (result == FLUSH_SIGNAL) {
+          try {
+            dbService.flush();
+          } catch (ServiceExecutionException e) {
+            failed();
+            e.printStackTrace();
+          }
+          synchronized (this) {
+            flushDoneCount++;
+            notifyAll();
+          }
+          continue;
+        }
+        if (result == STOP_SIGNAL) {
+          // Commit anything held back for a group commit before stopping.
+          try {
+            dbService.flush();
+          } catch (ServiceExecutionException e) {
+            e.printStackTrace();
+          }
+          return;
+        }
+        post(result);
+      }
+      results.clear();
+    }
+  }
+
+  private void post(RiskScoreResult result) {
+    long startTime = System.nanoTime();
+    try {
+      result.postTo(dbService);
+      writeLatency.recordSince(startTime);
+    } catch (ServiceExecutionException | RuntimeException e) {
+      failed();
+      System.err.println("Failed to write risk score for entity " + result.getEntityID());
+      e.printStackTrace();
+    }
+  }
+}
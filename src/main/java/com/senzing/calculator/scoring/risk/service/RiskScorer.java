@@ -1,15 +1,14 @@
 package com.senzing.calculator.scoring.risk.service;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.json.Json;
-import javax.json.JsonObjectBuilder;
-
 /**
  * This class collects and scores risk based on following criteria:
  * Rules: 
@@ -40,21 +39,30 @@ import javax.json.JsonObjectBuilder;
  *                Entity has none or one SSN
  *                Entity has one and only one DOB
  *                Entity has address
+ *
+ * An instance is meant to be reset and reused for the next entity.  The rule findings are kept as bits of one
+ * int and the detail collections are only created once a finding needs them, so scoring an entity without
+ * shared or multiple features allocates nothing here apart from the reason strings.
  */
 public class RiskScorer {
+  // Bits of the flags.
+  private static final int FLAG_AMBIGUOUS = 1;
+  private static final int FLAG_MULTIPLE_DOBS = 1 << 1;
+  private static final int FLAG_NO_POSSIBLE_MATCH = 1 << 2;
+  private static final int FLAG_ONE_AND_ONLY_ONE_DOB = 1 << 3;
+  private static final int FLAG_ONE_OR_LESS_SSN = 1 << 4;
+  private static final int FLAG_ONE_OR_MORE_ADDRESS = 1 << 5;
+
+  // Red quality: FLAG_AMBIGUOUS and FLAG_MULTIPLE_DOBS, green collision: FLAG_NO_POSSIBLE_MATCH, green quality:
+  // the rest.
+  private int flags;
   // Red quality.
-  private boolean ambiguous;
-  private boolean mutltipleDOBs;
   private Map<String, List<String>> multipleExclusives;
   private List<FeatData> sharedExclusives;
   // Green collision.
-  private boolean noPossibleMatch;
   private List<FeatData> sharedF1s;
   // Green quality.
-  private boolean oneAndOnlyOneDOB;
-  private boolean oneOrLessSSN;
   private List<String> trustedSources;
-  private boolean oneOrMoreAddress;
 
   // Override for data quality scores.
   private RiskScore scoreOverride;
@@ -67,39 +75,6 @@ public class RiskScorer {
   public static final String R_VALUE = "R";
   public static final String Y_VALUE = "Y";
 
-  // Red quality reasons.
-  private static final String IS_AMBIGUOUS = "Ambiguous relationships";
-  private static final String MULTIPLE_DOBS = "More than one DOB";
-  private static final String MULTIPLE_EXCLUSIVES = "More than one F1E or F1ES of the same type";
-  private static final String SHARED_EXCLUSIVES = "F1E or F1ES shared with other entities";
-
-  // Red collision reasons.
-  private static final String RED_DATA_QUALITY = "Red data quality";
-  private static final String MANUAL_RED = "Manually flagged red";
-
-  // Green quality reasons.
-  private static final String TRUSTED_SOURCE_EXISTS = "At least 1 trusted source record";
-  private static final String ONE_SSN = "One or less SSN";
-  private static final String ONE_DOB = "One and only one DOB";
-  private static final String ONE_OR_MORE_ADDRESS = "One or more addresses";
-
-  // Green collision reasons.
-  private static final String GREEN_DATA_QUALITY = "Green data quality";
-  private static final String NO_SHARED_F1 = "No shared F1 types with other entities";
-  private static final String NO_POSIBLE_MATCH = "No possible match";
-
-  // Yellow quality reasons.
-  private static final String NO_TRUSTED_SOURCE = "No record from trusted source";
-  private static final String NOT_ONE_SSN = "More than one SSN";
-  private static final String NOT_ONE_DOB = "Not one and only one DOB";
-  private static final String NO_ADDRESS = "No address";
-  
-  // Yellow collision reasons.
-  private static final String NOT_GREEN_DATA_QUALITY = "Data quality not green";
-  private static final String SHARES_F1 = "Shares F1 types with other entities";
-  private static final String POSIBLE_MATCH = "Possible match exists";
-  private static final String MANUAL_YELLOW = "Manually flagged yellow";
-
   // Values
   private static final String EMPTY_STRING = "";
 
@@ -107,89 +82,116 @@ public class RiskScorer {
   private static final int MAX_QUERY_REASON_SIZE = 195;
 
   public RiskScorer() {
-    ambiguous = false;
-    mutltipleDOBs = false;
-    multipleExclusives = new HashMap<>();
-    noPossibleMatch = false;
-    sharedF1s = new ArrayList<>();
-    oneAndOnlyOneDOB = false;
-    oneOrLessSSN = false;
-    oneOrMoreAddress = false;
-    sharedExclusives = new ArrayList<>();
-    trustedSources = new ArrayList<>();
-    redQueryRisk = new HashSet<>();
-    yellowQueryRisk = new HashSet<>();
+  }
+
+  /**
+   * Clears all findings so the instance can be reused for scoring another entity.  Collections created for
+   * earlier entities are kept for reuse.
+   */
+  public void reset() {
+    flags = 0;
+    if (multipleExclusives != null) {
+      multipleExclusives.clear();
+    }
+    if (sharedF1s != null) {
+      sharedF1s.clear();
+    }
+    if (sharedExclusives != null) {
+      sharedExclusives.clear();
+    }
+    if (trustedSources != null) {
+      trustedSources.clear();
+    }
+    scoreOverride = null;
+    if (redQueryRisk != null) {
+      redQueryRisk.clear();
+    }
+    if (yellowQueryRisk != null) {
+      yellowQueryRisk.clear();
+    }
   }
 
   public boolean isAmbiguous() {
-    return ambiguous;
+    return isSet(FLAG_AMBIGUOUS);
   }
 
   public void setAmbiguous(boolean ambiguous) {
-    this.ambiguous = ambiguous;
+    setFlag(FLAG_AMBIGUOUS, ambiguous);
   }
 
   public boolean hasMutltipleDOBs() {
-    return mutltipleDOBs;
+    return isSet(FLAG_MULTIPLE_DOBS);
   }
 
   public void setMutltipleDOBs(boolean mutltipleDOBs) {
-    this.mutltipleDOBs = mutltipleDOBs;
+    setFlag(FLAG_MULTIPLE_DOBS, mutltipleDOBs);
   }
 
   public Map<String, List<String>> getMultipleExclusives() {
-    return multipleExclusives;
+    return multipleExclusives != null ? multipleExclusives : Collections.emptyMap();
   }
 
   public void addMultipleExclusives(String type, List<String> values) {
+    if (multipleExclusives == null) {
+      multipleExclusives = new HashMap<>();
+    }
     this.multipleExclusives.put(type, values);
   }
 
   public boolean hasOneAndOnlyOneDOB() {
-    return oneAndOnlyOneDOB;
+    return isSet(FLAG_ONE_AND_ONLY_ONE_DOB);
   }
 
   public void setOneAndOnlyOneDOB(boolean oneAndOnlyOneDOB) {
-    this.oneAndOnlyOneDOB = oneAndOnlyOneDOB;
+    setFlag(FLAG_ONE_AND_ONLY_ONE_DOB, oneAndOnlyOneDOB);
   }
 
   public boolean hasOneOrLessSSN() {
-    return oneOrLessSSN;
+    return isSet(FLAG_ONE_OR_LESS_SSN);
   }
 
   public void setOneOrLessSSN(boolean oneOrLessSSN) {
-    this.oneOrLessSSN = oneOrLessSSN;
+    setFlag(FLAG_ONE_OR_LESS_SSN, oneOrLessSSN);
   }
 
   public List<String> getTrustedSources() {
-    return trustedSources;
+    return trustedSources != null ? trustedSources : Collections.emptyList();
   }
 
   public void addTrustedSource(String trustedSource) {
+    if (trustedSources == null) {
+      trustedSources = new ArrayList<>();
+    }
     trustedSources.add(trustedSource);
   }
 
   public boolean hasNoPossibleMatch() {
-    return noPossibleMatch;
+    return isSet(FLAG_NO_POSSIBLE_MATCH);
   }
 
   public void setNoPossibleMatch(boolean noPossibleMatch) {
-    this.noPossibleMatch = noPossibleMatch;
+    setFlag(FLAG_NO_POSSIBLE_MATCH, noPossibleMatch);
   }
 
   public boolean hasOneOrMoreAddress() {
-    return oneOrMoreAddress;
+    return isSet(FLAG_ONE_OR_MORE_ADDRESS);
   }
 
   public void setOneOrMoreAddress(boolean oneOrMoreAddress) {
-    this.oneOrMoreAddress = oneOrMoreAddress;
+    setFlag(FLAG_ONE_OR_MORE_ADDRESS, oneOrMoreAddress);
   }
 
   public List<FeatData>  getSharedF1() {
-    return sharedF1s;
+    return sharedF1s != null ? sharedF1s : Collections.emptyList();
   }
 
   public void addSharedF1s(List<FeatData> sharedF1s) {
+    if (sharedF1s.isEmpty()) {
+      return;
+    }
+    if (this.sharedF1s == null) {
+      this.sharedF1s = new ArrayList<>();
+    }
     this.sharedF1s.addAll(sharedF1s);
   }
 
@@ -198,10 +200,16 @@ public class RiskScorer {
   }
 
   public List<FeatData> getSharedExclusives() {
-    return sharedExclusives;
+    return sharedExclusives != null ? sharedExclusives : Collections.emptyList();
   }
 
   public void addSharedExclusives(List<FeatData> sharedExclusives) {
+    if (sharedExclusives.isEmpty()) {
+      return;
+    }
+    if (this.sharedExclusives == null) {
+      this.sharedExclusives = new ArrayList<>();
+    }
     this.sharedExclusives.addAll(sharedExclusives);
   }
 
@@ -226,8 +234,14 @@ public class RiskScorer {
 
   public void addQueryRisk(String queryRisk, String score) {
     if (R_VALUE.contentEquals(score)) {
+      if (redQueryRisk == null) {
+        redQueryRisk = new HashSet<>();
+      }
       redQueryRisk.add(queryRisk);
     } else if (Y_VALUE.contentEquals(score)) {
+      if (yellowQueryRisk == null) {
+        yellowQueryRisk = new HashSet<>();
+      }
       yellowQueryRisk.add(queryRisk);
     }
   }
@@ -238,8 +252,8 @@ public class RiskScorer {
    * @return Score (Red, Yellow or Green)
    */
   public RiskScore getDataQualityScore() {
-    boolean isRed = ambiguous || !multipleExclusives.isEmpty() || !sharedExclusives.isEmpty() || mutltipleDOBs;
-    boolean isGreen = !trustedSources.isEmpty() && oneAndOnlyOneDOB && oneOrLessSSN && oneOrMoreAddress;
+    boolean isRed = isSet(FLAG_AMBIGUOUS) || !isEmpty(multipleExclusives) || !isEmpty(sharedExclusives) || isSet(FLAG_MULTIPLE_DOBS);
+    boolean isGreen = !isEmpty(trustedSources) && isSet(FLAG_ONE_AND_ONLY_ONE_DOB | FLAG_ONE_OR_LESS_SSN | FLAG_ONE_OR_MORE_ADDRESS);
     
     if (isRed) {
       return RiskScore.Red;
@@ -258,7 +272,7 @@ public class RiskScorer {
   public RiskScore getCollisionScore() {
     RiskScore qualityScore = getDataQualityScore();
     boolean isRed = qualityScore == RiskScore.Red || scoreOverride == RiskScore.Red;
-    boolean isGreen = qualityScore == RiskScore.Green && (scoreOverride != RiskScore.Red && scoreOverride != RiskScore.Yellow) && sharedF1s.isEmpty() && noPossibleMatch;
+    boolean isGreen = qualityScore == RiskScore.Green && (scoreOverride != RiskScore.Red && scoreOverride != RiskScore.Yellow) && isEmpty(sharedF1s) && isSet(FLAG_NO_POSSIBLE_MATCH);
 
     if (isRed) {
       return RiskScore.Red;
@@ -270,9 +284,9 @@ public class RiskScorer {
   }
 
   public RiskScore getQueryRiskScore() {
-    if (!redQueryRisk.isEmpty()) {
+    if (!isEmpty(redQueryRisk)) {
       return RiskScore.Red;
-    } else if (!yellowQueryRisk.isEmpty()) {
+    } else if (!isEmpty(yellowQueryRisk)) {
       return RiskScore.Yellow;
     } else
       return RiskScore.Green;
@@ -282,117 +296,169 @@ public class RiskScorer {
    * Gives a document containing reasons for scores.
    * 
    * @return JSON document containing the reasons
-   * 
-   * @throws JSONException
    */
   public String getReason() {
-    List<String> qualityReasons = new ArrayList<>();
-    List<String> collisionReasons = new ArrayList<>();
+    List<String> details = new ArrayList<>();
+    int codes = collectReasons(details);
+    return ReasonCodes.toReason(codes, details);
+  }
+
+  /**
+   * Gives the reasons for scores as {@link ReasonCodes}.
+   *
+   * @return Reason codes
+   */
+  public int getReasonCodes() {
+    return collectReasons(null);
+  }
+
+  /**
+   * Gives the detail for the reasons of {@link #getReasonCodes()}, like the shared F1 features.
+   *
+   * @return JSON array with the details, null if no reason has a detail
+   */
+  public String getReasonDetail() {
+    List<String> details = new ArrayList<>();
+    collectReasons(details);
+    return ReasonCodes.formatDetail(details);
+  }
+
+  // Finds the reason codes and adds the detail of those that have one, if details is not null.
+  private int collectReasons(List<String> details) {
+    int codes = 0;
 
     RiskScore qualityScore = getDataQualityScore();
     if (qualityScore == RiskScore.Red) {
-      if (ambiguous) {
-        qualityReasons.add(IS_AMBIGUOUS);
+      if (isSet(FLAG_AMBIGUOUS)) {
+        codes |= ReasonCodes.AMBIGUOUS;
       }
-      if (mutltipleDOBs) {
-        qualityReasons.add(MULTIPLE_DOBS);
+      if (isSet(FLAG_MULTIPLE_DOBS)) {
+        codes |= ReasonCodes.MULTIPLE_DOBS;
       }
-      if (!multipleExclusives.isEmpty()) {
-        String me = multipleExclusives.toString();
-        if (me.length() > MAX_SUBSTRING_SIZE) {
-          // limit the string size to avoid failed db insert
-          me = getShortenedFeatureMap(multipleExclusives);
+      if (!isEmpty(multipleExclusives)) {
+        codes |= ReasonCodes.MULTIPLE_EXCLUSIVES;
+        if (details != null) {
+          String me = multipleExclusives.toString();
+          if (me.length() > MAX_SUBSTRING_SIZE) {
+            // limit the string size to avoid failed db insert
+            me = getShortenedFeatureMap(multipleExclusives);
+          }
+          details.add(me);
         }
-        qualityReasons.add(MULTIPLE_EXCLUSIVES + " - " + me);
       }
-      if (!sharedExclusives.isEmpty()) {
-        String se = sharedExclusives.toString();
-        if (se.length() > MAX_SUBSTRING_SIZE) {
-          // limit the string size to avoid failed db insert
-          se = getShortenedFeatDataList(sharedExclusives);
+      if (!isEmpty(sharedExclusives)) {
+        codes |= ReasonCodes.SHARED_EXCLUSIVES;
+        if (details != null) {
+          String se = sharedExclusives.toString();
+          if (se.length() > MAX_SUBSTRING_SIZE) {
+            // limit the string size to avoid failed db insert
+            se = getShortenedFeatDataList(sharedExclusives);
+          }
+          details.add(se);
         }
-        qualityReasons.add(SHARED_EXCLUSIVES + " - " + se);
       }
-      collisionReasons.add(RED_DATA_QUALITY);
+      codes |= ReasonCodes.RED_DATA_QUALITY;
     } else if (qualityScore == RiskScore.Green) {
-      if (!trustedSources.isEmpty()) {
-        qualityReasons.add(TRUSTED_SOURCE_EXISTS + " - " + trustedSources);
+      if (!isEmpty(trustedSources)) {
+        codes |= ReasonCodes.TRUSTED_SOURCE_EXISTS;
+        if (details != null) {
+          details.add(trustedSources.toString());
+        }
       }
-      if (oneAndOnlyOneDOB) {
-        qualityReasons.add(ONE_DOB);
+      if (isSet(FLAG_ONE_AND_ONLY_ONE_DOB)) {
+        codes |= ReasonCodes.ONE_DOB;
       }
-      if (oneOrLessSSN) {
-        qualityReasons.add(ONE_SSN);
+      if (isSet(FLAG_ONE_OR_LESS_SSN)) {
+        codes |= ReasonCodes.ONE_SSN;
       }
-      if (oneOrMoreAddress) {
-        qualityReasons.add(ONE_OR_MORE_ADDRESS);
+      if (isSet(FLAG_ONE_OR_MORE_ADDRESS)) {
+        codes |= ReasonCodes.ONE_OR_MORE_ADDRESS;
       }
     } else {
-      if (trustedSources.isEmpty()) {
-        qualityReasons.add(NO_TRUSTED_SOURCE);
+      if (isEmpty(trustedSources)) {
+        codes |= ReasonCodes.NO_TRUSTED_SOURCE;
       }
-      if (!oneAndOnlyOneDOB) {
-        qualityReasons.add(NOT_ONE_DOB);
+      if (!isSet(FLAG_ONE_AND_ONLY_ONE_DOB)) {
+        codes |= ReasonCodes.NOT_ONE_DOB;
       }
-      if (!oneOrLessSSN) {
-        qualityReasons.add(NOT_ONE_SSN);
+      if (!isSet(FLAG_ONE_OR_LESS_SSN)) {
+        codes |= ReasonCodes.NOT_ONE_SSN;
       }
-      if (!oneOrMoreAddress) {
-        qualityReasons.add(NO_ADDRESS);
+      if (!isSet(FLAG_ONE_OR_MORE_ADDRESS)) {
+        codes |= ReasonCodes.NO_ADDRESS;
       }
     }
 
     RiskScore collisionScore = getCollisionScore();
     if (collisionScore == RiskScore.Red) {
       if (scoreOverride == RiskScore.Red) {
-        collisionReasons.add(MANUAL_RED);
+        codes |= ReasonCodes.MANUAL_RED;
       }
     } else if  (collisionScore == RiskScore.Green) {
-      collisionReasons.add(GREEN_DATA_QUALITY);
-      if (noPossibleMatch) {
-        collisionReasons.add(NO_POSIBLE_MATCH);
+      codes |= ReasonCodes.GREEN_DATA_QUALITY;
+      if (isSet(FLAG_NO_POSSIBLE_MATCH)) {
+        codes |= ReasonCodes.NO_POSSIBLE_MATCH;
       }
-      if (sharedF1s.isEmpty()) {
-        collisionReasons.add(NO_SHARED_F1);
+      if (isEmpty(sharedF1s)) {
+        codes |= ReasonCodes.NO_SHARED_F1;
       }
     } else {
       if (scoreOverride == RiskScore.Yellow) {
-        collisionReasons.add(MANUAL_YELLOW);
+        codes |= ReasonCodes.MANUAL_YELLOW;
       }
       if (qualityScore != RiskScore.Green) {
-        collisionReasons.add(NOT_GREEN_DATA_QUALITY);
+        codes |= ReasonCodes.NOT_GREEN_DATA_QUALITY;
       }
-      if (!noPossibleMatch) {
-        collisionReasons.add(POSIBLE_MATCH);
+      if (!isSet(FLAG_NO_POSSIBLE_MATCH)) {
+        codes |= ReasonCodes.POSSIBLE_MATCH;
       }
-      if (!sharedF1s.isEmpty()) {
-        String sf1 = sharedF1s.toString();
-        if (sf1.length() > MAX_SUBSTRING_SIZE) {
-          // limit the string size to avoid failed db insert
-          sf1 = getShortenedFeatDataList(sharedF1s);
+      if (!isEmpty(sharedF1s)) {
+        codes |= ReasonCodes.SHARES_F1;
+        if (details != null) {
+          String sf1 = sharedF1s.toString();
+          if (sf1.length() > MAX_SUBSTRING_SIZE) {
+            // limit the string size to avoid failed db insert
+            sf1 = getShortenedFeatDataList(sharedF1s);
+          }
+          details.add(sf1);
         }
-        collisionReasons.add(SHARES_F1 + " - " + sf1);
       }
     }
-
-    JsonObjectBuilder rootObject = Json.createObjectBuilder();
-    rootObject.add("Quality", Json.createArrayBuilder(qualityReasons).build());
-    rootObject.add("Collision", Json.createArrayBuilder(collisionReasons).build());
-
-    return rootObject.build().toString();
+    return codes;
   }
 
   public String getQueryRiskReason() {
     // Limit the size of the strings so not to get overflow on sql inserts.
-    if (!redQueryRisk.isEmpty()) {
+    if (!isEmpty(redQueryRisk)) {
       return getListAsLimitedQuotedStrings(redQueryRisk, MAX_QUERY_REASON_SIZE);
-    } else if (!yellowQueryRisk.isEmpty()) {
+    } else if (!isEmpty(yellowQueryRisk)) {
       return getListAsLimitedQuotedStrings(yellowQueryRisk, MAX_QUERY_REASON_SIZE);
     } else {
       return EMPTY_STRING;
     }
   }
 
+  // True if all the bits are set.
+  private boolean isSet(int bits) {
+    return (flags & bits) == bits;
+  }
+
+  private void setFlag(int bit, boolean value) {
+    if (value) {
+      flags |= bit;
+    } else {
+      flags &= ~bit;
+    }
+  }
+
+  private static boolean isEmpty(Collection<?> collection) {
+    return collection == null || collection.isEmpty();
+  }
+
+  private static boolean isEmpty(Map<?, ?> map) {
+    return map == null || map.isEmpty();
+  }
+
   private String getListAsLimitedQuotedStrings(Set<String> source, int limit) {
     List<String> limitedList = new ArrayList<>();
     for (String key : source) {
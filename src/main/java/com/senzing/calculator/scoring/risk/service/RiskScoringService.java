@@ -1,15 +1,24 @@
 package com.senzing.calculator.scoring.risk.service;
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -17,43 +26,33 @@ import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.management.JMException;
 
 import com.senzing.util.JsonUtilities;
-import com.senzing.listener.service.ListenerService;
 import com.senzing.listener.service.exception.ServiceExecutionException;
 import com.senzing.listener.service.exception.ServiceSetupException;
 import com.senzing.listener.service.g2.G2Service;
 import com.senzing.calculator.scoring.risk.data.CommandOptions;
 import com.senzing.calculator.scoring.risk.data.Definitions;
+import com.senzing.calculator.scoring.risk.service.db.ConnectionPool;
 import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.calculator.scoring.risk.service.db.FeatureEntityCache;
+import com.senzing.calculator.scoring.risk.service.db.ScoreFingerprints;
+import com.senzing.calculator.scoring.risk.service.db.SharedFeatures;
+import com.senzing.calculator.scoring.risk.service.entity.DomEntityExtractor;
+import com.senzing.calculator.scoring.risk.service.entity.EntityData;
+import com.senzing.calculator.scoring.risk.service.entity.EntityExtractor;
+import com.senzing.calculator.scoring.risk.service.entity.StreamingEntityExtractor;
 import com.senzing.calculator.scoring.risk.service.g2.G2ServiceExt;
+import com.senzing.calculator.scoring.risk.service.metrics.Health;
+import com.senzing.calculator.scoring.risk.service.metrics.LatencyRecorder;
+import com.senzing.calculator.scoring.risk.service.metrics.MetricsServer;
+import com.senzing.calculator.scoring.risk.service.metrics.StatisticsMBean;
 
 import static com.senzing.listener.service.ListenerService.*;
 import static com.senzing.listener.service.ListenerService.State.*;
 
-public class RiskScoringService implements ListenerService {
-
-  // Class for storing ftype overrides.
-  private class FeatureTypeOverride {
-    private String fType;
-    private String uType;
-
-    public String getFType() {
-      return fType;
-    }
-
-    public void setFType(String fType) {
-      this.fType = fType;
-    }
-
-    public String getUType() {
-      return uType;
-    }
-
-    public void setUType(String uType) {
-      this.uType = uType;
-    }
-  }
+public class RiskScoringService implements CommittingListenerService {
 
   // Tags for incoming message.
   private static final String AFFECTED_ENTITIES_TAG = "AFFECTED_ENTITIES";
@@ -62,18 +61,13 @@ public class RiskScoringService implements ListenerService {
   private static final String CFG_FBOVR_SECTION = "CFG_FBOVR";
   private static final String CFG_FTYPE_SECTION = "CFG_FTYPE";
   private static final String FTYPE_CODE_TAG = "FTYPE_CODE";
+  private static final String FTYPE_ID_TAG = "FTYPE_ID";
   private static final String FTYPE_FREQ_TAG = "FTYPE_FREQ";
   private static final String FTYPE_EXCL_TAG = "FTYPE_EXCL";
   // Configuration values.
   private static final String F1_TAG = "F1";
   private static final String F1E_TAG = "F1E";
   private static final String F1ES_TAG = "F1ES";
-  // Main sections for entity message.
-  private static final String RESOLVED_ENTITY_SECTION = "RESOLVED_ENTITY";
-  private static final String RELATED_ENTITIES_SECTION = "RELATED_ENTITIES";
-  // Sub sections for entity message.
-  private static final String FEATURES_SECTION = "FEATURES";
-  private static final String RECORDS_SECTION = "RECORDS";
   // Features
   private static final String SSN_TAG = "SSN";
   private static final String DOB_TAG = "DOB";
@@ -82,40 +76,119 @@ public class RiskScoringService implements ListenerService {
   private static final String RISK_SCORE_OVERRIDE_TAG = "RISK_SCORE_OVERRIDE";
   // Features' sub tags
   private static final String UTYPE_CODE_TAG = "UTYPE_CODE";
-  private static final String FEAT_DESC_TAG = "FEAT_DESC";
-  private static final String FEAT_DESC_VALUES_TAG = "FEAT_DESC_VALUES";
-  // Relationship sub tags
-  private static final String IS_AMBIGUOUS_TAG = "IS_AMBIGUOUS";
-  private static final String MATCH_LEVEL_CODE_TAG = "MATCH_LEVEL_CODE";
-  private static final String MATCH_KEY_TAG = "MATCH_KEY";
-  // Miscellaneous tags
-  private static final String DATA_SOURCE_TAG = "DATA_SOURCE";
-  private static final String LIB_FEAT_ID_TAG = "LIB_FEAT_ID";
-  private static final String CANDIDATE_CAP_REACHED_TAG = "CANDIDATE_CAP_REACHED";
-  private static final String SCORING_CAP_REACHED_TAG = "SCORING_CAP_REACHED";
   // Values.
   private static final String POSSIBLY_SAME_VALUE = "POSSIBLY_SAME";
   private static final String YES_VALUE = "YES";
-  private static final String Y_VALUE = "Y";
+  // Entity parsers.
+  private static final String DOM_PARSER = "dom";
+  private static final String STREAMING_PARSER = "streaming";
+  // Scoring executors.
+  private static final String PLATFORM_EXECUTOR = "platform";
+  private static final String VIRTUAL_EXECUTOR = "virtual";
   // Other strings
   private static final String COMMA = ",";
 
   private static final int defaultLensID = 1;
+  private static final int DEFAULT_SCORING_THREADS = 1;
+  private static final int DEFAULT_SCORING_QUEUE_SIZE = 1000;
+  private static final int DEFAULT_WRITE_BATCH_SIZE = 1;
+  private static final int DEFAULT_WRITE_BATCH_MILLIS = 1000;
+  private static final int DEFAULT_WRITE_QUEUE_SIZE = 0;
+  private static final int DEFAULT_COALESCE_MILLIS = 0;
+  private static final int DEFAULT_COALESCE_MAX_PENDING = 10000;
+  private static final String DEFAULT_ENTITY_PARSER = DOM_PARSER;
+  private static final int DEFAULT_SCORING_BATCH_SIZE = 1;
+  private static final String DEFAULT_SCORING_EXECUTOR = PLATFORM_EXECUTOR;
+  // Entities waiting on G2 and the database cost little on virtual threads, many of them are scored at once.
+  private static final int DEFAULT_VIRTUAL_CONCURRENCY = 64;
+  // 0 allows a G2 call per processor.
+  private static final int DEFAULT_G2_CONCURRENCY = 0;
+  // 0 fetches each entity when it is scored.
+  private static final int DEFAULT_PREFETCH_DEPTH = 0;
+  private static final int DEFAULT_PREFETCH_MAX_MEGABYTES = 64;
+  private static final int DEFAULT_FEATURE_CACHE_SIZE = 0;
+  private static final int DEFAULT_FEATURE_CACHE_TTL_MILLIS = 60000;
+  private static final int DEFAULT_SCORE_FINGERPRINT_CACHE_SIZE = 0;
+  private static final int DEFAULT_DB_POOL_MIN_SIZE = 1;
+  // 0 sizes the pool for the scoring threads and the writer.
+  private static final int DEFAULT_DB_POOL_MAX_SIZE = 0;
+  private static final int DEFAULT_DB_POOL_MAX_WAIT_MILLIS = 30000;
+  private static final int DEFAULT_MATCH_KEY_CACHE_SIZE = 10000;
+  private static final int DEFAULT_SCHEMA_VERSION = 2;
+  private static final int DEFAULT_METRICS_PORT = 0;
+  private static final int DEFAULT_HEALTH_MAX_LAG_MILLIS = 60000;
 
   G2ServiceExt g2Service;
   DatabaseService dbService;
-
-  List<String> f1Exclusive;
-  List<String> f1Features;
-  List<FeatureTypeOverride> f1OverRideFType;
+  // Used when scoring on the thread delivering the messages.
+  ScoringContext scoringContext;
+  // Used when scoring on multiple threads or on virtual threads.
+  ScoringExecutor scoringExecutor;
+  // Used when scoring on virtual threads, bounds the G2 calls made at once.
+  Semaphore g2Permits;
+  // Used when entity documents are fetched from G2 ahead of scoring.
+  EntityPrefetcher prefetcher;
+  // Used when scores are written on a dedicated thread.
+  RiskScoreWriter scoreWriter;
+  // Used when affected entities are held for a while to drop repeats.
+  EntityCoalescer coalescer;
+  // Used when feature ownership is cached. Shared by all the scoring threads.
+  FeatureEntityCache featureCache;
+  // Used when unchanged scores are not written again. Shared by all the database services.
+  ScoreFingerprints scoreFingerprints;
+  // Database connections shared by all the database services.
+  ConnectionPool connectionPool;
+  // Used when the metrics and health are served over HTTP.
+  MetricsServer metricsServer;
+  // The database services the scores are written with on the scoring threads, for flushing them.  The writer
+  // flushes its own.
+  final List<DatabaseService> writingDbServices = new ArrayList<>();
+
+  // What the rules do with each feature type, compiled from the G2 configuration.
+  Map<String, FeatureTypeRole> featureTypeRoles;
   List<String> trustedSources;
   List<QueryRiskData> queryRiskCriteria;
+  QueryRiskMatcher queryRiskMatcher;
+  EntityExtractor entityExtractor;
+  // Number of entities whose shared features are looked up together.
+  int scoringBatchSize = DEFAULT_SCORING_BATCH_SIZE;
+  // Version of the RES_RISK_SCORE schema, from 3 on the reasons are written as codes.
+  int schemaVersion = DEFAULT_SCHEMA_VERSION;
+  // Settings of the database services scoring entities.
+  int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+  int writeBatchMillis = DEFAULT_WRITE_BATCH_MILLIS;
+  int[] inClauseBuckets;
+  // Time without progress while entities are waiting after which the service is reported unhealthy.
+  long healthMaxLagMillis = DEFAULT_HEALTH_MAX_LAG_MILLIS;
 
   State state = UNINITIALIZED;
   boolean serviceUp;
 
-  private static long processCount = 0;
-  private static long missingEntityCount = 0;
+  private final AtomicLong processCount = new AtomicLong();
+  private final AtomicLong missingEntityCount = new AtomicLong();
+  // Missing entities since the last progress report.
+  private final AtomicLong recentMissingEntityCount = new AtomicLong();
+  private final AtomicLong receivedEntityCount = new AtomicLong();
+  private final AtomicLong featureLookupCount = new AtomicLong();
+  private final AtomicLong messageCount = new AtomicLong();
+  // Entities whose scoring failed away from the caller of process(), and the failures already reported by flush().
+  private final AtomicLong failedScoringCount = new AtomicLong();
+  private long reportedFailureCount;
+  // When the service was initialized, for the rates.
+  private volatile long startNanos = System.nanoTime();
+  // When the last score was posted, for the pipeline lag.
+  private volatile long lastProgressNanos = System.nanoTime();
+  // Messages being processed by process(), which waits when the scoring is behind.
+  private final AtomicInteger messagesInProgress = new AtomicInteger();
+
+  // Latencies of the processing stages.
+  private final LatencyRecorder getEntityLatency = new LatencyRecorder();
+  private final LatencyRecorder parseLatency = new LatencyRecorder();
+  private final LatencyRecorder featureLookupLatency = new LatencyRecorder();
+  private final LatencyRecorder scoringLatency = new LatencyRecorder();
+  private final LatencyRecorder writeLatency = new LatencyRecorder();
+
+  static final String MBEAN_NAME = "com.senzing.calculator.scoring.risk:type=RiskScoringService";
 
   /**
    * Implemented to return the statistics associated with this instance.
@@ -124,7 +197,112 @@ public class RiskScoringService implements ListenerService {
    */
   @Override
   public synchronized Map<Statistic, Number> getStatistics() {
-      return Collections.emptyMap();
+    Map<Statistic, Number> statistics = new LinkedHashMap<>();
+    statistics.put(RiskScoringStatistic.entitiesScored, processCount.get());
+    statistics.put(RiskScoringStatistic.missingEntities, missingEntityCount.get());
+    statistics.put(RiskScoringStatistic.entitiesReceived, receivedEntityCount.get());
+    statistics.put(RiskScoringStatistic.featureLookups, featureLookupCount.get());
+    statistics.put(RiskScoringStatistic.messagesReceived, messageCount.get());
+    double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+    statistics.put(RiskScoringStatistic.entitiesPerSecond, processCount.get() / seconds);
+    statistics.put(RiskScoringStatistic.messagesPerSecond, messageCount.get() / seconds);
+    long lookedUp = processCount.get() + missingEntityCount.get();
+    statistics.put(RiskScoringStatistic.missingEntityRate, lookedUp == 0 ? 0.0 : 100.0 * missingEntityCount.get() / lookedUp);
+    statistics.put(RiskScoringStatistic.pipelineLag, getPipelineLagMillis());
+    putLatencies(statistics, getEntityLatency, RiskScoringStatistic.g2GetEntityP50, RiskScoringStatistic.g2GetEntityP95,
+        RiskScoringStatistic.g2GetEntityP99, RiskScoringStatistic.g2GetEntityMax);
+    putLatencies(statistics, parseLatency, RiskScoringStatistic.entityParsingP50, RiskScoringStatistic.entityParsingP95,
+        RiskScoringStatistic.entityParsingP99, RiskScoringStatistic.entityParsingMax);
+    putLatencies(statistics, featureLookupLatency, RiskScoringStatistic.featureLookupP50, RiskScoringStatistic.featureLookupP95,
+        RiskScoringStatistic.featureLookupP99, RiskScoringStatistic.featureLookupMax);
+    putLatencies(statistics, scoringLatency, RiskScoringStatistic.scoringP50, RiskScoringStatistic.scoringP95,
+        RiskScoringStatistic.scoringP99, RiskScoringStatistic.scoringMax);
+    putLatencies(statistics, writeLatency, RiskScoringStatistic.dbWriteP50, RiskScoringStatistic.dbWriteP95,
+        RiskScoringStatistic.dbWriteP99, RiskScoringStatistic.dbWriteMax);
+    if (coalescer != null) {
+      statistics.put(RiskScoringStatistic.entitiesCoalesced, coalescer.getCoalescedCount());
+      statistics.put(RiskScoringStatistic.coalescePending, coalescer.getPendingCount());
+    }
+    if (scoringExecutor != null) {
+      statistics.put(RiskScoringStatistic.scoringQueued, scoringExecutor.getQueuedCount());
+    }
+    if (prefetcher != null) {
+      statistics.put(RiskScoringStatistic.prefetchHits, prefetcher.getHitCount());
+      statistics.put(RiskScoringStatistic.prefetchMisses, prefetcher.getMissCount());
+      statistics.put(RiskScoringStatistic.prefetchDropped, prefetcher.getDroppedCount());
+      statistics.put(RiskScoringStatistic.prefetchHeldBytes, prefetcher.getHeldBytes());
+    }
+    if (scoreWriter != null) {
+      statistics.put(RiskScoringStatistic.writeQueued, scoreWriter.getQueuedCount());
+    }
+    if (featureCache != null) {
+      statistics.put(RiskScoringStatistic.featureCacheHits, featureCache.getHitCount());
+      statistics.put(RiskScoringStatistic.featureCacheMisses, featureCache.getMissCount());
+      statistics.put(RiskScoringStatistic.featureCacheEvictions, featureCache.getEvictionCount());
+      statistics.put(RiskScoringStatistic.featureCacheInvalidations, featureCache.getInvalidationCount());
+      statistics.put(RiskScoringStatistic.featureCacheWeight, featureCache.getWeight());
+    }
+    if (scoreFingerprints != null) {
+      statistics.put(RiskScoringStatistic.writesSuppressed, scoreFingerprints.getSuppressedCount());
+      statistics.put(RiskScoringStatistic.scoreFingerprintHits, scoreFingerprints.getHitCount());
+      statistics.put(RiskScoringStatistic.scoreFingerprintMisses, scoreFingerprints.getMissCount());
+      statistics.put(RiskScoringStatistic.scoreFingerprintEvictions, scoreFingerprints.getEvictionCount());
+    }
+    if (queryRiskMatcher != null) {
+      long hits = queryRiskMatcher.getCacheHitCount();
+      long lookups = hits + queryRiskMatcher.getCacheMissCount();
+      statistics.put(RiskScoringStatistic.matchKeyCacheHits, hits);
+      statistics.put(RiskScoringStatistic.matchKeyCacheMisses, lookups - hits);
+      statistics.put(RiskScoringStatistic.matchKeyCacheHitRate, lookups == 0 ? 0.0 : 100.0 * hits / lookups);
+    }
+    if (connectionPool != null) {
+      statistics.put(RiskScoringStatistic.dbConnectionsActive, connectionPool.getActiveCount());
+      statistics.put(RiskScoringStatistic.dbConnectionsIdle, connectionPool.getIdleCount());
+      statistics.put(RiskScoringStatistic.dbConnectionWaits, connectionPool.getWaitCount());
+      statistics.put(RiskScoringStatistic.dbConnectionWaitTime, connectionPool.getTotalWaitMillis());
+      statistics.put(RiskScoringStatistic.dbConnectionsReplaced, connectionPool.getReplacedCount());
+    }
+    return statistics;
+  }
+
+  private static void putLatencies(Map<Statistic, Number> statistics, LatencyRecorder recorder, Statistic p50,
+      Statistic p95, Statistic p99, Statistic max) {
+    statistics.put(p50, recorder.getPercentile(50));
+    statistics.put(p95, recorder.getPercentile(95));
+    statistics.put(p99, recorder.getPercentile(99));
+    statistics.put(max, recorder.getMax());
+  }
+
+  /**
+   * Gives how long entities have been waiting without any score being posted.
+   *
+   * @return Milliseconds since the last score was posted, 0 if no entity is waiting to be scored or written
+   */
+  long getPipelineLagMillis() {
+    long waiting = messagesInProgress.get();
+    if (coalescer != null) {
+      waiting += coalescer.getPendingCount();
+    }
+    if (scoringExecutor != null) {
+      waiting += scoringExecutor.getQueuedCount();
+    }
+    if (scoreWriter != null) {
+      waiting += scoreWriter.getQueuedCount();
+    }
+    if (waiting == 0) {
+      return 0;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastProgressNanos);
+  }
+
+  /**
+   * Gives the health served on /health.  The service is healthy when it is available and the pipeline lag is
+   * within the configured maximum.
+   */
+  Health getHealth() {
+    State current = getState();
+    long lagMillis = getPipelineLagMillis();
+    return new Health(current == AVAILABLE && lagMillis <= healthMaxLagMillis, current.toString(), lagMillis);
   }
 
   @Override
@@ -149,11 +327,68 @@ public class RiskScoringService implements ListenerService {
     String connectionString = null;
     String trustedSourcesString = null;
     String queryRiskString = null;
+    int scoringThreads = DEFAULT_SCORING_THREADS;
+    int scoringQueueSize = DEFAULT_SCORING_QUEUE_SIZE;
+    int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+    int writeBatchMillis = DEFAULT_WRITE_BATCH_MILLIS;
+    int writeQueueSize = DEFAULT_WRITE_QUEUE_SIZE;
+    int coalesceMillis = DEFAULT_COALESCE_MILLIS;
+    int coalesceMaxPending = DEFAULT_COALESCE_MAX_PENDING;
+    String entityParser = DEFAULT_ENTITY_PARSER;
+    int scoringBatchSize = DEFAULT_SCORING_BATCH_SIZE;
+    String scoringExecutorName = DEFAULT_SCORING_EXECUTOR;
+    int virtualConcurrency = DEFAULT_VIRTUAL_CONCURRENCY;
+    int g2Concurrency = DEFAULT_G2_CONCURRENCY;
+    int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+    int prefetchMaxMegabytes = DEFAULT_PREFETCH_MAX_MEGABYTES;
+    int featureCacheSize = DEFAULT_FEATURE_CACHE_SIZE;
+    int featureCacheTtlMillis = DEFAULT_FEATURE_CACHE_TTL_MILLIS;
+    int scoreFingerprintCacheSize = DEFAULT_SCORE_FINGERPRINT_CACHE_SIZE;
+    String inClauseBucketsString = null;
+    int dbPoolMinSize = DEFAULT_DB_POOL_MIN_SIZE;
+    int dbPoolMaxSize = DEFAULT_DB_POOL_MAX_SIZE;
+    int dbPoolMaxWaitMillis = DEFAULT_DB_POOL_MAX_WAIT_MILLIS;
+    int matchKeyCacheSize = DEFAULT_MATCH_KEY_CACHE_SIZE;
+    int schemaVersion = DEFAULT_SCHEMA_VERSION;
+    int metricsPort = DEFAULT_METRICS_PORT;
+    int healthMaxLagMillis = DEFAULT_HEALTH_MAX_LAG_MILLIS;
     try {
       g2IniFile = JsonUtilities.getString(config, CommandOptions.INI_FILE, "");
       connectionString = JsonUtilities.getString(config, CommandOptions.JDBC_CONNECTION, "");
       trustedSourcesString = JsonUtilities.getString(config, CommandOptions.TRUSTED_SOURCES, "");
       queryRiskString = JsonUtilities.getString(config, CommandOptions.QUERY_RISK_CRITERIA, "");
+      scoringThreads = getConfigInteger(config, CommandOptions.SCORING_THREADS, DEFAULT_SCORING_THREADS);
+      scoringQueueSize = getConfigInteger(config, CommandOptions.SCORING_QUEUE_SIZE, DEFAULT_SCORING_QUEUE_SIZE);
+      writeBatchSize = getConfigInteger(config, CommandOptions.WRITE_BATCH_SIZE, DEFAULT_WRITE_BATCH_SIZE);
+      writeBatchMillis = getConfigInteger(config, CommandOptions.WRITE_BATCH_MILLIS, DEFAULT_WRITE_BATCH_MILLIS);
+      writeQueueSize = getConfigInteger(config, CommandOptions.WRITE_QUEUE_SIZE, DEFAULT_WRITE_QUEUE_SIZE);
+      coalesceMillis = getConfigInteger(config, CommandOptions.COALESCE_MILLIS, DEFAULT_COALESCE_MILLIS);
+      coalesceMaxPending = getConfigInteger(config, CommandOptions.COALESCE_MAX_PENDING, DEFAULT_COALESCE_MAX_PENDING);
+      entityParser = JsonUtilities.getString(config, CommandOptions.ENTITY_PARSER, "");
+      if (entityParser == null || entityParser.isBlank()) {
+        entityParser = DEFAULT_ENTITY_PARSER;
+      }
+      scoringBatchSize = getConfigInteger(config, CommandOptions.SCORING_BATCH_SIZE, DEFAULT_SCORING_BATCH_SIZE);
+      scoringExecutorName = JsonUtilities.getString(config, CommandOptions.SCORING_EXECUTOR, "");
+      if (scoringExecutorName == null || scoringExecutorName.isBlank()) {
+        scoringExecutorName = DEFAULT_SCORING_EXECUTOR;
+      }
+      virtualConcurrency = getConfigInteger(config, CommandOptions.VIRTUAL_CONCURRENCY, DEFAULT_VIRTUAL_CONCURRENCY);
+      g2Concurrency = getConfigInteger(config, CommandOptions.G2_CONCURRENCY, DEFAULT_G2_CONCURRENCY);
+      prefetchDepth = getConfigInteger(config, CommandOptions.PREFETCH_DEPTH, DEFAULT_PREFETCH_DEPTH);
+      prefetchMaxMegabytes = getConfigInteger(config, CommandOptions.PREFETCH_MAX_MEGABYTES, DEFAULT_PREFETCH_MAX_MEGABYTES);
+      featureCacheSize = getConfigInteger(config, CommandOptions.FEATURE_CACHE_SIZE, DEFAULT_FEATURE_CACHE_SIZE);
+      featureCacheTtlMillis = getConfigInteger(config, CommandOptions.FEATURE_CACHE_TTL_MILLIS, DEFAULT_FEATURE_CACHE_TTL_MILLIS);
+      scoreFingerprintCacheSize = getConfigInteger(config, CommandOptions.SCORE_FINGERPRINT_CACHE_SIZE,
+          DEFAULT_SCORE_FINGERPRINT_CACHE_SIZE);
+      inClauseBucketsString = JsonUtilities.getString(config, CommandOptions.IN_CLAUSE_BUCKETS, "");
+      dbPoolMinSize = getConfigInteger(config, CommandOptions.DB_POOL_MIN_SIZE, DEFAULT_DB_POOL_MIN_SIZE);
+      dbPoolMaxSize = getConfigInteger(config, CommandOptions.DB_POOL_MAX_SIZE, DEFAULT_DB_POOL_MAX_SIZE);
+      dbPoolMaxWaitMillis = getConfigInteger(config, CommandOptions.DB_POOL_MAX_WAIT_MILLIS, DEFAULT_DB_POOL_MAX_WAIT_MILLIS);
+      matchKeyCacheSize = getConfigInteger(config, CommandOptions.MATCH_KEY_CACHE_SIZE, DEFAULT_MATCH_KEY_CACHE_SIZE);
+      schemaVersion = getConfigInteger(config, CommandOptions.SCHEMA_VERSION, DEFAULT_SCHEMA_VERSION);
+      metricsPort = getConfigInteger(config, CommandOptions.METRICS_PORT, DEFAULT_METRICS_PORT);
+      healthMaxLagMillis = getConfigInteger(config, CommandOptions.HEALTH_MAX_LAG_MILLIS, DEFAULT_HEALTH_MAX_LAG_MILLIS);
     } catch (RuntimeException e) {
       throw new ServiceSetupException(e);
     }
@@ -170,9 +405,78 @@ public class RiskScoringService implements ListenerService {
     if (queryRiskString == null || queryRiskString.isEmpty()) {
       System.err.println("WARNING: query risk criteria is not configured!");
     }
+    if (scoringThreads < 1) {
+      throw new ServiceSetupException(CommandOptions.SCORING_THREADS + " must be at least 1");
+    }
+    if (scoringQueueSize < 1) {
+      throw new ServiceSetupException(CommandOptions.SCORING_QUEUE_SIZE + " must be at least 1");
+    }
+    if (scoringBatchSize < 1) {
+      throw new ServiceSetupException(CommandOptions.SCORING_BATCH_SIZE + " must be at least 1");
+    }
+    this.scoringBatchSize = scoringBatchSize;
+    scoringExecutorName = scoringExecutorName.strip().toLowerCase();
+    if (!scoringExecutorName.equals(PLATFORM_EXECUTOR) && !scoringExecutorName.equals(VIRTUAL_EXECUTOR)) {
+      throw new ServiceSetupException(CommandOptions.SCORING_EXECUTOR + " must be " + PLATFORM_EXECUTOR + " or " + VIRTUAL_EXECUTOR);
+    }
+    boolean virtualThreads = scoringExecutorName.equals(VIRTUAL_EXECUTOR);
+    if (virtualThreads && !VirtualThreadScoringExecutor.isSupported()) {
+      throw new ServiceSetupException(CommandOptions.SCORING_EXECUTOR + " " + VIRTUAL_EXECUTOR
+          + " needs Java 21 or later, running on Java " + Runtime.version().feature());
+    }
+    if (virtualConcurrency < 1) {
+      throw new ServiceSetupException(CommandOptions.VIRTUAL_CONCURRENCY + " must be at least 1");
+    }
+    // Entities scored at once, each with its own database service.
+    int scoringConcurrency = virtualThreads ? virtualConcurrency : scoringThreads;
+    if (g2Concurrency < 0) {
+      throw new ServiceSetupException(CommandOptions.G2_CONCURRENCY + " must not be negative");
+    }
+    if (prefetchDepth < 0) {
+      throw new ServiceSetupException(CommandOptions.PREFETCH_DEPTH + " must not be negative");
+    }
+    if (prefetchMaxMegabytes < 1) {
+      throw new ServiceSetupException(CommandOptions.PREFETCH_MAX_MEGABYTES + " must be at least 1");
+    }
+    if (matchKeyCacheSize < 0) {
+      throw new ServiceSetupException(CommandOptions.MATCH_KEY_CACHE_SIZE + " must not be negative");
+    }
+    if (schemaVersion < 2 || schemaVersion > 4) {
+      throw new ServiceSetupException(CommandOptions.SCHEMA_VERSION + " must be 2, 3 or 4");
+    }
+    if (scoreFingerprintCacheSize < 0) {
+      throw new ServiceSetupException(CommandOptions.SCORE_FINGERPRINT_CACHE_SIZE + " must not be negative");
+    }
+    this.schemaVersion = schemaVersion;
+    if (metricsPort < 0) {
+      throw new ServiceSetupException(CommandOptions.METRICS_PORT + " must not be negative");
+    }
+    if (healthMaxLagMillis < 1) {
+      throw new ServiceSetupException(CommandOptions.HEALTH_MAX_LAG_MILLIS + " must be at least 1");
+    }
+    this.healthMaxLagMillis = healthMaxLagMillis;
+    if (dbPoolMaxSize == 0) {
+      // A connection for each entity scored at once, the writer and the thread delivering the messages.
+      dbPoolMaxSize = scoringConcurrency + 2;
+    }
+    if (dbPoolMaxSize < 1) {
+      throw new ServiceSetupException(CommandOptions.DB_POOL_MAX_SIZE + " must be at least 1");
+    }
+    if (dbPoolMinSize < 0 || dbPoolMinSize > dbPoolMaxSize) {
+      throw new ServiceSetupException(CommandOptions.DB_POOL_MIN_SIZE + " must be between 0 and " + dbPoolMaxSize);
+    }
+    entityParser = entityParser.strip().toLowerCase();
+    if (!entityParser.equals(DOM_PARSER) && !entityParser.equals(STREAMING_PARSER)) {
+      throw new ServiceSetupException(CommandOptions.ENTITY_PARSER + " must be " + DOM_PARSER + " or " + STREAMING_PARSER);
+    }
+
+    this.inClauseBuckets = parseInClauseBuckets(inClauseBucketsString);
+    this.writeBatchSize = writeBatchSize;
+    this.writeBatchMillis = writeBatchMillis;
 
     trustedSources = parseAndFormatCommaSeparatedString(trustedSourcesString);
     queryRiskCriteria = parseAndProcessQueryRiskCriteria(queryRiskString);
+    queryRiskMatcher = new QueryRiskMatcher(queryRiskCriteria, matchKeyCacheSize);
 
     JsonObjectBuilder job = Json.createObjectBuilder();
     job.add(G2Service.G2_INIT_CONFIG_KEY, g2IniFile);
@@ -187,20 +491,88 @@ public class RiskScoringService implements ListenerService {
       JsonReader g2ConfigReader = Json.createReader(new StringReader(g2Config));
       JsonObject g2JsonConfig = g2ConfigReader.readObject();
       JsonObject g2ConfigRoot = g2JsonConfig.getJsonObject(G2_CONFIG_SECTION);
-      // Get the exclusive features.
-      f1Exclusive = extractF1ExclusiveFeatures(g2ConfigRoot);
-      // Get the override features.
-      f1OverRideFType = extractF1FeatureTypeOverride(g2ConfigRoot);
-      // Get the F1 features.
-      List<String> frequencies = Arrays.asList(F1_TAG);
-      f1Features = extractFeatureTypesBasedOnFrequency(g2ConfigRoot, frequencies);
-
-      dbService = new DatabaseService();
-      dbService.init(connectionString);
+      featureTypeRoles = extractFeatureTypeRoles(g2ConfigRoot);
+
+      // Only the values of these feature types are looked at, other feature types are only counted.
+      Set<String> collectedFeatureTypes = new HashSet<>();
+      for (FeatureTypeRole role : featureTypeRoles.values()) {
+        if (role.isCollected()) {
+          collectedFeatureTypes.add(role.getFeatureType());
+        }
+      }
+      if (entityParser.equals(STREAMING_PARSER)) {
+        entityExtractor = new StreamingEntityExtractor(collectedFeatureTypes);
+      } else {
+        entityExtractor = new DomEntityExtractor(collectedFeatureTypes);
+      }
+
+      if (featureCacheSize > 0) {
+        featureCache = new FeatureEntityCache(defaultLensID, featureCacheSize, featureCacheTtlMillis);
+      }
+      if (scoreFingerprintCacheSize > 0) {
+        scoreFingerprints = new ScoreFingerprints(defaultLensID, scoreFingerprintCacheSize);
+      }
+
+      connectionPool = new ConnectionPool(connectionString, dbPoolMinSize, dbPoolMaxSize, dbPoolMaxWaitMillis);
+      dbService = newScoringDatabaseService();
+      scoringContext = new ScoringContext(dbService);
+      writingDbServices.add(dbService);
+
+      if (writeQueueSize > 0) {
+        DatabaseService writerDbService = new DatabaseService();
+        writerDbService.init(connectionPool);
+        writerDbService.setSchemaVersion(schemaVersion);
+        writerDbService.enableBatchWrites(writeBatchSize, writeBatchMillis);
+        writerDbService.setScoreFingerprints(scoreFingerprints);
+        scoreWriter = new RiskScoreWriter(writerDbService, writeQueueSize, writeLatency);
+        scoreWriter.start();
+      }
+
+      if (prefetchDepth > 0) {
+        prefetcher = new EntityPrefetcher(this::fetchEntity, prefetchDepth, prefetchMaxMegabytes * 1024L * 1024L);
+        prefetcher.start();
+      }
+
+      if (scoringThreads > 1 || virtualThreads) {
+        // Each worker gets its own service holding its pending writes, the connections come from the shared pool.
+        List<DatabaseService> workerDbServices = new ArrayList<>();
+        for (int i = 0; i < scoringConcurrency; i++) {
+          workerDbServices.add(newScoringDatabaseService());
+        }
+        writingDbServices.addAll(workerDbServices);
+        if (virtualThreads) {
+          g2Permits = new Semaphore(g2Concurrency > 0 ? g2Concurrency : Runtime.getRuntime().availableProcessors());
+          scoringExecutor = new VirtualThreadScoringExecutor(this::processEntitiesCounted, workerDbServices, scoringQueueSize);
+        } else {
+          scoringExecutor = new ScoringWorkerPool(this::processEntitiesCounted, workerDbServices, scoringQueueSize, scoringBatchSize);
+        }
+        scoringExecutor.start();
+      }
+
+      if (coalesceMillis > 0) {
+        coalescer = new EntityCoalescer(this::scoreCoalesced, coalesceMillis, coalesceMaxPending);
+        coalescer.start();
+      }
     } catch (ServiceExecutionException | RuntimeException | SQLException e) {
       throw new ServiceSetupException(e);
     }
 
+    try {
+      new StatisticsMBean(this::getStatistics, "Risk scoring statistics").register(MBEAN_NAME);
+    } catch (JMException e) {
+      System.err.println("WARNING: statistics are not published over JMX: " + e.getMessage());
+    }
+    if (metricsPort > 0) {
+      try {
+        metricsServer = new MetricsServer(metricsPort, this::getStatistics, this::getHealth);
+        metricsServer.start();
+      } catch (IOException e) {
+        throw new ServiceSetupException("Failed to serve metrics on port " + metricsPort, e);
+      }
+    }
+    startNanos = System.nanoTime();
+    lastProgressNanos = startNanos;
+
     serviceUp = true;
     Date current = new Date();
     System.out.println(current.toInstant() + " - Initalization complete");
@@ -208,10 +580,97 @@ public class RiskScoringService implements ListenerService {
   }
 
 
+  /*
+   * Creates a database service for scoring entities, with connections from the shared pool.
+   */
+  private DatabaseService newScoringDatabaseService() throws SQLException {
+    DatabaseService scoringDbService = new DatabaseService();
+    scoringDbService.init(connectionPool);
+    scoringDbService.setSchemaVersion(schemaVersion);
+    scoringDbService.enableBatchWrites(writeBatchSize, writeBatchMillis);
+    scoringDbService.setFeatureCache(featureCache);
+    scoringDbService.setScoreFingerprints(scoreFingerprints);
+    if (inClauseBuckets != null) {
+      scoringDbService.setInClauseBuckets(inClauseBuckets);
+    }
+    return scoringDbService;
+  }
+
+  /**
+   * Creates the resources for scoring entities on a thread of the caller, see {@link #rescoreEntities}.  Its
+   * database service shares the connections of the service and must be closed by the caller.
+   *
+   * @return A context for one thread
+   *
+   * @throws ServiceExecutionException
+   */
+  public ScoringContext createScoringContext() throws ServiceExecutionException {
+    try {
+      return new ScoringContext(newScoringDatabaseService());
+    } catch (SQLException e) {
+      throw new ServiceExecutionException(e);
+    }
+  }
+
+  /**
+   * Scores entities on the calling thread, up to the scoring batch size at a time.  Unlike the entities of
+   * messages they don't go through the coalescer or the scoring executor, and the scores are posted with the database
+   * service of the context, so they are committed by flushing it.
+   *
+   * @param entityIDs IDs of the entities to score
+   * @param context Resources of the calling thread, from {@link #createScoringContext()}
+   *
+   * @throws ServiceExecutionException
+   */
+  public void rescoreEntities(List<Long> entityIDs, ScoringContext context) throws ServiceExecutionException {
+    if (scoreWriter != null) {
+      throw new IllegalStateException("Rescoring needs the scores written by the scoring thread, "
+          + CommandOptions.WRITE_QUEUE_SIZE + " must be 0");
+    }
+    for (int start = 0; start < entityIDs.size(); start += scoringBatchSize) {
+      processEntities(entityIDs.subList(start, Math.min(start + scoringBatchSize, entityIDs.size())), context);
+    }
+  }
+
+  /**
+   * Returns the lens the entities are scored in.
+   */
+  public int getLensID() {
+    return defaultLensID;
+  }
+
   @Override
   public void destroy() {
     this.setState(DESTROYING);
+    // Let the held and queued entities be scored before G2 goes away.
+    if (coalescer != null) {
+      coalescer.shutdown();
+    }
+    if (scoringExecutor != null) {
+      scoringExecutor.shutdown();
+    }
+    if (prefetcher != null) {
+      prefetcher.shutdown();
+    }
+    // Everything scored has been handed to the writer by now. Make sure it all gets committed.
+    if (scoreWriter != null) {
+      scoreWriter.shutdown();
+    }
+    if (dbService != null) {
+      dbService.close();
+    }
+    if (connectionPool != null) {
+      connectionPool.close();
+    }
     g2Service.destroy();
+    if (metricsServer != null) {
+      metricsServer.stop();
+    }
+    try {
+      StatisticsMBean.unregister(MBEAN_NAME);
+    } catch (JMException e) {
+      System.err.println("WARNING: failed to remove statistics from JMX: " + e.getMessage());
+    }
     this.setState(DESTROYED);
   }
 
@@ -226,20 +685,158 @@ public class RiskScoringService implements ListenerService {
     //     {"ENTITY_ID":1,"LENS_CODE":"DEFAULT"}
     //   ]
     // }
+    messageCount.incrementAndGet();
+    messagesInProgress.incrementAndGet();
     try {
       // We are only interested in the entity ids from the AFFECTED_ENTITIES section.
       JsonArray entities = JsonUtilities.getJsonArray(message, AFFECTED_ENTITIES_TAG);
       if (entities != null) {
+        List<Long> entityIDs = new ArrayList<>();
         for (int i = 0; i < entities.size(); i++) {
           JsonObject entity = entities.getJsonObject(i);
           if (entity != null) {
             Long entityID = JsonUtilities.getLong(entity, Definitions.ENTITY_ID_FIELD);
-            processEntity(entityID);
+            receivedEntityCount.incrementAndGet();
+            if (featureCache != null) {
+              // The change may have moved features of the entity, what is cached about them can't be trusted.
+              featureCache.invalidateEntity(entityID);
+            }
+            if (coalescer != null) {
+              coalescer.offer(entityID);
+            } else {
+              entityIDs.add(entityID);
+            }
           }
         }
+        scoreEntities(entityIDs);
       }
     } catch (RuntimeException e) {
       throw new ServiceExecutionException(e);
+    } finally {
+      messagesInProgress.decrementAndGet();
+    }
+  }
+
+  /**
+   * Hands the entities to the scoring executor if one is configured, otherwise scores them on the current thread,
+   * up to the scoring batch size at a time.
+   * 
+   * @param entityIDs IDs for the entities being scored
+   * @throws ServiceExecutionException
+   */
+  private void scoreEntities(List<Long> entityIDs) throws ServiceExecutionException {
+    if (prefetcher != null) {
+      prefetcher.hint(entityIDs);
+    }
+    if (scoringExecutor != null) {
+      for (long entityID : entityIDs) {
+        scoringExecutor.submit(entityID);
+      }
+    } else {
+      for (int start = 0; start < entityIDs.size(); start += scoringBatchSize) {
+        processEntities(entityIDs.subList(start, Math.min(start + scoringBatchSize, entityIDs.size())), scoringContext);
+      }
+    }
+  }
+
+  /**
+   * Returns once the scores of the entities of all the messages processed so far are committed, so the messages
+   * can be acknowledged.  Entities held for coalescing are released right away.  Meant to be called by the thread
+   * processing the messages.
+   *
+   * @throws ServiceExecutionException If scoring or writing failed for any entity since the last flush, the
+   *     messages processed since then should be delivered again.  Failures already thrown by
+   *     {@link #process(JsonObject)} aren't reported again.
+   */
+  @Override
+  public synchronized void flush() throws ServiceExecutionException {
+    try {
+      if (coalescer != null) {
+        coalescer.flush();
+      }
+      if (scoringExecutor != null) {
+        scoringExecutor.awaitIdle();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceExecutionException(e);
+    }
+    if (scoreWriter != null) {
+      scoreWriter.flush();
+    }
+    for (DatabaseService writingDbService : writingDbServices) {
+      try {
+        writingDbService.flush();
+      } catch (ServiceExecutionException e) {
+        failedScoringCount.incrementAndGet();
+        e.printStackTrace();
+      }
+    }
+    long failureCount = failedScoringCount.get();
+    for (DatabaseService writingDbService : writingDbServices) {
+      failureCount += writingDbService.getBackgroundFailureCount();
+    }
+    if (scoreWriter != null) {
+      failureCount += scoreWriter.getFailureCount();
+    }
+    long newFailureCount = failureCount - reportedFailureCount;
+    reportedFailureCount = failureCount;
+    if (newFailureCount > 0) {
+      throw new ServiceExecutionException(newFailureCount + " scoring or write failures since the last flush");
+    }
+  }
+
+  /**
+   * Scores the entities released by the coalescer, counting the failures for {@link #flush()}.
+   */
+  private void scoreCoalesced(List<Long> entityIDs) throws ServiceExecutionException {
+    try {
+      scoreEntities(entityIDs);
+    } catch (ServiceExecutionException | RuntimeException e) {
+      failedScoringCount.addAndGet(entityIDs.size());
+      throw e;
+    }
+  }
+
+  /**
+   * Scores a batch of entities on the scoring executor, counting the failures for {@link #flush()}.
+   */
+  private void processEntitiesCounted(List<Long> entityIDs, ScoringContext context) throws ServiceExecutionException {
+    try {
+      processEntities(entityIDs, context);
+    } catch (ServiceExecutionException | RuntimeException e) {
+      failedScoringCount.addAndGet(entityIDs.size());
+      throw e;
+    }
+  }
+
+  /**
+   * Calculates risk scores for a batch of entities. The features of all of them are checked against other
+   * entities with one database lookup, the entity itself is then left out of its own results.
+   * 
+   * @param entityIDs IDs for the entities being scored
+   * @param context Database service and risk scorers of the thread doing the scoring
+   * @throws ServiceExecutionException
+   */
+  private void processEntities(List<Long> entityIDs, ScoringContext context) throws ServiceExecutionException {
+    if (entityIDs.size() == 1) {
+      processEntity(entityIDs.get(0), context);
+      return;
+    }
+    DatabaseService dbService = context.getDbService();
+    List<PreparedEntity> preparedEntities = new ArrayList<>(entityIDs.size());
+    Set<Long> featureIDs = context.clearedFeatureIDs();
+    for (int i = 0; i < entityIDs.size(); i++) {
+      PreparedEntity preparedEntity = prepareEntity(context.resetPreparedEntity(i, entityIDs.get(i)), dbService);
+      if (preparedEntity != null) {
+        preparedEntity.collectFeatureIDs(featureIDs);
+        preparedEntities.add(preparedEntity);
+      }
+    }
+    // Nothing is excluded in the query since it serves all of the entities.
+    SharedFeatures sharedFeatures = findSharedFeatures(dbService, 0, featureIDs);
+    for (PreparedEntity preparedEntity : preparedEntities) {
+      finishEntity(dbService, preparedEntity, sharedFeatures);
     }
   }
 
@@ -247,16 +844,67 @@ public class RiskScoringService implements ListenerService {
    * Calculates risk scores (data quality and collision scores) for entity of ID entityID
    * 
    * @param entityID ID for the entity being scored
+   * @param context Database service and risk scorer of the thread doing the scoring
    * @throws ServiceExecutionException
    */
-  private void processEntity(long entityID) throws ServiceExecutionException {
+  private void processEntity(long entityID, ScoringContext context) throws ServiceExecutionException {
+    DatabaseService dbService = context.getDbService();
+    PreparedEntity preparedEntity = prepareEntity(context.resetPreparedEntity(0, entityID), dbService);
+    if (preparedEntity != null) {
+      Set<Long> featureIDs = context.clearedFeatureIDs();
+      preparedEntity.collectFeatureIDs(featureIDs);
+      SharedFeatures sharedFeatures = findSharedFeatures(dbService, entityID, featureIDs);
+      finishEntity(dbService, preparedEntity, sharedFeatures);
+    }
+  }
+
+  /**
+   * Gets the document of an entity, from the prefetcher if its documents are fetched ahead.
+   */
+  private String getEntity(long entityID) throws ServiceExecutionException {
+    return prefetcher != null ? prefetcher.get(entityID) : fetchEntity(entityID);
+  }
+
+  /**
+   * Gets an entity from G2, waiting for a permit first when the G2 calls made at once are bounded.  The wait
+   * isn't part of the recorded latency.
+   */
+  private String fetchEntity(long entityID) throws ServiceExecutionException {
+    if (g2Permits != null) {
+      try {
+        g2Permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ServiceExecutionException(e);
+      }
+    }
+    try {
+      long startTime = System.nanoTime();
+      String entityData = g2Service.getEntity(entityID, true, true);
+      getEntityLatency.recordSince(startTime);
+      return entityData;
+    } finally {
+      if (g2Permits != null) {
+        g2Permits.release();
+      }
+    }
+  }
+
+  /*
+   * Gets the entity from G2 and applies all the rules that don't need to look at other entities. Returns null
+   * if the entity no longer exists, its score is removed in that case.
+   */
+  private PreparedEntity prepareEntity(PreparedEntity preparedEntity, DatabaseService dbService) throws ServiceExecutionException {
+    long entityID = preparedEntity.getEntityID();
+    RiskScorer riskScorer = preparedEntity.getRiskScorer();
     // Get the information about the entity from G2.
     String entityData = null;
     try {
-      entityData = g2Service.getEntity(entityID, true, true);
+      entityData = getEntity(entityID);
     } catch (ServiceExecutionException e) {
       if (e.getMessage().contains("Unknown resolved entity value")) {
-        missingEntityCount++;
+        missingEntityCount.incrementAndGet();
+        recentMissingEntityCount.incrementAndGet();
       } else {
         // Bail out if any other error
         e.printStackTrace();
@@ -264,60 +912,58 @@ public class RiskScoringService implements ListenerService {
       }
     }
     if (entityData == null || entityData.isEmpty()) {
-      dbService.postRiskScore(entityID, defaultLensID, null, null, null, null, null);
-      return;
+      postScore(dbService, RiskScoreResult.removed(entityID, defaultLensID));
+      return null;
     }
-    // The F1, F1E, F1ES and their overrides are collected for later processing.
-    Map<Long, FeatData> f1ExLibFeats = new HashMap<>();
-    Map<Long, FeatData> f1OvrExLibFeats = new HashMap<>();
-    Map<Long, FeatData> f1LibFeats = new HashMap<>();
-
+    // The F1, F1E, F1ES and their overrides are collected in the prepared entity for later processing.
     try {
-      JsonReader reader = Json.createReader(new StringReader(entityData));
-      JsonObject rootObject = reader.readObject();
-
-      // For collecting up scoring info
-      RiskScorer riskScorer = new RiskScorer();
-
-      // Find section where the actual entity data exists.
-      JsonObject resolvedEntity = optJsonObject(rootObject, RESOLVED_ENTITY_SECTION);
+      // Pull out the parts of the entity document the rules need.
+      long startTime = System.nanoTime();
+      EntityData entity = entityExtractor.extract(entityData);
+      preparedEntity.setEntity(entity);
+      long parsedTime = System.nanoTime();
+      parseLatency.recordNanos(parsedTime - startTime);
 
       //=========================================
       // Data quality check
       //=========================================
 
       // Good part of the needed data for data quality is contained in the features.
-      // Check quality of SSN.
-      JsonObject features = optJsonObject(resolvedEntity, FEATURES_SECTION);
-      if (getFeatureCount(features, SSN_TAG) <= 1) {
-        riskScorer.setOneOrLessSSN(true);
-      }
-
-      // Check quality of DOB.
-      int dobCount = getFeatureCount(features, DOB_TAG);
-      if (dobCount == 1) {
-        riskScorer.setOneAndOnlyOneDOB(true);
-      } else if (dobCount > 1) {
-        riskScorer.setMutltipleDOBs(true);
-      }
-
-      // Check for quality of addresses
-      int addressCount = getFeatureCount(features, ADDRESS_TAG);
-      if (addressCount > 0) {
-        riskScorer.setOneOrMoreAddress(true);
-      }
-
-      // Check if any exclusive types have multiple values (counts as red if any found).
-      checkForMultipleExclusives(features, f1ExLibFeats, riskScorer);
-
-      // Any feature overrides need to be checked. They can also be F1 exclusive.
-      checkForMultipleExclusivesForOverrides(features, f1OvrExLibFeats, riskScorer);
-
-      // Collect up F1 feature values. They are used later.
-      for (String fType : f1Features) {
-        JsonArray fTypeValues = optJsonArray(features, fType);
-        if (fTypeValues != null) {
-          collectLibFeatures(fType, fTypeValues, f1LibFeats, false);
+      // No SSN is as good as one, so it only turns bad if more are found.
+      riskScorer.setOneOrLessSSN(true);
+
+      // Go through the feature types of the entity once, doing what the role of each calls for.
+      for (String fType : entity.getFeatureTypes()) {
+        FeatureTypeRole role = featureTypeRoles.get(fType);
+        if (role == null) {
+          continue;
+        }
+        // Check quality of SSN, DOB and addresses.
+        if (role.has(FeatureTypeRole.COUNTED)) {
+          checkFeatureCount(fType, entity.getFeatureCount(fType), riskScorer);
+        }
+        List<EntityData.Feature> fTypeValues = entity.getFeatures(fType);
+        if (fTypeValues == null) {
+          continue;
+        }
+        // Check if any exclusive types have multiple values (counts as red if any found).
+        if (role.has(FeatureTypeRole.F1_EXCLUSIVE)) {
+          checkForMultipleExclusives(fType, fTypeValues, preparedEntity.f1ExLibFeats, riskScorer);
+        }
+        // Any feature overrides need to be checked. They can also be F1 exclusive.
+        if (role.has(FeatureTypeRole.F1_EXCLUSIVE_OVERRIDE)) {
+          checkForMultipleExclusivesForOverrides(role, fTypeValues, preparedEntity.f1OvrExLibFeats, riskScorer);
+        }
+        // Collect up F1 feature values. They are used later.
+        if (role.has(FeatureTypeRole.F1)) {
+          collectLibFeatures(fType, fTypeValues, preparedEntity.f1LibFeats, false);
+        }
+        // Handle any override of risk scores.
+        if (role.has(FeatureTypeRole.SCORE_OVERRIDE)) {
+          for (EntityData.Feature override : fTypeValues) {
+            String featDesc = override.getDescription();
+            riskScorer.setScoreOverride(featDesc != null ? featDesc : "");
+          }
         }
       }
 
@@ -326,45 +972,51 @@ public class RiskScoringService implements ListenerService {
       // unmerge).
       //checkForUnmerge(features, riskScorer);
 
-      //=========================================
-      // Collision quality check
-      //=========================================
-
-      // Handle any override of risk scores.
-      JsonArray scoreOverride = optJsonArray(features, RISK_SCORE_OVERRIDE_TAG);
-      if (scoreOverride != null) {
-        for (int i = 0; i < scoreOverride.size(); i++) {
-          String featDesc = scoreOverride.getJsonObject(i).getString(FEAT_DESC_TAG, "");
-          riskScorer.setScoreOverride(featDesc);
-        }
-      }
+      preparedEntity.setScoringNanos(System.nanoTime() - parsedTime);
+      return preparedEntity;
+    } catch (RuntimeException e) {
+      throw new ServiceExecutionException(e);
+    }
+  }
 
+  /*
+   * Applies the rest of the rules to a prepared entity, using the features found shared with other entities,
+   * and reports the scores.
+   */
+  private void finishEntity(DatabaseService dbService, PreparedEntity preparedEntity, SharedFeatures sharedFeatures)
+      throws ServiceExecutionException {
+    long entityID = preparedEntity.getEntityID();
+    EntityData entity = preparedEntity.getEntity();
+    RiskScorer riskScorer = preparedEntity.getRiskScorer();
+    long startTime = System.nanoTime();
+    try {
       // Check if any of the F1 exclusive features are shared with other entities (count as red if any found).
-      checkF1ExcusivesShared(f1ExLibFeats, entityID, riskScorer);
+      checkF1ExcusivesShared(sharedFeatures, entityID, preparedEntity.f1ExLibFeats, riskScorer);
 
       // Check if any of the override F1 exclusive features are shared with other entities (count as red if any found).
-      checkF1ExcusivesShared(f1OvrExLibFeats, entityID, riskScorer);
+      checkF1ExcusivesShared(sharedFeatures, entityID, preparedEntity.f1OvrExLibFeats, riskScorer);
 
       // Check if any of the F1 exclusive features are shared with other entities (count as green if none found).
-      checkF1Shared(f1LibFeats, entityID, riskScorer);
+      checkF1Shared(sharedFeatures, entityID, preparedEntity.f1LibFeats, riskScorer);
 
       // Check if the related entities section reveals any ambiguous relationships or possible matches (count as red if found).
-      checkRelationships(rootObject, riskScorer);
+      checkRelationships(entity, riskScorer);
 
       // Do we have a trusted data source in this entity (counts as green if found).
-      checkTrustedDatasource(resolvedEntity, riskScorer);
+      checkTrustedDatasource(entity, riskScorer);
 
       //=========================================
       // Match quality check
       //=========================================
-      checkQueryRisk(rootObject, riskScorer);
+      checkQueryRisk(entity, riskScorer);
+      scoringLatency.recordNanos(preparedEntity.getScoringNanos() + System.nanoTime() - startTime);
 
       //=========================================
       // Reporting
       //=========================================
 
       // Data collection is done. Lets report the findings.
-      reportScoring(entityID, defaultLensID, riskScorer);
+      reportScoring(dbService, entityID, defaultLensID, riskScorer);
 
       // Manage record count and report on records processed.
       reportProgress();
@@ -380,55 +1032,76 @@ public class RiskScoringService implements ListenerService {
   //===================================================================
 
   /*
-   * Checks if any of the F1 exclusive (F1E and f1ES) have multiple values and adds the finding to the risk scorer.
-   * It also collects all F1 exclusive it finds to "exclusiveFeats" which can be used for other processing later.
-   */
-  private void checkForMultipleExclusives(JsonObject features, Map<Long, FeatData> exclusiveFeats, RiskScorer riskScorer) {
-    for (String fType : f1Exclusive) {
-      JsonArray fTypeValues = optJsonArray(features, fType);
-      if (fTypeValues != null) {
-        if (fTypeValues.size() > 1) {
-          List<String> featList = getMultiValueFeatures(fTypeValues);
-          riskScorer.addMultipleExclusives(fType, featList);
+   * Checks the number of values of the feature types only counted, SSN, DOB and ADDRESS, and adds the findings to
+   * the risk scorer.
+   */
+  private void checkFeatureCount(String fType, int count, RiskScorer riskScorer) {
+    switch (fType) {
+      case SSN_TAG:
+        if (count > 1) {
+          riskScorer.setOneOrLessSSN(false);
         }
-        // Collect up the feature values for later.
-        collectLibFeatures(fType, fTypeValues, exclusiveFeats, true);
-      }
+        break;
+      case DOB_TAG:
+        if (count == 1) {
+          riskScorer.setOneAndOnlyOneDOB(true);
+        } else if (count > 1) {
+          riskScorer.setMutltipleDOBs(true);
+        }
+        break;
+      case ADDRESS_TAG:
+        if (count > 0) {
+          riskScorer.setOneOrMoreAddress(true);
+        }
+        break;
+      default:
+        break;
     }
   }
 
   /*
-   * Checks if any of the F1 exclusive overrides have multiple values and adds the finding to the risk scorer.
-   * It also collects all found to "exclusiveFeats" which can be used for other processing later.
-   */
-  private void checkForMultipleExclusivesForOverrides(JsonObject features, Map<Long, FeatData> exclusiveFeats, RiskScorer riskScorer) {
-    for (FeatureTypeOverride fTypeOverride : f1OverRideFType) {
-      JsonArray fTypeValues = optJsonArray(features, fTypeOverride.getFType());
-      if (fTypeValues != null && fTypeValues.size() > 1) {
-        for (int i = 0; i < fTypeValues.size(); i++) {
-          String uType = fTypeValues.getJsonObject(i).getString(UTYPE_CODE_TAG, null);
-          if (uType != null && uType.contentEquals(fTypeOverride.getUType())) {
-            List<String> featList = getMultiValueFeatures(fTypeValues);
-            riskScorer.addMultipleExclusives(fTypeOverride.getFType(), featList);
-          }
+   * Checks if a F1 exclusive (F1E and f1ES) feature type has multiple values and adds the finding to the risk scorer.
+   * It also collects the values to "exclusiveFeats" which can be used for other processing later.
+   */
+  private void checkForMultipleExclusives(String fType, List<EntityData.Feature> fTypeValues, LibFeatureSet exclusiveFeats,
+      RiskScorer riskScorer) {
+    if (fTypeValues.size() > 1) {
+      List<String> featList = getMultiValueFeatures(fTypeValues);
+      riskScorer.addMultipleExclusives(fType, featList);
+    }
+    // Collect up the feature values for later.
+    collectLibFeatures(fType, fTypeValues, exclusiveFeats, true);
+  }
+
+  /*
+   * Checks if a feature type that is F1 exclusive by override has multiple values of the overridden usage types
+   * and adds the finding to the risk scorer. It also collects the values to "exclusiveFeats" which can be used for
+   * other processing later.
+   */
+  private void checkForMultipleExclusivesForOverrides(FeatureTypeRole role, List<EntityData.Feature> fTypeValues,
+      LibFeatureSet exclusiveFeats, RiskScorer riskScorer) {
+    if (fTypeValues.size() > 1) {
+      List<String> overrideUTypes = role.getOverrideUsageTypes();
+      for (EntityData.Feature fTypeValue : fTypeValues) {
+        String uType = fTypeValue.getUsageType();
+        if (uType != null && overrideUTypes.contains(uType)) {
+          List<String> featList = getMultiValueFeatures(fTypeValues);
+          riskScorer.addMultipleExclusives(role.getFeatureType(), featList);
+          break;
         }
-        // Collect up the feature values for later.
-        collectLibFeatures(fTypeOverride.getFType(), fTypeValues, exclusiveFeats, true);
       }
+      // Collect up the feature values for later.
+      collectLibFeatures(role.getFeatureType(), fTypeValues, exclusiveFeats, true);
     }
   }
 
   /*
-   * Checks with G2 if any of the F1 exclusive features are shared with other entities.
+   * Checks if any of the F1 exclusive features are shared with other entities.
    * If any are found, they are added to the risk scorer for evaluation.
    */
-  private void checkF1ExcusivesShared(Map<Long, FeatData> f1Exclusives, long entityID, RiskScorer riskScorer) throws ServiceExecutionException {
+  private void checkF1ExcusivesShared(SharedFeatures sharedFeatures, long entityID, LibFeatureSet f1Exclusives, RiskScorer riskScorer) {
     if (f1Exclusives.size() > 0) {
-      List<Long> ids = new ArrayList<>();
-      ids.addAll(f1Exclusives.keySet());
-      // Query G2. When checking, the entityID is excluded so returned values all belong to other entities.
-      String results = getFeaturesForEntity(ids, entityID);
-      List<FeatData> featData = checkForSharedFeatures(results, f1Exclusives);
+      List<FeatData> featData = checkForSharedFeatures(sharedFeatures, entityID, f1Exclusives);
       if (!featData.isEmpty()) {
         riskScorer.addSharedExclusives(featData);
         riskScorer.addSharedF1s(featData);
@@ -454,15 +1127,12 @@ public class RiskScoringService implements ListenerService {
   //===================================================================
 
   /*
-   * Checks with G2 if any of the F1 features are shared with other entities.
+   * Checks if any of the F1 features are shared with other entities.
    * If any are found, they are added to the risk scorer for evaluation.
    */
-  private void checkF1Shared(Map<Long, FeatData> f1LibFeats, long entityID, RiskScorer riskScorer) throws ServiceExecutionException {
+  private void checkF1Shared(SharedFeatures sharedFeatures, long entityID, LibFeatureSet f1LibFeats, RiskScorer riskScorer) {
     if (f1LibFeats.size() > 0) {
-      List<Long> ids = new ArrayList<>();
-      ids.addAll(f1LibFeats.keySet());
-      String results = getFeaturesForEntity(ids, entityID);
-      List<FeatData> featData = checkForSharedFeatures(results, f1LibFeats);
+      List<FeatData> featData = checkForSharedFeatures(sharedFeatures, entityID, f1LibFeats);
       if (!featData.isEmpty()) {
         riskScorer.addSharedF1s(featData);
       }
@@ -473,19 +1143,18 @@ public class RiskScoringService implements ListenerService {
    * Scans the entity for any ambiguous relationships and any possible matches.
    * The risk scorer is updated with the results found.
    */
-  private void checkRelationships(JsonObject entityRoot, RiskScorer riskScorer) {
-    JsonArray relatedEntities = optJsonArray(entityRoot, RELATED_ENTITIES_SECTION);
-    if (relatedEntities != null) {
+  private void checkRelationships(EntityData entity, RiskScorer riskScorer) {
+    List<EntityData.Relationship> relationships = entity.getRelationships();
+    if (relationships != null) {
       boolean noPossibleMatch = true;
-      for (int i = 0; i < relatedEntities.size(); i++) {
-        JsonObject entity = relatedEntities.getJsonObject(i);
+      for (EntityData.Relationship relationship : relationships) {
 
         // Check ambiguous
-        if (entity.getInt(IS_AMBIGUOUS_TAG) > 0) {
+        if (relationship.isAmbiguous()) {
           riskScorer.setAmbiguous(true);
         }
         // Check possible match.
-        String matchLevelCode = entity.getString(MATCH_LEVEL_CODE_TAG, null);
+        String matchLevelCode = relationship.getMatchLevelCode();
         if (POSSIBLY_SAME_VALUE.equals(matchLevelCode) ) {
           noPossibleMatch = false;
         }
@@ -498,12 +1167,10 @@ public class RiskScoringService implements ListenerService {
    * Checks if any of the data sources are in the trusted sources list.
    * The risk scorer is updated with the results found.
    */
-  private void checkTrustedDatasource(JsonObject resolvedEntity, RiskScorer riskScorer) {
-    JsonArray records = optJsonArray(resolvedEntity, RECORDS_SECTION);
-    if (records != null) {
-      for (int i = 0; i < records.size(); i++) {
-        JsonObject record = records.getJsonObject(i);
-        String dataSource = record.getString(DATA_SOURCE_TAG, null).strip().toUpperCase();
+  private void checkTrustedDatasource(EntityData entity, RiskScorer riskScorer) {
+    for (String recordDataSource : entity.getDataSources()) {
+      if (recordDataSource != null) {
+        String dataSource = recordDataSource.strip().toUpperCase();
         if (trustedSources.contains(dataSource)) {
           riskScorer.addTrustedSource(dataSource);
         }
@@ -520,34 +1187,21 @@ public class RiskScoringService implements ListenerService {
    * Checks the relationships for the quality of the matches.
    * The risk scorer is updated with the results found.
    */
-  private void checkQueryRisk(JsonObject entityRoot, RiskScorer riskScorer) throws ServiceExecutionException {
-    JsonArray relatedEntities = optJsonArray(entityRoot, RELATED_ENTITIES_SECTION);
-    if (relatedEntities != null) {
-      for (int i = 0; i < relatedEntities.size(); i++) {
-        JsonObject entity = relatedEntities.getJsonObject(i);
+  private void checkQueryRisk(EntityData entity, RiskScorer riskScorer) throws ServiceExecutionException {
+    List<EntityData.Relationship> relationships = entity.getRelationships();
+    if (relationships != null) {
+      for (EntityData.Relationship relationship : relationships) {
 
         // Analyze the match key
-        String matchKey = entity.getString(MATCH_KEY_TAG);
-        List<String> parsedMatchKey = null;
+        String matchKey = relationship.getMatchKey();
+        if (matchKey == null) {
+          continue;
+        }
         try {
-          parsedMatchKey = parseMatchKey(matchKey);
+          queryRiskMatcher.match(matchKey, riskScorer);
         } catch (ParseException e) {
           throw new ServiceExecutionException("Badly formed match key: " + matchKey);
         }
-        if (parsedMatchKey.size() > 0) {
-          for (QueryRiskData queryRiskData : queryRiskCriteria) {
-            boolean criteriaMatch = true;
-            for (String matchKeyItem : queryRiskData.getCriteriaList()) {
-              if (!parsedMatchKey.contains(matchKeyItem)) {
-                criteriaMatch = false;
-                break;
-              }
-            }
-            if (criteriaMatch) {
-              riskScorer.addQueryRisk(queryRiskData.getCriteriaString(), queryRiskData.getScore());
-            }
-          }
-        }
       }
     }
   }
@@ -557,173 +1211,172 @@ public class RiskScoringService implements ListenerService {
   //===================================================================
 
   /*
-   * Collects a list of features from g2config JSON document, with frequency (F1, FM etc.) in fqs.
+   * Compiles the roles of the feature types from the g2config JSON document: F1 features, F1 exclusive features
+   * (F1, F1E and F1ES marked exclusive) and the usage types F1 exclusive by override. The feature types only counted
+   * and the risk score override are added to those.
    */
-  private List<String> extractFeatureTypesBasedOnFrequency(JsonObject configRoot, List<String> fqs) {
-    List<String> features = new ArrayList<>();
+  private Map<String, FeatureTypeRole> extractFeatureTypeRoles(JsonObject configRoot) {
+    Map<String, FeatureTypeRole> roles = new HashMap<>();
+    Map<Integer, String> fTypeCodes = new HashMap<>();
+    List<String> exclusiveFqs = Arrays.asList(F1_TAG, F1E_TAG, F1ES_TAG);
     JsonArray fTypes = configRoot.getJsonArray(CFG_FTYPE_SECTION);
     for (int i = 0; i < fTypes.size(); i++) {
       JsonObject fType = fTypes.getJsonObject(i);
+      fTypeCodes.put(fType.getInt(FTYPE_ID_TAG, -1), fType.getString(FTYPE_CODE_TAG));
       String frequency = fType.getString(FTYPE_FREQ_TAG, "");
-      if (fqs.contains(frequency)) {
-        features.add(fType.getString(FTYPE_CODE_TAG));
+      String exclusive = fType.getString(FTYPE_EXCL_TAG, "");
+      if (frequency.equals(F1_TAG)) {
+        getRole(roles, fType.getString(FTYPE_CODE_TAG)).add(FeatureTypeRole.F1);
+      }
+      if (exclusiveFqs.contains(frequency) && exclusive.equalsIgnoreCase(YES_VALUE)) {
+        getRole(roles, fType.getString(FTYPE_CODE_TAG)).add(FeatureTypeRole.F1_EXCLUSIVE);
       }
     }
-    return features;
-  }
-
-  /*
-   * Collects information about F1 exclusive features from g2config JSON document.
-   */
-  private List<String> extractF1ExclusiveFeatures(JsonObject configRoot) {
-    List<String> features = new ArrayList<>();
-    List<String> fqs = Arrays.asList(F1_TAG, F1E_TAG, F1ES_TAG);
-    JsonArray fTypes = configRoot.getJsonArray(CFG_FTYPE_SECTION);
-    for (int i = 0; i < fTypes.size(); i++) {
-      JsonObject fType = fTypes.getJsonObject(i);
+    JsonArray overrides = configRoot.getJsonArray(CFG_FBOVR_SECTION);
+    for (int i = 0; i < overrides.size(); i++) {
+      JsonObject fType = overrides.getJsonObject(i);
       String frequency = fType.getString(FTYPE_FREQ_TAG, "");
       String exclusive = fType.getString(FTYPE_EXCL_TAG, "");
-      if (fqs.contains(frequency) && exclusive.equalsIgnoreCase(YES_VALUE)) {
-        features.add(fType.getString(FTYPE_CODE_TAG));
+      if (exclusiveFqs.contains(frequency) && exclusive.equalsIgnoreCase(YES_VALUE)) {
+        // Overrides in G2 configurations refer to the feature type by ID.
+        String fTypeCode = fType.getString(FTYPE_CODE_TAG, fTypeCodes.get(fType.getInt(FTYPE_ID_TAG, -1)));
+        if (fTypeCode != null) {
+          getRole(roles, fTypeCode).addOverrideUsageType(fType.getString(UTYPE_CODE_TAG));
+        }
       }
     }
-    return features;
+    getRole(roles, SSN_TAG).add(FeatureTypeRole.COUNTED);
+    getRole(roles, DOB_TAG).add(FeatureTypeRole.COUNTED);
+    getRole(roles, ADDRESS_TAG).add(FeatureTypeRole.COUNTED);
+    getRole(roles, RISK_SCORE_OVERRIDE_TAG).add(FeatureTypeRole.SCORE_OVERRIDE);
+    return roles;
   }
 
-  /*
-   * Collects information about F1 exclusive features override from g2config JSON document.
-   */
-  private List<FeatureTypeOverride> extractF1FeatureTypeOverride(JsonObject configRoot) {
-    List<FeatureTypeOverride> overRideFeats = new ArrayList<>();
-    List<String> fqs = Arrays.asList(F1_TAG, F1E_TAG, F1ES_TAG);
-    JsonArray fTypes = configRoot.getJsonArray(CFG_FBOVR_SECTION);
-    for (int i = 0; i < fTypes.size(); i++) {
-      JsonObject fType = fTypes.getJsonObject(i);
-      String frequency = fType.getString(FTYPE_FREQ_TAG, "");
-      String Exclusive = fType.getString(FTYPE_EXCL_TAG, "");
-      if (fqs.contains(frequency) && Exclusive.toUpperCase().equals(YES_VALUE)) {
-        FeatureTypeOverride fTypeOverride = new FeatureTypeOverride();
-        fTypeOverride.setFType(fType.getString(FTYPE_CODE_TAG));
-        fTypeOverride.setUType(fType.getString(UTYPE_CODE_TAG));
-        overRideFeats.add(fTypeOverride);
-      }
-    }
-    return overRideFeats;
+  private static FeatureTypeRole getRole(Map<String, FeatureTypeRole> roles, String fType) {
+    return roles.computeIfAbsent(fType, FeatureTypeRole::new);
   }
 
-  private List<String> getMultiValueFeatures(JsonArray fTypeValues) {
+  private List<String> getMultiValueFeatures(List<EntityData.Feature> fTypeValues) {
     List<String> featList = new ArrayList<>();
-    for (int i = 0; i < fTypeValues.size(); i++) {
-      JsonObject fTypeObject = fTypeValues.getJsonObject(i);
-      String featDesc = fTypeObject.getString(FEAT_DESC_TAG);
-      featList.add(featDesc);
+    for (EntityData.Feature fTypeValue : fTypeValues) {
+      featList.add(fTypeValue.getDescription());
     }
     return featList;
   }
 
-  private void collectLibFeatures(String fType, JsonArray fTypeValues, Map<Long, FeatData> libFeaturess, boolean includeGeneric) {
-    for (int i = 0; i < fTypeValues.size(); i++) {
-      JsonObject fTypeObject = fTypeValues.getJsonObject(i);
-      Long featID = fTypeObject.getJsonNumber(LIB_FEAT_ID_TAG).longValue();
-      if (featID != null) {
-        if (includeGeneric || !isGeneric(fTypeObject))
-        {
-          String featDesc = fTypeObject.getString(FEAT_DESC_TAG);
-          FeatData featData = new FeatData();
-          featData.setFeature(fType);
-          featData.setDescription(featDesc);
-          libFeaturess.put(featID, featData);
-        }
+  private void collectLibFeatures(String fType, List<EntityData.Feature> fTypeValues, LibFeatureSet libFeaturess, boolean includeGeneric) {
+    for (EntityData.Feature fTypeValue : fTypeValues) {
+      if (includeGeneric || !fTypeValue.isGeneric()) {
+        libFeaturess.put(fTypeValue.getLibFeatID(), fType, fTypeValue.getDescription());
       }
     }
   }
 
-  private boolean isGeneric(JsonObject featureObject) {
-    JsonArray featDescs = featureObject.getJsonArray(FEAT_DESC_VALUES_TAG);
-    for (int i = 0; i < featDescs.size(); i++) {
-      JsonObject descriptionObject = featDescs.getJsonObject(i);
-      if (descriptionObject.getString(CANDIDATE_CAP_REACHED_TAG).equals(Y_VALUE) || 
-          descriptionObject.getString(SCORING_CAP_REACHED_TAG).equals(Y_VALUE)) {
-        return true;
-      }
+  /*
+   * Queries the database once for all the given features. Rows of excludedEntityID are left out, 0 leaves
+   * out none.
+   */
+  private SharedFeatures findSharedFeatures(DatabaseService dbService, long excludedEntityID, Set<Long> ids)
+      throws ServiceExecutionException {
+    if (ids.isEmpty()) {
+      return SharedFeatures.EMPTY;
     }
-    return false;
-  }
-
-  private String getFeaturesForEntity(List<Long> feats, long entityID) throws ServiceExecutionException {
+    long startTime = System.nanoTime();
     try {
-      return dbService.findEntitiesByFeatureIDs(feats, entityID, defaultLensID);
+      featureLookupCount.incrementAndGet();
+      SharedFeatures sharedFeatures = dbService.findSharedFeatures(new ArrayList<>(ids), excludedEntityID, defaultLensID);
+      featureLookupLatency.recordSince(startTime);
+      return sharedFeatures;
     } catch (RuntimeException e) {
       throw new ServiceExecutionException(e);
     }
   }
 
-  private List<FeatData> checkForSharedFeatures(String jsonDoc, Map<Long, FeatData> features) throws ServiceExecutionException {
-    List<FeatData> sharedFeat = new ArrayList<>();
-    try {
-      JsonReader reader = Json.createReader(new StringReader(jsonDoc));
-      JsonArray featJson = reader.readArray();
-      for (int i = 0; i < featJson.size(); i++) {
-        Long id = featJson.getJsonObject(i).getJsonNumber(LIB_FEAT_ID_TAG).longValue();
-        FeatData fd = features.get(id);
-        if (fd != null) {
-          sharedFeat.add(fd);
+  /*
+   * Picks the features out of the lookup result which are shared with entities other than entityID.
+   */
+  private List<FeatData> checkForSharedFeatures(SharedFeatures sharedFeatures, long entityID, LibFeatureSet features) {
+    // Only created once a shared feature is found, most entities share none.
+    List<FeatData> sharedFeat = null;
+    for (int i = 0; i < sharedFeatures.size(); i++) {
+      if (sharedFeatures.getEntityID(i) == entityID) {
+        continue;
+      }
+      int index = features.indexOf(sharedFeatures.getLibFeatID(i));
+      if (index >= 0) {
+        if (sharedFeat == null) {
+          sharedFeat = new ArrayList<>();
         }
+        sharedFeat.add(features.toFeatData(index));
       }
-      return sharedFeat;
-    } catch (RuntimeException e) {
-      throw new ServiceExecutionException(e);
     }
+    return sharedFeat != null ? sharedFeat : Collections.emptyList();
   }
 
-  private void reportScoring(long entityID, int lensID, RiskScorer riskScorer) throws ServiceExecutionException {
+  private void reportScoring(DatabaseService dbService, long entityID, int lensID, RiskScorer riskScorer) throws ServiceExecutionException {
     try {
-      dbService.postRiskScore(entityID, lensID, riskScorer.getDataQualityScore().toString(),
-          riskScorer.getCollisionScore().toString(), riskScorer.getQueryRiskScore().toString(), riskScorer.getReason(),
-          riskScorer.getQueryRiskReason());
+      RiskScoreResult result;
+      if (schemaVersion >= 3) {
+        result = new RiskScoreResult(entityID, lensID, riskScorer.getDataQualityScore().toString(),
+            riskScorer.getCollisionScore().toString(), riskScorer.getQueryRiskScore().toString(),
+            riskScorer.getReasonCodes(), riskScorer.getReasonDetail(), riskScorer.getQueryRiskReason());
+      } else {
+        result = new RiskScoreResult(entityID, lensID, riskScorer.getDataQualityScore().toString(),
+            riskScorer.getCollisionScore().toString(), riskScorer.getQueryRiskScore().toString(), riskScorer.getReason(),
+            riskScorer.getQueryRiskReason());
+      }
+      postScore(dbService, result);
     } catch (RuntimeException e) {
       throw new ServiceExecutionException(e);
     }
   }
 
+  /*
+   * Hands the score to the writer thread if there is one, otherwise writes it on the current thread.
+   */
+  private void postScore(DatabaseService dbService, RiskScoreResult result) throws ServiceExecutionException {
+    if (scoreWriter != null) {
+      scoreWriter.write(result);
+    } else {
+      long startTime = System.nanoTime();
+      result.postTo(dbService);
+      writeLatency.recordSince(startTime);
+    }
+    lastProgressNanos = System.nanoTime();
+  }
+
   private void reportProgress() {
-    processCount++;
-    if (processCount % 1000 == 0) {
+    long count = processCount.incrementAndGet();
+    if (count % 1000 == 0) {
+      long missingCount = recentMissingEntityCount.getAndSet(0);
       Date current = new Date();
       String timeStamp = current.toInstant().toString();
       String filler = " ".repeat(timeStamp.length());
-      System.out.println(timeStamp + " - Processed " + processCount + " records.");
-      System.out.println(filler + " - Missing entity count for last 1000:    " + missingEntityCount);
-      System.out.println(filler + " - Missing entity percent for last 1000:  " + missingEntityCount/10 + "%");
-      missingEntityCount = 0; 
-    }
-  }
-
-  private int getFeatureCount(JsonObject features, String key) {
-    JsonArray value = optJsonArray(features, key);
-    int retVal = 0;
-    if (value != null) {
-      retVal = value.size();
+      System.out.println(timeStamp + " - Processed " + count + " records.");
+      System.out.println(filler + " - Missing entity count for last 1000:    " + missingCount);
+      System.out.println(filler + " - Missing entity percent for last 1000:  " + missingCount/10 + "%");
     }
-    return retVal;
   }
 
-  private JsonObject optJsonObject(JsonObject jsonObject, String key) {
-    JsonObject retVal = null;
+  private JsonArray optJsonArray(JsonObject jsonObject, String key) {
+    JsonArray retVal = null;
     try {
-      retVal = jsonObject.getJsonObject(key);
+      retVal = jsonObject.getJsonArray(key);
     } catch (Exception e) {
     }
     return retVal;
   }
 
-  private JsonArray optJsonArray(JsonObject jsonObject, String key) {
-    JsonArray retVal = null;
+  private static int getConfigInteger(JsonObject config, String key, int defaultValue) {
+    String value = JsonUtilities.getString(config, key, "");
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
     try {
-      retVal = jsonObject.getJsonArray(key);
-    } catch (Exception e) {
+      return Integer.parseInt(value.strip());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Badly formed " + key + ": " + value, e);
     }
-    return retVal;
   }
 
   private List<String> parseAndFormatCommaSeparatedString(String source) {
@@ -737,6 +1390,29 @@ public class RiskScoringService implements ListenerService {
     return parsedList;
   }
 
+  /*
+   * Parses the comma separated IN clause sizes. Returns null if none are configured, leaving the database
+   * service defaults in place.
+   */
+  private int[] parseInClauseBuckets(String bucketsString) throws ServiceSetupException {
+    if (bucketsString == null || bucketsString.isBlank()) {
+      return null;
+    }
+    String[] parts = bucketsString.split(COMMA);
+    int[] buckets = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      try {
+        buckets[i] = Integer.parseInt(parts[i].strip());
+      } catch (NumberFormatException e) {
+        throw new ServiceSetupException(CommandOptions.IN_CLAUSE_BUCKETS + " must be a comma separated list of numbers: " + bucketsString);
+      }
+      if (buckets[i] < 1) {
+        throw new ServiceSetupException(CommandOptions.IN_CLAUSE_BUCKETS + " must only have sizes of at least 1: " + bucketsString);
+      }
+    }
+    return buckets;
+  }
+
   /*
    * Parses query risk criteria string and populates a list of pojo objects containing the parsed information.
    */
@@ -759,7 +1435,7 @@ public class RiskScoringService implements ListenerService {
         queryRiskData.setScore(score);
         queryRiskData.setCriteriaString(matchKeyCriterion[0]);
         try {
-          queryRiskData.setCriteriaList(parseMatchKey(matchKeyCriterion[0]));
+          queryRiskData.setCriteriaList(QueryRiskMatcher.parseMatchKey(matchKeyCriterion[0]));
         } catch (ParseException e) {
           throw new ServiceSetupException("Badly formed query risk criteria: " + queryRiskCriteriaString);
         }
@@ -769,28 +1445,6 @@ public class RiskScoringService implements ListenerService {
     return retVal;
   }
 
-  /*
-   * Parses match key of format +NAME+PHONE_NUMBER+ADDRESS-DOB.
-   */
-  private static List<String> parseMatchKey(String matchKey) throws ParseException {
-    List<String> result = new ArrayList<>();
-
-    int tokenBegin = matchKey.length();
-    while (tokenBegin > 0) {
-      int tokenEnd = tokenBegin;
-      int lastPlus = matchKey.lastIndexOf('+', tokenEnd - 1);
-      int lastMinus = matchKey.lastIndexOf('-', tokenEnd - 1);
-      // This is for special cases of keys like this: +NAME+ADDRESS (Ambiguous)
-      int lastParen = matchKey.lastIndexOf('(', tokenEnd - 1);
-      tokenBegin = Math.max(lastParen, Math.max(lastPlus, lastMinus));
-      if (tokenBegin < 0) {
-        throw new ParseException("Badly formed match key: " + matchKey, tokenBegin);
-      }
-      result.add( matchKey.substring(tokenBegin, tokenEnd).trim());
-    }
-    return result;
-  }
-
   public boolean isServiceUp() {
     return serviceUp;
   }
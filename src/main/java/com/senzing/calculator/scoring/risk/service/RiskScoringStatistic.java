@@ -0,0 +1,296 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import com.senzing.listener.service.ListenerService.Statistic;
+
+/**
+ * The statistics reported by {@link RiskScoringService#getStatistics()}.
+ */
+public enum RiskScoringStatistic implements Statistic {
+  /**
+   * Number of entities scored.
+   */
+  entitiesScored("entities"),
+
+  /**
+   * Number of affected entities no longer found in G2.
+   */
+  missingEntities("entities"),
+
+  /**
+   * Number of affected entities received in messages.
+   */
+  entitiesReceived("entities"),
+
+  /**
+   * Number of lookups of shared features in the database.  Scoring entities in batches makes this lower
+   * than the number of entities scored.
+   */
+  featureLookups("queries"),
+
+  /**
+   * Number of features found in the feature cache.
+   */
+  featureCacheHits("features"),
+
+  /**
+   * Number of features not found in the feature cache, which had to be read from the database.
+   */
+  featureCacheMisses("features"),
+
+  /**
+   * Number of features dropped from the feature cache to make room or because they expired.
+   */
+  featureCacheEvictions("features"),
+
+  /**
+   * Number of features dropped from the feature cache because an entity owning them was affected.
+   */
+  featureCacheInvalidations("features"),
+
+  /**
+   * Number of feature to entity links currently held in the feature cache.
+   */
+  featureCacheWeight("links"),
+
+  /**
+   * Number of scores not written because they were the same as the committed ones.
+   */
+  writesSuppressed("scores"),
+
+  /**
+   * Number of scores compared with the fingerprint of the committed score held in memory.
+   */
+  scoreFingerprintHits("entities"),
+
+  /**
+   * Number of scores whose entity had no fingerprint held in memory, which were written or compared with SCORE_HASH.
+   */
+  scoreFingerprintMisses("entities"),
+
+  /**
+   * Number of fingerprints dropped from memory to make room.
+   */
+  scoreFingerprintEvictions("entities"),
+
+  /**
+   * Number of entities whose G2 document had been fetched ahead, or was being fetched, when scored.
+   */
+  prefetchHits("entities"),
+
+  /**
+   * Number of entities whose G2 document was fetched when scored since it hadn't been fetched ahead.
+   */
+  prefetchMisses("entities"),
+
+  /**
+   * Number of G2 documents fetched ahead but dropped because they weren't scored in time.
+   */
+  prefetchDropped("entities"),
+
+  /**
+   * Estimated size of the G2 documents currently held by the prefetcher.
+   */
+  prefetchHeldBytes("bytes"),
+
+  /**
+   * Number of affected entities that were not scored separately because the same entity was already
+   * waiting to be scored.
+   */
+  entitiesCoalesced("entities"),
+
+  /**
+   * Number of entities currently held for coalescing.
+   */
+  coalescePending("entities"),
+
+  /**
+   * Number of entities currently queued for the scoring threads.
+   */
+  scoringQueued("entities"),
+
+  /**
+   * Number of scores currently queued for the writer thread.
+   */
+  writeQueued("scores"),
+
+  /**
+   * Number of database connections currently in use.
+   */
+  dbConnectionsActive("connections"),
+
+  /**
+   * Number of open database connections currently not in use.
+   */
+  dbConnectionsIdle("connections"),
+
+  /**
+   * Number of times a database connection had to be waited for because all were in use.
+   */
+  dbConnectionWaits("waits"),
+
+  /**
+   * Total time spent waiting for a database connection because all were in use.
+   */
+  dbConnectionWaitTime("milliseconds"),
+
+  /**
+   * Number of database connections dropped and replaced because they were broken.
+   */
+  dbConnectionsReplaced("connections"),
+
+  /**
+   * Number of relationship match keys whose query risk result was found in the match key cache.
+   */
+  matchKeyCacheHits("match keys"),
+
+  /**
+   * Number of relationship match keys that had to be parsed and checked against the query risk criteria.
+   */
+  matchKeyCacheMisses("match keys"),
+
+  /**
+   * Share of relationship match keys found in the match key cache.
+   */
+  matchKeyCacheHitRate("percent"),
+
+  /**
+   * Number of messages received.
+   */
+  messagesReceived("messages"),
+
+  /**
+   * Entities scored per second, averaged since the service was initialized.
+   */
+  entitiesPerSecond("entities/second"),
+
+  /**
+   * Messages received per second, averaged since the service was initialized.
+   */
+  messagesPerSecond("messages/second"),
+
+  /**
+   * Share of the entities looked up in G2 that no longer existed.
+   */
+  missingEntityRate("percent"),
+
+  /**
+   * Median time spent getting an entity document from G2.
+   */
+  g2GetEntityP50("microseconds"),
+
+  /**
+   * 95th percentile of the time spent getting an entity document from G2.
+   */
+  g2GetEntityP95("microseconds"),
+
+  /**
+   * 99th percentile of the time spent getting an entity document from G2.
+   */
+  g2GetEntityP99("microseconds"),
+
+  /**
+   * Longest time spent getting an entity document from G2.
+   */
+  g2GetEntityMax("microseconds"),
+
+  /**
+   * Median time spent pulling the parts used for scoring out of an entity document.
+   */
+  entityParsingP50("microseconds"),
+
+  /**
+   * 95th percentile of the time spent pulling the parts used for scoring out of an entity document.
+   */
+  entityParsingP95("microseconds"),
+
+  /**
+   * 99th percentile of the time spent pulling the parts used for scoring out of an entity document.
+   */
+  entityParsingP99("microseconds"),
+
+  /**
+   * Longest time spent pulling the parts used for scoring out of an entity document.
+   */
+  entityParsingMax("microseconds"),
+
+  /**
+   * Median time spent looking up the shared features of an entity or a batch of entities in the database.
+   */
+  featureLookupP50("microseconds"),
+
+  /**
+   * 95th percentile of the time spent looking up the shared features of an entity or a batch of entities in the database.
+   */
+  featureLookupP95("microseconds"),
+
+  /**
+   * 99th percentile of the time spent looking up the shared features of an entity or a batch of entities in the database.
+   */
+  featureLookupP99("microseconds"),
+
+  /**
+   * Longest time spent looking up the shared features of an entity or a batch of entities in the database.
+   */
+  featureLookupMax("microseconds"),
+
+  /**
+   * Median time spent applying the rules to an entity, not counting the lookups.
+   */
+  scoringP50("microseconds"),
+
+  /**
+   * 95th percentile of the time spent applying the rules to an entity, not counting the lookups.
+   */
+  scoringP95("microseconds"),
+
+  /**
+   * 99th percentile of the time spent applying the rules to an entity, not counting the lookups.
+   */
+  scoringP99("microseconds"),
+
+  /**
+   * Longest time spent applying the rules to an entity, not counting the lookups.
+   */
+  scoringMax("microseconds"),
+
+  /**
+   * Median time spent posting a score to the database, including any batch commit it triggers.
+   */
+  dbWriteP50("microseconds"),
+
+  /**
+   * 95th percentile of the time spent posting a score to the database, including any batch commit it triggers.
+   */
+  dbWriteP95("microseconds"),
+
+  /**
+   * 99th percentile of the time spent posting a score to the database, including any batch commit it triggers.
+   */
+  dbWriteP99("microseconds"),
+
+  /**
+   * Longest time spent posting a score to the database, including any batch commit it triggers.
+   */
+  dbWriteMax("microseconds"),
+
+  /**
+   * Time since the last score was posted while entities are waiting to be scored or written, 0 when nothing waits.
+   */
+  pipelineLag("milliseconds");
+
+  private final String units;
+
+  RiskScoringStatistic(String units) {
+    this.units = units;
+  }
+
+  @Override
+  public String getName() {
+    return this.toString();
+  }
+
+  @Override
+  public String getUnits() {
+    return this.units;
+  }
+}
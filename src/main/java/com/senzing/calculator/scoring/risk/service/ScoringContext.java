@@ -0,0 +1,54 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+
+/**
+ * Resources used for scoring entities on one thread.  An instance must not be shared between threads.  The
+ * per-entity structures are reused from entity to entity so scoring allocates little.
+ */
+public class ScoringContext {
+
+  private final DatabaseService dbService;
+  // One per entity of the largest batch scored so far.
+  private final List<PreparedEntity> preparedEntities = new ArrayList<>();
+  private final Set<Long> featureIDs = new LinkedHashSet<>();
+
+  public ScoringContext(DatabaseService dbService) {
+    this.dbService = dbService;
+  }
+
+  public DatabaseService getDbService() {
+    return dbService;
+  }
+
+  /**
+   * Gives one of the prepared entities of this context, cleared of anything from previously scored entities.
+   * Entities scored as a batch each use their own slot.
+   *
+   * @param slot Position of the entity in the batch
+   * @param entityID ID of the entity about to be prepared
+   *
+   * @return Prepared entity ready for the entity
+   */
+  PreparedEntity resetPreparedEntity(int slot, long entityID) {
+    while (preparedEntities.size() <= slot) {
+      preparedEntities.add(new PreparedEntity());
+    }
+    PreparedEntity preparedEntity = preparedEntities.get(slot);
+    preparedEntity.reset(entityID);
+    return preparedEntity;
+  }
+
+  /**
+   * Gives an empty set for collecting the feature IDs to look up.
+   */
+  Set<Long> clearedFeatureIDs() {
+    featureIDs.clear();
+    return featureIDs;
+  }
+}
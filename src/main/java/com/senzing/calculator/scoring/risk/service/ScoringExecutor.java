@@ -0,0 +1,40 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Scores the entities handed to it on threads other than the one delivering the messages.  Two updates of the
+ * same entity are never scored at the same time, and an entity submitted is scored after it was submitted.
+ */
+public interface ScoringExecutor {
+
+  void start();
+
+  /**
+   * Hands an entity over for scoring.  Blocks while too many entities are waiting, which pushes back on the
+   * consumer.
+   *
+   * @param entityID ID of the entity to be scored
+   *
+   * @throws ServiceExecutionException
+   */
+  void submit(long entityID) throws ServiceExecutionException;
+
+  /**
+   * Returns once every entity submitted so far has been scored.  Entities submitted meanwhile are waited for too,
+   * so it is meant to be called by the thread submitting them.
+   *
+   * @throws InterruptedException
+   */
+  void awaitIdle() throws InterruptedException;
+
+  /**
+   * Returns once everything submitted has been scored, and closes the database services of the executor.
+   */
+  void shutdown();
+
+  /**
+   * Returns the number of entities submitted but not being scored yet.
+   */
+  int getQueuedCount();
+}
@@ -0,0 +1,181 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Scores entities concurrently on a fixed number of worker threads.  Each worker owns its own queue,
+ * database service and risk scorers.  An entity ID is always routed to the same worker so two updates
+ * of the same entity are scored in the order they were received.  A worker takes whatever is waiting
+ * in its queue, up to the batch size, and scores it as one batch.
+ */
+public class ScoringWorkerPool implements ScoringExecutor {
+
+  /**
+   * Does the actual scoring of an entity using the resources of the worker it runs on.
+   */
+  public interface EntityScorer {
+    void score(List<Long> entityIDs, ScoringContext context) throws ServiceExecutionException;
+  }
+
+  // Signals a worker to stop once everything queued ahead of it has been scored.
+  private static final long STOP_SIGNAL = Long.MIN_VALUE;
+
+  private final List<Worker> workers;
+  private final EntityScorer scorer;
+  private final int batchSize;
+  // Entities submitted and not scored yet, guarded by the pool.
+  private int outstandingCount;
+
+  /**
+   * Creates the pool.  Each of the database services is handed to one worker exclusively.
+   *
+   * @param scorer Scores the entities
+   * @param dbServices Database services, one per worker
+   * @param queueSize Maximum number of entities waiting per worker before submit blocks
+   * @param batchSize Maximum number of entities a worker scores together
+   */
+  public ScoringWorkerPool(EntityScorer scorer, List<DatabaseService> dbServices, int queueSize, int batchSize) {
+    this.scorer = scorer;
+    this.batchSize = Math.max(1, batchSize);
+    this.workers = new ArrayList<>();
+    for (int i = 0; i < dbServices.size(); i++) {
+      ScoringContext context = new ScoringContext(dbServices.get(i));
+      workers.add(new Worker("risk-scoring-worker-" + i, context, queueSize));
+    }
+  }
+
+  @Override
+  public void start() {
+    for (Worker worker : workers) {
+      worker.start();
+    }
+  }
+
+  /**
+   * Queues an entity for scoring.  Blocks if the queue of the worker assigned to the entity is full,
+   * which pushes back on the consumer.
+   *
+   * @param entityID ID of the entity to be scored
+   *
+   * @throws ServiceExecutionException
+   */
+  @Override
+  public void submit(long entityID) throws ServiceExecutionException {
+    Worker worker = workers.get(workerIndex(entityID));
+    synchronized (this) {
+      outstandingCount++;
+    }
+    try {
+      worker.queue.put(entityID);
+    } catch (InterruptedException e) {
+      scored(1);
+      Thread.currentThread().interrupt();
+      throw new ServiceExecutionException(e);
+    }
+  }
+
+  @Override
+  public synchronized void awaitIdle() throws InterruptedException {
+    while (outstandingCount > 0) {
+      wait();
+    }
+  }
+
+  /**
+   * Stops the workers after all queued entities have been scored.
+   */
+  @Override
+  public void shutdown() {
+    for (Worker worker : workers) {
+      try {
+        worker.queue.put(STOP_SIGNAL);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        worker.interrupt();
+      }
+    }
+    for (Worker worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      worker.context.getDbService().close();
+    }
+  }
+
+  public int getWorkerCount() {
+    return workers.size();
+  }
+
+  /**
+   * Returns the number of entities waiting to be scored across all the workers.
+   */
+  @Override
+  public int getQueuedCount() {
+    int count = 0;
+    for (Worker worker : workers) {
+      count += worker.queue.size();
+    }
+    return count;
+  }
+
+  private synchronized void scored(int count) {
+    outstandingCount -= count;
+    if (outstandingCount <= 0) {
+      notifyAll();
+    }
+  }
+
+  private int workerIndex(long entityID) {
+    // Spread the bits so sequential IDs don't pile up on few workers.
+    long hash = entityID * 0x9E3779B97F4A7C15L;
+    return (int) Math.floorMod(hash ^ (hash >>> 32), (long) workers.size());
+  }
+
+  private class Worker extends Thread {
+    private final ScoringContext context;
+    private final BlockingQueue<Long> queue;
+
+    Worker(String name, ScoringContext context, int queueSize) {
+      super(name);
+      this.context = context;
+      this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+    }
+
+    @Override
+    public void run() {
+      List<Long> batch = new ArrayList<>(batchSize);
+      while (true) {
+        batch.clear();
+        try {
+          batch.add(queue.take());
+        } catch (InterruptedException e) {
+          return;
+        }
+        queue.drainTo(batch, batchSize - 1);
+        // Anything queued after the stop signal is ignored.
+        int stopIndex = batch.indexOf(STOP_SIGNAL);
+        List<Long> entityIDs = stopIndex < 0 ? batch : batch.subList(0, stopIndex);
+        if (!entityIDs.isEmpty()) {
+          try {
+            scorer.score(entityIDs, context);
+          } catch (ServiceExecutionException | RuntimeException e) {
+            System.err.println("Failed to score entities " + entityIDs);
+            e.printStackTrace();
+          }
+          scored(entityIDs.size());
+        }
+        if (stopIndex >= 0) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.senzing.calculator.scoring.risk.service.ScoringWorkerPool.EntityScorer;
+import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Scores each entity on its own virtual thread, which needs Java 21 or later.  A virtual thread waiting on G2 or
+ * the database doesn't hold on to an operating system thread, so many entities can wait at once without a tuned
+ * pool of threads.
+ *
+ * The number of entities scored at once is bounded by the scoring contexts, each with its own database service.
+ * An entity is always scored with the same context, picked by its ID the way the worker pool picks a worker, and a
+ * thread waits for its context to be free.  The database service of a context holds the scores waiting for its
+ * group commit, so all scores of an entity go through the same batch and are never committed out of order.
+ * Submitting blocks once the queue size of entities is waiting for a context.  An entity submitted while it is
+ * being scored is scored once more when that is done, however often it was submitted meanwhile, since the scoring
+ * reads the entity as it is then.
+ */
+public class VirtualThreadScoringExecutor implements ScoringExecutor {
+
+  private final EntityScorer scorer;
+  private final ThreadFactory threadFactory;
+  private final List<ScoringContext> contexts;
+  // Held by the thread scoring with the context of the same index.
+  private final List<Semaphore> contextPermits;
+  private final Semaphore queuePermits;
+  // Entities being scored or waiting for a context, mapped to whether they were submitted again meanwhile.
+  private final ConcurrentHashMap<Long, Boolean> inFlight = new ConcurrentHashMap<>();
+  private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger queuedCount = new AtomicInteger();
+  private volatile boolean stopped;
+
+  /**
+   * Creates the executor.  Each of the database services goes to one scoring context.
+   *
+   * @param scorer Scores the entities
+   * @param dbServices Database services, one per entity scored at once
+   * @param queueSize Maximum number of entities waiting for a context before submit blocks
+   *
+   * @throws UnsupportedOperationException If the JVM has no virtual threads
+   */
+  public VirtualThreadScoringExecutor(EntityScorer scorer, List<DatabaseService> dbServices, int queueSize) {
+    this(scorer, dbServices, queueSize, newVirtualThreadFactory("risk-scoring-"));
+  }
+
+  VirtualThreadScoringExecutor(EntityScorer scorer, List<DatabaseService> dbServices, int queueSize,
+      ThreadFactory threadFactory) {
+    this.scorer = scorer;
+    this.threadFactory = threadFactory;
+    this.queuePermits = new Semaphore(Math.max(1, queueSize));
+    this.contexts = new ArrayList<>();
+    this.contextPermits = new ArrayList<>();
+    for (DatabaseService dbService : dbServices) {
+      contexts.add(new ScoringContext(dbService));
+      contextPermits.add(new Semaphore(1, true));
+    }
+  }
+
+  /**
+   * Tells if the JVM can run virtual threads.
+   */
+  public static boolean isSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Creates a factory of virtual threads named with the prefix and a counter.  The builder is looked up by
+   * reflection so the class still compiles for, and loads on, Java versions without virtual threads.
+   */
+  static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Method name = builderClass.getMethod("name", String.class, long.class);
+      builder = name.invoke(builder, namePrefix, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Virtual threads need Java 21 or later, running on Java "
+          + Runtime.version().feature(), e);
+    }
+  }
+
+  @Override
+  public void start() {
+    // Threads are started as entities are submitted.
+  }
+
+  @Override
+  public void submit(long entityID) throws ServiceExecutionException {
+    if (stopped) {
+      throw new ServiceExecutionException("Scoring has been shut down");
+    }
+    boolean[] added = new boolean[1];
+    inFlight.compute(entityID, (id, resubmitted) -> {
+      added[0] = resubmitted == null;
+      return !added[0];
+    });
+    if (!added[0]) {
+      // Rescored by the thread already holding it.
+      return;
+    }
+    try {
+      queuePermits.acquire();
+    } catch (InterruptedException e) {
+      inFlight.remove(entityID);
+      Thread.currentThread().interrupt();
+      throw new ServiceExecutionException(e);
+    }
+    queuedCount.incrementAndGet();
+    Thread thread = threadFactory.newThread(() -> score(entityID));
+    threads.add(thread);
+    thread.start();
+  }
+
+  @Override
+  public synchronized void awaitIdle() throws InterruptedException {
+    while (!threads.isEmpty()) {
+      wait();
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    stopped = true;
+    // A thread leaves the set once it is done, those started meanwhile are joined on the next pass.
+    while (!threads.isEmpty() && !Thread.currentThread().isInterrupted()) {
+      for (Thread thread : threads) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    for (ScoringContext context : contexts) {
+      context.getDbService().close();
+    }
+  }
+
+  public int getContextCount() {
+    return contexts.size();
+  }
+
+  @Override
+  public int getQueuedCount() {
+    return queuedCount.get();
+  }
+
+  private void score(long entityID) {
+    int contextIndex = contextIndex(entityID);
+    Semaphore contextPermit = contextPermits.get(contextIndex);
+    boolean holdingContext = false;
+    try {
+      contextPermit.acquire();
+      holdingContext = true;
+      ScoringContext context = contexts.get(contextIndex);
+      queuedCount.decrementAndGet();
+      queuePermits.release();
+      List<Long> entityIDs = Collections.singletonList(entityID);
+      do {
+        // The entity is read when scored, which covers it being submitted again up to now.
+        inFlight.replace(entityID, Boolean.TRUE, Boolean.FALSE);
+        try {
+          scorer.score(entityIDs, context);
+        } catch (ServiceExecutionException | RuntimeException e) {
+          System.err.println("Failed to score entities " + entityIDs);
+          e.printStackTrace();
+        }
+      } while (resubmitted(entityID));
+    } catch (InterruptedException e) {
+      queuedCount.decrementAndGet();
+      queuePermits.release();
+      inFlight.remove(entityID);
+    } finally {
+      if (holdingContext) {
+        contextPermit.release();
+      }
+      threads.remove(Thread.currentThread());
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  private int contextIndex(long entityID) {
+    // Spread the bits so sequential IDs don't pile up on few contexts.
+    long hash = entityID * 0x9E3779B97F4A7C15L;
+    return (int) Math.floorMod(hash ^ (hash >>> 32), (long) contexts.size());
+  }
+
+  /**
+   * Releases an entity once scored, unless it was submitted again while being scored.
+   *
+   * @return True if the entity has to be scored again
+   */
+  private boolean resubmitted(long entityID) {
+    // Only the thread scoring the entity removes it, so it is still there, marked if it was submitted again.
+    return !inFlight.remove(entityID, Boolean.FALSE);
+  }
+}
@@ -0,0 +1,264 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of JDBC connections to the database holding RES_RISK_SCORE and RES_FEAT_EKEY. Connections have autocommit
+ * turned off and are handed out to one user at a time. Users must end their transaction before releasing the
+ * connection.
+ *
+ * A connection idle for longer than the validation bypass time is validated before it is handed out, and replaced
+ * if it turned out broken. Connections are opened on demand up to the maximum size, at least the minimum size is
+ * kept open once the pool is filled.
+ */
+public class ConnectionPool {
+
+  // Connections used within this time are handed out without validating them.
+  private static final long VALIDATION_BYPASS_MILLIS = 1000;
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  private final String url;
+  private final int minSize;
+  private final int maxSize;
+  private final long maxWaitMillis;
+  // Most recently released connection first, so the busy ones stay warm.
+  private final Deque<PooledConnection> idle = new ArrayDeque<>();
+  private int openCount;
+  private boolean closed;
+
+  private long borrowCount;
+  private long waitCount;
+  private long totalWaitMillis;
+  private long replacedCount;
+
+  /**
+   * Creates the pool. No connection is opened until {@link #fill()} or the first borrow.
+   *
+   * @param url JDBC URL of the database
+   * @param minSize Number of connections kept open
+   * @param maxSize Maximum number of connections open at the same time
+   * @param maxWaitMillis Time a borrow waits for a connection to be released before it fails
+   */
+  public ConnectionPool(String url, int minSize, int maxSize, long maxWaitMillis) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Maximum pool size must be at least 1, it was " + maxSize);
+    }
+    if (minSize < 0 || minSize > maxSize) {
+      throw new IllegalArgumentException("Minimum pool size must be between 0 and " + maxSize + ", it was " + minSize);
+    }
+    this.url = url;
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  /**
+   * Opens connections until the minimum size is reached.
+   *
+   * @throws SQLException If a connection can't be opened
+   */
+  public void fill() throws SQLException {
+    while (true) {
+      synchronized (this) {
+        if (closed || openCount >= minSize) {
+          return;
+        }
+        openCount++;
+      }
+      PooledConnection connection;
+      try {
+        connection = open();
+      } catch (SQLException e) {
+        connectionClosed();
+        throw e;
+      }
+      synchronized (this) {
+        idle.push(connection);
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Hands out a connection, waiting for one to be released if the maximum number is in use.
+   *
+   * @return A connection for exclusive use until it is released or invalidated
+   *
+   * @throws SQLException If no connection could be opened or none was released in time
+   */
+  PooledConnection borrow() throws SQLException {
+    long start = System.currentTimeMillis();
+    boolean waited = false;
+    while (true) {
+      PooledConnection connection = null;
+      boolean openNew = false;
+      synchronized (this) {
+        while (!closed && idle.isEmpty() && openCount >= maxSize) {
+          long remaining = start + maxWaitMillis - System.currentTimeMillis();
+          if (remaining <= 0) {
+            waitCount++;
+            totalWaitMillis += System.currentTimeMillis() - start;
+            throw new SQLException("No database connection released within " + maxWaitMillis + " ms");
+          }
+          waited = true;
+          try {
+            wait(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+          }
+        }
+        if (closed) {
+          throw new SQLException("Connection pool is closed");
+        }
+        if (!idle.isEmpty()) {
+          connection = idle.pop();
+        } else {
+          openCount++;
+          openNew = true;
+        }
+        borrowCount++;
+        if (waited) {
+          waitCount++;
+          totalWaitMillis += System.currentTimeMillis() - start;
+        }
+      }
+
+      if (openNew) {
+        try {
+          return open();
+        } catch (SQLException e) {
+          connectionClosed();
+          throw e;
+        }
+      }
+      if (System.currentTimeMillis() - connection.getLastUsed() < VALIDATION_BYPASS_MILLIS
+          || connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+        return connection;
+      }
+      // Broken while idle, drop it and try again.
+      connection.close();
+      synchronized (this) {
+        replacedCount++;
+      }
+      connectionClosed();
+    }
+  }
+
+  /**
+   * Takes back a healthy connection. Its transaction must have been committed or rolled back.
+   */
+  void release(PooledConnection connection) {
+    connection.touch();
+    synchronized (this) {
+      if (!closed) {
+        idle.push(connection);
+        notifyAll();
+        return;
+      }
+    }
+    connection.close();
+    connectionClosed();
+  }
+
+  /**
+   * Takes back a connection which turned out broken. It is closed and will be replaced by a new one.
+   */
+  void invalidate(PooledConnection connection) {
+    connection.close();
+    synchronized (this) {
+      replacedCount++;
+    }
+    connectionClosed();
+  }
+
+  /**
+   * Closes the idle connections. Connections in use are closed when they are released.
+   */
+  public void close() {
+    Deque<PooledConnection> toClose;
+    synchronized (this) {
+      closed = true;
+      toClose = new ArrayDeque<>(idle);
+      idle.clear();
+      notifyAll();
+    }
+    for (PooledConnection connection : toClose) {
+      connection.close();
+      connectionClosed();
+    }
+  }
+
+  /**
+   * Returns the number of connections handed out and not yet released.
+   */
+  public synchronized int getActiveCount() {
+    return openCount - idle.size();
+  }
+
+  public synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  public synchronized long getBorrowCount() {
+    return borrowCount;
+  }
+
+  /**
+   * Returns the number of borrows which had to wait for a connection to be released.
+   */
+  public synchronized long getWaitCount() {
+    return waitCount;
+  }
+
+  /**
+   * Returns the total time in milliseconds borrows waited for a connection to be released.
+   */
+  public synchronized long getTotalWaitMillis() {
+    return totalWaitMillis;
+  }
+
+  /**
+   * Returns the number of connections dropped because they were broken.
+   */
+  public synchronized long getReplacedCount() {
+    return replacedCount;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Drops the statements prepared on the idle connections.
+   */
+  public synchronized void closeIdleStatements() {
+    for (PooledConnection connection : idle) {
+      connection.closeStatements();
+    }
+  }
+
+  private PooledConnection open() throws SQLException {
+    Connection connection = DriverManager.getConnection(url);
+    try {
+      connection.setAutoCommit(false);
+    } catch (SQLException e) {
+      connection.close();
+      throw e;
+    }
+    return new PooledConnection(connection);
+  }
+
+  private synchronized void connectionClosed() {
+    openCount--;
+    notifyAll();
+  }
+}
@@ -1,23 +1,116 @@
 package com.senzing.calculator.scoring.risk.service.db;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import com.senzing.listener.service.exception.ServiceExecutionException;
 
 public class DatabaseService {
 
-  private Connection connection;
+  // Key for coalescing writes to the same row while they wait for a group commit.
+  private static class ScoreKey {
+    private final long entityID;
+    private final int lensID;
+
+    ScoreKey(long entityID, int lensID) {
+      this.entityID = entityID;
+      this.lensID = lensID;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof ScoreKey)) {
+        return false;
+      }
+      ScoreKey key = (ScoreKey) other;
+      return entityID == key.entityID && lensID == key.lensID;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(entityID, lensID);
+    }
+  }
+
+  // A score waiting to be written. Null scores mean the row is deleted.
+  private static class PendingScore {
+    private final String qualityScore;
+    private final String collisionScore;
+    private final String queryScore;
+    private final String reason;
+    private final String queryReason;
+    // Used instead of reason from schema v3 on.
+    private final int reasonCodes;
+    private final String reasonDetail;
+    // Stored in SCORE_HASH from schema v4 on.
+    private final long fingerprint;
+
+    PendingScore(String qualityScore, String collisionScore, String queryScore, String reason, String queryReason) {
+      this(qualityScore, collisionScore, queryScore, reason, 0, null, queryReason);
+    }
+
+    PendingScore(String qualityScore, String collisionScore, String queryScore, String reason, int reasonCodes,
+        String reasonDetail, String queryReason) {
+      this.qualityScore = qualityScore;
+      this.collisionScore = collisionScore;
+      this.queryScore = queryScore;
+      this.reason = reason;
+      this.reasonCodes = reasonCodes;
+      this.reasonDetail = reasonDetail;
+      this.queryReason = queryReason;
+      this.fingerprint = ScoreFingerprints.fingerprint(qualityScore, collisionScore, queryScore, reason,
+          Integer.toString(reasonCodes), reasonDetail, queryReason);
+    }
+
+    boolean isDelete() {
+      return qualityScore == null && collisionScore == null;
+    }
+  }
+
+  // Does a piece of work on a pooled connection, including ending its transaction.
+  private interface SqlWork<T> {
+    T run(PooledConnection connection) throws SQLException;
+  }
+
+  private ConnectionPool pool;
+  // The pool is closed with this service if it was opened by it.
+  private boolean ownsPool;
   private String upsertQuery;
-  private PreparedStatement postStatement;
-  private PreparedStatement deleteStatement;
+  private int schemaVersion = 2;
+
+  // Group commit settings. A batch size of 1 commits every score as it is posted.
+  private int writeBatchSize = 1;
+  private long writeBatchMillis;
+  private final Map<ScoreKey, PendingScore> pendingScores = new LinkedHashMap<>();
+  private long oldestPendingTime;
+  private ScheduledExecutorService flushTimer;
+  // Group commits started by the timer which failed.
+  private long backgroundFailureCount;
+  // Optional cache of feature ownership, possibly shared with other instances.
+  private volatile FeatureEntityCache featureCache;
+  // Sizes of the IN lists feature lookups are prepared for. A list is padded up to the next size so only a few
+  // statements are ever prepared, each is kept for the lifetime of the connection.
+  private volatile int[] inClauseBuckets = DEFAULT_IN_CLAUSE_BUCKETS;
+  // Optional fingerprints of the committed scores, for not writing unchanged scores again.
+  private volatile ScoreFingerprints scoreFingerprints;
 
-  private static final int DEFAULT_BATCH_SIZE = 20;
+  private static final int[] DEFAULT_IN_CLAUSE_BUCKETS = { 1, 2, 4, 8, 16, 32, 64 };
+  private static final long DEFAULT_MAX_WAIT_MILLIS = 30000;
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
 
   private static final String MYSQL_TYPE = "mysql";
   private static final String DOUBLE_QUOTE = "\"";
@@ -32,23 +125,138 @@ public class DatabaseService {
   private final static String UPSERT_QUERY_MYSQL = "INSERT INTO RES_RISK_SCORE (RES_ENT_ID, LENS_ID, QUALITY_STATE, COLLISION_STATE, QUERY_STATE, REASON, QUERY_REASON) "
                                                      + "VALUES (?, ?, ?, ?, ?, ?, ?) "
                                                      + "ON DUPLICATE KEY UPDATE QUALITY_STATE = ?, COLLISION_STATE = ?, QUERY_STATE = ?, REASON = ?, QUERY_REASON = ?";
+  private final static String UPSERT_QUERY_V3 = "INSERT INTO RES_RISK_SCORE (RES_ENT_ID, LENS_ID, QUALITY_STATE, COLLISION_STATE, QUERY_STATE, REASON_CODES, REASON_DETAIL, QUERY_REASON) "
+                                                     + "VALUES (?, ?, ?, ?, ?, ?, ?, ?) "
+                                                     + "ON CONFLICT (RES_ENT_ID, LENS_ID) DO UPDATE SET QUALITY_STATE = ?, COLLISION_STATE = ?, QUERY_STATE = ?, REASON_CODES = ?, REASON_DETAIL = ?, QUERY_REASON = ?";
+  private final static String UPSERT_QUERY_MYSQL_V3 = "INSERT INTO RES_RISK_SCORE (RES_ENT_ID, LENS_ID, QUALITY_STATE, COLLISION_STATE, QUERY_STATE, REASON_CODES, REASON_DETAIL, QUERY_REASON) "
+                                                     + "VALUES (?, ?, ?, ?, ?, ?, ?, ?) "
+                                                     + "ON DUPLICATE KEY UPDATE QUALITY_STATE = ?, COLLISION_STATE = ?, QUERY_STATE = ?, REASON_CODES = ?, REASON_DETAIL = ?, QUERY_REASON = ?";
+  private final static String UPSERT_QUERY_V4 = "INSERT INTO RES_RISK_SCORE (RES_ENT_ID, LENS_ID, QUALITY_STATE, COLLISION_STATE, QUERY_STATE, REASON_CODES, REASON_DETAIL, QUERY_REASON, SCORE_HASH) "
+                                                     + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) "
+                                                     + "ON CONFLICT (RES_ENT_ID, LENS_ID) DO UPDATE SET QUALITY_STATE = ?, COLLISION_STATE = ?, QUERY_STATE = ?, REASON_CODES = ?, REASON_DETAIL = ?, QUERY_REASON = ?, SCORE_HASH = ?";
+  private final static String UPSERT_QUERY_MYSQL_V4 = "INSERT INTO RES_RISK_SCORE (RES_ENT_ID, LENS_ID, QUALITY_STATE, COLLISION_STATE, QUERY_STATE, REASON_CODES, REASON_DETAIL, QUERY_REASON, SCORE_HASH) "
+                                                     + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) "
+                                                     + "ON DUPLICATE KEY UPDATE QUALITY_STATE = ?, COLLISION_STATE = ?, QUERY_STATE = ?, REASON_CODES = ?, REASON_DETAIL = ?, QUERY_REASON = ?, SCORE_HASH = ?";
+  private final static String GET_SCORE_HASHES_QUERY = "SELECT RES_ENT_ID,SCORE_HASH FROM RES_RISK_SCORE WHERE LENS_ID=? AND RES_ENT_ID IN ";
   private final static String GET_ENTITIES_BY_FEATURES_QUERY = "SELECT LIB_FEAT_ID,UTYPE_CODE,RES_ENT_ID FROM RES_FEAT_EKEY "
                                                                + "WHERE LENS_ID=? AND RES_ENT_ID!=? AND LIB_FEAT_ID IN ";
+  private final static String GET_SHARED_FEATURES_QUERY = "SELECT LIB_FEAT_ID,RES_ENT_ID FROM RES_FEAT_EKEY "
+                                                          + "WHERE LENS_ID=? AND RES_ENT_ID!=? AND LIB_FEAT_ID IN ";
+  // Resolved entities are enumerated from the entity to record keys, which have the lens.
+  private final static String RESOLVED_ENTITY_RANGE_QUERY = "SELECT MIN(RES_ENT_ID),MAX(RES_ENT_ID) FROM RES_ENT_OKEY WHERE LENS_ID=?";
+  private final static String RESOLVED_ENTITY_COUNT_QUERY = "SELECT COUNT(DISTINCT RES_ENT_ID) FROM RES_ENT_OKEY "
+                                                            + "WHERE LENS_ID=? AND RES_ENT_ID>=? AND RES_ENT_ID<=?";
+  private final static String RESOLVED_ENTITY_PAGE_QUERY = "SELECT DISTINCT RES_ENT_ID FROM RES_ENT_OKEY "
+                                                           + "WHERE LENS_ID=? AND RES_ENT_ID>? AND RES_ENT_ID<=? ORDER BY RES_ENT_ID";
+  // The same table as created by the create-res_risk_rescore scripts.
+  private final static String CREATE_RESCORE_TABLE = "CREATE TABLE IF NOT EXISTS RES_RISK_RESCORE (LENS_ID SMALLINT NOT NULL, "
+                                                     + "PARTITION_ID INTEGER NOT NULL, FIRST_ENT_ID BIGINT NOT NULL, LAST_ENT_ID BIGINT NOT NULL, "
+                                                     + "DONE_ENT_ID BIGINT NOT NULL, ENTITY_COUNT BIGINT NOT NULL, SCORED_COUNT BIGINT NOT NULL, "
+                                                     + "OWNER VARCHAR(250), LEASE_EXPIRES BIGINT NOT NULL DEFAULT 0, "
+                                                     + "PRIMARY KEY (LENS_ID, PARTITION_ID))";
+  private final static String GET_RESCORE_CHECKPOINTS_QUERY = "SELECT PARTITION_ID,FIRST_ENT_ID,LAST_ENT_ID,DONE_ENT_ID,ENTITY_COUNT,SCORED_COUNT,OWNER,LEASE_EXPIRES "
+                                                              + "FROM RES_RISK_RESCORE WHERE LENS_ID=? ORDER BY PARTITION_ID";
+  private final static String GET_RESCORE_CHECKPOINT_QUERY = "SELECT PARTITION_ID,FIRST_ENT_ID,LAST_ENT_ID,DONE_ENT_ID,ENTITY_COUNT,SCORED_COUNT,OWNER,LEASE_EXPIRES "
+                                                             + "FROM RES_RISK_RESCORE WHERE LENS_ID=? AND PARTITION_ID=?";
+  // A partition is claimed when it isn't done and has no owner or the lease of its owner expired. The update
+  // count tells which of the instances claiming it at the same time got it.
+  private final static String CLAIM_RESCORE_LEASE = "UPDATE RES_RISK_RESCORE SET OWNER = ?, LEASE_EXPIRES = ? "
+                                                    + "WHERE LENS_ID = ? AND PARTITION_ID = ? AND DONE_ENT_ID < LAST_ENT_ID "
+                                                    + "AND (OWNER IS NULL OR LEASE_EXPIRES < ?)";
+  private final static String RENEW_RESCORE_LEASE = "UPDATE RES_RISK_RESCORE SET LEASE_EXPIRES = ? "
+                                                    + "WHERE LENS_ID = ? AND PARTITION_ID = ? AND OWNER = ?";
+  private final static String RELEASE_RESCORE_LEASE = "UPDATE RES_RISK_RESCORE SET OWNER = NULL, LEASE_EXPIRES = 0 "
+                                                      + "WHERE LENS_ID = ? AND PARTITION_ID = ? AND OWNER = ?";
+  private final static String INSERT_RESCORE_CHECKPOINT = "INSERT INTO RES_RISK_RESCORE "
+                                                          + "(LENS_ID, PARTITION_ID, FIRST_ENT_ID, LAST_ENT_ID, DONE_ENT_ID, ENTITY_COUNT, SCORED_COUNT) "
+                                                          + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+  private final static String UPDATE_RESCORE_CHECKPOINT = "UPDATE RES_RISK_RESCORE SET DONE_ENT_ID = ?, SCORED_COUNT = ?, LEASE_EXPIRES = ? "
+                                                          + "WHERE LENS_ID = ? AND PARTITION_ID = ? AND OWNER = ?";
+  private final static String DELETE_RESCORE_CHECKPOINTS = "DELETE FROM RES_RISK_RESCORE WHERE LENS_ID = ?";
 
 
   public DatabaseService() {
   }
 
+  /**
+   * Initializes the service with a connection of its own.
+   *
+   * @param url JDBC URL of the database
+   *
+   * @throws SQLException If the database can't be connected to
+   */
   public void init(String url) throws SQLException {
-    connection = DriverManager.getConnection(url);
-    connection.setAutoCommit(false);
-    if (url.contains(MYSQL_TYPE)) {
-      upsertQuery = UPSERT_QUERY_MYSQL;
+    init(new ConnectionPool(url, 1, 1, DEFAULT_MAX_WAIT_MILLIS));
+    ownsPool = true;
+  }
+
+  /**
+   * Initializes the service with connections from a pool, which may be shared with other instances. A connection
+   * is only held while a lookup or a write is done. The pool is not closed with this service.
+   *
+   * @param pool Pool to borrow connections from
+   *
+   * @throws SQLException If the pool can't connect to the database
+   */
+  public void init(ConnectionPool pool) throws SQLException {
+    this.pool = pool;
+    selectUpsertQuery();
+    pool.fill();
+  }
+
+  /**
+   * Sets the version of the RES_RISK_SCORE schema written to. Version 2 has the reason as text in REASON, version 3
+   * has it as {@link com.senzing.calculator.scoring.risk.service.ReasonCodes} in REASON_CODES and REASON_DETAIL.
+   * Version 4 adds the fingerprint of the score in SCORE_HASH, see {@link ScoreFingerprints}.
+   *
+   * @param schemaVersion 2, 3 or 4
+   */
+  public synchronized void setSchemaVersion(int schemaVersion) {
+    if (schemaVersion < 2 || schemaVersion > 4) {
+      throw new IllegalArgumentException("Unsupported schema version: " + schemaVersion);
+    }
+    this.schemaVersion = schemaVersion;
+    selectUpsertQuery();
+  }
+
+  public int getSchemaVersion() {
+    return schemaVersion;
+  }
+
+  private void selectUpsertQuery() {
+    if (pool == null) {
+      return;
+    }
+    boolean mysql = pool.getUrl().contains(MYSQL_TYPE);
+    if (schemaVersion >= 4) {
+      upsertQuery = mysql ? UPSERT_QUERY_MYSQL_V4 : UPSERT_QUERY_V4;
+    } else if (schemaVersion >= 3) {
+      upsertQuery = mysql ? UPSERT_QUERY_MYSQL_V3 : UPSERT_QUERY_V3;
     } else {
-      upsertQuery = UPSERT_QUERY;
+      upsertQuery = mysql ? UPSERT_QUERY_MYSQL : UPSERT_QUERY;
+    }
+  }
+
+  /**
+   * Turns on group commits. Posted scores are held back and written with one batch and one commit when
+   * batchSize rows are waiting or the oldest has waited batchMillis, whichever comes first. Multiple
+   * posts for the same entity and lens within a batch are coalesced so only the last one is written.
+   *
+   * @param batchSize Number of rows committed together. 1 or less commits each score as it is posted.
+   * @param batchMillis Maximum time in milliseconds a score waits before it is committed
+   */
+  public synchronized void enableBatchWrites(int batchSize, long batchMillis) {
+    writeBatchSize = Math.max(1, batchSize);
+    writeBatchMillis = Math.max(1, batchMillis);
+    if (writeBatchSize > 1 && flushTimer == null) {
+      flushTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "risk-score-flush");
+        thread.setDaemon(true);
+        return thread;
+      });
+      long period = Math.max(1, writeBatchMillis / 2);
+      flushTimer.scheduleWithFixedDelay(this::flushIfDue, period, period, TimeUnit.MILLISECONDS);
     }
-    postStatement = connection.prepareStatement(upsertQuery);
-    deleteStatement = connection.prepareStatement(DELETE_QUERY);
   }
 
   /**
@@ -62,39 +270,269 @@ public class DatabaseService {
    * 
    * @throws ServiceExecutionException
    */
-  public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+  public synchronized void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
       String reason, String queryReason)
       throws ServiceExecutionException {
+    PendingScore score = new PendingScore(qualityScore, collisionScore, queryScore, reason, queryReason);
+    if (schemaVersion >= 3 && !score.isDelete()) {
+      throw new IllegalStateException("Schema version " + schemaVersion + " takes reason codes instead of a reason");
+    }
+    post(entityID, lensID, score);
+  }
+
+  /**
+   * Posts a risk score into RES_RISK_SCORE table of schema v3, with the reason as codes. It inserts if no record
+   * existing and updates otherwise.
+   *
+   * @param entityID ID for the entity being scored
+   * @param lensID Lens ID being scored
+   * @param qualityScore Score for data quality
+   * @param collisionScore Score for collision
+   * @param reasonCodes Explanation for the scores as {@link com.senzing.calculator.scoring.risk.service.ReasonCodes}
+   * @param reasonDetail Detail of the reasons, may be null
+   *
+   * @throws ServiceExecutionException
+   */
+  public synchronized void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+      int reasonCodes, String reasonDetail, String queryReason)
+      throws ServiceExecutionException {
+    if (schemaVersion < 3) {
+      throw new IllegalStateException("Schema version " + schemaVersion + " has no reason codes");
+    }
+    post(entityID, lensID, new PendingScore(qualityScore, collisionScore, queryScore, null, reasonCodes, reasonDetail, queryReason));
+  }
+
+  private void post(long entityID, int lensID, PendingScore score) throws ServiceExecutionException {
+    ScoreKey key = new ScoreKey(entityID, lensID);
+    ScoreFingerprints fingerprints = fingerprintsFor(lensID);
+    // A score waiting for a group commit may differ from the committed one, the new score must replace it then.
+    if (fingerprints != null && !score.isDelete() && !pendingScores.containsKey(key)) {
+      Long committed = fingerprints.get(entityID);
+      if (committed != null && committed == score.fingerprint) {
+        fingerprints.addSuppressed(1);
+        return;
+      }
+    }
 
+    if (writeBatchSize > 1) {
+      if (pendingScores.isEmpty()) {
+        oldestPendingTime = System.currentTimeMillis();
+      }
+      pendingScores.put(key, score);
+      if (pendingScores.size() >= writeBatchSize) {
+        flush();
+      }
+      return;
+    }
+
+    boolean written;
     try {
-      if (qualityScore == null && collisionScore == null) {
-        int index = 1;
-        deleteStatement.setLong(index++, entityID);
-        deleteStatement.setInt(index++, lensID);
-        deleteStatement.execute();
-      } else {
-        populateUpsertStatement(postStatement, entityID, lensID, qualityScore, collisionScore, queryScore, reason, queryReason);
-        postStatement.execute();
+      written = withConnection(pooled -> {
+        if (score.isDelete()) {
+          PreparedStatement deleteStatement = pooled.prepare(DELETE_QUERY);
+          int index = 1;
+          deleteStatement.setLong(index++, entityID);
+          deleteStatement.setInt(index++, lensID);
+          deleteStatement.execute();
+        } else {
+          if (readsStoredFingerprint(fingerprints, entityID)) {
+            Long stored = readStoredFingerprints(pooled, lensID, Collections.singletonList(entityID)).get(entityID);
+            if (stored != null && stored == score.fingerprint) {
+              pooled.getConnection().commit();
+              return false;
+            }
+          }
+          PreparedStatement postStatement = pooled.prepare(upsertQuery);
+          populateUpsertStatement(postStatement, entityID, lensID, score);
+          postStatement.execute();
+        }
+        pooled.getConnection().commit();
+        return true;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to write risk score of entity " + entityID, e);
+    }
+    if (fingerprints != null) {
+      recordFingerprint(fingerprints, entityID, score);
+      if (!written) {
+        fingerprints.addSuppressed(1);
+      }
+    }
+  }
+
+  /**
+   * Writes and commits all scores waiting for a group commit. If the batch fails while the connection is still
+   * valid it is rolled back and the scores are written again one at a time, so a score which can't be written
+   * doesn't take the others with it. The scores failing again are dropped. Scores with the fingerprint of the
+   * committed ones are left out.
+   *
+   * @throws ServiceExecutionException If any score was dropped
+   */
+  public synchronized void flush() throws ServiceExecutionException {
+    if (pendingScores.isEmpty()) {
+      return;
+    }
+    int rowCount = pendingScores.size();
+    // Scores which failed on their own, and why.
+    Map<ScoreKey, SQLException> failedRows = new LinkedHashMap<>();
+    try {
+      int suppressedCount = withConnection(pooled -> {
+        failedRows.clear();
+        // The committed fingerprints of the scores whose fingerprint isn't held are read in one go.
+        Map<Long, Long> storedFingerprints = Collections.emptyMap();
+        List<Long> unknownEntityIDs = new ArrayList<>();
+        for (Map.Entry<ScoreKey, PendingScore> entry : pendingScores.entrySet()) {
+          ScoreKey key = entry.getKey();
+          if (!entry.getValue().isDelete() && readsStoredFingerprint(fingerprintsFor(key.lensID), key.entityID)) {
+            unknownEntityIDs.add(key.entityID);
+          }
+        }
+        if (!unknownEntityIDs.isEmpty()) {
+          storedFingerprints = readStoredFingerprints(pooled, scoreFingerprints.getLensID(), unknownEntityIDs);
+        }
+
+        PreparedStatement deleteStatement = pooled.prepare(DELETE_QUERY);
+        PreparedStatement postStatement = pooled.prepare(upsertQuery);
+        List<Map.Entry<ScoreKey, PendingScore>> writes = new ArrayList<>();
+        int suppressed = 0;
+        for (Map.Entry<ScoreKey, PendingScore> entry : pendingScores.entrySet()) {
+          ScoreKey key = entry.getKey();
+          PendingScore score = entry.getValue();
+          if (!score.isDelete() && fingerprintsFor(key.lensID) != null
+              && Objects.equals(storedFingerprints.get(key.entityID), score.fingerprint)) {
+            suppressed++;
+          } else {
+            writes.add(entry);
+          }
+        }
+        try {
+          boolean hasDeletes = false;
+          boolean hasUpserts = false;
+          for (Map.Entry<ScoreKey, PendingScore> entry : writes) {
+            if (entry.getValue().isDelete()) {
+              populateDeleteStatement(deleteStatement, entry.getKey());
+              deleteStatement.addBatch();
+              hasDeletes = true;
+            } else {
+              populateUpsertStatement(postStatement, entry.getKey().entityID, entry.getKey().lensID, entry.getValue());
+              postStatement.addBatch();
+              hasUpserts = true;
+            }
+          }
+          if (hasDeletes) {
+            deleteStatement.executeBatch();
+          }
+          if (hasUpserts) {
+            postStatement.executeBatch();
+          }
+          pooled.getConnection().commit();
+          return suppressed;
+        } catch (SQLException e) {
+          try {
+            deleteStatement.clearBatch();
+            postStatement.clearBatch();
+          } catch (SQLException e1) {
+            e.addSuppressed(e1);
+          }
+          // A lost connection fails every row, the batch is retried on another connection instead.
+          if (!pooled.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+            throw e;
+          }
+          pooled.getConnection().rollback();
+          for (Map.Entry<ScoreKey, PendingScore> entry : writes) {
+            try {
+              if (entry.getValue().isDelete()) {
+                populateDeleteStatement(deleteStatement, entry.getKey());
+                deleteStatement.execute();
+              } else {
+                populateUpsertStatement(postStatement, entry.getKey().entityID, entry.getKey().lensID, entry.getValue());
+                postStatement.execute();
+              }
+              pooled.getConnection().commit();
+            } catch (SQLException rowFailure) {
+              if (!pooled.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                rowFailure.addSuppressed(e);
+                throw rowFailure;
+              }
+              pooled.getConnection().rollback();
+              failedRows.put(entry.getKey(), rowFailure);
+            }
+          }
+          return suppressed;
+        }
+      });
+      ScoreFingerprints fingerprints = scoreFingerprints;
+      if (fingerprints != null) {
+        for (Map.Entry<ScoreKey, PendingScore> entry : pendingScores.entrySet()) {
+          if (entry.getKey().lensID == fingerprints.getLensID() && !failedRows.containsKey(entry.getKey())) {
+            recordFingerprint(fingerprints, entry.getKey().entityID, entry.getValue());
+          }
+        }
+        fingerprints.addSuppressed(suppressedCount);
       }
     } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to commit batch of " + rowCount + " risk scores", e);
+    } finally {
+      pendingScores.clear();
+    }
+    if (!failedRows.isEmpty()) {
+      List<Long> entityIDs = new ArrayList<>();
+      for (ScoreKey key : failedRows.keySet()) {
+        entityIDs.add(key.entityID);
+      }
+      throw new ServiceExecutionException("Failed to write " + failedRows.size() + " of " + rowCount
+          + " risk scores, of entities " + entityIDs, failedRows.values().iterator().next());
+    }
+  }
+
+  private static void populateDeleteStatement(PreparedStatement deleteStatement, ScoreKey key) throws SQLException {
+    int index = 1;
+    deleteStatement.setLong(index++, key.entityID);
+    deleteStatement.setInt(index++, key.lensID);
+  }
+
+  /**
+   * Returns the number of group commits started by the timer which failed.  Their scores were dropped without
+   * any caller seeing the error.
+   */
+  public synchronized long getBackgroundFailureCount() {
+    return backgroundFailureCount;
+  }
+
+  private synchronized void flushIfDue() {
+    if (!pendingScores.isEmpty() && System.currentTimeMillis() - oldestPendingTime >= writeBatchMillis) {
       try {
-        connection.rollback();
-      } catch (SQLException e1) {
-        throw new ServiceExecutionException(e1);
+        flush();
+      } catch (ServiceExecutionException e) {
+        backgroundFailureCount++;
+        e.printStackTrace();
       }
     }
+  }
+
+  /**
+   * Closes the statements and the connections if the pool is owned by this service. Errors are reported but not
+   * thrown since this is done at shutdown. Any scores waiting for a group commit are written first.
+   */
+  public synchronized void close() {
+    if (flushTimer != null) {
+      flushTimer.shutdown();
+    }
     try {
-      connection.commit();
-    } catch (SQLException e) {
-      throw new ServiceExecutionException(e);
+      flush();
+    } catch (ServiceExecutionException e) {
+      e.printStackTrace();
+    }
+    if (ownsPool && pool != null) {
+      pool.close();
     }
   }
 
-  public void refreshStatements() throws SQLException {
-    postStatement.close();
-    deleteStatement.close();
-    postStatement = connection.prepareStatement(upsertQuery);
-    deleteStatement = connection.prepareStatement(DELETE_QUERY);
+  /**
+   * Drops the statements prepared on the idle connections. They are prepared again when next used.
+   */
+  public void refreshStatements() {
+    pool.closeIdleStatements();
   }
 
   /**
@@ -107,9 +545,12 @@ public class DatabaseService {
    * @return JSON document of the entities returned. The format is [{"LIB_FEAT_ID":12,"USAGE_TYPE":"","RES_ENT_ID":1234}, ...]
    * 
    * @throws ServiceExecutionException
+   *
+   * @deprecated Use {@link #findSharedFeatures(List, long, int)}, which does not build JSON for every row.
    */
+  @Deprecated
   public String findEntitiesByFeatureIDs(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
-    return findEntitiesByFeatureIDs(ids, entityID, lensID, DEFAULT_BATCH_SIZE);
+    return findEntitiesByFeatureIDs(ids, entityID, lensID, Integer.MAX_VALUE);
   }
 
   /**
@@ -118,12 +559,15 @@ public class DatabaseService {
    * @param ids List of feature IDs
    * @param entityID Entity ID to exclude from selection. Set to 0 if none should be excluded.
    * @param lensID Lens ID
-   * @param batchSize Defines the size of IDs queried in one statement.
+   * @param batchSize Defines the size of IDs queried in one statement. It is capped by the largest IN clause bucket.
    * 
    * @return JSON document of the entities returned. The format is [{"LIB_FEAT_ID":12,"USAGE_TYPE":"","RES_ENT_ID":1234}, ...]
    * 
    * @throws ServiceExecutionException
+   *
+   * @deprecated Use {@link #findSharedFeatures(List, long, int)}, which does not build JSON for every row.
    */
+  @Deprecated
   public String findEntitiesByFeatureIDs(List<Long> ids, long entityID, int lensID, int batchSize) throws ServiceExecutionException {
     if (batchSize <= 0) {
       return "[]";
@@ -131,53 +575,218 @@ public class DatabaseService {
 
     // Split the IDs up into smaller batches.  This is to limit the number prepared statements needed. Too high of
     // a number can be detrimental to performance.
-    List<List<Long>> idBatches = new ArrayList<>();
-    for (int i = 0; i < ids.size()/10+1; i++) {
-      List<Long> batch = ids.subList(i*10, Math.min((i+1)*10, ids.size()));
-      if (batch.size() > 0) {
-        idBatches.add(batch);
-      }
-    }
+    int[] buckets = inClauseBuckets;
+    int maxBatchSize = Math.min(batchSize, buckets[buckets.length - 1]);
+    try {
+      return withConnection(pooled -> {
+        List<String> rowResults = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += maxBatchSize) {
+          List<Long> batch = ids.subList(start, Math.min(start + maxBatchSize, ids.size()));
+          int bucket = bucketFor(buckets, batch.size());
+          PreparedStatement selectStmt = pooled.prepare(GET_ENTITIES_BY_FEATURES_QUERY + buildInClause(bucket));
+          int index = 1;
+          selectStmt.setInt(index++, lensID);
+          selectStmt.setLong(index++, entityID);
+          bindInList(selectStmt, index, batch, bucket);
 
-    StringBuilder returnVal = new StringBuilder();
-    for (List<Long> batch : idBatches) {
-      PreparedStatement selectStmt = null;
-      try {
-        String inClause = buildInClause(batch.size());
-        selectStmt = connection.prepareStatement(GET_ENTITIES_BY_FEATURES_QUERY + inClause);
-        int index = 1;
-        selectStmt.setInt(index++, lensID);
-        selectStmt.setLong(index++, entityID);
-        for (Long id : batch) {
-          selectStmt.setLong(index++, id);
+          try (ResultSet result = selectStmt.executeQuery()) {
+            while (result.next()) {
+              StringBuilder rowString = new StringBuilder();
+              rowString.append('{');
+              rowString.append(quoted(LIB_FEAT_ID_FIELD)).append(':').append(result.getString(1)).append(',');
+              rowString.append(quoted(USAGE_TYPE_FIELD)).append(':').append(quoted(result.getString(2))).append(',');
+              rowString.append(quoted(RES_ENT_ID_FIELD)).append(':').append(result.getString(3));
+              rowString.append('}');
+              rowResults.add(rowString.toString());
+            }
+          }
         }
+        pooled.getConnection().commit();
+        return rowResults.toString();
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException(e);
+    }
+  }
+
+  /**
+   * Sets the sizes of IN lists feature lookups use. Lists of IDs are split up by the largest size and each part
+   * is padded up to the next size by repeating its last ID, so one prepared statement per size and connection
+   * serves all lookups.
+   *
+   * @param buckets The IN list sizes, each at least 1
+   */
+  public void setInClauseBuckets(int[] buckets) {
+    if (buckets == null || buckets.length == 0) {
+      throw new IllegalArgumentException("At least one IN clause size is needed");
+    }
+    int[] sortedBuckets = Arrays.stream(buckets).sorted().distinct().toArray();
+    if (sortedBuckets[0] < 1) {
+      throw new IllegalArgumentException("IN clause sizes must be at least 1, found " + sortedBuckets[0]);
+    }
+    inClauseBuckets = sortedBuckets;
+  }
 
-        ResultSet result = selectStmt.executeQuery();
+  /**
+   * Returns the largest number of IDs looked up with one statement.
+   */
+  public int getMaxInClauseSize() {
+    int[] buckets = inClauseBuckets;
+    return buckets[buckets.length - 1];
+  }
 
-        List<String> rowResults = new ArrayList<>();
+  /**
+   * Sets a cache to serve feature ownership from. Features not in the cache are read for all owning entities
+   * and added to it.
+   *
+   * @param featureCache The cache, or null for none
+   */
+  public void setFeatureCache(FeatureEntityCache featureCache) {
+    this.featureCache = featureCache;
+  }
+
+  /**
+   * Sets the fingerprints of the committed scores, for leaving out scores which didn't change. Entities whose
+   * fingerprint isn't held have it read from SCORE_HASH from schema version 4 on, before that they are written.
+   *
+   * @param scoreFingerprints The fingerprints, or null for writing every score
+   */
+  public void setScoreFingerprints(ScoreFingerprints scoreFingerprints) {
+    this.scoreFingerprints = scoreFingerprints;
+  }
+
+  // The fingerprints if they are for the lens, null otherwise.
+  private ScoreFingerprints fingerprintsFor(int lensID) {
+    ScoreFingerprints fingerprints = scoreFingerprints;
+    return fingerprints != null && fingerprints.getLensID() == lensID ? fingerprints : null;
+  }
+
+  private boolean readsStoredFingerprint(ScoreFingerprints fingerprints, long entityID) {
+    return fingerprints != null && schemaVersion >= 4 && !fingerprints.contains(entityID);
+  }
+
+  private static void recordFingerprint(ScoreFingerprints fingerprints, long entityID, PendingScore score) {
+    if (score.isDelete()) {
+      fingerprints.remove(entityID);
+    } else {
+      fingerprints.put(entityID, score.fingerprint);
+    }
+  }
+
+  // Reads SCORE_HASH of the entities which have a score, in batches of the bucket sizes.
+  private Map<Long, Long> readStoredFingerprints(PooledConnection pooled, int lensID, List<Long> entityIDs)
+      throws SQLException {
+    int[] buckets = inClauseBuckets;
+    int maxBatchSize = buckets[buckets.length - 1];
+    Map<Long, Long> storedFingerprints = new HashMap<>();
+    for (int start = 0; start < entityIDs.size(); start += maxBatchSize) {
+      List<Long> batch = entityIDs.subList(start, Math.min(start + maxBatchSize, entityIDs.size()));
+      int bucket = bucketFor(buckets, batch.size());
+      PreparedStatement selectStmt = pooled.prepare(GET_SCORE_HASHES_QUERY + buildInClause(bucket));
+      selectStmt.setInt(1, lensID);
+      bindInList(selectStmt, 2, batch, bucket);
+      try (ResultSet result = selectStmt.executeQuery()) {
         while (result.next()) {
-          StringBuilder rowString = new StringBuilder();
-          rowString.append('{');
-          rowString.append(quoted(LIB_FEAT_ID_FIELD)).append(':').append(result.getString(1)).append(',');
-          rowString.append(quoted(USAGE_TYPE_FIELD)).append(':').append(quoted(result.getString(2))).append(',');
-          rowString.append(quoted(RES_ENT_ID_FIELD)).append(':').append(result.getString(3));
-          rowString.append('}');
-          rowResults.add(rowString.toString());
-          returnVal.append(result.toString());
+          long fingerprint = result.getLong(2);
+          if (!result.wasNull()) {
+            storedFingerprints.put(result.getLong(1), fingerprint);
+          }
         }
+      }
+    }
+    return storedFingerprints;
+  }
 
-        return rowResults.toString();
-      } catch (SQLException e) {
-        throw new ServiceExecutionException(e);
-      } finally {
-        if (selectStmt != null) {
-          try {
-            selectStmt.close();
-          } catch (SQLException e) {e.printStackTrace();}
+  /**
+   * Finds the other entities sharing any of the given features. The entity being scored is excluded.
+   * Rows are read straight into primitive arrays, which avoids building and parsing JSON for every row.
+   *
+   * @param ids List of feature IDs
+   * @param entityID Entity ID to exclude from selection. Set to 0 if none should be excluded.
+   * @param lensID Lens ID
+   *
+   * @return The shared features and the entities sharing them
+   *
+   * @throws ServiceExecutionException
+   */
+  public SharedFeatures findSharedFeatures(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
+    FeatureEntityCache featureCache = this.featureCache;
+    SharedFeatures.Builder sharedFeatures = new SharedFeatures.Builder();
+    if (featureCache == null || featureCache.getLensID() != lensID) {
+      queryFeatureOwners(ids, entityID, lensID, sharedFeatures);
+      return sharedFeatures.build();
+    }
+
+    List<Long> missingIDs = new ArrayList<>();
+    for (Long id : ids) {
+      long[] owners = featureCache.get(id);
+      if (owners == null) {
+        missingIDs.add(id);
+      } else {
+        addOwners(sharedFeatures, id, owners, entityID);
+      }
+    }
+    if (!missingIDs.isEmpty()) {
+      // Read all the owners, including the excluded entity, since the cache serves every entity.
+      SharedFeatures.Builder rows = new SharedFeatures.Builder();
+      queryFeatureOwners(missingIDs, 0, lensID, rows);
+      SharedFeatures loaded = rows.build();
+      Map<Long, List<Long>> ownersByFeature = new HashMap<>();
+      for (int i = 0; i < loaded.size(); i++) {
+        ownersByFeature.computeIfAbsent(loaded.getLibFeatID(i), id -> new ArrayList<>()).add(loaded.getEntityID(i));
+      }
+      for (Long id : missingIDs) {
+        List<Long> ownerList = ownersByFeature.getOrDefault(id, List.of());
+        long[] owners = new long[ownerList.size()];
+        for (int i = 0; i < owners.length; i++) {
+          owners[i] = ownerList.get(i);
         }
+        featureCache.put(id, owners);
+        addOwners(sharedFeatures, id, owners, entityID);
+      }
+    }
+    return sharedFeatures.build();
+  }
+
+  private void addOwners(SharedFeatures.Builder sharedFeatures, long libFeatID, long[] owners, long excludedEntityID) {
+    for (long owner : owners) {
+      if (owner != excludedEntityID) {
+        sharedFeatures.add(libFeatID, owner);
       }
     }
-    return returnVal.toString();
+  }
+
+  private void queryFeatureOwners(List<Long> ids, long entityID, int lensID, SharedFeatures.Builder sharedFeatures)
+      throws ServiceExecutionException {
+    // Query in batches of the bucket sizes so the statements can be reused.
+    int[] buckets = inClauseBuckets;
+    int maxBatchSize = buckets[buckets.length - 1];
+    try {
+      withConnection(pooled -> {
+        SharedFeatures.Builder rows = new SharedFeatures.Builder();
+        for (int start = 0; start < ids.size(); start += maxBatchSize) {
+          List<Long> batch = ids.subList(start, Math.min(start + maxBatchSize, ids.size()));
+          int bucket = bucketFor(buckets, batch.size());
+          PreparedStatement selectStmt = pooled.prepare(GET_SHARED_FEATURES_QUERY + buildInClause(bucket));
+          int index = 1;
+          selectStmt.setInt(index++, lensID);
+          selectStmt.setLong(index++, entityID);
+          bindInList(selectStmt, index, batch, bucket);
+          try (ResultSet result = selectStmt.executeQuery()) {
+            while (result.next()) {
+              rows.add(result.getLong(1), result.getLong(2));
+            }
+          }
+        }
+        // End the read transaction so the next lookup sees current data.
+        pooled.getConnection().commit();
+        // Only keep the rows once all were read, a retry on a new connection reads them again.
+        sharedFeatures.addAll(rows);
+        return null;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException(e);
+    }
   }
 
   String quoted(String value) {
@@ -189,21 +798,441 @@ public class DatabaseService {
     return inClause.toString();
   }
 
-  private PreparedStatement populateUpsertStatement(PreparedStatement statement, long entityID, int lensID, String qualityScore, String collisionScore,
-      String queryScore, String reason, String queryReason) throws SQLException {
+  // Smallest bucket holding size IDs. The size is never above the largest bucket.
+  private int bucketFor(int[] buckets, int size) {
+    for (int bucket : buckets) {
+      if (bucket >= size) {
+        return bucket;
+      }
+    }
+    return buckets[buckets.length - 1];
+  }
+
+  /**
+   * Gives the lowest and highest ID of the resolved entities of a lens.
+   *
+   * @param lensID Lens ID
+   *
+   * @return The lowest and the highest ID, null if the lens has no entities
+   *
+   * @throws ServiceExecutionException
+   */
+  public long[] findResolvedEntityRange(int lensID) throws ServiceExecutionException {
+    try {
+      return withConnection(pooled -> {
+        PreparedStatement statement = pooled.prepare(RESOLVED_ENTITY_RANGE_QUERY);
+        statement.setInt(1, lensID);
+        long[] range = null;
+        try (ResultSet result = statement.executeQuery()) {
+          if (result.next()) {
+            long first = result.getLong(1);
+            if (!result.wasNull()) {
+              range = new long[] { first, result.getLong(2) };
+            }
+          }
+        }
+        pooled.getConnection().commit();
+        return range;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException(e);
+    }
+  }
+
+  /**
+   * Counts the resolved entities of a lens within a range of IDs.
+   *
+   * @param lensID Lens ID
+   * @param firstEntityID Lowest entity ID counted
+   * @param lastEntityID Highest entity ID counted
+   *
+   * @return Number of entities
+   *
+   * @throws ServiceExecutionException
+   */
+  public long countResolvedEntities(int lensID, long firstEntityID, long lastEntityID) throws ServiceExecutionException {
+    try {
+      return withConnection(pooled -> {
+        PreparedStatement statement = pooled.prepare(RESOLVED_ENTITY_COUNT_QUERY);
+        statement.setInt(1, lensID);
+        statement.setLong(2, firstEntityID);
+        statement.setLong(3, lastEntityID);
+        long count;
+        try (ResultSet result = statement.executeQuery()) {
+          count = result.next() ? result.getLong(1) : 0;
+        }
+        pooled.getConnection().commit();
+        return count;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException(e);
+    }
+  }
+
+  /**
+   * Gives the next resolved entities of a lens in ID order, for going through all of them a page at a time.
+   *
+   * @param lensID Lens ID
+   * @param afterEntityID Entities with this ID or lower are skipped
+   * @param lastEntityID Highest entity ID returned
+   * @param limit Maximum number of IDs returned
+   *
+   * @return Entity IDs in ascending order, fewer than the limit once the range is exhausted
+   *
+   * @throws ServiceExecutionException
+   */
+  public List<Long> findResolvedEntityIDs(int lensID, long afterEntityID, long lastEntityID, int limit)
+      throws ServiceExecutionException {
+    try {
+      return withConnection(pooled -> {
+        PreparedStatement statement = pooled.prepare(RESOLVED_ENTITY_PAGE_QUERY);
+        // Not LIMIT in the SQL since not all databases have it.
+        statement.setMaxRows(limit);
+        statement.setFetchSize(limit);
+        statement.setInt(1, lensID);
+        statement.setLong(2, afterEntityID);
+        statement.setLong(3, lastEntityID);
+        List<Long> entityIDs = new ArrayList<>(limit);
+        try (ResultSet result = statement.executeQuery()) {
+          while (result.next() && entityIDs.size() < limit) {
+            entityIDs.add(result.getLong(1));
+          }
+        }
+        pooled.getConnection().commit();
+        return entityIDs;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException(e);
+    }
+  }
+
+  /**
+   * Creates RES_RISK_RESCORE if it doesn't exist yet, for databases the create-res_risk_rescore script wasn't run
+   * on. Called once when rescoring starts.
+   *
+   * @throws ServiceExecutionException
+   */
+  public void createRescoreTable() throws ServiceExecutionException {
+    try {
+      withConnection(pooled -> {
+        try (Statement statement = pooled.getConnection().createStatement()) {
+          statement.execute(CREATE_RESCORE_TABLE);
+        }
+        pooled.getConnection().commit();
+        return null;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to create RES_RISK_RESCORE", e);
+    }
+  }
+
+  /**
+   * Reads the rescoring checkpoints of a lens.
+   *
+   * @param lensID Lens ID
+   *
+   * @return The checkpoint of each partition, empty if no rescoring of the lens is in progress
+   *
+   * @throws ServiceExecutionException
+   */
+  public List<RescoreCheckpoint> loadRescoreCheckpoints(int lensID) throws ServiceExecutionException {
+    try {
+      return withConnection(pooled -> {
+        PreparedStatement selectStatement = pooled.prepare(GET_RESCORE_CHECKPOINTS_QUERY);
+        selectStatement.setInt(1, lensID);
+        List<RescoreCheckpoint> checkpoints = new ArrayList<>();
+        try (ResultSet result = selectStatement.executeQuery()) {
+          while (result.next()) {
+            checkpoints.add(readRescoreCheckpoint(lensID, result));
+          }
+        }
+        pooled.getConnection().commit();
+        return checkpoints;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to read the rescoring checkpoints", e);
+    }
+  }
+
+  /**
+   * Stores the checkpoints of a new rescoring in one transaction.
+   *
+   * @param checkpoints Checkpoints of all the partitions
+   *
+   * @throws ServiceExecutionException
+   */
+  public void createRescoreCheckpoints(List<RescoreCheckpoint> checkpoints) throws ServiceExecutionException {
+    try {
+      withConnection(pooled -> {
+        PreparedStatement insertStatement = pooled.prepare(INSERT_RESCORE_CHECKPOINT);
+        for (RescoreCheckpoint checkpoint : checkpoints) {
+          int index = 1;
+          insertStatement.setInt(index++, checkpoint.getLensID());
+          insertStatement.setInt(index++, checkpoint.getPartitionID());
+          insertStatement.setLong(index++, checkpoint.getFirstEntityID());
+          insertStatement.setLong(index++, checkpoint.getLastEntityID());
+          insertStatement.setLong(index++, checkpoint.getDoneEntityID());
+          insertStatement.setLong(index++, checkpoint.getEntityCount());
+          insertStatement.setLong(index++, checkpoint.getScoredCount());
+          insertStatement.addBatch();
+        }
+        insertStatement.executeBatch();
+        pooled.getConnection().commit();
+        return null;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to store the rescoring checkpoints", e);
+    }
+  }
+
+  /**
+   * Claims the lease of a partition which isn't done and isn't leased by a live instance, starting from a random
+   * partition so instances starting together don't all compete for the same one.  Leases expire by the clock of
+   * the instance looking at them, see {@link com.senzing.calculator.scoring.risk.service.rescore.BulkRescorer}
+   * for the clock skew this tolerates.
+   *
+   * @param lensID Lens ID
+   * @param owner ID of the claim, unique to each claim so the threads of an instance are told apart
+   * @param leaseMillis Time the lease lasts unless renewed
+   *
+   * @return The checkpoint of the claimed partition as stored, or null if there is no partition to claim
+   *
+   * @throws ServiceExecutionException
+   */
+  public RescoreCheckpoint claimRescoreCheckpoint(int lensID, String owner, long leaseMillis) throws ServiceExecutionException {
+    List<RescoreCheckpoint> candidates = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    for (RescoreCheckpoint checkpoint : loadRescoreCheckpoints(lensID)) {
+      if (!checkpoint.isDone() && (checkpoint.getOwner() == null || checkpoint.getLeaseExpires() < now)) {
+        candidates.add(checkpoint);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    Collections.rotate(candidates, ThreadLocalRandom.current().nextInt(candidates.size()));
+    try {
+      return withConnection(pooled -> {
+        PreparedStatement claimStatement = pooled.prepare(CLAIM_RESCORE_LEASE);
+        for (RescoreCheckpoint candidate : candidates) {
+          long claimTime = System.currentTimeMillis();
+          int index = 1;
+          claimStatement.setString(index++, owner);
+          claimStatement.setLong(index++, claimTime + leaseMillis);
+          claimStatement.setInt(index++, lensID);
+          claimStatement.setInt(index++, candidate.getPartitionID());
+          claimStatement.setLong(index++, claimTime);
+          if (claimStatement.executeUpdate() == 1) {
+            // Read back what the previous owner got to.
+            PreparedStatement selectStatement = pooled.prepare(GET_RESCORE_CHECKPOINT_QUERY);
+            selectStatement.setInt(1, lensID);
+            selectStatement.setInt(2, candidate.getPartitionID());
+            RescoreCheckpoint claimed;
+            try (ResultSet result = selectStatement.executeQuery()) {
+              result.next();
+              claimed = readRescoreCheckpoint(lensID, result);
+            }
+            pooled.getConnection().commit();
+            return claimed;
+          }
+        }
+        pooled.getConnection().commit();
+        return null;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to claim a rescoring partition", e);
+    }
+  }
+
+  /**
+   * Stores the progress of a partition and renews its lease, unless the lease was lost to another claim.
+   *
+   * @param checkpoint Checkpoint of the partition
+   * @param owner ID of the claim holding the lease
+   * @param leaseMillis Time the renewed lease lasts
+   *
+   * @return false if the partition isn't leased by the owner anymore, nothing is stored then
+   *
+   * @throws ServiceExecutionException
+   */
+  public boolean saveRescoreCheckpoint(RescoreCheckpoint checkpoint, String owner, long leaseMillis) throws ServiceExecutionException {
+    try {
+      return withConnection(pooled -> {
+        PreparedStatement updateStatement = pooled.prepare(UPDATE_RESCORE_CHECKPOINT);
+        int index = 1;
+        updateStatement.setLong(index++, checkpoint.getDoneEntityID());
+        updateStatement.setLong(index++, checkpoint.getScoredCount());
+        updateStatement.setLong(index++, System.currentTimeMillis() + leaseMillis);
+        updateStatement.setInt(index++, checkpoint.getLensID());
+        updateStatement.setInt(index++, checkpoint.getPartitionID());
+        updateStatement.setString(index++, owner);
+        boolean saved = updateStatement.executeUpdate() == 1;
+        pooled.getConnection().commit();
+        return saved;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to store the rescoring checkpoint of partition " + checkpoint.getPartitionID(), e);
+    }
+  }
+
+  /**
+   * Extends the lease of a partition.
+   *
+   * @param checkpoint Checkpoint of the partition
+   * @param owner ID of the claim holding the lease
+   * @param leaseMillis Time the renewed lease lasts
+   *
+   * @return false if the partition isn't leased by the owner anymore
+   *
+   * @throws ServiceExecutionException
+   */
+  public boolean renewRescoreLease(RescoreCheckpoint checkpoint, String owner, long leaseMillis) throws ServiceExecutionException {
+    try {
+      return withConnection(pooled -> {
+        PreparedStatement updateStatement = pooled.prepare(RENEW_RESCORE_LEASE);
+        int index = 1;
+        updateStatement.setLong(index++, System.currentTimeMillis() + leaseMillis);
+        updateStatement.setInt(index++, checkpoint.getLensID());
+        updateStatement.setInt(index++, checkpoint.getPartitionID());
+        updateStatement.setString(index++, owner);
+        boolean renewed = updateStatement.executeUpdate() == 1;
+        pooled.getConnection().commit();
+        return renewed;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to renew the lease of rescoring partition " + checkpoint.getPartitionID(), e);
+    }
+  }
+
+  /**
+   * Gives up the lease of a partition, so another claim can take it over without waiting for it to expire.
+   *
+   * @param checkpoint Checkpoint of the partition
+   * @param owner ID of the claim holding the lease
+   *
+   * @throws ServiceExecutionException
+   */
+  public void releaseRescoreLease(RescoreCheckpoint checkpoint, String owner) throws ServiceExecutionException {
+    try {
+      withConnection(pooled -> {
+        PreparedStatement updateStatement = pooled.prepare(RELEASE_RESCORE_LEASE);
+        int index = 1;
+        updateStatement.setInt(index++, checkpoint.getLensID());
+        updateStatement.setInt(index++, checkpoint.getPartitionID());
+        updateStatement.setString(index++, owner);
+        updateStatement.execute();
+        pooled.getConnection().commit();
+        return null;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to release the lease of rescoring partition " + checkpoint.getPartitionID(), e);
+    }
+  }
+
+  /**
+   * Removes the rescoring checkpoints of a lens, so the next rescoring starts from the beginning.
+   *
+   * @param lensID Lens ID
+   *
+   * @throws ServiceExecutionException
+   */
+  public void deleteRescoreCheckpoints(int lensID) throws ServiceExecutionException {
+    try {
+      withConnection(pooled -> {
+        PreparedStatement deleteStatement = pooled.prepare(DELETE_RESCORE_CHECKPOINTS);
+        deleteStatement.setInt(1, lensID);
+        deleteStatement.execute();
+        pooled.getConnection().commit();
+        return null;
+      });
+    } catch (SQLException e) {
+      throw new ServiceExecutionException("Failed to remove the rescoring checkpoints", e);
+    }
+  }
+
+  private static RescoreCheckpoint readRescoreCheckpoint(int lensID, ResultSet result) throws SQLException {
+    return new RescoreCheckpoint(lensID, result.getInt(1), result.getLong(2), result.getLong(3), result.getLong(5),
+        result.getLong(4), result.getLong(6), result.getString(7), result.getLong(8));
+  }
+
+  /*
+   * Runs the work on a pooled connection. If it fails and the connection turns out broken, the connection is
+   * replaced and the work is tried once more. Otherwise the transaction is rolled back and the error thrown.
+   */
+  private <T> T withConnection(SqlWork<T> work) throws SQLException {
+    SQLException failure = null;
+    for (int attempt = 0; attempt < 2; attempt++) {
+      PooledConnection pooled = pool.borrow();
+      try {
+        T result = work.run(pooled);
+        pool.release(pooled);
+        return result;
+      } catch (SQLException e) {
+        if (failure != null) {
+          e.addSuppressed(failure);
+        }
+        failure = e;
+        if (pooled.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+          rollbackAndRelease(pooled, e);
+          throw e;
+        }
+        pool.invalidate(pooled);
+      } catch (RuntimeException e) {
+        rollbackAndRelease(pooled, e);
+        throw e;
+      }
+    }
+    throw failure;
+  }
+
+  private void rollbackAndRelease(PooledConnection pooled, Exception cause) {
+    try {
+      pooled.getConnection().rollback();
+      pool.release(pooled);
+    } catch (SQLException e) {
+      cause.addSuppressed(e);
+      pool.invalidate(pooled);
+    }
+  }
+
+  // Sets the IDs starting at parameter index. The rest of the bucket is filled with the last ID, which doesn't
+  // change the result of the IN clause.
+  private void bindInList(PreparedStatement statement, int index, List<Long> ids, int bucket) throws SQLException {
+    for (Long id : ids) {
+      statement.setLong(index++, id);
+    }
+    long padding = ids.get(ids.size() - 1);
+    for (int i = ids.size(); i < bucket; i++) {
+      statement.setLong(index++, padding);
+    }
+  }
+
+
+  private PreparedStatement populateUpsertStatement(PreparedStatement statement, long entityID, int lensID, PendingScore score)
+      throws SQLException {
     int index = 1;
     statement.setLong(index++, entityID);
     statement.setInt(index++, lensID);
-    statement.setString(index++, qualityScore);
-    statement.setString(index++, collisionScore);
-    statement.setString(index++, queryScore);
-    statement.setString(index++, reason);
-    statement.setString(index++, queryReason);
-    statement.setString(index++, qualityScore);
-    statement.setString(index++, collisionScore);
-    statement.setString(index++, queryScore);
-    statement.setString(index++, reason);
-    statement.setString(index++, queryReason);
+    index = populateScoreColumns(statement, index, score);
+    populateScoreColumns(statement, index, score);
     return statement;
   }
+
+  // Sets the score and reason columns, which are in both the insert and the update part of the upsert.
+  private int populateScoreColumns(PreparedStatement statement, int index, PendingScore score) throws SQLException {
+    statement.setString(index++, score.qualityScore);
+    statement.setString(index++, score.collisionScore);
+    statement.setString(index++, score.queryScore);
+    if (schemaVersion >= 3) {
+      statement.setInt(index++, score.reasonCodes);
+      statement.setString(index++, score.reasonDetail);
+    } else {
+      statement.setString(index++, score.reason);
+    }
+    statement.setString(index++, score.queryReason);
+    if (schemaVersion >= 4) {
+      statement.setLong(index++, score.fingerprint);
+    }
+    return index;
+  }
 }
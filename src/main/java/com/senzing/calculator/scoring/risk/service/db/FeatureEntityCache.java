@@ -0,0 +1,194 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which entities own a feature (LIB_FEAT_ID to RES_ENT_IDs from RES_FEAT_EKEY) for one lens, so popular
+ * features don't have to be looked up again for every entity sharing them.
+ *
+ * The cache is bounded by weight, the number of feature to entity links held, and the least recently used
+ * features are evicted first.  Entries expire after a time to live.  When an entity is affected by a change
+ * all cached features it owns are dropped, since the change may have moved them.  A feature newly added to an
+ * entity that was cached before the change is only refreshed when it expires, the time to live bounds how
+ * stale an entry can get.
+ *
+ * All methods are thread safe, the cache is meant to be shared by the scoring threads.
+ */
+public class FeatureEntityCache {
+
+  // A feature and the entities owning it when it was read.
+  private static class Entry {
+    private final long[] entityIDs;
+    private final long loadTime;
+
+    Entry(long[] entityIDs, long loadTime) {
+      this.entityIDs = entityIDs;
+      this.loadTime = loadTime;
+    }
+
+    int weight() {
+      // Features owned by nobody still take up a slot.
+      return Math.max(1, entityIDs.length);
+    }
+  }
+
+  private final int lensID;
+  private final long maxWeight;
+  private final long ttlMillis;
+  // In access order, the eldest entry is the least recently used.
+  private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  // Entity ID to the cached features it owns, for dropping them when the entity is affected.
+  private final Map<Long, Set<Long>> featuresByEntity = new HashMap<>();
+  private long weight;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+  private long invalidationCount;
+
+  /**
+   * Creates the cache.
+   *
+   * @param lensID Lens the cached ownership belongs to
+   * @param maxWeight Maximum number of feature to entity links held
+   * @param ttlMillis Time in milliseconds an entry is used before it is read again. 0 or less never expires.
+   */
+  public FeatureEntityCache(int lensID, long maxWeight, long ttlMillis) {
+    if (maxWeight < 1) {
+      throw new IllegalArgumentException("Maximum weight must be at least 1, it was " + maxWeight);
+    }
+    this.lensID = lensID;
+    this.maxWeight = maxWeight;
+    this.ttlMillis = ttlMillis;
+  }
+
+  public int getLensID() {
+    return lensID;
+  }
+
+  /**
+   * Gets the entities owning a feature.
+   *
+   * @param libFeatID ID of the feature
+   *
+   * @return IDs of the owning entities, which must not be modified, or null if the feature is not cached
+   */
+  public synchronized long[] get(long libFeatID) {
+    Entry entry = entries.get(libFeatID);
+    if (entry == null) {
+      missCount++;
+      return null;
+    }
+    if (ttlMillis > 0 && System.currentTimeMillis() - entry.loadTime >= ttlMillis) {
+      removeEntry(libFeatID);
+      evictionCount++;
+      missCount++;
+      return null;
+    }
+    hitCount++;
+    return entry.entityIDs;
+  }
+
+  /**
+   * Stores the entities owning a feature, replacing what was cached for it.  The least recently used features
+   * are evicted to make room.
+   *
+   * @param libFeatID ID of the feature
+   * @param entityIDs IDs of all the entities owning the feature. The array is kept and must not be modified.
+   */
+  public synchronized void put(long libFeatID, long[] entityIDs) {
+    removeEntry(libFeatID);
+    Entry entry = new Entry(entityIDs, System.currentTimeMillis());
+    if (entry.weight() > maxWeight) {
+      return;
+    }
+    entries.put(libFeatID, entry);
+    weight += entry.weight();
+    for (long entityID : entityIDs) {
+      featuresByEntity.computeIfAbsent(entityID, id -> new HashSet<>()).add(libFeatID);
+    }
+    while (weight > maxWeight) {
+      removeEntry(entries.keySet().iterator().next());
+      evictionCount++;
+    }
+  }
+
+  /**
+   * Drops all cached features owned by an entity.
+   *
+   * @param entityID ID of the entity affected by a change
+   */
+  public synchronized void invalidateEntity(long entityID) {
+    Set<Long> libFeatIDs = featuresByEntity.remove(entityID);
+    if (libFeatIDs != null) {
+      for (long libFeatID : libFeatIDs) {
+        if (removeEntry(libFeatID)) {
+          invalidationCount++;
+        }
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    featuresByEntity.clear();
+    weight = 0;
+  }
+
+  /**
+   * Returns the number of features cached.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the number of feature to entity links cached.
+   */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the number of features dropped to make room or because they expired.
+   */
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the number of features dropped because an entity owning them was affected.
+   */
+  public synchronized long getInvalidationCount() {
+    return invalidationCount;
+  }
+
+  private boolean removeEntry(long libFeatID) {
+    Entry entry = entries.remove(libFeatID);
+    if (entry == null) {
+      return false;
+    }
+    weight -= entry.weight();
+    for (long entityID : entry.entityIDs) {
+      Set<Long> libFeatIDs = featuresByEntity.get(entityID);
+      if (libFeatIDs != null) {
+        libFeatIDs.remove(libFeatID);
+        if (libFeatIDs.isEmpty()) {
+          featuresByEntity.remove(entityID);
+        }
+      }
+    }
+    return true;
+  }
+}
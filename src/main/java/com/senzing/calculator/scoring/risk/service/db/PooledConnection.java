@@ -0,0 +1,75 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A connection of a {@link ConnectionPool} together with the statements prepared on it. Statements are prepared
+ * once per SQL text and kept for the lifetime of the connection.
+ */
+class PooledConnection {
+
+  private final Connection connection;
+  private final Map<String, PreparedStatement> statements = new HashMap<>();
+  private long lastUsed;
+
+  PooledConnection(Connection connection) {
+    this.connection = connection;
+    this.lastUsed = System.currentTimeMillis();
+  }
+
+  Connection getConnection() {
+    return connection;
+  }
+
+  /**
+   * Gives the statement for the SQL, preparing it the first time it is asked for.
+   */
+  PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement statement = statements.get(sql);
+    if (statement == null) {
+      statement = connection.prepareStatement(sql);
+      statements.put(sql, statement);
+    }
+    return statement;
+  }
+
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  void touch() {
+    lastUsed = System.currentTimeMillis();
+  }
+
+  boolean isValid(int timeoutSeconds) {
+    try {
+      return connection.isValid(timeoutSeconds);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  void closeStatements() {
+    for (PreparedStatement statement : statements.values()) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        // The connection may be gone already, nothing more to do.
+      }
+    }
+    statements.clear();
+  }
+
+  void close() {
+    closeStatements();
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      // Closing a broken connection fails, it is dropped either way.
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+/**
+ * Progress of rescoring one partition of the resolved entities, a range of entity IDs, as kept in
+ * RES_RISK_RESCORE.  Entities up to and including the done entity ID have had their scores committed.
+ *
+ * A partition is worked on by the thread holding its lease until the lease expires. The owner identifies the claim
+ * of the lease, the instance ID and a counter of the claims of the instance. The owner and the lease expiry are as
+ * read from the table, they don't change with the progress.
+ */
+public class RescoreCheckpoint {
+
+  private final int lensID;
+  private final int partitionID;
+  private final long firstEntityID;
+  private final long lastEntityID;
+  private final long entityCount;
+  private final String owner;
+  private final long leaseExpires;
+  private long doneEntityID;
+  private long scoredCount;
+
+  /**
+   * Creates the checkpoint of a partition nothing has been rescored in yet.
+   *
+   * @param lensID Lens rescored
+   * @param partitionID Number of the partition within the lens
+   * @param firstEntityID Lowest entity ID of the partition
+   * @param lastEntityID Highest entity ID of the partition
+   * @param entityCount Number of resolved entities in the partition
+   */
+  public RescoreCheckpoint(int lensID, int partitionID, long firstEntityID, long lastEntityID, long entityCount) {
+    this(lensID, partitionID, firstEntityID, lastEntityID, entityCount, firstEntityID - 1, 0, null, 0);
+  }
+
+  RescoreCheckpoint(int lensID, int partitionID, long firstEntityID, long lastEntityID, long entityCount,
+      long doneEntityID, long scoredCount, String owner, long leaseExpires) {
+    this.lensID = lensID;
+    this.partitionID = partitionID;
+    this.firstEntityID = firstEntityID;
+    this.lastEntityID = lastEntityID;
+    this.entityCount = entityCount;
+    this.doneEntityID = doneEntityID;
+    this.scoredCount = scoredCount;
+    this.owner = owner;
+    this.leaseExpires = leaseExpires;
+  }
+
+  public int getLensID() {
+    return lensID;
+  }
+
+  public int getPartitionID() {
+    return partitionID;
+  }
+
+  public long getFirstEntityID() {
+    return firstEntityID;
+  }
+
+  public long getLastEntityID() {
+    return lastEntityID;
+  }
+
+  public long getEntityCount() {
+    return entityCount;
+  }
+
+  /**
+   * Returns the ID of the claim which leased the partition last, null if it isn't leased.
+   */
+  public String getOwner() {
+    return owner;
+  }
+
+  /**
+   * Returns when the lease of the owner expires, in milliseconds since the epoch.
+   */
+  public long getLeaseExpires() {
+    return leaseExpires;
+  }
+
+  /**
+   * Returns the highest entity ID whose score is committed, one below the first entity ID if none is.
+   */
+  public synchronized long getDoneEntityID() {
+    return doneEntityID;
+  }
+
+  public synchronized long getScoredCount() {
+    return scoredCount;
+  }
+
+  public synchronized boolean isDone() {
+    return doneEntityID >= lastEntityID;
+  }
+
+  /**
+   * Moves the checkpoint past a page of rescored entities.
+   *
+   * @param doneEntityID Highest entity ID of the page, or the last entity ID once the partition is exhausted
+   * @param count Number of entities in the page
+   */
+  public synchronized void advance(long doneEntityID, int count) {
+    this.doneEntityID = doneEntityID;
+    this.scoredCount += count;
+  }
+}
@@ -0,0 +1,153 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+
+/**
+ * Remembers a fingerprint of the last score committed for each entity of one lens, so a score which didn't change
+ * doesn't have to be written again.  Rescoring mostly gives the same scores, which are then only compared.
+ *
+ * The number of entities held is bounded, the least recently used are evicted first.  From schema version 4 on
+ * the fingerprint is also stored in the SCORE_HASH column of RES_RISK_SCORE, which is read for the entities not
+ * held.  The fingerprints are only right if this process is the only one writing the scores of its entities,
+ * a score changed by another writer may otherwise not be written back.
+ *
+ * All methods are thread safe, the fingerprints are meant to be shared by the database services of the service.
+ */
+public class ScoreFingerprints {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  // Separates the fields and marks the null ones, so moving text between fields changes the fingerprint.
+  private static final byte FIELD_SEPARATOR = 0x1f;
+  private static final byte NULL_FIELD = 0x00;
+
+  private final int lensID;
+  private final int maxSize;
+  // In access order, the eldest entry is the least recently used.
+  private final LinkedHashMap<Long, Long> fingerprints = new LinkedHashMap<>(16, 0.75f, true);
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+  private long suppressedCount;
+
+  /**
+   * Creates the fingerprints.
+   *
+   * @param lensID Lens the scores belong to
+   * @param maxSize Maximum number of entities held
+   */
+  public ScoreFingerprints(int lensID, int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Maximum size must be at least 1, it was " + maxSize);
+    }
+    this.lensID = lensID;
+    this.maxSize = maxSize;
+  }
+
+  public int getLensID() {
+    return lensID;
+  }
+
+  /**
+   * Computes the fingerprint of the values of a score, a 64-bit FNV-1a hash of their UTF-8 bytes.  It is stored in
+   * the database, so it must never change for the same values.
+   *
+   * @param values Score and reason columns, may contain nulls
+   *
+   * @return The fingerprint
+   */
+  public static long fingerprint(String... values) {
+    long hash = FNV_OFFSET_BASIS;
+    for (String value : values) {
+      if (value == null) {
+        hash = (hash ^ NULL_FIELD) * FNV_PRIME;
+      } else {
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+          hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+      }
+      hash = (hash ^ FIELD_SEPARATOR) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Gets the fingerprint of the score committed for an entity.
+   *
+   * @param entityID ID of the entity
+   *
+   * @return The fingerprint, or null if the entity isn't held
+   */
+  public synchronized Long get(long entityID) {
+    Long fingerprint = fingerprints.get(entityID);
+    if (fingerprint == null) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Tells if an entity is held, without counting it as a lookup.
+   */
+  public synchronized boolean contains(long entityID) {
+    return fingerprints.containsKey(entityID);
+  }
+
+  /**
+   * Records the fingerprint of a score once it is committed.  The least recently used entities are evicted to make
+   * room.
+   *
+   * @param entityID ID of the entity
+   * @param fingerprint Fingerprint of its score
+   */
+  public synchronized void put(long entityID, long fingerprint) {
+    fingerprints.put(entityID, fingerprint);
+    while (fingerprints.size() > maxSize) {
+      fingerprints.remove(fingerprints.keySet().iterator().next());
+      evictionCount++;
+    }
+  }
+
+  /**
+   * Drops the fingerprint of an entity whose score was deleted.
+   */
+  public synchronized void remove(long entityID) {
+    fingerprints.remove(entityID);
+  }
+
+  /**
+   * Counts scores which weren't written because they were the same as the committed ones.
+   */
+  public synchronized void addSuppressed(int count) {
+    suppressedCount += count;
+  }
+
+  public synchronized int size() {
+    return fingerprints.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the number of entities dropped to make room.
+   */
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the number of scores which weren't written because they didn't change.
+   */
+  public synchronized long getSuppressedCount() {
+    return suppressedCount;
+  }
+}
@@ -0,0 +1,103 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import java.util.Arrays;
+
+/**
+ * Result of looking up which other entities share a set of features. Row i holds the feature ID
+ * at getLibFeatID(i) and the entity sharing it at getEntityID(i). A feature shared by several
+ * entities shows up in several rows.
+ */
+public class SharedFeatures {
+
+  public static final SharedFeatures EMPTY = new SharedFeatures(new long[0], new long[0]);
+
+  private final long[] libFeatIDs;
+  private final long[] entityIDs;
+  private final int size;
+
+  /**
+   * Wraps the arrays without copying them. Both arrays must be of the same length.
+   *
+   * @param libFeatIDs Shared feature IDs
+   * @param entityIDs IDs of the entities sharing the feature in the same position
+   */
+  public SharedFeatures(long[] libFeatIDs, long[] entityIDs) {
+    this(libFeatIDs, entityIDs, libFeatIDs.length);
+  }
+
+  SharedFeatures(long[] libFeatIDs, long[] entityIDs, int size) {
+    if (libFeatIDs.length < size || entityIDs.length < size) {
+      throw new IllegalArgumentException("Arrays are shorter than the size " + size);
+    }
+    this.libFeatIDs = libFeatIDs;
+    this.entityIDs = entityIDs;
+    this.size = size;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public long getLibFeatID(int index) {
+    checkIndex(index);
+    return libFeatIDs[index];
+  }
+
+  public long getEntityID(int index) {
+    checkIndex(index);
+    return entityIDs[index];
+  }
+
+  /**
+   * Returns a copy of the shared feature IDs, one per row.
+   */
+  public long[] getLibFeatIDs() {
+    return Arrays.copyOf(libFeatIDs, size);
+  }
+
+  /**
+   * Returns a copy of the sharing entity IDs, one per row.
+   */
+  public long[] getEntityIDs() {
+    return Arrays.copyOf(entityIDs, size);
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+  }
+
+  /**
+   * Collects rows into growing primitive arrays.
+   */
+  static class Builder {
+    private long[] libFeatIDs = new long[16];
+    private long[] entityIDs = new long[16];
+    private int size;
+
+    void add(long libFeatID, long entityID) {
+      if (size == libFeatIDs.length) {
+        libFeatIDs = Arrays.copyOf(libFeatIDs, size * 2);
+        entityIDs = Arrays.copyOf(entityIDs, size * 2);
+      }
+      libFeatIDs[size] = libFeatID;
+      entityIDs[size] = entityID;
+      size++;
+    }
+
+    void addAll(Builder other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.libFeatIDs[i], other.entityIDs[i]);
+      }
+    }
+
+    SharedFeatures build() {
+      return size == 0 ? EMPTY : new SharedFeatures(libFeatIDs, entityIDs, size);
+    }
+  }
+}
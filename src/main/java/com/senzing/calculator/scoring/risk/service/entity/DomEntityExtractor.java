@@ -0,0 +1,115 @@
+package com.senzing.calculator.scoring.risk.service.entity;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+/**
+ * Extracts entity data by reading the whole document into a JSON object first.
+ */
+public class DomEntityExtractor implements EntityExtractor {
+
+  private final Set<String> collectedFeatureTypes;
+
+  /**
+   * @param collectedFeatureTypes Feature types whose values are collected
+   */
+  public DomEntityExtractor(Set<String> collectedFeatureTypes) {
+    this.collectedFeatureTypes = collectedFeatureTypes;
+  }
+
+  @Override
+  public EntityData extract(String entityJson) {
+    EntityData entityData = new EntityData();
+    JsonObject rootObject;
+    try (JsonReader reader = Json.createReader(new StringReader(entityJson))) {
+      rootObject = reader.readObject();
+    }
+
+    JsonObject resolvedEntity = getObject(rootObject, RESOLVED_ENTITY_SECTION);
+    JsonObject features = getObject(resolvedEntity, FEATURES_SECTION);
+    if (features != null) {
+      for (String fType : features.keySet()) {
+        JsonArray fTypeValues = getArray(features, fType);
+        if (fTypeValues == null) {
+          continue;
+        }
+        if (collectedFeatureTypes.contains(fType)) {
+          entityData.addFeatures(fType, toFeatures(fTypeValues));
+        } else {
+          entityData.setFeatureCount(fType, fTypeValues.size());
+        }
+      }
+    }
+
+    JsonArray records = getArray(resolvedEntity, RECORDS_SECTION);
+    if (records != null) {
+      for (int i = 0; i < records.size(); i++) {
+        entityData.addDataSource(records.getJsonObject(i).getString(DATA_SOURCE_TAG, null));
+      }
+    }
+
+    JsonArray relatedEntities = getArray(rootObject, RELATED_ENTITIES_SECTION);
+    if (relatedEntities != null) {
+      entityData.setHasRelationships();
+      for (int i = 0; i < relatedEntities.size(); i++) {
+        JsonObject entity = relatedEntities.getJsonObject(i);
+        entityData.addRelationship(new EntityData.Relationship(entity.getInt(IS_AMBIGUOUS_TAG, 0) > 0,
+            entity.getString(MATCH_LEVEL_CODE_TAG, null), entity.getString(MATCH_KEY_TAG, null)));
+      }
+    }
+    return entityData;
+  }
+
+  private List<EntityData.Feature> toFeatures(JsonArray fTypeValues) {
+    List<EntityData.Feature> values = new ArrayList<>(fTypeValues.size());
+    for (int i = 0; i < fTypeValues.size(); i++) {
+      JsonObject fTypeObject = fTypeValues.getJsonObject(i);
+      JsonNumber featID = fTypeObject.getJsonNumber(LIB_FEAT_ID_TAG);
+      if (featID == null) {
+        throw new IllegalArgumentException("Feature without " + LIB_FEAT_ID_TAG + ": " + fTypeObject);
+      }
+      values.add(new EntityData.Feature(featID.longValue(), fTypeObject.getString(FEAT_DESC_TAG, null),
+          fTypeObject.getString(UTYPE_CODE_TAG, null), isGeneric(fTypeObject)));
+    }
+    return values;
+  }
+
+  private boolean isGeneric(JsonObject featureObject) {
+    JsonArray featDescs = getArray(featureObject, FEAT_DESC_VALUES_TAG);
+    if (featDescs != null) {
+      for (int i = 0; i < featDescs.size(); i++) {
+        JsonObject descriptionObject = featDescs.getJsonObject(i);
+        if (Y_VALUE.equals(descriptionObject.getString(CANDIDATE_CAP_REACHED_TAG, null))
+            || Y_VALUE.equals(descriptionObject.getString(SCORING_CAP_REACHED_TAG, null))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static JsonObject getObject(JsonObject jsonObject, String key) {
+    if (jsonObject == null) {
+      return null;
+    }
+    JsonValue value = jsonObject.get(key);
+    return value instanceof JsonObject ? (JsonObject) value : null;
+  }
+
+  private static JsonArray getArray(JsonObject jsonObject, String key) {
+    if (jsonObject == null) {
+      return null;
+    }
+    JsonValue value = jsonObject.get(key);
+    return value instanceof JsonArray ? (JsonArray) value : null;
+  }
+}
@@ -0,0 +1,143 @@
+package com.senzing.calculator.scoring.risk.service.entity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The parts of a G2 entity document used for risk scoring.
+ */
+public class EntityData {
+
+  /**
+   * One value of a feature of the resolved entity.
+   */
+  public static class Feature {
+    private final long libFeatID;
+    private final String description;
+    private final String usageType;
+    private final boolean generic;
+
+    public Feature(long libFeatID, String description, String usageType, boolean generic) {
+      this.libFeatID = libFeatID;
+      this.description = description;
+      this.usageType = usageType;
+      this.generic = generic;
+    }
+
+    public long getLibFeatID() {
+      return libFeatID;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+
+    public String getUsageType() {
+      return usageType;
+    }
+
+    /**
+     * Tells if the candidate or scoring cap has been reached for any of the feature values.
+     */
+    public boolean isGeneric() {
+      return generic;
+    }
+  }
+
+  /**
+   * A relationship to another entity.
+   */
+  public static class Relationship {
+    private final boolean ambiguous;
+    private final String matchLevelCode;
+    private final String matchKey;
+
+    public Relationship(boolean ambiguous, String matchLevelCode, String matchKey) {
+      this.ambiguous = ambiguous;
+      this.matchLevelCode = matchLevelCode;
+      this.matchKey = matchKey;
+    }
+
+    public boolean isAmbiguous() {
+      return ambiguous;
+    }
+
+    public String getMatchLevelCode() {
+      return matchLevelCode;
+    }
+
+    public String getMatchKey() {
+      return matchKey;
+    }
+  }
+
+  private final Map<String, Integer> featureCounts = new HashMap<>();
+  private final Map<String, List<Feature>> features = new HashMap<>();
+  private final List<String> dataSources = new ArrayList<>();
+  private List<Relationship> relationships;
+
+  /**
+   * Returns the number of values the entity has for a feature type.
+   */
+  public int getFeatureCount(String fType) {
+    return featureCounts.getOrDefault(fType, 0);
+  }
+
+  /**
+   * Returns the feature types the entity has, whether their values were collected or only counted.
+   */
+  public Set<String> getFeatureTypes() {
+    return featureCounts.keySet();
+  }
+
+  public void setFeatureCount(String fType, int count) {
+    featureCounts.put(fType, count);
+  }
+
+  /**
+   * Returns the values of a feature type or null if the entity doesn't have the feature type or it
+   * wasn't collected.
+   */
+  public List<Feature> getFeatures(String fType) {
+    return features.get(fType);
+  }
+
+  public void addFeatures(String fType, List<Feature> values) {
+    features.put(fType, values);
+    featureCounts.put(fType, values.size());
+  }
+
+  public List<String> getDataSources() {
+    return dataSources;
+  }
+
+  public void addDataSource(String dataSource) {
+    dataSources.add(dataSource);
+  }
+
+  /**
+   * Returns the relationships or null if the document had no related entities section.
+   */
+  public List<Relationship> getRelationships() {
+    return relationships;
+  }
+
+  public void addRelationship(Relationship relationship) {
+    if (relationships == null) {
+      relationships = new ArrayList<>();
+    }
+    relationships.add(relationship);
+  }
+
+  /**
+   * Marks the related entities section as present even if it is empty.
+   */
+  public void setHasRelationships() {
+    if (relationships == null) {
+      relationships = new ArrayList<>();
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package com.senzing.calculator.scoring.risk.service.entity;
+
+/**
+ * Extracts the data needed for scoring from a G2 entity document.
+ */
+public interface EntityExtractor {
+
+  // Main sections for entity message.
+  String RESOLVED_ENTITY_SECTION = "RESOLVED_ENTITY";
+  String RELATED_ENTITIES_SECTION = "RELATED_ENTITIES";
+  // Sub sections for entity message.
+  String FEATURES_SECTION = "FEATURES";
+  String RECORDS_SECTION = "RECORDS";
+  // Features' sub tags
+  String LIB_FEAT_ID_TAG = "LIB_FEAT_ID";
+  String UTYPE_CODE_TAG = "UTYPE_CODE";
+  String FEAT_DESC_TAG = "FEAT_DESC";
+  String FEAT_DESC_VALUES_TAG = "FEAT_DESC_VALUES";
+  String CANDIDATE_CAP_REACHED_TAG = "CANDIDATE_CAP_REACHED";
+  String SCORING_CAP_REACHED_TAG = "SCORING_CAP_REACHED";
+  // Relationship sub tags
+  String IS_AMBIGUOUS_TAG = "IS_AMBIGUOUS";
+  String MATCH_LEVEL_CODE_TAG = "MATCH_LEVEL_CODE";
+  String MATCH_KEY_TAG = "MATCH_KEY";
+  // Record sub tags
+  String DATA_SOURCE_TAG = "DATA_SOURCE";
+  // Values
+  String Y_VALUE = "Y";
+
+  /**
+   * Extracts the entity data.  Values are collected only for the feature types given at construction, other
+   * feature types are only counted.
+   *
+   * @param entityJson Entity document as returned by G2 getEntity
+   *
+   * @return The extracted data
+   */
+  EntityData extract(String entityJson);
+}
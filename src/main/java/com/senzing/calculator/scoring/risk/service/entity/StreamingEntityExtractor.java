@@ -0,0 +1,200 @@
+package com.senzing.calculator.scoring.risk.service.entity;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * Extracts entity data in one pass over the document without building a JSON object of it.  Only the values
+ * used for scoring are kept, everything else is skipped as it is read.
+ */
+public class StreamingEntityExtractor implements EntityExtractor {
+
+  private final Set<String> collectedFeatureTypes;
+
+  /**
+   * @param collectedFeatureTypes Feature types whose values are collected
+   */
+  public StreamingEntityExtractor(Set<String> collectedFeatureTypes) {
+    this.collectedFeatureTypes = collectedFeatureTypes;
+  }
+
+  @Override
+  public EntityData extract(String entityJson) {
+    EntityData entityData = new EntityData();
+    try (JsonParser parser = Json.createParser(new StringReader(entityJson))) {
+      if (parser.next() != Event.START_OBJECT) {
+        throw new IllegalArgumentException("Entity document is not a JSON object");
+      }
+      while (parser.next() == Event.KEY_NAME) {
+        String key = parser.getString();
+        Event event = parser.next();
+        if (RESOLVED_ENTITY_SECTION.equals(key) && event == Event.START_OBJECT) {
+          readResolvedEntity(parser, entityData);
+        } else if (RELATED_ENTITIES_SECTION.equals(key) && event == Event.START_ARRAY) {
+          readRelatedEntities(parser, entityData);
+        } else {
+          skipValue(parser, event);
+        }
+      }
+    }
+    return entityData;
+  }
+
+  private void readResolvedEntity(JsonParser parser, EntityData entityData) {
+    while (parser.next() == Event.KEY_NAME) {
+      String key = parser.getString();
+      Event event = parser.next();
+      if (FEATURES_SECTION.equals(key) && event == Event.START_OBJECT) {
+        readFeatures(parser, entityData);
+      } else if (RECORDS_SECTION.equals(key) && event == Event.START_ARRAY) {
+        readRecords(parser, entityData);
+      } else {
+        skipValue(parser, event);
+      }
+    }
+  }
+
+  private void readFeatures(JsonParser parser, EntityData entityData) {
+    while (parser.next() == Event.KEY_NAME) {
+      String fType = parser.getString();
+      Event event = parser.next();
+      if (event != Event.START_ARRAY) {
+        skipValue(parser, event);
+      } else if (collectedFeatureTypes.contains(fType)) {
+        List<EntityData.Feature> values = new ArrayList<>();
+        while ((event = parser.next()) != Event.END_ARRAY) {
+          if (event == Event.START_OBJECT) {
+            values.add(readFeature(parser));
+          } else {
+            skipValue(parser, event);
+          }
+        }
+        entityData.addFeatures(fType, values);
+      } else {
+        int count = 0;
+        while ((event = parser.next()) != Event.END_ARRAY) {
+          skipValue(parser, event);
+          count++;
+        }
+        entityData.setFeatureCount(fType, count);
+      }
+    }
+  }
+
+  private EntityData.Feature readFeature(JsonParser parser) {
+    Long libFeatID = null;
+    String description = null;
+    String usageType = null;
+    boolean generic = false;
+    while (parser.next() == Event.KEY_NAME) {
+      String key = parser.getString();
+      Event event = parser.next();
+      if (LIB_FEAT_ID_TAG.equals(key) && event == Event.VALUE_NUMBER) {
+        libFeatID = parser.getLong();
+      } else if (FEAT_DESC_TAG.equals(key) && event == Event.VALUE_STRING) {
+        description = parser.getString();
+      } else if (UTYPE_CODE_TAG.equals(key) && event == Event.VALUE_STRING) {
+        usageType = parser.getString();
+      } else if (FEAT_DESC_VALUES_TAG.equals(key) && event == Event.START_ARRAY) {
+        generic = readGeneric(parser);
+      } else {
+        skipValue(parser, event);
+      }
+    }
+    if (libFeatID == null) {
+      throw new IllegalArgumentException("Feature without " + LIB_FEAT_ID_TAG + ": " + description);
+    }
+    return new EntityData.Feature(libFeatID, description, usageType, generic);
+  }
+
+  /*
+   * Reads the FEAT_DESC_VALUES array and tells if the candidate or scoring cap has been reached for any of them.
+   */
+  private boolean readGeneric(JsonParser parser) {
+    boolean generic = false;
+    Event event;
+    while ((event = parser.next()) != Event.END_ARRAY) {
+      if (event != Event.START_OBJECT) {
+        skipValue(parser, event);
+        continue;
+      }
+      while (parser.next() == Event.KEY_NAME) {
+        String key = parser.getString();
+        event = parser.next();
+        if ((CANDIDATE_CAP_REACHED_TAG.equals(key) || SCORING_CAP_REACHED_TAG.equals(key))
+            && event == Event.VALUE_STRING && Y_VALUE.equals(parser.getString())) {
+          generic = true;
+        } else {
+          skipValue(parser, event);
+        }
+      }
+    }
+    return generic;
+  }
+
+  private void readRecords(JsonParser parser, EntityData entityData) {
+    Event event;
+    while ((event = parser.next()) != Event.END_ARRAY) {
+      if (event != Event.START_OBJECT) {
+        skipValue(parser, event);
+        continue;
+      }
+      String dataSource = null;
+      while (parser.next() == Event.KEY_NAME) {
+        String key = parser.getString();
+        event = parser.next();
+        if (DATA_SOURCE_TAG.equals(key) && event == Event.VALUE_STRING) {
+          dataSource = parser.getString();
+        } else {
+          skipValue(parser, event);
+        }
+      }
+      entityData.addDataSource(dataSource);
+    }
+  }
+
+  private void readRelatedEntities(JsonParser parser, EntityData entityData) {
+    entityData.setHasRelationships();
+    Event event;
+    while ((event = parser.next()) != Event.END_ARRAY) {
+      if (event != Event.START_OBJECT) {
+        skipValue(parser, event);
+        continue;
+      }
+      boolean ambiguous = false;
+      String matchLevelCode = null;
+      String matchKey = null;
+      while (parser.next() == Event.KEY_NAME) {
+        String key = parser.getString();
+        event = parser.next();
+        if (IS_AMBIGUOUS_TAG.equals(key) && event == Event.VALUE_NUMBER) {
+          ambiguous = parser.getInt() > 0;
+        } else if (MATCH_LEVEL_CODE_TAG.equals(key) && event == Event.VALUE_STRING) {
+          matchLevelCode = parser.getString();
+        } else if (MATCH_KEY_TAG.equals(key) && event == Event.VALUE_STRING) {
+          matchKey = parser.getString();
+        } else {
+          skipValue(parser, event);
+        }
+      }
+      entityData.addRelationship(new EntityData.Relationship(ambiguous, matchLevelCode, matchKey));
+    }
+  }
+
+  /*
+   * Skips the value whose first event has just been read.
+   */
+  private static void skipValue(JsonParser parser, Event event) {
+    if (event == Event.START_OBJECT) {
+      parser.skipObject();
+    } else if (event == Event.START_ARRAY) {
+      parser.skipArray();
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.senzing.calculator.scoring.risk.service.metrics;
+
+import javax.json.Json;
+
+/**
+ * Health of a service as served by {@link MetricsServer} on /health.
+ */
+public class Health {
+
+  private final boolean healthy;
+  private final String state;
+  private final long lagMillis;
+
+  /**
+   * Creates the health.
+   *
+   * @param healthy True if the service is up and keeping up with its work
+   * @param state State of the service, like AVAILABLE
+   * @param lagMillis Milliseconds since work waiting to be done last made progress, 0 if nothing is waiting
+   */
+  public Health(boolean healthy, String state, long lagMillis) {
+    this.healthy = healthy;
+    this.state = state;
+    this.lagMillis = lagMillis;
+  }
+
+  public boolean isHealthy() {
+    return healthy;
+  }
+
+  public String getState() {
+    return state;
+  }
+
+  public long getLagMillis() {
+    return lagMillis;
+  }
+
+  /**
+   * Gives the health as a JSON document.
+   */
+  public String toJson() {
+    return Json.createObjectBuilder()
+        .add("healthy", healthy)
+        .add("state", state)
+        .add("lagMillis", lagMillis)
+        .build().toString();
+  }
+}
@@ -0,0 +1,180 @@
+package com.senzing.calculator.scoring.risk.service.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import com.senzing.listener.service.ListenerService.Statistic;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the statistics of a service in the Prometheus text format on /metrics and its health on /health, with
+ * the HTTP server of the JDK.  /health answers 200 when the service is healthy and 503 otherwise, so it can be
+ * used by container health checks as is.
+ *
+ * Statistics are served as gauges named riskscorer_ followed by the statistic name in snake case.  The latency
+ * percentiles, statistics named like scoringP95, are served as one summary per stage with a quantile label.
+ */
+public class MetricsServer {
+
+  private static final String PREFIX = "riskscorer_";
+  private static final String[][] QUANTILES = { { "P50", "0.5" }, { "P95", "0.95" }, { "P99", "0.99" } };
+  private static final String MAX_SUFFIX = "Max";
+  private static final String LATENCY_UNITS = "microseconds";
+  private static final String TEXT_FORMAT = "text/plain; version=0.0.4; charset=utf-8";
+  private static final String JSON_FORMAT = "application/json";
+
+  private final HttpServer server;
+  private final Supplier<Map<Statistic, Number>> statistics;
+  private final Supplier<Health> health;
+
+  /**
+   * Creates the server.  It is not serving until started.
+   *
+   * @param port Port to listen on, 0 picks a free one
+   * @param statistics Gives the current statistics
+   * @param health Gives the current health
+   *
+   * @throws IOException If the port can't be bound
+   */
+  public MetricsServer(int port, Supplier<Map<Statistic, Number>> statistics, Supplier<Health> health) throws IOException {
+    this.statistics = statistics;
+    this.health = health;
+    server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext("/metrics", this::serveMetrics);
+    server.createContext("/health", this::serveHealth);
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+  }
+
+  /**
+   * Returns the port listened on.
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  private void serveMetrics(HttpExchange exchange) throws IOException {
+    respond(exchange, 200, TEXT_FORMAT, format(statistics.get()));
+  }
+
+  private void serveHealth(HttpExchange exchange) throws IOException {
+    Health current = health.get();
+    respond(exchange, current.isHealthy() ? 200 : 503, JSON_FORMAT, current.toJson());
+  }
+
+  private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream outputStream = exchange.getResponseBody()) {
+      outputStream.write(bytes);
+    }
+  }
+
+  /**
+   * Formats statistics in the Prometheus text format.
+   *
+   * @param statistics Statistics to format
+   *
+   * @return One metric family per statistic or latency stage
+   */
+  static String format(Map<Statistic, Number> statistics) {
+    StringBuilder builder = new StringBuilder();
+    // Stages with latency percentiles, their samples are written together.
+    Set<String> stages = new LinkedHashSet<>();
+    for (Map.Entry<Statistic, Number> entry : statistics.entrySet()) {
+      Statistic statistic = entry.getKey();
+      String stage = latencyStage(statistic);
+      if (stage != null) {
+        stages.add(stage);
+        continue;
+      }
+      String name = PREFIX + toSnakeCase(statistic.getName());
+      appendHeader(builder, name, statistic.getName() + " in " + statistic.getUnits(), "gauge");
+      appendSample(builder, name, "", entry.getValue());
+    }
+    for (String stage : stages) {
+      String name = PREFIX + toSnakeCase(stage) + "_latency_" + LATENCY_UNITS;
+      appendHeader(builder, name, "Latency of " + stage + " in " + LATENCY_UNITS, "summary");
+      for (String[] quantile : QUANTILES) {
+        Number value = find(statistics, stage + quantile[0]);
+        if (value != null) {
+          appendSample(builder, name, "{quantile=\"" + quantile[1] + "\"}", value);
+        }
+      }
+      Number max = find(statistics, stage + MAX_SUFFIX);
+      if (max != null) {
+        String maxName = PREFIX + toSnakeCase(stage) + "_latency_max_" + LATENCY_UNITS;
+        appendHeader(builder, maxName, "Longest latency of " + stage + " in " + LATENCY_UNITS, "gauge");
+        appendSample(builder, maxName, "", max);
+      }
+    }
+    return builder.toString();
+  }
+
+  // Gives the stage of a latency statistic, null for other statistics.
+  private static String latencyStage(Statistic statistic) {
+    if (!LATENCY_UNITS.equals(statistic.getUnits())) {
+      return null;
+    }
+    String name = statistic.getName();
+    for (String[] quantile : QUANTILES) {
+      if (name.endsWith(quantile[0])) {
+        return name.substring(0, name.length() - quantile[0].length());
+      }
+    }
+    if (name.endsWith(MAX_SUFFIX)) {
+      return name.substring(0, name.length() - MAX_SUFFIX.length());
+    }
+    return null;
+  }
+
+  private static Number find(Map<Statistic, Number> statistics, String name) {
+    for (Map.Entry<Statistic, Number> entry : statistics.entrySet()) {
+      if (entry.getKey().getName().equals(name)) {
+        return entry.getValue();
+      }
+    }
+    return null;
+  }
+
+  private static void appendHeader(StringBuilder builder, String name, String help, String type) {
+    builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void appendSample(StringBuilder builder, String name, String labels, Number value) {
+    builder.append(name).append(labels).append(' ').append(value).append('\n');
+  }
+
+  static String toSnakeCase(String name) {
+    StringBuilder builder = new StringBuilder(name.length() + 8);
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isUpperCase(c)) {
+        if (i > 0) {
+          builder.append('_');
+        }
+        builder.append(Character.toLowerCase(c));
+      } else if (Character.isLetterOrDigit(c)) {
+        builder.append(c);
+      } else {
+        builder.append('_');
+      }
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,123 @@
+package com.senzing.calculator.scoring.risk.service.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.senzing.listener.service.ListenerService.Statistic;
+
+/**
+ * Publishes the statistics of a service over JMX, one read only attribute per statistic.  The attributes are read
+ * from the service on every access, so the MBean always shows what getStatistics() would return.
+ */
+public class StatisticsMBean implements DynamicMBean {
+
+  private final Supplier<Map<Statistic, Number>> statistics;
+  private final String description;
+
+  /**
+   * Creates the MBean.
+   *
+   * @param statistics Gives the current statistics, usually the getStatistics() of a service
+   * @param description Description shown by JMX clients
+   */
+  public StatisticsMBean(Supplier<Map<Statistic, Number>> statistics, String description) {
+    this.statistics = statistics;
+    this.description = description;
+  }
+
+  /**
+   * Registers the MBean with the platform MBean server, replacing one registered under the same name before.
+   *
+   * @param name Object name to register under
+   *
+   * @throws JMException If the name is badly formed or the registration fails
+   */
+  public void register(String name) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName objectName = new ObjectName(name);
+    if (server.isRegistered(objectName)) {
+      unregister(name);
+    }
+    server.registerMBean(this, objectName);
+  }
+
+  /**
+   * Removes a registration from the platform MBean server.  Nothing is done if the name isn't registered.
+   *
+   * @param name Object name registered under
+   *
+   * @throws JMException If the name is badly formed or the removal fails
+   */
+  public static void unregister(String name) throws JMException {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+    } catch (InstanceNotFoundException e) {
+      // Already gone.
+    }
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    for (Map.Entry<Statistic, Number> entry : statistics.get().entrySet()) {
+      if (entry.getKey().getName().equals(attribute)) {
+        return entry.getValue();
+      }
+    }
+    throw new AttributeNotFoundException(attribute);
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    Map<Statistic, Number> current = statistics.get();
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      for (Map.Entry<Statistic, Number> entry : current.entrySet()) {
+        if (entry.getKey().getName().equals(attribute)) {
+          list.add(new Attribute(attribute, entry.getValue()));
+        }
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Statistics are read only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) {
+    throw new UnsupportedOperationException(actionName);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attributes = new ArrayList<>();
+    for (Map.Entry<Statistic, Number> entry : statistics.get().entrySet()) {
+      Statistic statistic = entry.getKey();
+      attributes.add(new MBeanAttributeInfo(statistic.getName(), entry.getValue().getClass().getName(),
+          statistic.getName() + " (" + statistic.getUnits() + ")", true, false, false));
+    }
+    return new MBeanInfo(getClass().getName(), description, attributes.toArray(new MBeanAttributeInfo[0]), null,
+        null, null);
+  }
+}
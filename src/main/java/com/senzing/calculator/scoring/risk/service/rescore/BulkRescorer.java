@@ -0,0 +1,342 @@
+package com.senzing.calculator.scoring.risk.service.rescore;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.senzing.calculator.scoring.risk.service.ScoringContext;
+import com.senzing.calculator.scoring.risk.service.ScoringWorkerPool.EntityScorer;
+import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.calculator.scoring.risk.service.db.RescoreCheckpoint;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Rescores all the resolved entities of a lens, for when the rules or their settings have changed.
+ *
+ * The entity IDs are split into contiguous ranges, the partitions, which are worked through in parallel, one
+ * thread per scoring context.  A thread reads a page of entity IDs of its partition, scores them, commits the
+ * scores and then records in RES_RISK_RESCORE how far the partition got.  An interrupted run resumes from there,
+ * entities of a page which wasn't recorded are scored again, which only rewrites the same scores.  The checkpoints
+ * are removed once all partitions are done.
+ *
+ * Any number of instances, on any number of machines, can rescore the same lens together.  A thread leases the
+ * partition it works on in RES_RISK_RESCORE and renews the lease while it works.  Each claim records its own owner,
+ * the instance ID and a counter, so a thread which stalled past its lease is told apart from the thread of the same
+ * instance which took the partition over.  A partition whose lease expired, because its instance stopped, is taken
+ * over by the next thread looking for work.  Instances out of work wait until all partitions are done, so they can
+ * take over the ones left by instances which stop.  The thread which lost a lease stops working on the partition at
+ * its next checkpoint, which it is refused.
+ *
+ * Leases expire by the clocks of the instances, compared across machines.  Leases are renewed every third of the
+ * lease time, so an instance whose clock is ahead takes over a live lease only when it is ahead by more than two
+ * thirds of the lease time, less the time a renewal takes.  Keep the clocks synchronized well within that, which
+ * with the default lease of 5 minutes leaves minutes.
+ *
+ * The partitions are fixed when a run starts, a resumed run keeps them whatever the number of threads or instances.
+ * Instances started after the run completed start a new one.
+ */
+public class BulkRescorer {
+
+  private static final long DEFAULT_PROGRESS_MILLIS = 30000;
+  // Longest time an instance out of work waits before looking for partitions again.
+  private static final long DEFAULT_MAX_POLL_MILLIS = 2000;
+
+  private final EntityScorer scorer;
+  private final List<ScoringContext> contexts;
+  private final int lensID;
+  private final int partitionCount;
+  private final int pageSize;
+  private final String instanceID;
+  private final long leaseMillis;
+  private final long progressMillis;
+  private final long pollMillis;
+
+  private final Set<RescoreCheckpoint> leased = ConcurrentHashMap.newKeySet();
+  // Numbers the claims of this instance, for their owner IDs.
+  private final AtomicLong claimCount = new AtomicLong();
+  private final AtomicLong scoredCount = new AtomicLong();
+  private final AtomicReference<Exception> failure = new AtomicReference<>();
+  private long startScoredCount;
+  private long startNanos;
+
+  /**
+   * Creates the rescorer.
+   *
+   * @param scorer Scores a page of entities with the resources of a thread, committing nothing itself
+   * @param contexts Resources of each rescoring thread. The database service of the first one is also used to
+   *        read the checkpoints and renew the leases.
+   * @param lensID Lens rescored
+   * @param partitionCount Number of partitions a new run is split into
+   * @param pageSize Number of entities scored between commits and checkpoints
+   * @param instanceID ID of this instance, unique among the instances rescoring the lens
+   * @param leaseMillis Time a partition stays leased to an instance which stopped renewing it
+   */
+  public BulkRescorer(EntityScorer scorer, List<ScoringContext> contexts, int lensID, int partitionCount, int pageSize,
+      String instanceID, long leaseMillis) {
+    this(scorer, contexts, lensID, partitionCount, pageSize, instanceID, leaseMillis, DEFAULT_PROGRESS_MILLIS,
+        DEFAULT_MAX_POLL_MILLIS);
+  }
+
+  BulkRescorer(EntityScorer scorer, List<ScoringContext> contexts, int lensID, int partitionCount, int pageSize,
+      String instanceID, long leaseMillis, long progressMillis, long maxPollMillis) {
+    if (contexts.isEmpty()) {
+      throw new IllegalArgumentException("At least one scoring context is needed");
+    }
+    this.scorer = scorer;
+    this.contexts = contexts;
+    this.lensID = lensID;
+    this.partitionCount = Math.max(1, partitionCount);
+    this.pageSize = Math.max(1, pageSize);
+    this.instanceID = instanceID;
+    this.leaseMillis = Math.max(3, leaseMillis);
+    this.progressMillis = progressMillis;
+    // Often enough to take over expired leases in time and to notice the end of the run soon after it.
+    this.pollMillis = Math.max(1, Math.min(this.leaseMillis / 3, maxPollMillis));
+  }
+
+  /**
+   * Rescores the entities, joining the run of other instances or resuming a previous run if it didn't finish.
+   * Returns once every partition is done or a thread failed, the others stop after their current page.
+   *
+   * @throws ServiceExecutionException If the scoring or a database access failed. What was checkpointed is kept.
+   */
+  public void run() throws ServiceExecutionException {
+    DatabaseService dbService = contexts.get(0).getDbService();
+    dbService.createRescoreTable();
+    List<RescoreCheckpoint> checkpoints = dbService.loadRescoreCheckpoints(lensID);
+    if (checkpoints.isEmpty()) {
+      checkpoints = createCheckpoints(dbService);
+      if (checkpoints.isEmpty()) {
+        System.out.println("No resolved entities to rescore in lens " + lensID);
+        return;
+      }
+      try {
+        dbService.createRescoreCheckpoints(checkpoints);
+      } catch (ServiceExecutionException e) {
+        // Another instance started the run first.
+        checkpoints = dbService.loadRescoreCheckpoints(lensID);
+        if (checkpoints.isEmpty()) {
+          throw e;
+        }
+      }
+    } else {
+      System.out.println("Joining the rescoring of lens " + lensID);
+    }
+
+    long entityCount = 0;
+    for (RescoreCheckpoint checkpoint : checkpoints) {
+      entityCount += checkpoint.getEntityCount();
+      startScoredCount += checkpoint.getScoredCount();
+    }
+    System.out.println("Rescoring " + (entityCount - startScoredCount) + " of " + entityCount + " entities in "
+        + checkpoints.size() + " partitions on " + contexts.size() + " threads as " + instanceID);
+
+    startNanos = System.nanoTime();
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "risk-rescore-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.scheduleAtFixedRate(this::renewLeases, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+    timer.scheduleAtFixedRate(this::reportProgress, progressMillis, progressMillis, TimeUnit.MILLISECONDS);
+    List<Thread> threads = new ArrayList<>();
+    try {
+      for (int i = 0; i < contexts.size(); i++) {
+        ScoringContext context = contexts.get(i);
+        Thread thread = new Thread(() -> rescorePartitions(context), "risk-rescore-" + i);
+        threads.add(thread);
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure.compareAndSet(null, e);
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+    } finally {
+      timer.shutdownNow();
+    }
+    reportProgress();
+
+    Exception cause = failure.get();
+    if (cause != null) {
+      throw new ServiceExecutionException("Rescoring stopped, it resumes from the last checkpoint when run again", cause);
+    }
+    dbService.deleteRescoreCheckpoints(lensID);
+    System.out.println("Rescoring of lens " + lensID + " complete");
+  }
+
+  /**
+   * Returns the number of entities rescored by this instance in this run.
+   */
+  public long getScoredCount() {
+    return scoredCount.get();
+  }
+
+  // Splits the range of entity IDs in partitions of equal width.
+  private List<RescoreCheckpoint> createCheckpoints(DatabaseService dbService) throws ServiceExecutionException {
+    List<RescoreCheckpoint> checkpoints = new ArrayList<>();
+    long[] range = dbService.findResolvedEntityRange(lensID);
+    if (range == null) {
+      return checkpoints;
+    }
+    long first = range[0];
+    long last = range[1];
+    long width = Math.max(1, (last - first) / partitionCount + 1);
+    for (int partition = 0; partition < partitionCount && first <= last; partition++) {
+      long partitionLast = last - first < width ? last : first + width - 1;
+      long count = dbService.countResolvedEntities(lensID, first, partitionLast);
+      checkpoints.add(new RescoreCheckpoint(lensID, partition, first, partitionLast, count));
+      first = partitionLast + 1;
+    }
+    return checkpoints;
+  }
+
+  // Claims partitions until none is left, waiting for the ones leased by other instances to be done.
+  private void rescorePartitions(ScoringContext context) {
+    DatabaseService dbService = context.getDbService();
+    try {
+      while (failure.get() == null) {
+        String owner = instanceID + "#" + claimCount.incrementAndGet();
+        RescoreCheckpoint checkpoint = dbService.claimRescoreCheckpoint(lensID, owner, leaseMillis);
+        if (checkpoint != null) {
+          leased.add(checkpoint);
+          try {
+            rescorePartition(checkpoint, dbService, context);
+          } finally {
+            leased.remove(checkpoint);
+          }
+        } else if (isComplete(dbService.loadRescoreCheckpoints(lensID))) {
+          return;
+        } else {
+          Thread.sleep(pollMillis);
+        }
+      }
+    } catch (InterruptedException e) {
+      failure.compareAndSet(null, e);
+    } catch (ServiceExecutionException | RuntimeException e) {
+      e.printStackTrace();
+      failure.compareAndSet(null, e);
+    }
+  }
+
+  private void rescorePartition(RescoreCheckpoint checkpoint, DatabaseService dbService, ScoringContext context)
+      throws ServiceExecutionException {
+    try {
+      while (!checkpoint.isDone() && failure.get() == null) {
+        List<Long> entityIDs = dbService.findResolvedEntityIDs(lensID, checkpoint.getDoneEntityID(),
+            checkpoint.getLastEntityID(), pageSize);
+        if (!entityIDs.isEmpty()) {
+          scorer.score(entityIDs, context);
+          dbService.flush();
+        }
+        long done = entityIDs.size() < pageSize ? checkpoint.getLastEntityID() : entityIDs.get(entityIDs.size() - 1);
+        checkpoint.advance(done, entityIDs.size());
+        if (!dbService.saveRescoreCheckpoint(checkpoint, checkpoint.getOwner(), leaseMillis)) {
+          System.out.println("The lease of partition " + checkpoint.getPartitionID() + " was taken over, leaving it");
+          return;
+        }
+        scoredCount.addAndGet(entityIDs.size());
+      }
+      if (!checkpoint.isDone()) {
+        dbService.releaseRescoreLease(checkpoint, checkpoint.getOwner());
+      }
+    } catch (ServiceExecutionException | RuntimeException e) {
+      System.err.println("Failed to rescore partition " + checkpoint.getPartitionID() + " after entity "
+          + checkpoint.getDoneEntityID());
+      try {
+        dbService.releaseRescoreLease(checkpoint, checkpoint.getOwner());
+      } catch (ServiceExecutionException | RuntimeException releaseFailure) {
+        // The lease expires by itself.
+      }
+      throw e;
+    }
+  }
+
+  private void renewLeases() {
+    DatabaseService dbService = contexts.get(0).getDbService();
+    for (RescoreCheckpoint checkpoint : leased) {
+      try {
+        if (!dbService.renewRescoreLease(checkpoint, checkpoint.getOwner(), leaseMillis)) {
+          System.out.println("Lost the lease of partition " + checkpoint.getPartitionID());
+        }
+      } catch (ServiceExecutionException | RuntimeException e) {
+        System.err.println("Failed to renew the lease of partition " + checkpoint.getPartitionID() + ": " + e.getMessage());
+      }
+    }
+  }
+
+  private static boolean isComplete(List<RescoreCheckpoint> checkpoints) {
+    for (RescoreCheckpoint checkpoint : checkpoints) {
+      if (!checkpoint.isDone()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Reports the partitions this instance works on and the progress of all instances together.
+  private void reportProgress() {
+    List<RescoreCheckpoint> checkpoints;
+    try {
+      checkpoints = contexts.get(0).getDbService().loadRescoreCheckpoints(lensID);
+    } catch (ServiceExecutionException | RuntimeException e) {
+      System.err.println("Failed to read the rescoring progress: " + e.getMessage());
+      return;
+    }
+    if (checkpoints.isEmpty()) {
+      // Another instance completed the run and removed the checkpoints.
+      System.out.println(Instant.now() + " - " + instanceID + " rescored " + scoredCount.get()
+          + " entities. All instances are done.");
+      return;
+    }
+    Set<Integer> ownPartitionIDs = new HashSet<>();
+    for (RescoreCheckpoint checkpoint : leased) {
+      ownPartitionIDs.add(checkpoint.getPartitionID());
+    }
+    long now = System.currentTimeMillis();
+    long entityCount = 0;
+    long done = 0;
+    int donePartitions = 0;
+    int leasedPartitions = 0;
+    StringBuilder ownPartitions = new StringBuilder();
+    for (RescoreCheckpoint checkpoint : checkpoints) {
+      entityCount += checkpoint.getEntityCount();
+      done += checkpoint.getScoredCount();
+      if (checkpoint.isDone()) {
+        donePartitions++;
+      } else if (checkpoint.getOwner() != null && checkpoint.getLeaseExpires() >= now) {
+        leasedPartitions++;
+        if (ownPartitionIDs.contains(checkpoint.getPartitionID())) {
+          ownPartitions.append(ownPartitions.length() == 0 ? "" : ", ").append(checkpoint.getPartitionID())
+              .append(" (").append(checkpoint.getScoredCount()).append(" of ").append(checkpoint.getEntityCount())
+              .append(")");
+        }
+      }
+    }
+    double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+    double rate = Math.max(0, done - startScoredCount) / seconds;
+    String timeLeft = "unknown";
+    if (rate > 0) {
+      timeLeft = Duration.ofSeconds((long) (Math.max(0, entityCount - done) / rate)).toString().substring(2).toLowerCase();
+    }
+    System.out.println(Instant.now() + " - " + instanceID + " rescored " + scoredCount.get() + " entities"
+        + (ownPartitions.length() == 0 ? "" : ", partitions " + ownPartitions) + ". All instances rescored " + done
+        + " of " + entityCount + " entities ("
+        + String.format("%.1f", entityCount == 0 ? 100.0 : 100.0 * done / entityCount) + "%), "
+        + donePartitions + " of " + checkpoints.size() + " partitions done, " + leasedPartitions + " leased, "
+        + String.format("%.0f", rate) + " entities per second, time left " + timeLeft);
+  }
+}
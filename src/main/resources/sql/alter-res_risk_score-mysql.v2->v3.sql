@@ -0,0 +1,30 @@
+ALTER TABLE RES_RISK_SCORE ADD COLUMN REASON_CODES INTEGER;
+ALTER TABLE RES_RISK_SCORE ADD COLUMN REASON_DETAIL VARCHAR(500);
+DROP VIEW IF EXISTS RES_RISK_SCORE_REASONS;
+CREATE VIEW RES_RISK_SCORE_REASONS AS
+  SELECT RES_ENT_ID, LENS_ID, QUALITY_STATE, COLLISION_STATE, QUERY_STATE,
+    CONCAT_WS(', ',
+      CASE WHEN REASON_CODES & 1 <> 0 THEN 'Ambiguous relationships' END,
+      CASE WHEN REASON_CODES & 2 <> 0 THEN 'More than one DOB' END,
+      CASE WHEN REASON_CODES & 4 <> 0 THEN 'More than one F1E or F1ES of the same type' END,
+      CASE WHEN REASON_CODES & 8 <> 0 THEN 'F1E or F1ES shared with other entities' END,
+      CASE WHEN REASON_CODES & 16 <> 0 THEN 'At least 1 trusted source record' END,
+      CASE WHEN REASON_CODES & 32 <> 0 THEN 'One and only one DOB' END,
+      CASE WHEN REASON_CODES & 64 <> 0 THEN 'One or less SSN' END,
+      CASE WHEN REASON_CODES & 128 <> 0 THEN 'One or more addresses' END,
+      CASE WHEN REASON_CODES & 256 <> 0 THEN 'No record from trusted source' END,
+      CASE WHEN REASON_CODES & 512 <> 0 THEN 'Not one and only one DOB' END,
+      CASE WHEN REASON_CODES & 1024 <> 0 THEN 'More than one SSN' END,
+      CASE WHEN REASON_CODES & 2048 <> 0 THEN 'No address' END) AS QUALITY_REASONS,
+    CONCAT_WS(', ',
+      CASE WHEN REASON_CODES & 4096 <> 0 THEN 'Red data quality' END,
+      CASE WHEN REASON_CODES & 8192 <> 0 THEN 'Manually flagged red' END,
+      CASE WHEN REASON_CODES & 16384 <> 0 THEN 'Green data quality' END,
+      CASE WHEN REASON_CODES & 32768 <> 0 THEN 'No possible match' END,
+      CASE WHEN REASON_CODES & 65536 <> 0 THEN 'No shared F1 types with other entities' END,
+      CASE WHEN REASON_CODES & 131072 <> 0 THEN 'Manually flagged yellow' END,
+      CASE WHEN REASON_CODES & 262144 <> 0 THEN 'Data quality not green' END,
+      CASE WHEN REASON_CODES & 524288 <> 0 THEN 'Possible match exists' END,
+      CASE WHEN REASON_CODES & 1048576 <> 0 THEN 'Shares F1 types with other entities' END) AS COLLISION_REASONS,
+    REASON_DETAIL, QUERY_REASON
+  FROM RES_RISK_SCORE;
@@ -0,0 +1 @@
+ALTER TABLE RES_RISK_SCORE ADD COLUMN SCORE_HASH BIGINT;
@@ -0,0 +1,12 @@
+DROP TABLE IF EXISTS RES_RISK_RESCORE;
+CREATE TABLE RES_RISK_RESCORE (
+   LENS_ID SMALLINT NOT NULL,
+   PARTITION_ID INTEGER NOT NULL,
+   FIRST_ENT_ID BIGINT NOT NULL,
+   LAST_ENT_ID BIGINT NOT NULL,
+   DONE_ENT_ID BIGINT NOT NULL,
+   ENTITY_COUNT BIGINT NOT NULL,
+   SCORED_COUNT BIGINT NOT NULL,
+   OWNER VARCHAR(250),
+   LEASE_EXPIRES BIGINT NOT NULL DEFAULT 0);
+ALTER TABLE RES_RISK_RESCORE ADD CONSTRAINT RES_RISK_RESCORE_PK PRIMARY KEY(LENS_ID,PARTITION_ID);
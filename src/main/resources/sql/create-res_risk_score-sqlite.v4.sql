@@ -0,0 +1,44 @@
+DROP VIEW IF EXISTS RES_RISK_SCORE_REASONS;
+DROP TABLE IF EXISTS RES_RISK_SCORE;
+CREATE TABLE RES_RISK_SCORE(
+   RES_ENT_ID BIGINT,
+   LENS_ID SMALLINT,
+   QUALITY_STATE VARCHAR(10),
+   COLLISION_STATE VARCHAR(10),
+   QUERY_STATE VARCHAR(10),
+   REASON_CODES INTEGER,
+   REASON_DETAIL VARCHAR(500),
+   QUERY_REASON VARCHAR(200),
+   SCORE_HASH BIGINT,
+   PRIMARY KEY(RES_ENT_ID, LENS_ID)
+);
+CREATE INDEX RES_RISK_SCORE_QS ON RES_RISK_SCORE(QUALITY_STATE);
+CREATE INDEX RES_RISK_SCORE_CS ON RES_RISK_SCORE(COLLISION_STATE);
+CREATE INDEX RES_RISK_SCORE_QS2 ON RES_RISK_SCORE(QUERY_STATE);
+CREATE VIEW RES_RISK_SCORE_REASONS AS
+  SELECT RES_ENT_ID, LENS_ID, QUALITY_STATE, COLLISION_STATE, QUERY_STATE,
+    rtrim(
+      CASE WHEN REASON_CODES & 1 <> 0 THEN 'Ambiguous relationships, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 2 <> 0 THEN 'More than one DOB, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 4 <> 0 THEN 'More than one F1E or F1ES of the same type, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 8 <> 0 THEN 'F1E or F1ES shared with other entities, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 16 <> 0 THEN 'At least 1 trusted source record, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 32 <> 0 THEN 'One and only one DOB, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 64 <> 0 THEN 'One or less SSN, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 128 <> 0 THEN 'One or more addresses, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 256 <> 0 THEN 'No record from trusted source, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 512 <> 0 THEN 'Not one and only one DOB, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 1024 <> 0 THEN 'More than one SSN, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 2048 <> 0 THEN 'No address, ' ELSE '' END, ', ') AS QUALITY_REASONS,
+    rtrim(
+      CASE WHEN REASON_CODES & 4096 <> 0 THEN 'Red data quality, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 8192 <> 0 THEN 'Manually flagged red, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 16384 <> 0 THEN 'Green data quality, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 32768 <> 0 THEN 'No possible match, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 65536 <> 0 THEN 'No shared F1 types with other entities, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 131072 <> 0 THEN 'Manually flagged yellow, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 262144 <> 0 THEN 'Data quality not green, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 524288 <> 0 THEN 'Possible match exists, ' ELSE '' END ||
+      CASE WHEN REASON_CODES & 1048576 <> 0 THEN 'Shares F1 types with other entities, ' ELSE '' END, ', ') AS COLLISION_REASONS,
+    REASON_DETAIL, QUERY_REASON
+  FROM RES_RISK_SCORE;
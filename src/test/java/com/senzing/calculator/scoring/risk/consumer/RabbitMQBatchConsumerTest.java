@@ -0,0 +1,183 @@
+package com.senzing.calculator.scoring.risk.consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.json.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.senzing.calculator.scoring.risk.service.CommittingListenerService;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+import com.senzing.listener.service.exception.ServiceSetupException;
+
+public class RabbitMQBatchConsumerTest {
+
+  // What the service and the channel were asked to do, in order.
+  private final List<String> events = new CopyOnWriteArrayList<>();
+  private final TestService service = new TestService();
+  private ConnectionFactory connectionFactory;
+  private Channel channel;
+  private RabbitMQBatchConsumer consumer;
+
+  @Before
+  public void setupChannel() throws Exception {
+    channel = mock(Channel.class);
+    Connection connection = mock(Connection.class);
+    connectionFactory = mock(ConnectionFactory.class);
+    when(connectionFactory.newConnection()).thenReturn(connection);
+    when(connection.createChannel()).thenReturn(channel);
+    doAnswer(invocation -> events.add("ack " + invocation.getArgument(0))).when(channel).basicAck(anyLong(),
+        anyBoolean());
+    doAnswer(invocation -> events.add("nack " + invocation.getArgument(0))).when(channel).basicNack(anyLong(),
+        anyBoolean(), anyBoolean());
+  }
+
+  @After
+  public void stopConsumer() {
+    if (consumer != null) {
+      consumer.destroy();
+    }
+  }
+
+  @Test
+  public void acknowledgesBatchOnceCommitted() throws Exception {
+    Consumer delivery = startConsumer(10, 3, 60000);
+    verify(channel).basicQos(10);
+    for (long tag = 1; tag <= 3; tag++) {
+      deliver(delivery, tag, false);
+    }
+    verify(channel, timeout(5000)).basicAck(3, true);
+    assertThat(events, is(equalTo(Arrays.asList("process", "process", "process", "flush", "ack 3"))));
+  }
+
+  @Test
+  public void acknowledgesQuietQueueAfterInterval() throws Exception {
+    Consumer delivery = startConsumer(10, 5, 50);
+    deliver(delivery, 1, false);
+    verify(channel, timeout(5000)).basicAck(1, true);
+  }
+
+  @Test
+  public void requeuesBatchWhenCommitFails() throws Exception {
+    service.failFlush = true;
+    Consumer delivery = startConsumer(10, 2, 60000);
+    deliver(delivery, 1, false);
+    deliver(delivery, 2, true);
+    verify(channel, timeout(5000)).basicNack(2, true, true);
+
+    // Only delivered again, they are not requeued another time.
+    deliver(delivery, 3, true);
+    deliver(delivery, 4, true);
+    verify(channel, timeout(5000)).basicNack(4, true, false);
+    verify(channel, never()).basicAck(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void settlesFailedMessageOnItsOwn() throws Exception {
+    Consumer delivery = startConsumer(10, 5, 60000);
+    deliver(delivery, 1, false);
+    delivery.handleDelivery("tag", new Envelope(2, false, "", "risk"), null,
+        "{\"FAIL\":true}".getBytes(StandardCharsets.UTF_8));
+    verify(channel, timeout(5000)).basicNack(2, false, true);
+    assertThat(events, is(equalTo(Arrays.asList("process", "process", "flush", "ack 1", "nack 2"))));
+  }
+
+  @Test
+  public void acknowledgesProcessedMessagesOnDestroy() throws Exception {
+    Consumer delivery = startConsumer(10, 5, 60000);
+    deliver(delivery, 1, false);
+    while (!events.contains("process")) {
+      Thread.sleep(5);
+    }
+    long startTime = System.currentTimeMillis();
+    consumer.destroy();
+    consumer = null;
+
+    // Doesn't wait for the ack interval to end.
+    assertThat(System.currentTimeMillis() - startTime < 5000, is(true));
+    verify(channel).basicAck(1, true);
+    assertThat(events, is(equalTo(Arrays.asList("process", "flush", "ack 1"))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsAckBatchLargerThanPrefetch() {
+    new RabbitMQBatchConsumer(connectionFactory, "risk", 10, 20, 1000);
+  }
+
+  private Consumer startConsumer(int prefetchCount, int ackBatchSize, long ackMillis) throws Exception {
+    consumer = new RabbitMQBatchConsumer(connectionFactory, "risk", prefetchCount, ackBatchSize, ackMillis);
+    consumer.consume(service);
+    ArgumentCaptor<Consumer> delivery = ArgumentCaptor.forClass(Consumer.class);
+    verify(channel).basicConsume(eq("risk"), eq(false), delivery.capture());
+    return delivery.getValue();
+  }
+
+  private void deliver(Consumer delivery, long tag, boolean redelivered) throws Exception {
+    delivery.handleDelivery("tag", new Envelope(tag, redelivered, "", "risk"), null,
+        "{\"AFFECTED_ENTITIES\":[]}".getBytes(StandardCharsets.UTF_8));
+  }
+
+  private class TestService implements CommittingListenerService {
+    private volatile boolean failFlush;
+
+    @Override
+    public void process(JsonObject message) throws ServiceExecutionException {
+      events.add("process");
+      if (message.containsKey("FAIL")) {
+        throw new ServiceExecutionException("Unknown resolved entity value");
+      }
+    }
+
+    @Override
+    public void flush() throws ServiceExecutionException {
+      events.add("flush");
+      if (failFlush) {
+        throw new ServiceExecutionException("1 scoring or write failures since the last flush");
+      }
+    }
+
+    @Override
+    public Map<Statistic, Number> getStatistics() {
+      return null;
+    }
+
+    @Override
+    public State getState() {
+      return null;
+    }
+
+    @Override
+    public void init(JsonObject config) throws ServiceSetupException {
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+}
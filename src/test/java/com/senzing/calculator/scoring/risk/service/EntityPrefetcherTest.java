@@ -0,0 +1,123 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+public class EntityPrefetcherTest {
+
+  // Entity ID to the number of times it was fetched.
+  private final Map<Long, Integer> fetchCounts = new ConcurrentHashMap<>();
+  private final List<String> fetchThreads = new CopyOnWriteArrayList<>();
+  private EntityPrefetcher prefetcher;
+
+  @After
+  public void stopPrefetcher() {
+    if (prefetcher != null) {
+      prefetcher.shutdown();
+    }
+  }
+
+  @Test
+  public void fetchesAheadUpToTheDepth() throws Exception {
+    prefetcher = newPrefetcher(2, 1000000);
+    prefetcher.hint(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+    waitForFetches(1L, 2L);
+    Thread.sleep(50);
+    assertThat(fetchCounts.size(), is(equalTo(2)));
+
+    assertThat(prefetcher.get(1), is(equalTo("entity-1-1")));
+    // Taking a document makes room for the next one.
+    waitForFetches(3L);
+    for (long entityID = 2; entityID <= 5; entityID++) {
+      assertThat(prefetcher.get(entityID), is(equalTo("entity-" + entityID + "-1")));
+    }
+    assertThat(fetchCounts.values().stream().mapToInt(Integer::intValue).sum(), is(equalTo(5)));
+    assertThat(prefetcher.getHitCount() + prefetcher.getMissCount(), is(equalTo(5L)));
+    assertThat(prefetcher.getHitCount() >= 3, is(true));
+    assertThat(prefetcher.getHeldBytes(), is(equalTo(0L)));
+  }
+
+  @Test
+  public void stopsAtTheByteLimit() throws Exception {
+    // A document of 10 characters is estimated at 20 bytes, the second one isn't fetched until the first is taken.
+    prefetcher = newPrefetcher(10, 20);
+    prefetcher.hint(Arrays.asList(1L, 2L, 3L));
+    waitForFetches(1L);
+    Thread.sleep(50);
+    assertThat(fetchCounts.size(), is(equalTo(1)));
+    assertThat(prefetcher.getHeldBytes(), is(equalTo(20L)));
+
+    prefetcher.get(1);
+    waitForFetches(2L);
+  }
+
+  @Test
+  public void refetchesEntityHintedAgain() throws Exception {
+    prefetcher = newPrefetcher(4, 1000000);
+    prefetcher.hint(Collections.singletonList(7L));
+    waitForFetches(7L);
+    prefetcher.hint(Collections.singletonList(7L));
+
+    // The document fetched before the second hint is never handed out.
+    String document = prefetcher.get(7);
+    assertThat(document, is(equalTo("entity-7-" + fetchCounts.get(7L))));
+    assertThat(fetchCounts.get(7L), is(equalTo(2)));
+  }
+
+  @Test
+  public void fetchesUnhintedEntityOnCaller() throws Exception {
+    prefetcher = newPrefetcher(4, 1000000);
+    assertThat(prefetcher.get(3), is(equalTo("entity-3-1")));
+    assertThat(fetchThreads, is(equalTo(Collections.singletonList(Thread.currentThread().getName()))));
+    assertThat(prefetcher.getMissCount(), is(equalTo(1L)));
+  }
+
+  @Test
+  public void rethrowsFetchFailure() throws Exception {
+    prefetcher = new EntityPrefetcher(entityID -> {
+      throw new ServiceExecutionException("Unknown resolved entity value '" + entityID + "'");
+    }, 4, 1000000);
+    prefetcher.start();
+    prefetcher.hint(Collections.singletonList(9L));
+    try {
+      prefetcher.get(9);
+      fail("Expected the fetch to fail");
+    } catch (ServiceExecutionException e) {
+      assertThat(e.getMessage(), is(equalTo("Unknown resolved entity value '9'")));
+    }
+  }
+
+  private EntityPrefetcher newPrefetcher(int depth, long maxBytes) {
+    EntityPrefetcher newPrefetcher = new EntityPrefetcher(entityID -> {
+      fetchThreads.add(Thread.currentThread().getName());
+      int count = fetchCounts.merge(entityID, 1, Integer::sum);
+      return "entity-" + entityID + "-" + count;
+    }, depth, maxBytes);
+    newPrefetcher.start();
+    return newPrefetcher;
+  }
+
+  private void waitForFetches(Long... entityIDs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!fetchCounts.keySet().containsAll(Arrays.asList(entityIDs))) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Entities " + Arrays.asList(entityIDs) + " weren't fetched, only " + fetchCounts.keySet());
+      }
+      Thread.sleep(5);
+    }
+  }
+}
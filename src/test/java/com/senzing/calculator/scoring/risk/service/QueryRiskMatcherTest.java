@@ -0,0 +1,95 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class QueryRiskMatcherTest {
+
+  @Test
+  public void matchesCriteriaWithAllTokens() throws ParseException {
+    QueryRiskMatcher matcher = new QueryRiskMatcher(
+        Arrays.asList(criterion("+NAME+DOB", "R"), criterion("+NAME+ADDRESS", "Y"), criterion("+ADDRESS+PHONE", "Y")));
+
+    RiskScorer riskScorer = new RiskScorer();
+    matcher.match("+NAME+ADDRESS-DOB", riskScorer);
+    assertThat(riskScorer.getQueryRiskScore(), is(equalTo(RiskScore.Yellow)));
+    assertThat(riskScorer.getQueryRiskReason(), is(equalTo("[\"+NAME+ADDRESS\"]")));
+
+    matcher.match("+DOB+NAME (Ambiguous)", riskScorer);
+    assertThat(riskScorer.getQueryRiskScore(), is(equalTo(RiskScore.Red)));
+    assertThat(riskScorer.getQueryRiskReason(), is(equalTo("[\"+NAME+DOB\"]")));
+  }
+
+  @Test
+  public void signOfTokenMatters() throws ParseException {
+    QueryRiskMatcher matcher = new QueryRiskMatcher(Arrays.asList(criterion("+NAME+DOB", "R")));
+    RiskScorer riskScorer = new RiskScorer();
+    matcher.match("+NAME-DOB", riskScorer);
+    assertThat(riskScorer.getQueryRiskScore(), is(equalTo(RiskScore.Green)));
+  }
+
+  @Test
+  public void matchesTokensBeyondFirstWord() throws ParseException {
+    List<QueryRiskData> criteria = new ArrayList<>();
+    for (int i = 0; i < 70; i++) {
+      criteria.add(criterion("+F" + i, "Y"));
+    }
+    criteria.add(criterion("+F3+F69", "R"));
+    QueryRiskMatcher matcher = new QueryRiskMatcher(criteria);
+
+    RiskScorer riskScorer = new RiskScorer();
+    matcher.match("+F69", riskScorer);
+    assertThat(riskScorer.getQueryRiskScore(), is(equalTo(RiskScore.Yellow)));
+    matcher.match("+F3+F69", riskScorer);
+    assertThat(riskScorer.getQueryRiskScore(), is(equalTo(RiskScore.Red)));
+  }
+
+  @Test
+  public void cachedMatchKeysGiveSameResult() throws ParseException {
+    QueryRiskMatcher matcher = new QueryRiskMatcher(
+        Arrays.asList(criterion("+NAME+DOB", "R"), criterion("+NAME+ADDRESS", "Y")), 10);
+    for (int i = 0; i < 3; i++) {
+      RiskScorer riskScorer = new RiskScorer();
+      matcher.match("+NAME+ADDRESS", riskScorer);
+      assertThat(riskScorer.getQueryRiskScore(), is(equalTo(RiskScore.Yellow)));
+      assertThat(riskScorer.getQueryRiskReason(), is(equalTo("[\"+NAME+ADDRESS\"]")));
+    }
+    assertThat(matcher.getCacheMissCount(), is(equalTo(1L)));
+    assertThat(matcher.getCacheHitCount(), is(equalTo(2L)));
+  }
+
+  @Test
+  public void cacheStopsGrowingWhenFull() throws ParseException {
+    QueryRiskMatcher matcher = new QueryRiskMatcher(Arrays.asList(criterion("+NAME+DOB", "R")), 2);
+    RiskScorer riskScorer = new RiskScorer();
+    matcher.match("+NAME", riskScorer);
+    matcher.match("+DOB", riskScorer);
+    matcher.match("+NAME+DOB", riskScorer);
+    matcher.match("+NAME+DOB", riskScorer);
+    assertThat(matcher.getCacheSize(), is(equalTo(2)));
+    assertThat(matcher.getCacheHitCount(), is(equalTo(0L)));
+    assertThat(riskScorer.getQueryRiskScore(), is(equalTo(RiskScore.Red)));
+  }
+
+  @Test(expected = ParseException.class)
+  public void badlyFormedMatchKeyFails() throws ParseException {
+    QueryRiskMatcher matcher = new QueryRiskMatcher(Arrays.asList(criterion("+NAME+DOB", "R")));
+    matcher.match("NAME", new RiskScorer());
+  }
+
+  private static QueryRiskData criterion(String criteria, String score) throws ParseException {
+    QueryRiskData queryRiskData = new QueryRiskData();
+    queryRiskData.setCriteriaString(criteria);
+    queryRiskData.setCriteriaList(QueryRiskMatcher.parseMatchKey(criteria));
+    queryRiskData.setScore(score);
+    return queryRiskData;
+  }
+}
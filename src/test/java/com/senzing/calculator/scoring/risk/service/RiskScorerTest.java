@@ -161,6 +161,67 @@ public class RiskScorerTest {
     assertThat(riskScorer.getReason(), is(containsString("Data quality not green")));
   }
 
+  @Test
+  public void resetScorerScoresLikeNewScorer() throws ServiceExecutionException, ServiceSetupException {
+    RiskScorer riskScorer = new RiskScorer();
+    riskScorer.setAmbiguous(true);
+    riskScorer.setMutltipleDOBs(true);
+    riskScorer.addMultipleExclusives("SSN", new ArrayList<String>(Arrays.asList("123-45-6789", "987-65-4321")));
+    riskScorer.addSharedExclusives(getSharedFeatures());
+    riskScorer.addSharedF1s(getSharedFeatures());
+    riskScorer.addTrustedSource("GoodSource");
+    riskScorer.setScoreOverride("Red");
+    riskScorer.addQueryRisk("+NAME+DOB", RiskScorer.R_VALUE);
+    riskScorer.reset();
+
+    RiskScorer newScorer = new RiskScorer();
+    for (RiskScorer scorer : Arrays.asList(riskScorer, newScorer)) {
+      scorer.setOneAndOnlyOneDOB(true);
+      scorer.setOneOrLessSSN(true);
+      scorer.setOneOrMoreAddress(true);
+      scorer.setNoPossibleMatch(true);
+      scorer.addTrustedSource("OtherSource");
+      scorer.addQueryRisk("+NAME+ADDRESS", RiskScorer.Y_VALUE);
+    }
+    assertThat(riskScorer.isAmbiguous(), is(equalTo(false)));
+    assertThat(riskScorer.getSharedF1().size(), is(equalTo(0)));
+    assertThat(riskScorer.getScoreOverride(), is(equalTo(null)));
+    assertThat(riskScorer.getDataQualityScore(), is(equalTo(newScorer.getDataQualityScore())));
+    assertThat(riskScorer.getCollisionScore(), is(equalTo(newScorer.getCollisionScore())));
+    assertThat(riskScorer.getQueryRiskScore(), is(equalTo(newScorer.getQueryRiskScore())));
+    assertThat(riskScorer.getReason(), is(equalTo(newScorer.getReason())));
+    assertThat(riskScorer.getQueryRiskReason(), is(equalTo(newScorer.getQueryRiskReason())));
+  }
+
+  @Test
+  public void reasonCodesDecodeToReason() {
+    RiskScorer red = new RiskScorer();
+    red.setAmbiguous(true);
+    red.addMultipleExclusives("SSN", new ArrayList<String>(Arrays.asList("123-45-6789", "987-65-4321")));
+    red.addSharedExclusives(getSharedFeatures());
+    red.setScoreOverride("Red");
+
+    RiskScorer green = new RiskScorer();
+    green.setOneAndOnlyOneDOB(true);
+    green.setOneOrLessSSN(true);
+    green.setOneOrMoreAddress(true);
+    green.setNoPossibleMatch(true);
+    green.addTrustedSource("GoodSource");
+
+    RiskScorer yellow = new RiskScorer();
+    yellow.setOneOrMoreAddress(true);
+    yellow.addSharedF1s(getSharedFeatures());
+    yellow.setScoreOverride("Yellow");
+
+    for (RiskScorer scorer : Arrays.asList(red, green, yellow)) {
+      assertThat(ReasonCodes.toReason(scorer.getReasonCodes(), scorer.getReasonDetail()), is(equalTo(scorer.getReason())));
+    }
+    assertThat(green.getReasonDetail(), is(equalTo("[\"[GoodSource]\"]")));
+    assertThat(yellow.getReason(), is(equalTo("{\"Quality\":[\"No record from trusted source\",\"Not one and only one DOB\","
+        + "\"More than one SSN\"],\"Collision\":[\"Manually flagged yellow\",\"Data quality not green\","
+        + "\"Possible match exists\",\"Shares F1 types with other entities - [(CustID:some data), (MemberID:some other data)]\"]}")));
+  }
+
   private List<FeatData> getSharedFeatures() {
     List<FeatData> sharedExclusives = new ArrayList<>();
     FeatData fd = new FeatData();
@@ -5,12 +5,23 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.json.JsonObject;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
@@ -19,10 +30,13 @@ import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import com.senzing.util.JsonUtilities;
+import com.senzing.listener.service.ListenerService.Statistic;
 import com.senzing.listener.service.exception.ServiceExecutionException;
 import com.senzing.listener.service.exception.ServiceSetupException;
 import com.senzing.listener.service.g2.G2Service;
+import com.senzing.calculator.scoring.risk.service.db.ConnectionPool;
 import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.calculator.scoring.risk.service.db.SharedFeatures;
 import com.senzing.calculator.scoring.risk.service.g2.G2ServiceExt;
 
 import mockit.Mock;
@@ -36,6 +50,7 @@ public class RiskScoringServiceTest {
   private static final String CONFIG = "{\"iniFile\":\"/opt/senzing/etc/G2Module.ini\",\"jdbcConnection\":\"myDB\",\"trustedSources\":\"1Source, TrustSource\", "
       + "\"queryRiskCriteria\":\"+NAME+DOB:R;+NAME+ADDRESS:Y;+ADDRESS+PHONE:Y;+NAME+SSN:R\"}";
 
+
   private static final String INPUT_MESSAGE = "{\"DATA_SOURCE\":\"TEST\",\"RECORD_ID\":\"RECORD3\",\"AFFECTED_ENTITIES\":[{\"ENTITY_ID\":1,\"LENS_CODE\":\"DEFAULT\"}]}";
   private static final String ENTITY_MESSAGE_1 = "{\"RESOLVED_ENTITY\":{\"ENTITY_ID\":5,\"LENS_CODE\":\"DEFAULT\",\"FEATURES\":{\"ADDRESS\":[{\"FEAT_DESC\":\"808 STAR COURT LAS VEGAS NV 89111\",\"LIB_FEAT_ID\":3,\"UTYPE_CODE\":\"PRIMARY\",\"FEAT_DESC_VALUES\":[{\"FEAT_DESC\":\"808 STAR COURT LAS VEGAS NV 89111\",\"LIB_FEAT_ID\":3,\"USED_FOR_CAND\":\"N\",\"USED_FOR_SCORING\":\"Y\",\"ENTITY_COUNT\":3,\"CANDIDATE_CAP_REACHED\":\"N\",\"SCORING_CAP_REACHED\":\"N\",\"SUPPRESSED\":\"N\"}]}],\"NAME\":[{\"FEAT_DESC\":\"STEVE SMITH\",\"LIB_FEAT_ID\":1,\"UTYPE_CODE\":\"PRIMARY\",\"FEAT_DESC_VALUES\":[{\"FEAT_DESC\":\"STEVE SMITH\",\"LIB_FEAT_ID\":1,\"USED_FOR_CAND\":\"N\",\"USED_FOR_SCORING\":\"Y\",\"ENTITY_COUNT\":3,\"CANDIDATE_CAP_REACHED\":\"N\",\"SCORING_CAP_REACHED\":\"N\",\"SUPPRESSED\":\"N\"}]}],\"REL_LINK\":[{\"FEAT_DESC\":\"OWNERSHIP 1003-1\",\"LIB_FEAT_ID\":33,\"UTYPE_CODE\":\"OWNER-OF\",\"FEAT_DESC_VALUES\":[{\"FEAT_DESC\":\"OWNERSHIP 1003-1\",\"LIB_FEAT_ID\":33,\"USED_FOR_CAND\":\"N\",\"USED_FOR_SCORING\":\"N\",\"ENTITY_COUNT\":2,\"CANDIDATE_CAP_REACHED\":\"N\",\"SCORING_CAP_REACHED\":\"N\",\"SUPPRESSED\":\"N\"}]}]},\"RECORDS\":[{\"JSON_DATA\":{\"RECORD_ID\":\"1003-1\"},\"DATA_SOURCE\":\"PEOPLE\",\"ENTITY_TYPE\":\"PEOPLE\"}]},\"RELATED_ENTITIES\":[{\"ENTITY_ID\":2001,\"LENS_CODE\":\"DEFAULT\",\"MATCH_LEVEL\":2,\"MATCH_LEVEL_CODE\":\"POSSIBLY_SAME\",\"MATCH_KEY\":\"+NAME+PHONE (Ambiguous)\",\"MATCH_SCORE\":\"12\",\"ERRULE_CODE\":\"CNAME_CFF\",\"REF_SCORE\":6,\"IS_DISCLOSED\":0,\"IS_AMBIGUOUS\":1,\"ENTITY_NAME\":\"STEVE SMITH\"},{\"ENTITY_ID\":2,\"LENS_CODE\":\"DEFAULT\",\"MATCH_LEVEL\":3,\"MATCH_LEVEL_CODE\":\"POSSIBLY_RELATED\",\"MATCH_KEY\":\"+SURNAME+ADDRESS\",\"MATCH_SCORE\":\"12\",\"ERRULE_CODE\":\"CFF_SURNAME\",\"REF_SCORE\":4,\"IS_DISCLOSED\":0,\"IS_AMBIGUOUS\":0,\"ENTITY_NAME\":\"JENNY SMITH\"}]}";
   private static final String ENTITY_MESSAGE_2 = "{\"RESOLVED_ENTITY\":{\"ENTITY_ID\":5,\"LENS_CODE\":\"DEFAULT\",\"FEATURES\":{\"ADDRESS\":[{\"FEAT_DESC\":\"808 STAR COURT LAS VEGAS NV 89111\",\"LIB_FEAT_ID\":3,\"UTYPE_CODE\":\"PRIMARY\",\"FEAT_DESC_VALUES\":[{\"FEAT_DESC\":\"808 STAR COURT LAS VEGAS NV 89111\",\"LIB_FEAT_ID\":3,\"USED_FOR_CAND\":\"N\",\"USED_FOR_SCORING\":\"Y\",\"ENTITY_COUNT\":3,\"CANDIDATE_CAP_REACHED\":\"N\",\"SCORING_CAP_REACHED\":\"N\",\"SUPPRESSED\":\"N\"}]}],\"NAME\":[{\"FEAT_DESC\":\"STEVE SMITH\",\"LIB_FEAT_ID\":1,\"UTYPE_CODE\":\"PRIMARY\",\"FEAT_DESC_VALUES\":[{\"FEAT_DESC\":\"STEVE SMITH\",\"LIB_FEAT_ID\":1,\"USED_FOR_CAND\":\"N\",\"USED_FOR_SCORING\":\"Y\",\"ENTITY_COUNT\":3,\"CANDIDATE_CAP_REACHED\":\"N\",\"SCORING_CAP_REACHED\":\"N\",\"SUPPRESSED\":\"N\"}]}],\"REL_LINK\":[{\"FEAT_DESC\":\"OWNERSHIP 1003-1\",\"LIB_FEAT_ID\":33,\"UTYPE_CODE\":\"OWNER-OF\",\"FEAT_DESC_VALUES\":[{\"FEAT_DESC\":\"OWNERSHIP 1003-1\",\"LIB_FEAT_ID\":33,\"USED_FOR_CAND\":\"N\",\"USED_FOR_SCORING\":\"N\",\"ENTITY_COUNT\":2,\"CANDIDATE_CAP_REACHED\":\"N\",\"SCORING_CAP_REACHED\":\"N\",\"SUPPRESSED\":\"N\"}]}]},\"RECORDS\":[{\"JSON_DATA\":{\"RECORD_ID\":\"1003-1\"},\"DATA_SOURCE\":\"TrustSource\",\"ENTITY_TYPE\":\"PEOPLE\"}]},\"RELATED_ENTITIES\":[{\"ENTITY_ID\":2001,\"LENS_CODE\":\"DEFAULT\",\"MATCH_LEVEL\":2,\"MATCH_LEVEL_CODE\":\"POSSIBLY_SAME\",\"MATCH_KEY\":\"+NAME+PHONE (Ambiguous)\",\"MATCH_SCORE\":\"12\",\"ERRULE_CODE\":\"CNAME_CFF\",\"REF_SCORE\":6,\"IS_DISCLOSED\":0,\"IS_AMBIGUOUS\":0,\"ENTITY_NAME\":\"STEVE SMITH\"},{\"ENTITY_ID\":2,\"LENS_CODE\":\"DEFAULT\",\"MATCH_LEVEL\":3,\"MATCH_LEVEL_CODE\":\"POSSIBLY_RELATED\",\"MATCH_KEY\":\"+SURNAME+ADDRESS\",\"MATCH_SCORE\":\"12\",\"ERRULE_CODE\":\"CFF_SURNAME\",\"REF_SCORE\":4,\"IS_DISCLOSED\":0,\"IS_AMBIGUOUS\":0,\"ENTITY_NAME\":\"JENNY SMITH\"}]}";
@@ -77,11 +92,11 @@ public class RiskScoringServiceTest {
     };
     new MockUp<DatabaseService>() {
       @Mock
-      public void init(String url) throws SQLException {
+      public void init(ConnectionPool pool) throws SQLException {
       }
       @Mock
-      public String findEntitiesByFeatureIDs(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
-        return "[]";
+      public SharedFeatures findSharedFeatures(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
+        return SharedFeatures.EMPTY;
       }
     };
   }
@@ -207,8 +222,8 @@ public class RiskScoringServiceTest {
         assertThat(queryReason.toString(), is(equalTo("")));
       }
       @Mock
-      public String findEntitiesByFeatureIDs(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
-        return "[{\"LIB_FEAT_ID\":" + ids.get(0) + ",\"USAGE_TYPE\":\"\",\"RES_ENT_ID\":33554}]";
+      public SharedFeatures findSharedFeatures(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
+        return new SharedFeatures(new long[] { ids.get(0) }, new long[] { 33554 });
       }
     };
     RiskScoringService service = new RiskScoringService();
@@ -414,8 +429,8 @@ public class RiskScoringServiceTest {
         assertThat(queryReason.toString(), is(equalTo("")));
       }
       @Mock
-      public String findEntitiesByFeatureIDs(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
-        return "[{\"LIB_FEAT_ID\":" + ids.get(0) + ",\"USAGE_TYPE\":\"\",\"RES_ENT_ID\":33554}]";
+      public SharedFeatures findSharedFeatures(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
+        return new SharedFeatures(new long[] { ids.get(0) }, new long[] { 33554 });
       }
     };
     RiskScoringService service = new RiskScoringService();
@@ -469,8 +484,8 @@ public class RiskScoringServiceTest {
         assertThat(queryReason.toString(), is(equalTo("")));
       }
       @Mock
-      public String findEntitiesByFeatureIDs(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
-        return "[{\"LIB_FEAT_ID\":" + ids.get(0) + ",\"USAGE_TYPE\":\"\",\"RES_ENT_ID\":33554}]";
+      public SharedFeatures findSharedFeatures(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
+        return new SharedFeatures(new long[] { ids.get(0) }, new long[] { 33554 });
       }
     };
     RiskScoringService service = new RiskScoringService();
@@ -499,8 +514,8 @@ public class RiskScoringServiceTest {
         assertThat(queryReason.toString(), is(equalTo("")));
       }
       @Mock
-      public String findEntitiesByFeatureIDs(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
-        return "[{\"LIB_FEAT_ID\":" + ids.get(0) + ",\"USAGE_TYPE\":\"\",\"RES_ENT_ID\":33554}]";
+      public SharedFeatures findSharedFeatures(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
+        return new SharedFeatures(new long[] { ids.get(0) }, new long[] { 33554 });
       }
     };
     RiskScoringService service = new RiskScoringService();
@@ -528,8 +543,481 @@ public class RiskScoringServiceTest {
         assertThat(queryReason.toString(), is(equalTo("")));
       }
       @Mock
-      public String findEntitiesByFeatureIDs(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
-        return "[{\"LIB_FEAT_ID\":" + ids.get(0) + ",\"USAGE_TYPE\":\"\",\"RES_ENT_ID\":33554}]";
+      public SharedFeatures findSharedFeatures(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
+        return new SharedFeatures(new long[] { ids.get(0) }, new long[] { 33554 });
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(JsonUtilities.parseJsonObject(CONFIG));
+    service.process(JsonUtilities.parseJsonObject(INPUT_MESSAGE));
+  }
+
+  @Test
+  public void processWithWorkerPool() throws ServiceExecutionException, ServiceSetupException {
+
+    Set<Long> scoredEntities = ConcurrentHashMap.newKeySet();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+      @Mock
+      public void destroy() {
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        assertThat(queryScore.toString(), is(equalTo("Red")));
+        scoredEntities.add(entityID);
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(extendConfig("\"scoringThreads\":\"4\",\"scoringQueueSize\":\"2\""));
+    service.process(buildMessage(20));
+    // Destroying waits for the workers to finish the queued entities.
+    service.destroy();
+    assertThat(scoredEntities.size(), is(equalTo(20)));
+  }
+
+  @Test
+  public void processWithVirtualThreads() throws ServiceExecutionException, ServiceSetupException {
+
+    Set<Long> scoredEntities = ConcurrentHashMap.newKeySet();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+      @Mock
+      public void destroy() {
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        assertThat(queryScore.toString(), is(equalTo("Red")));
+        scoredEntities.add(entityID);
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    JsonObject config = extendConfig("\"scoringExecutor\":\"virtual\",\"virtualConcurrency\":\"4\",\"g2Concurrency\":\"2\"");
+    if (Runtime.version().feature() < 21) {
+      try {
+        service.init(config);
+        fail("Expected virtual threads to need Java 21");
+      } catch (ServiceSetupException e) {
+        assertThat(e.getMessage(), containsString("Java 21"));
+      }
+      return;
+    }
+    service.init(config);
+    service.process(buildMessage(20));
+    service.destroy();
+    assertThat(scoredEntities.size(), is(equalTo(20)));
+  }
+
+  @Test
+  public void processWithPrefetch() throws ServiceExecutionException, ServiceSetupException {
+
+    AtomicInteger fetchCount = new AtomicInteger();
+    Set<Long> scoredEntities = ConcurrentHashMap.newKeySet();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        fetchCount.incrementAndGet();
+        return ENTITY_MESSAGE_20;
+      }
+      @Mock
+      public void destroy() {
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        assertThat(queryScore.toString(), is(equalTo("Red")));
+        scoredEntities.add(entityID);
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(extendConfig("\"prefetchDepth\":\"4\",\"prefetchMaxMegabytes\":\"1\""));
+    service.process(buildMessage(20));
+    Map<Statistic, Number> statistics = service.getStatistics();
+    service.destroy();
+    // Each entity is fetched once, ahead or when scored.
+    assertThat(fetchCount.get(), is(equalTo(20)));
+    assertThat(scoredEntities.size(), is(equalTo(20)));
+    assertThat(statistics.get(RiskScoringStatistic.prefetchHits).longValue()
+        + statistics.get(RiskScoringStatistic.prefetchMisses).longValue(), is(equalTo(20L)));
+  }
+
+  @Test
+  public void processWithScoreWriter() throws ServiceExecutionException, ServiceSetupException {
+
+    Set<Long> scoredEntities = ConcurrentHashMap.newKeySet();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+      @Mock
+      public void destroy() {
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        assertThat(Thread.currentThread().getName(), is(equalTo("risk-score-writer")));
+        scoredEntities.add(entityID);
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(extendConfig("\"writeQueueSize\":\"3\""));
+    service.process(buildMessage(20));
+    // Destroying flushes the scores still waiting for the writer.
+    service.destroy();
+    assertThat(scoredEntities.size(), is(equalTo(20)));
+  }
+
+  @Test
+  public void processWithCoalescing() throws ServiceExecutionException, ServiceSetupException {
+
+    Map<Long, AtomicInteger> scoreCounts = new ConcurrentHashMap<>();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+      @Mock
+      public void destroy() {
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        scoreCounts.computeIfAbsent(entityID, id -> new AtomicInteger()).incrementAndGet();
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(extendConfig("\"coalesceMillis\":\"60000\""));
+    for (int i = 0; i < 5; i++) {
+      service.process(buildMessage(3));
+    }
+    assertThat(service.getStatistics().get(RiskScoringStatistic.entitiesCoalesced), is(equalTo(12L)));
+    // Destroying releases the held entities.
+    service.destroy();
+    assertThat(scoreCounts.size(), is(equalTo(3)));
+    for (AtomicInteger count : scoreCounts.values()) {
+      assertThat(count.get(), is(equalTo(1)));
+    }
+  }
+
+  @Test
+  public void flushCommitsScoresOfProcessedMessages() throws ServiceExecutionException, ServiceSetupException {
+
+    Set<Long> scoredEntities = ConcurrentHashMap.newKeySet();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+      @Mock
+      public void destroy() {
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        scoredEntities.add(entityID);
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(extendConfig("\"coalesceMillis\":\"60000\",\"scoringThreads\":\"4\",\"writeQueueSize\":\"3\""));
+    service.process(buildMessage(20));
+    // Releases the coalesced entities, and waits for the workers and the writer.
+    service.flush();
+    assertThat(scoredEntities.size(), is(equalTo(20)));
+    service.destroy();
+  }
+
+  @Test
+  public void flushReportsBackgroundFailuresOnce() throws ServiceExecutionException, ServiceSetupException {
+
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+      @Mock
+      public void destroy() {
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) throws ServiceExecutionException {
+        if (entityID == 5) {
+          throw new ServiceExecutionException("Failed to write risk score of entity 5");
+        }
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(extendConfig("\"scoringThreads\":\"4\""));
+    service.process(buildMessage(20));
+    try {
+      service.flush();
+      fail("Expected the failed write to be reported");
+    } catch (ServiceExecutionException e) {
+      assertThat(e.getMessage(), containsString("failures since the last flush"));
+    }
+    // Nothing failed since.
+    service.flush();
+    service.destroy();
+  }
+
+  @Test
+  public void sharedFeaturesLookedUpOncePerEntity() throws ServiceExecutionException, ServiceSetupException {
+
+    List<List<Long>> lookups = new ArrayList<>();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+      }
+      @Mock
+      public SharedFeatures findSharedFeatures(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
+        lookups.add(ids);
+        return SharedFeatures.EMPTY;
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(JsonUtilities.parseJsonObject(CONFIG));
+    service.process(JsonUtilities.parseJsonObject(INPUT_MESSAGE));
+    assertThat(lookups.size(), is(equalTo(1)));
+    assertThat(Set.copyOf(lookups.get(0)).size(), is(equalTo(lookups.get(0).size())));
+  }
+
+  @Test
+  public void latenciesReportedAndPublishedOverJmx() throws Exception {
+
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+      @Mock
+      public void destroy() {
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(JsonUtilities.parseJsonObject(CONFIG));
+    service.process(buildMessage(20));
+    Map<Statistic, Number> statistics = service.getStatistics();
+    assertThat(statistics.get(RiskScoringStatistic.messagesReceived), is(equalTo(1L)));
+    assertThat(statistics.get(RiskScoringStatistic.missingEntityRate), is(equalTo(0.0)));
+    assertThat(statistics.get(RiskScoringStatistic.entitiesPerSecond).doubleValue() > 0, is(equalTo(true)));
+    for (RiskScoringStatistic statistic : Arrays.asList(RiskScoringStatistic.g2GetEntityMax,
+        RiskScoringStatistic.entityParsingMax, RiskScoringStatistic.scoringMax, RiskScoringStatistic.dbWriteMax)) {
+      long max = statistics.get(statistic).longValue();
+      assertThat(statistics.get(RiskScoringStatistic.valueOf(statistic.name().replace("Max", "P50"))).longValue() <= max,
+          is(equalTo(true)));
+    }
+
+    ObjectName name = new ObjectName(RiskScoringService.MBEAN_NAME);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    assertThat(server.getAttribute(name, "entitiesScored"), is(equalTo(20L)));
+    service.destroy();
+    assertThat(server.isRegistered(name), is(equalTo(false)));
+  }
+
+  @Test
+  public void healthFollowsServiceState() throws ServiceExecutionException, ServiceSetupException {
+
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+      @Mock
+      public void destroy() {
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(JsonUtilities.parseJsonObject(CONFIG));
+    service.process(buildMessage(20));
+    assertThat(service.getHealth().isHealthy(), is(equalTo(true)));
+    // Nothing is waiting once the message is scored.
+    assertThat(service.getStatistics().get(RiskScoringStatistic.pipelineLag), is(equalTo(0L)));
+    service.destroy();
+    assertThat(service.getHealth().isHealthy(), is(equalTo(false)));
+    assertThat(service.getHealth().getState(), is(equalTo("DESTROYED")));
+  }
+
+  @Test
+  public void matchKeyCacheHitRateReported() throws ServiceExecutionException, ServiceSetupException {
+
+    Map<Long, String> queryReasons = new ConcurrentHashMap<>();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        queryReasons.put(entityID, queryReason);
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(JsonUtilities.parseJsonObject(CONFIG));
+    service.process(buildMessage(20));
+    // Each entity has four relationships with two distinct match keys.
+    Map<Statistic, Number> statistics = service.getStatistics();
+    assertThat(statistics.get(RiskScoringStatistic.matchKeyCacheMisses), is(equalTo(2L)));
+    assertThat(statistics.get(RiskScoringStatistic.matchKeyCacheHits), is(equalTo(78L)));
+    assertThat(statistics.get(RiskScoringStatistic.matchKeyCacheHitRate), is(equalTo(97.5)));
+    assertThat(queryReasons.size(), is(equalTo(20)));
+    for (String queryReason : queryReasons.values()) {
+      assertThat(queryReason, is(equalTo("[\"+NAME+SSN\"]")));
+    }
+  }
+
+  @Test
+  public void processInBatches() throws ServiceExecutionException, ServiceSetupException {
+
+    Map<Long, String> reasons = new ConcurrentHashMap<>();
+    List<Long> excludedEntities = new ArrayList<>();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return ENTITY_MESSAGE_20;
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        reasons.put(entityID, reason);
+      }
+      @Mock
+      public SharedFeatures findSharedFeatures(List<Long> ids, long entityID, int lensID) throws ServiceExecutionException {
+        excludedEntities.add(entityID);
+        // Only entity 1 has the feature, which makes it shared for all the others.
+        return new SharedFeatures(new long[] { ids.get(0) }, new long[] { 1 });
+      }
+    };
+    RiskScoringService service = new RiskScoringService();
+    service.init(extendConfig("\"scoringBatchSize\":\"10\""));
+    service.process(buildMessage(20));
+    assertThat(service.getStatistics().get(RiskScoringStatistic.featureLookups), is(equalTo(2L)));
+    assertThat(excludedEntities, is(equalTo(List.of(0L, 0L))));
+    assertThat(reasons.size(), is(equalTo(20)));
+    assertThat(reasons.get(1L), is(not(equalTo(reasons.get(2L)))));
+    for (long entityID = 3; entityID <= 20; entityID++) {
+      assertThat(reasons.get(entityID), is(equalTo(reasons.get(2L))));
+    }
+  }
+
+  @Test
+  public void streamingParserScoresLikeDomParser() throws ServiceExecutionException, ServiceSetupException {
+
+    String[] entityMessages = { ENTITY_MESSAGE_1, ENTITY_MESSAGE_2, ENTITY_MESSAGE_3, ENTITY_MESSAGE_4, ENTITY_MESSAGE_5,
+        ENTITY_MESSAGE_6, ENTITY_MESSAGE_7, ENTITY_MESSAGE_8, ENTITY_MESSAGE_9, ENTITY_MESSAGE_10, ENTITY_MESSAGE_11,
+        ENTITY_MESSAGE_12, ENTITY_MESSAGE_13, ENTITY_MESSAGE_14, ENTITY_MESSAGE_15, ENTITY_MESSAGE_16, ENTITY_MESSAGE_17,
+        ENTITY_MESSAGE_18, ENTITY_MESSAGE_19, ENTITY_MESSAGE_20 };
+    AtomicReference<String> entityMessage = new AtomicReference<>();
+    List<String> scores = new ArrayList<>();
+    new MockUp<G2Service>() {
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return entityMessage.get();
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        scores.add(String.join("|", qualityScore, collisionScore, queryScore, reason, queryReason));
+      }
+    };
+    RiskScoringService domService = new RiskScoringService();
+    domService.init(extendConfig("\"entityParser\":\"dom\""));
+    RiskScoringService streamingService = new RiskScoringService();
+    streamingService.init(extendConfig("\"entityParser\":\"streaming\""));
+    for (String message : entityMessages) {
+      entityMessage.set(message);
+      domService.process(JsonUtilities.parseJsonObject(INPUT_MESSAGE));
+      streamingService.process(JsonUtilities.parseJsonObject(INPUT_MESSAGE));
+      assertThat(scores.size(), is(equalTo(2)));
+      assertThat(scores.get(1), is(equalTo(scores.get(0))));
+      scores.clear();
+    }
+  }
+
+  private JsonObject extendConfig(String extraSettings) {
+    return JsonUtilities.parseJsonObject(CONFIG.substring(0, CONFIG.length() - 1) + "," + extraSettings + "}");
+  }
+
+  private JsonObject buildMessage(int entityCount) {
+    StringBuilder message = new StringBuilder("{\"DATA_SOURCE\":\"TEST\",\"RECORD_ID\":\"RECORD3\",\"AFFECTED_ENTITIES\":[");
+    for (int i = 1; i <= entityCount; i++) {
+      message.append(i > 1 ? "," : "").append("{\"ENTITY_ID\":").append(i).append(",\"LENS_CODE\":\"DEFAULT\"}");
+    }
+    message.append("]}");
+    return JsonUtilities.parseJsonObject(message.toString());
+  }
+
+  @Test
+  public void processWithMultipleExclusivesByOverride() throws ServiceExecutionException, ServiceSetupException, IOException {
+    // Make mobile phones F1 exclusive. The override refers to PHONE by FTYPE_ID as G2 does.
+    String config = getConfig().replaceFirst("(\"UTYPE_CODE\": \"MOBILE\"[^}]*\"FTYPE_EXCL\": )\"No\"", "$1\"Yes\"");
+    String entity = "{\"RESOLVED_ENTITY\":{\"ENTITY_ID\":5,\"LENS_CODE\":\"DEFAULT\",\"FEATURES\":{\"PHONE\":["
+        + "{\"FEAT_DESC\":\"702-555-1212\",\"LIB_FEAT_ID\":80,\"UTYPE_CODE\":\"MOBILE\",\"FEAT_DESC_VALUES\":[{\"FEAT_DESC\":\"702-555-1212\",\"LIB_FEAT_ID\":80,\"CANDIDATE_CAP_REACHED\":\"N\",\"SCORING_CAP_REACHED\":\"N\"}]},"
+        + "{\"FEAT_DESC\":\"702-555-3434\",\"LIB_FEAT_ID\":81,\"UTYPE_CODE\":\"MOBILE\",\"FEAT_DESC_VALUES\":[{\"FEAT_DESC\":\"702-555-3434\",\"LIB_FEAT_ID\":81,\"CANDIDATE_CAP_REACHED\":\"N\",\"SCORING_CAP_REACHED\":\"N\"}]}]},"
+        + "\"RECORDS\":[{\"JSON_DATA\":{\"RECORD_ID\":\"1003-1\"},\"DATA_SOURCE\":\"PEOPLE\",\"ENTITY_TYPE\":\"PEOPLE\"}]},\"RELATED_ENTITIES\":[]}";
+
+    new MockUp<G2Service>() {
+      @Mock
+      public String exportConfig() throws ServiceExecutionException {
+        return config;
+      }
+      @Mock
+      public String getEntity(long g2EntiyId, boolean includeFullFeatures, boolean includeFeatureStats) throws ServiceExecutionException {
+        return entity;
+      }
+    };
+    new MockUp<DatabaseService>() {
+      @Mock
+      public void postRiskScore(long entityID, int lensID, String qualityScore, String collisionScore, String queryScore,
+          String reason, String queryReason) {
+        assertThat(qualityScore.toString(), is(equalTo("Red")));
+        assertThat(reason.toString(), containsString("More than one F1E or F1ES of the same type - {PHONE=[702-555-1212, 702-555-3434]}"));
       }
     };
     RiskScoringService service = new RiskScoringService();
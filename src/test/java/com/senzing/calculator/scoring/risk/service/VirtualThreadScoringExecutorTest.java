@@ -0,0 +1,198 @@
+package com.senzing.calculator.scoring.risk.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.senzing.calculator.scoring.risk.service.ScoringWorkerPool.EntityScorer;
+import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+/**
+ * Runs the executor on platform threads, the scheduling doesn't depend on the kind of thread.  Only
+ * scoresOnVirtualThreads needs Java 21 and is skipped on older JVMs, the java21 profile builds and tests on it.
+ */
+public class VirtualThreadScoringExecutorTest {
+
+  @Test
+  public void boundsEntitiesScoredAtOnce() throws Exception {
+    AtomicInteger scoring = new AtomicInteger();
+    AtomicInteger maxScoring = new AtomicInteger();
+    Map<Long, Integer> scored = new ConcurrentHashMap<>();
+    VirtualThreadScoringExecutor executor = newExecutor(2, 10, (entityIDs, context) -> {
+      maxScoring.accumulateAndGet(scoring.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(2);
+      } catch (InterruptedException e) {
+        throw new ServiceExecutionException(e);
+      }
+      scoring.decrementAndGet();
+      for (long entityID : entityIDs) {
+        scored.merge(entityID, 1, Integer::sum);
+      }
+    });
+    for (long entityID = 1; entityID <= 50; entityID++) {
+      executor.submit(entityID);
+    }
+    // Shutting down waits for everything submitted.
+    executor.shutdown();
+
+    assertThat(scored.size(), is(equalTo(50)));
+    assertThat(maxScoring.get() <= 2, is(true));
+    assertThat(executor.getQueuedCount(), is(equalTo(0)));
+  }
+
+  @Test
+  public void rescoresEntitySubmittedWhileScored() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch resume = new CountDownLatch(1);
+    AtomicInteger scoring = new AtomicInteger();
+    AtomicInteger maxScoring = new AtomicInteger();
+    AtomicInteger scoredCount = new AtomicInteger();
+    VirtualThreadScoringExecutor executor = newExecutor(4, 10, (entityIDs, context) -> {
+      maxScoring.accumulateAndGet(scoring.incrementAndGet(), Math::max);
+      started.countDown();
+      try {
+        resume.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new ServiceExecutionException(e);
+      }
+      scoring.decrementAndGet();
+      scoredCount.incrementAndGet();
+    });
+    executor.submit(7);
+    assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+    executor.submit(7);
+    executor.submit(7);
+    executor.submit(7);
+    resume.countDown();
+    executor.shutdown();
+
+    // Once for the first submit and once for the three made while it was scored, never two at once.
+    assertThat(scoredCount.get(), is(equalTo(2)));
+    assertThat(maxScoring.get(), is(equalTo(1)));
+  }
+
+  @Test
+  public void commitsLastScoreOfEntityResubmittedLater() throws Exception {
+    File dbFile = File.createTempFile("risk-score-", ".db");
+    String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+    try {
+      createScoreTable(url);
+      List<DatabaseService> dbServices = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        DatabaseService dbService = new DatabaseService();
+        dbService.init(url);
+        dbService.enableBatchWrites(10, 60000);
+        dbServices.add(dbService);
+      }
+      AtomicInteger version = new AtomicInteger();
+      VirtualThreadScoringExecutor executor = new VirtualThreadScoringExecutor((entityIDs, context) -> {
+        for (long entityID : entityIDs) {
+          context.getDbService().postRiskScore(entityID, 1, "V" + version.incrementAndGet(), "Red", "Green", "{}", "");
+        }
+      }, dbServices, 10, Thread::new);
+      for (int i = 0; i < 8; i++) {
+        executor.submit(7);
+        executor.awaitIdle();
+      }
+      // An older score left in the batch of another context would be committed last.
+      for (int i = dbServices.size() - 1; i >= 0; i--) {
+        dbServices.get(i).flush();
+      }
+      executor.shutdown();
+
+      try (Connection connection = DriverManager.getConnection(url);
+          Statement statement = connection.createStatement();
+          ResultSet result = statement.executeQuery("SELECT QUALITY_STATE FROM RES_RISK_SCORE WHERE RES_ENT_ID = 7")) {
+        result.next();
+        assertThat(result.getString(1), is(equalTo("V8")));
+      }
+    } finally {
+      dbFile.delete();
+    }
+  }
+
+  @Test
+  public void scoresOnVirtualThreads() throws Exception {
+    Assume.assumeTrue(VirtualThreadScoringExecutor.isSupported());
+    Map<Long, Boolean> scoredVirtual = new ConcurrentHashMap<>();
+    List<DatabaseService> dbServices = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      dbServices.add(new DatabaseService());
+    }
+    VirtualThreadScoringExecutor executor = new VirtualThreadScoringExecutor((entityIDs, context) -> {
+      boolean virtual;
+      try {
+        virtual = (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+      } catch (ReflectiveOperationException e) {
+        throw new ServiceExecutionException(e);
+      }
+      for (long entityID : entityIDs) {
+        scoredVirtual.put(entityID, virtual);
+      }
+    }, dbServices, 10);
+    for (long entityID = 1; entityID <= 20; entityID++) {
+      executor.submit(entityID);
+    }
+    executor.shutdown();
+
+    assertThat(scoredVirtual.size(), is(equalTo(20)));
+    assertThat(scoredVirtual.containsValue(Boolean.FALSE), is(false));
+  }
+
+  @Test
+  public void rejectsEntitiesAfterShutdown() throws Exception {
+    VirtualThreadScoringExecutor executor = newExecutor(1, 1, (entityIDs, context) -> {
+    });
+    executor.shutdown();
+    try {
+      executor.submit(1);
+      fail("Expected the entity to be rejected");
+    } catch (ServiceExecutionException e) {
+      // Expected.
+    }
+  }
+
+  private VirtualThreadScoringExecutor newExecutor(int contextCount, int queueSize, EntityScorer scorer) {
+    List<DatabaseService> dbServices = new ArrayList<>();
+    for (int i = 0; i < contextCount; i++) {
+      dbServices.add(new DatabaseService());
+    }
+    return new VirtualThreadScoringExecutor(scorer, dbServices, queueSize, Thread::new);
+  }
+
+  private void createScoreTable(String url) throws Exception {
+    String script;
+    try (InputStream inputStream = getClass().getResourceAsStream("/sql/create-res_risk_score-sqlite.v2.sql")) {
+      script = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+    }
+    try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement()) {
+      for (String sql : script.split(";")) {
+        if (!sql.isBlank()) {
+          statement.execute(sql);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+public class ConnectionPoolTest {
+
+  private File dbFile;
+  private String url;
+
+  @Before
+  public void setupDatabase() throws IOException, SQLException {
+    dbFile = File.createTempFile("risk-score-", ".db");
+    url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+    executeScript("/sql/create-res_risk_score-sqlite.v2.sql");
+  }
+
+  @After
+  public void removeDatabase() {
+    dbFile.delete();
+  }
+
+  @Test
+  public void releasedConnectionIsReused() throws SQLException {
+    ConnectionPool pool = new ConnectionPool(url, 1, 2, 1000);
+    pool.fill();
+    assertThat(pool.getIdleCount(), is(equalTo(1)));
+
+    PooledConnection first = pool.borrow();
+    assertThat(pool.getActiveCount(), is(equalTo(1)));
+    assertThat(pool.getIdleCount(), is(equalTo(0)));
+    pool.release(first);
+    PooledConnection second = pool.borrow();
+    assertThat(second, is(sameInstance(first)));
+    pool.release(second);
+
+    assertThat(pool.getActiveCount(), is(equalTo(0)));
+    assertThat(pool.getBorrowCount(), is(equalTo(2L)));
+    assertThat(pool.getWaitCount(), is(equalTo(0L)));
+    pool.close();
+  }
+
+  @Test(expected = SQLException.class)
+  public void borrowFailsWhenNoConnectionIsReleasedInTime() throws SQLException {
+    ConnectionPool pool = new ConnectionPool(url, 0, 1, 50);
+    pool.borrow();
+    try {
+      pool.borrow();
+    } finally {
+      assertThat(pool.getWaitCount(), is(equalTo(1L)));
+      pool.close();
+    }
+  }
+
+  @Test
+  public void borrowWaitsForReleasedConnection() throws Exception {
+    ConnectionPool pool = new ConnectionPool(url, 0, 1, 5000);
+    PooledConnection first = pool.borrow();
+    Thread releaser = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      pool.release(first);
+    });
+    releaser.start();
+    PooledConnection second = pool.borrow();
+    releaser.join();
+
+    assertThat(second, is(sameInstance(first)));
+    assertThat(pool.getWaitCount(), is(equalTo(1L)));
+    pool.release(second);
+    pool.close();
+  }
+
+  @Test
+  public void brokenConnectionIsReplacedAndWorkRetried() throws SQLException, ServiceExecutionException {
+    ConnectionPool pool = new ConnectionPool(url, 1, 1, 1000);
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(pool);
+
+    // Break the only connection, as a network error would.
+    PooledConnection broken = pool.borrow();
+    broken.getConnection().close();
+    pool.release(broken);
+
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", "{}", "");
+
+    assertThat(countRows(), is(equalTo(1)));
+    assertThat(pool.getReplacedCount(), is(equalTo(1L)));
+    PooledConnection replacement = pool.borrow();
+    assertThat(replacement, is(not(sameInstance(broken))));
+    pool.release(replacement);
+    dbService.close();
+    pool.close();
+  }
+
+  @Test
+  public void servicesShareThePool() throws SQLException, ServiceExecutionException {
+    ConnectionPool pool = new ConnectionPool(url, 1, 1, 1000);
+    DatabaseService first = new DatabaseService();
+    first.init(pool);
+    DatabaseService second = new DatabaseService();
+    second.init(pool);
+
+    first.postRiskScore(1, 1, "Red", "Red", "Green", "{}", "");
+    second.postRiskScore(2, 1, "Green", "Green", "Green", "{}", "");
+
+    assertThat(countRows(), is(equalTo(2)));
+    assertThat(pool.getActiveCount(), is(equalTo(0)));
+    // Closing a service leaves a pool it was given open.
+    first.close();
+    assertThat(pool.getIdleCount(), is(equalTo(1)));
+    second.close();
+    pool.close();
+  }
+
+  private void executeScript(String resource) throws IOException, SQLException {
+    String script;
+    try (InputStream inputStream = getClass().getResourceAsStream(resource)) {
+      script = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+    }
+    try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement()) {
+      for (String sql : script.split(";")) {
+        if (!sql.isBlank()) {
+          statement.execute(sql);
+        }
+      }
+    }
+  }
+
+  private int countRows() throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM RES_RISK_SCORE")) {
+      result.next();
+      return result.getInt(1);
+    }
+  }
+}
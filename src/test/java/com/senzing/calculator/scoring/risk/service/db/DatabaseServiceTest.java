@@ -0,0 +1,434 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.json.Json;
+import javax.json.JsonReader;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+public class DatabaseServiceTest {
+
+  private File dbFile;
+  private String url;
+
+  @Before
+  public void setupDatabase() throws IOException, SQLException {
+    dbFile = File.createTempFile("risk-score-", ".db");
+    url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+    executeScript("/sql/create-res_risk_score-sqlite.v2.sql");
+  }
+
+  @After
+  public void removeDatabase() {
+    dbFile.delete();
+  }
+
+  @Test
+  public void postRiskScoreCommitsEachScore() throws SQLException, ServiceExecutionException {
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", "{}", "");
+    assertThat(countRows(), is(equalTo(1)));
+    dbService.close();
+  }
+
+  @Test
+  public void batchWritesCommitWhenBatchIsFull() throws SQLException, ServiceExecutionException {
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.enableBatchWrites(3, 60000);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", "{}", "");
+    dbService.postRiskScore(2, 1, "Red", "Red", "Green", "{}", "");
+    assertThat(countRows(), is(equalTo(0)));
+    dbService.postRiskScore(3, 1, "Green", "Green", "Green", "{}", "");
+    assertThat(countRows(), is(equalTo(3)));
+    dbService.close();
+  }
+
+  @Test
+  public void batchWritesCoalesceToLastWrite() throws SQLException, ServiceExecutionException {
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.enableBatchWrites(10, 60000);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", "{}", "");
+    dbService.postRiskScore(2, 1, "Red", "Red", "Green", "{}", "");
+    dbService.postRiskScore(1, 1, "Yellow", "Yellow", "Green", "{}", "");
+    dbService.postRiskScore(2, 1, null, null, null, null, null);
+    dbService.flush();
+    assertThat(countRows(), is(equalTo(1)));
+    assertThat(qualityState(1), is(equalTo("Yellow")));
+    dbService.close();
+  }
+
+  @Test
+  public void failedBatchDropsOnlyTheFailingScores() throws SQLException, ServiceExecutionException {
+    executeUpdate("CREATE TRIGGER FAIL_ENTITY_2 BEFORE INSERT ON RES_RISK_SCORE WHEN NEW.RES_ENT_ID = 2 "
+        + "BEGIN SELECT RAISE(ABORT, 'Entity 2 rejected'); END");
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.enableBatchWrites(10, 60000);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", "{}", "");
+    dbService.postRiskScore(2, 1, "Red", "Red", "Green", "{}", "");
+    dbService.postRiskScore(3, 1, "Green", "Green", "Green", "{}", "");
+    try {
+      dbService.flush();
+      fail("Expected the score of entity 2 to fail");
+    } catch (ServiceExecutionException e) {
+      assertThat(e.getMessage(), is(equalTo("Failed to write 1 of 3 risk scores, of entities [2]")));
+    }
+    // The batch was written again one score at a time.
+    assertThat(countRows(), is(equalTo(2)));
+    assertThat(qualityState(3), is(equalTo("Green")));
+    dbService.close();
+  }
+
+  @Test
+  public void batchWritesCommitAfterTimeout() throws SQLException, ServiceExecutionException, InterruptedException {
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.enableBatchWrites(100, 50);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", "{}", "");
+    Thread.sleep(500);
+    assertThat(countRows(), is(equalTo(1)));
+    dbService.close();
+  }
+
+  @Test
+  public void findSharedFeaturesReturnsOtherEntities() throws SQLException, ServiceExecutionException {
+    createFeatureTable();
+    List<Long> ids = new ArrayList<>();
+    for (long featID = 1; featID <= 25; featID++) {
+      addFeature(featID, 100);
+      ids.add(featID);
+    }
+    // Shared with other entities, in different IN batches.
+    addFeature(2, 200);
+    addFeature(14, 201);
+    addFeature(25, 202);
+    addFeature(25, 203);
+
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    SharedFeatures shared = dbService.findSharedFeatures(ids, 100, 1);
+    assertThat(shared.size(), is(equalTo(4)));
+    Set<String> rows = new HashSet<>();
+    for (int i = 0; i < shared.size(); i++) {
+      rows.add(shared.getLibFeatID(i) + ":" + shared.getEntityID(i));
+    }
+    assertThat(rows, is(equalTo(Set.of("2:200", "14:201", "25:202", "25:203"))));
+    assertThat(dbService.findSharedFeatures(List.of(1L, 3L), 100, 1).isEmpty(), is(true));
+    dbService.close();
+  }
+
+  @Test
+  public void findSharedFeaturesPadsToBuckets() throws SQLException, ServiceExecutionException {
+    createFeatureTable();
+    List<Long> ids = new ArrayList<>();
+    for (long featID = 1; featID <= 11; featID++) {
+      addFeature(featID, 200 + featID);
+      ids.add(featID);
+    }
+
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.setInClauseBuckets(new int[] { 4, 1 });
+    assertThat(dbService.getMaxInClauseSize(), is(equalTo(4)));
+    // Looked up as 4, 4 and 3 padded to 4. Repeating the statements must give the same rows.
+    for (int i = 0; i < 2; i++) {
+      SharedFeatures shared = dbService.findSharedFeatures(ids, 0, 1);
+      assertThat(shared.size(), is(equalTo(11)));
+      Set<Long> entityIDs = new HashSet<>();
+      for (long entityID : shared.getEntityIDs()) {
+        entityIDs.add(entityID);
+      }
+      assertThat(entityIDs.size(), is(equalTo(11)));
+    }
+    dbService.close();
+  }
+
+  @Test
+  public void findSharedFeaturesServesCachedOwners() throws SQLException, ServiceExecutionException {
+    createFeatureTable();
+    addFeature(1, 100);
+    addFeature(1, 200);
+    addFeature(2, 100);
+
+    FeatureEntityCache featureCache = new FeatureEntityCache(1, 100, 0);
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.setFeatureCache(featureCache);
+    SharedFeatures shared = dbService.findSharedFeatures(List.of(1L, 2L), 100, 1);
+    assertThat(shared.size(), is(equalTo(1)));
+    assertThat(shared.getEntityID(0), is(equalTo(200L)));
+    assertThat(featureCache.getMissCount(), is(equalTo(2L)));
+
+    // A new owner isn't seen while the feature is cached, the other owner is served from the cache.
+    addFeature(1, 300);
+    shared = dbService.findSharedFeatures(List.of(1L), 200, 1);
+    assertThat(shared.size(), is(equalTo(1)));
+    assertThat(shared.getEntityID(0), is(equalTo(100L)));
+    assertThat(featureCache.getHitCount(), is(equalTo(1L)));
+
+    // Once an owner is affected the feature is read again.
+    featureCache.invalidateEntity(200);
+    shared = dbService.findSharedFeatures(List.of(1L), 200, 1);
+    assertThat(shared.size(), is(equalTo(2)));
+    dbService.close();
+  }
+
+  @Test
+  public void schemaVersion3WritesReasonCodes() throws IOException, SQLException, ServiceExecutionException {
+    executeScript("/sql/create-res_risk_score-sqlite.v3.sql");
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.setSchemaVersion(3);
+    dbService.enableBatchWrites(10, 60000);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", 1 | 2 | 4096, null, "");
+    dbService.postRiskScore(2, 1, "Green", "Green", "Green", 16 | 16384, "[\"[TRUSTED]\"]", "");
+    dbService.postRiskScore(2, 1, "Green", "Green", "Green", 16 | 32 | 16384, "[\"[TRUSTED]\"]", "");
+    dbService.flush();
+
+    assertThat(countRows(), is(equalTo(2)));
+    assertThat(queryString("SELECT REASON_CODES FROM RES_RISK_SCORE WHERE RES_ENT_ID = 2"), is(equalTo("16432")));
+    assertThat(queryString("SELECT QUALITY_REASONS FROM RES_RISK_SCORE_REASONS WHERE RES_ENT_ID = 1"),
+        is(equalTo("Ambiguous relationships, More than one DOB")));
+    assertThat(queryString("SELECT COLLISION_REASONS FROM RES_RISK_SCORE_REASONS WHERE RES_ENT_ID = 2"),
+        is(equalTo("Green data quality")));
+    dbService.close();
+  }
+
+  @Test
+  public void alterScriptUpgradesVersion2Table() throws IOException, SQLException, ServiceExecutionException {
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", "{}", "");
+    dbService.close();
+
+    executeScript("/sql/alter-res_risk_score-sqlite.v2->v3.sql");
+    dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.setSchemaVersion(3);
+    dbService.postRiskScore(2, 1, "Red", "Red", "Green", 4096 | 8192, null, "");
+    assertThat(queryString("SELECT COLLISION_REASONS FROM RES_RISK_SCORE_REASONS WHERE RES_ENT_ID = 2"),
+        is(equalTo("Red data quality, Manually flagged red")));
+    assertThat(queryString("SELECT REASON FROM RES_RISK_SCORE WHERE RES_ENT_ID = 1"), is(equalTo("{}")));
+    dbService.close();
+  }
+
+  @Test
+  public void unchangedScoresAreNotWrittenAgain() throws IOException, SQLException, ServiceExecutionException {
+    executeScript("/sql/create-res_risk_score-sqlite.v3.sql");
+    ScoreFingerprints fingerprints = new ScoreFingerprints(1, 100);
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.setSchemaVersion(3);
+    dbService.setScoreFingerprints(fingerprints);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", 4096, null, "");
+    // Tells a write from a skipped one.
+    executeUpdate("UPDATE RES_RISK_SCORE SET QUERY_REASON = 'untouched'");
+
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", 4096, null, "");
+    assertThat(queryString("SELECT QUERY_REASON FROM RES_RISK_SCORE WHERE RES_ENT_ID = 1"), is(equalTo("untouched")));
+    assertThat(fingerprints.getSuppressedCount(), is(equalTo(1L)));
+
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", 4096 | 8192, null, "");
+    assertThat(queryString("SELECT QUERY_REASON FROM RES_RISK_SCORE WHERE RES_ENT_ID = 1"), is(equalTo("")));
+    assertThat(fingerprints.getSuppressedCount(), is(equalTo(1L)));
+    dbService.close();
+  }
+
+  @Test
+  public void pendingScoreIsReplacedByUnchangedScore() throws IOException, SQLException, ServiceExecutionException {
+    executeScript("/sql/create-res_risk_score-sqlite.v3.sql");
+    ScoreFingerprints fingerprints = new ScoreFingerprints(1, 100);
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.setSchemaVersion(3);
+    dbService.setScoreFingerprints(fingerprints);
+    dbService.enableBatchWrites(10, 60000);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", 4096, null, "");
+    dbService.flush();
+    // The entity changes and changes back before the batch is committed.
+    dbService.postRiskScore(1, 1, "Green", "Green", "Green", 16384, null, "");
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", 4096, null, "");
+    dbService.flush();
+
+    assertThat(queryString("SELECT QUALITY_STATE FROM RES_RISK_SCORE WHERE RES_ENT_ID = 1"), is(equalTo("Red")));
+    assertThat(fingerprints.getSuppressedCount(), is(equalTo(0L)));
+    dbService.close();
+  }
+
+  @Test
+  public void schemaVersion4ReadsEvictedFingerprints() throws IOException, SQLException, ServiceExecutionException {
+    executeScript("/sql/create-res_risk_score-sqlite.v4.sql");
+    ScoreFingerprints fingerprints = new ScoreFingerprints(1, 1);
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.setSchemaVersion(4);
+    dbService.setScoreFingerprints(fingerprints);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", 4096, null, "");
+    dbService.postRiskScore(2, 1, "Green", "Green", "Green", 16384, null, "");
+    assertThat(fingerprints.contains(1), is(false));
+    executeUpdate("UPDATE RES_RISK_SCORE SET QUERY_REASON = 'untouched'");
+
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", 4096, null, "");
+    assertThat(queryString("SELECT QUERY_REASON FROM RES_RISK_SCORE WHERE RES_ENT_ID = 1"), is(equalTo("untouched")));
+
+    // And in a group commit, only the changed score is written.
+    dbService.enableBatchWrites(10, 60000);
+    fingerprints.remove(1);
+    fingerprints.remove(2);
+    dbService.postRiskScore(1, 1, "Red", "Red", "Green", 4096, null, "");
+    dbService.postRiskScore(2, 1, "Red", "Red", "Green", 4096, null, "");
+    dbService.postRiskScore(3, 1, "Red", "Red", "Green", 4096, null, "");
+    dbService.flush();
+    assertThat(queryString("SELECT QUERY_REASON FROM RES_RISK_SCORE WHERE RES_ENT_ID = 1"), is(equalTo("untouched")));
+    assertThat(queryString("SELECT QUALITY_STATE FROM RES_RISK_SCORE WHERE RES_ENT_ID = 2"), is(equalTo("Red")));
+    assertThat(countRows(), is(equalTo(3)));
+    assertThat(fingerprints.getSuppressedCount(), is(equalTo(2L)));
+    dbService.close();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void schemaVersion3RejectsReasonText() throws SQLException, ServiceExecutionException {
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    dbService.setSchemaVersion(3);
+    try {
+      dbService.postRiskScore(1, 1, "Red", "Red", "Green", "{}", "");
+    } finally {
+      dbService.close();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void findEntitiesByFeatureIDsQueriesAllBatches() throws SQLException, ServiceExecutionException {
+    createFeatureTable();
+    List<Long> ids = new ArrayList<>();
+    for (long featID = 1; featID <= 25; featID++) {
+      addFeature(featID, 200 + featID);
+      ids.add(featID);
+    }
+
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    try (JsonReader reader = Json.createReader(new StringReader(dbService.findEntitiesByFeatureIDs(ids, 100, 1)))) {
+      assertThat(reader.readArray().size(), is(equalTo(25)));
+    }
+    dbService.close();
+  }
+
+  @Test
+  public void rescoreLeaseHasOneOwner() throws IOException, SQLException, ServiceExecutionException {
+    executeScript("/sql/create-res_risk_rescore-sqlite.sql");
+    DatabaseService dbService = new DatabaseService();
+    dbService.init(url);
+    try {
+      assertThat(dbService.loadRescoreCheckpoints(1).isEmpty(), is(true));
+      List<RescoreCheckpoint> checkpoints = new ArrayList<>();
+      checkpoints.add(new RescoreCheckpoint(1, 0, 1, 100, 100));
+      dbService.createRescoreCheckpoints(checkpoints);
+
+      RescoreCheckpoint claimed = dbService.claimRescoreCheckpoint(1, "first", 60000);
+      assertThat(claimed.getOwner(), is(equalTo("first")));
+      assertThat(dbService.claimRescoreCheckpoint(1, "second", 60000), is(nullValue()));
+
+      claimed.advance(50, 50);
+      assertThat(dbService.saveRescoreCheckpoint(claimed, "second", 60000), is(false));
+      assertThat(dbService.saveRescoreCheckpoint(claimed, "first", 60000), is(true));
+      assertThat(dbService.renewRescoreLease(claimed, "first", 60000), is(true));
+
+      dbService.releaseRescoreLease(claimed, "first");
+      RescoreCheckpoint taken = dbService.claimRescoreCheckpoint(1, "second", 60000);
+      assertThat(taken.getOwner(), is(equalTo("second")));
+      assertThat(taken.getDoneEntityID(), is(equalTo(50L)));
+      assertThat(dbService.renewRescoreLease(claimed, "first", 60000), is(false));
+    } finally {
+      dbService.close();
+    }
+  }
+
+  private void createFeatureTable() throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE RES_FEAT_EKEY(LENS_ID SMALLINT, LIB_FEAT_ID BIGINT, UTYPE_CODE VARCHAR(50), RES_ENT_ID BIGINT)");
+    }
+  }
+
+  private void addFeature(long libFeatID, long entityID) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement()) {
+      statement.execute("INSERT INTO RES_FEAT_EKEY VALUES (1, " + libFeatID + ", '', " + entityID + ")");
+    }
+  }
+
+  private void executeScript(String resource) throws IOException, SQLException {
+    String script;
+    try (InputStream inputStream = getClass().getResourceAsStream(resource)) {
+      script = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+    }
+    try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement()) {
+      for (String sql : script.split(";")) {
+        if (!sql.isBlank()) {
+          statement.execute(sql);
+        }
+      }
+    }
+  }
+
+  private void executeUpdate(String sql) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement()) {
+      statement.executeUpdate(sql);
+    }
+  }
+
+  private int countRows() throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM RES_RISK_SCORE")) {
+      result.next();
+      return result.getInt(1);
+    }
+  }
+
+  private String queryString(String query) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery(query)) {
+      result.next();
+      return result.getString(1);
+    }
+  }
+
+  private String qualityState(long entityID) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT QUALITY_STATE FROM RES_RISK_SCORE WHERE RES_ENT_ID = " + entityID)) {
+      result.next();
+      return result.getString(1);
+    }
+  }
+}
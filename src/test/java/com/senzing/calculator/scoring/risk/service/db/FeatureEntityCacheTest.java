@@ -0,0 +1,64 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Test;
+
+public class FeatureEntityCacheTest {
+
+  @Test
+  public void leastRecentlyUsedFeaturesAreEvicted() {
+    FeatureEntityCache cache = new FeatureEntityCache(1, 4, 0);
+    cache.put(1, new long[] { 10, 11 });
+    cache.put(2, new long[] { 20 });
+    // Use feature 1 so feature 2 is the least recently used.
+    assertThat(cache.get(1), is(equalTo(new long[] { 10, 11 })));
+    cache.put(3, new long[] { 30, 31 });
+    assertThat(cache.get(2), is(nullValue()));
+    assertThat(cache.get(1), is(equalTo(new long[] { 10, 11 })));
+    assertThat(cache.get(3), is(equalTo(new long[] { 30, 31 })));
+    assertThat(cache.getWeight(), is(equalTo(4L)));
+    assertThat(cache.getEvictionCount(), is(equalTo(1L)));
+    assertThat(cache.getHitCount(), is(equalTo(3L)));
+    assertThat(cache.getMissCount(), is(equalTo(1L)));
+  }
+
+  @Test
+  public void featuresHeavierThanTheCacheAreNotKept() {
+    FeatureEntityCache cache = new FeatureEntityCache(1, 2, 0);
+    cache.put(1, new long[] { 10 });
+    cache.put(2, new long[] { 20, 21, 22 });
+    assertThat(cache.get(2), is(nullValue()));
+    assertThat(cache.get(1), is(equalTo(new long[] { 10 })));
+  }
+
+  @Test
+  public void entriesExpire() throws InterruptedException {
+    FeatureEntityCache cache = new FeatureEntityCache(1, 10, 20);
+    cache.put(1, new long[] { 10 });
+    Thread.sleep(50);
+    assertThat(cache.get(1), is(nullValue()));
+    assertThat(cache.size(), is(equalTo(0)));
+    assertThat(cache.getEvictionCount(), is(equalTo(1L)));
+  }
+
+  @Test
+  public void affectedEntityDropsItsFeatures() {
+    FeatureEntityCache cache = new FeatureEntityCache(1, 10, 0);
+    cache.put(1, new long[] { 10, 11 });
+    cache.put(2, new long[] { 11 });
+    cache.put(3, new long[] { 12 });
+    cache.invalidateEntity(11);
+    assertThat(cache.get(1), is(nullValue()));
+    assertThat(cache.get(2), is(nullValue()));
+    assertThat(cache.get(3), is(equalTo(new long[] { 12 })));
+    assertThat(cache.getInvalidationCount(), is(equalTo(2L)));
+    assertThat(cache.getWeight(), is(equalTo(1L)));
+    // Entity 10 lost its only cached feature with the invalidation of entity 11.
+    cache.invalidateEntity(10);
+    assertThat(cache.getInvalidationCount(), is(equalTo(2L)));
+  }
+}
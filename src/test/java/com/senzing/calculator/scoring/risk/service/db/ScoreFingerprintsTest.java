@@ -0,0 +1,45 @@
+package com.senzing.calculator.scoring.risk.service.db;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Test;
+
+public class ScoreFingerprintsTest {
+
+  @Test
+  public void leastRecentlyUsedEntitiesAreEvicted() {
+    ScoreFingerprints fingerprints = new ScoreFingerprints(1, 2);
+    fingerprints.put(1, 10);
+    fingerprints.put(2, 20);
+    // Use entity 1 so entity 2 is the least recently used.
+    assertThat(fingerprints.get(1), is(equalTo(10L)));
+    fingerprints.put(3, 30);
+    assertThat(fingerprints.get(2), is(nullValue()));
+    assertThat(fingerprints.get(1), is(equalTo(10L)));
+    assertThat(fingerprints.get(3), is(equalTo(30L)));
+    assertThat(fingerprints.size(), is(equalTo(2)));
+    assertThat(fingerprints.getEvictionCount(), is(equalTo(1L)));
+    assertThat(fingerprints.getHitCount(), is(equalTo(3L)));
+    assertThat(fingerprints.getMissCount(), is(equalTo(1L)));
+  }
+
+  @Test
+  public void fingerprintTellsFieldsApart() {
+    long fingerprint = ScoreFingerprints.fingerprint("Red", "Green", null);
+    assertThat(ScoreFingerprints.fingerprint("Red", "Green", null), is(equalTo(fingerprint)));
+    assertThat(ScoreFingerprints.fingerprint("Red", "Green", ""), is(not(equalTo(fingerprint))));
+    assertThat(ScoreFingerprints.fingerprint("RedGreen", "", null), is(not(equalTo(fingerprint))));
+    assertThat(ScoreFingerprints.fingerprint("Green", "Red", null), is(not(equalTo(fingerprint))));
+  }
+
+  @Test
+  public void fingerprintIsStable() {
+    // Stored in SCORE_HASH, so it must not change between versions.
+    assertThat(ScoreFingerprints.fingerprint(), is(equalTo(0xcbf29ce484222325L)));
+    assertThat(ScoreFingerprints.fingerprint("a"), is(equalTo(ScoreFingerprints.fingerprint("a"))));
+  }
+}
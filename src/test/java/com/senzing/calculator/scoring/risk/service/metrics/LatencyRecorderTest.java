@@ -0,0 +1,81 @@
+package com.senzing.calculator.scoring.risk.service.metrics;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LatencyRecorderTest {
+
+  @Test
+  public void emptyRecorderReportsZero() {
+    LatencyRecorder recorder = new LatencyRecorder();
+    assertThat(recorder.getCount(), is(equalTo(0L)));
+    assertThat(recorder.getPercentile(99), is(equalTo(0L)));
+    assertThat(recorder.getMax(), is(equalTo(0L)));
+  }
+
+  @Test
+  public void percentilesWithinBucketPrecision() {
+    LatencyRecorder recorder = new LatencyRecorder();
+    for (long micros = 1; micros <= 10000; micros++) {
+      recorder.recordMicros(micros);
+    }
+    assertThat(recorder.getCount(), is(equalTo(10000L)));
+    assertThat(recorder.getMax(), is(equalTo(10000L)));
+    assertWithin(recorder.getPercentile(50), 5000);
+    assertWithin(recorder.getPercentile(95), 9500);
+    assertWithin(recorder.getPercentile(99), 9900);
+    assertThat(recorder.getPercentile(100), is(equalTo(10000L)));
+  }
+
+  @Test
+  public void smallLatenciesAreExact() {
+    LatencyRecorder recorder = new LatencyRecorder();
+    recorder.recordMicros(3);
+    recorder.recordMicros(3);
+    recorder.recordMicros(12);
+    assertThat(recorder.getPercentile(50), is(equalTo(3L)));
+    assertThat(recorder.getPercentile(99), is(equalTo(12L)));
+  }
+
+  @Test
+  public void bucketsCoverTheirValues() {
+    for (long micros = 0; micros < 1 << 20; micros += 7) {
+      int bucket = LatencyRecorder.bucketOf(micros);
+      assertThat(micros <= LatencyRecorder.upperBoundOf(bucket), is(equalTo(true)));
+      assertThat(bucket == 0 || micros > LatencyRecorder.upperBoundOf(bucket - 1), is(equalTo(true)));
+    }
+  }
+
+  @Test
+  public void concurrentRecordsAreAllCounted() throws InterruptedException {
+    LatencyRecorder recorder = new LatencyRecorder();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      long offset = t;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 10000; i++) {
+          recorder.recordMicros(i + offset);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(recorder.getCount(), is(equalTo(40000L)));
+    assertThat(recorder.getMax(), is(equalTo(10002L)));
+  }
+
+  private static void assertWithin(long actual, long expected) {
+    assertThat(actual + " is not within 12.5% above " + expected, actual >= expected && actual <= expected * 1.125,
+        is(equalTo(true)));
+  }
+}
@@ -0,0 +1,80 @@
+package com.senzing.calculator.scoring.risk.service.metrics;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.senzing.calculator.scoring.risk.service.RiskScoringStatistic;
+import com.senzing.listener.service.ListenerService.Statistic;
+
+public class MetricsServerTest {
+
+  @Test
+  public void statisticsFormattedForPrometheus() {
+    Map<Statistic, Number> statistics = new LinkedHashMap<>();
+    statistics.put(RiskScoringStatistic.entitiesScored, 20L);
+    statistics.put(RiskScoringStatistic.scoringP50, 7L);
+    statistics.put(RiskScoringStatistic.scoringP95, 9L);
+    statistics.put(RiskScoringStatistic.scoringP99, 11L);
+    statistics.put(RiskScoringStatistic.scoringMax, 12L);
+    statistics.put(RiskScoringStatistic.matchKeyCacheHitRate, 50.0);
+    String text = MetricsServer.format(statistics);
+    assertThat(text, containsString("# TYPE riskscorer_entities_scored gauge\nriskscorer_entities_scored 20\n"));
+    assertThat(text, containsString("# TYPE riskscorer_scoring_latency_microseconds summary\n"
+        + "riskscorer_scoring_latency_microseconds{quantile=\"0.5\"} 7\n"
+        + "riskscorer_scoring_latency_microseconds{quantile=\"0.95\"} 9\n"
+        + "riskscorer_scoring_latency_microseconds{quantile=\"0.99\"} 11\n"));
+    assertThat(text, containsString("riskscorer_scoring_latency_max_microseconds 12\n"));
+    assertThat(text, containsString("riskscorer_match_key_cache_hit_rate 50.0\n"));
+  }
+
+  @Test
+  public void snakeCase() {
+    assertThat(MetricsServer.toSnakeCase("g2GetEntityP95"), is(equalTo("g2_get_entity_p95")));
+    assertThat(MetricsServer.toSnakeCase("dbConnectionsActive"), is(equalTo("db_connections_active")));
+  }
+
+  @Test
+  public void metricsAndHealthServed() throws IOException {
+    Map<Statistic, Number> statistics = new LinkedHashMap<>();
+    statistics.put(RiskScoringStatistic.entitiesScored, 3L);
+    AtomicReference<Health> health = new AtomicReference<>(new Health(true, "AVAILABLE", 0));
+    MetricsServer server = new MetricsServer(0, () -> statistics, health::get);
+    server.start();
+    try {
+      String base = "http://localhost:" + server.getPort();
+      HttpURLConnection metrics = (HttpURLConnection) new URL(base + "/metrics").openConnection();
+      assertThat(metrics.getResponseCode(), is(equalTo(200)));
+      assertThat(read(metrics.getInputStream()), containsString("riskscorer_entities_scored 3\n"));
+
+      HttpURLConnection healthy = (HttpURLConnection) new URL(base + "/health").openConnection();
+      assertThat(healthy.getResponseCode(), is(equalTo(200)));
+      assertThat(read(healthy.getInputStream()), containsString("\"healthy\":true"));
+
+      health.set(new Health(false, "AVAILABLE", 90000));
+      HttpURLConnection lagging = (HttpURLConnection) new URL(base + "/health").openConnection();
+      assertThat(lagging.getResponseCode(), is(equalTo(503)));
+      assertThat(read(lagging.getErrorStream()), containsString("\"lagMillis\":90000"));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static String read(InputStream inputStream) throws IOException {
+    try (InputStream in = inputStream) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package com.senzing.calculator.scoring.risk.service.rescore;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senzing.calculator.scoring.risk.service.ScoringContext;
+import com.senzing.calculator.scoring.risk.service.ScoringWorkerPool.EntityScorer;
+import com.senzing.calculator.scoring.risk.service.db.DatabaseService;
+import com.senzing.calculator.scoring.risk.service.db.RescoreCheckpoint;
+import com.senzing.listener.service.exception.ServiceExecutionException;
+
+public class BulkRescorerTest {
+
+  private static final int LENS_ID = 1;
+  private static final int ENTITY_COUNT = 95;
+
+  private File dbFile;
+  private DatabaseService dbService;
+  private List<Long> scored;
+
+  @Before
+  public void setupDatabase() throws IOException, SQLException {
+    dbFile = File.createTempFile("risk-rescore-", ".db");
+    String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+    try (Connection connection = DriverManager.getConnection(url)) {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("CREATE TABLE RES_ENT_OKEY(LENS_ID SMALLINT, RES_ENT_ID BIGINT, OBS_ENT_ID BIGINT)");
+      }
+      // Entities 2, 4, ... with two records each, and one in another lens.
+      try (PreparedStatement insert = connection.prepareStatement("INSERT INTO RES_ENT_OKEY VALUES (?, ?, ?)")) {
+        for (long entityID = 2; entityID <= 2 * ENTITY_COUNT; entityID += 2) {
+          for (int record = 0; record < 2; record++) {
+            insert.setInt(1, LENS_ID);
+            insert.setLong(2, entityID);
+            insert.setLong(3, entityID * 10 + record);
+            insert.executeUpdate();
+          }
+        }
+        insert.setInt(1, LENS_ID + 1);
+        insert.setLong(2, 1);
+        insert.setLong(3, 10);
+        insert.executeUpdate();
+      }
+    }
+    dbService = new DatabaseService();
+    dbService.init(url);
+    scored = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  @After
+  public void removeDatabase() {
+    dbService.close();
+    dbFile.delete();
+  }
+
+  @Test
+  public void rescoresEachEntityOnce() throws Exception {
+    BulkRescorer rescorer = newRescorer((entityIDs, context) -> scored.addAll(entityIDs));
+    rescorer.run();
+
+    assertThat(rescorer.getScoredCount(), is(equalTo((long) ENTITY_COUNT)));
+    assertThat(sortedScored(), is(equalTo(allEntityIDs())));
+    assertThat(countCheckpoints(), is(equalTo(0)));
+  }
+
+  @Test
+  public void resumesAfterLastCheckpoint() throws Exception {
+    BulkRescorer failing = newRescorer((entityIDs, context) -> {
+      if (entityIDs.contains(100L)) {
+        throw new ServiceExecutionException("Scoring failed");
+      }
+      scored.addAll(entityIDs);
+    });
+    try {
+      failing.run();
+      fail("Expected the rescoring to stop");
+    } catch (ServiceExecutionException e) {
+      // Expected.
+    }
+    assertThat(countCheckpoints(), is(equalTo(4)));
+    List<Long> scoredBefore = new ArrayList<>(scored);
+
+    scored.clear();
+    BulkRescorer resumed = newRescorer((entityIDs, context) -> scored.addAll(entityIDs));
+    resumed.run();
+
+    assertThat(resumed.getScoredCount(), is(equalTo((long) ENTITY_COUNT - scoredBefore.size())));
+    for (Long entityID : scoredBefore) {
+      assertThat(scored.contains(entityID), is(false));
+    }
+    scored.addAll(scoredBefore);
+    assertThat(sortedScored(), is(equalTo(allEntityIDs())));
+    assertThat(countCheckpoints(), is(equalTo(0)));
+  }
+
+  @Test
+  public void nothingToRescore() throws Exception {
+    BulkRescorer rescorer = new BulkRescorer((entityIDs, context) -> scored.addAll(entityIDs),
+        Collections.singletonList(new ScoringContext(dbService)), LENS_ID + 2, 4, 10, "test", 60000);
+    rescorer.run();
+    assertThat(rescorer.getScoredCount(), is(equalTo(0L)));
+  }
+
+  @Test
+  public void takesOverExpiredLease() throws Exception {
+    stopOnFirstPage();
+    RescoreCheckpoint stale = dbService.claimRescoreCheckpoint(LENS_ID, "stopped", 300);
+    assertThat(stale.getOwner(), is(equalTo("stopped")));
+
+    BulkRescorer rescorer = new BulkRescorer((entityIDs, context) -> scored.addAll(entityIDs),
+        Collections.singletonList(new ScoringContext(dbService)), LENS_ID, 4, 10, "test", 60, 60000, 20);
+    rescorer.run();
+
+    assertThat(sortedScored(), is(equalTo(allEntityIDs())));
+    assertThat(countCheckpoints(), is(equalTo(0)));
+  }
+
+  @Test
+  public void instancesShareThePartitions() throws Exception {
+    stopOnFirstPage();
+    List<Long> firstScored = Collections.synchronizedList(new ArrayList<>());
+    List<Long> secondScored = Collections.synchronizedList(new ArrayList<>());
+    BulkRescorer first = newRescorer("first", (entityIDs, context) -> {
+      firstScored.addAll(entityIDs);
+      Thread.yield();
+    });
+    BulkRescorer second = newRescorer("second", (entityIDs, context) -> {
+      secondScored.addAll(entityIDs);
+      Thread.yield();
+    });
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    Thread secondThread = new Thread(() -> {
+      try {
+        second.run();
+      } catch (Exception e) {
+        failure.set(e);
+      }
+    });
+    secondThread.start();
+    first.run();
+    secondThread.join();
+
+    assertThat(failure.get(), is(nullValue()));
+    assertThat(first.getScoredCount() + second.getScoredCount(), is(equalTo((long) ENTITY_COUNT)));
+    scored.addAll(firstScored);
+    scored.addAll(secondScored);
+    assertThat(sortedScored(), is(equalTo(allEntityIDs())));
+    assertThat(countCheckpoints(), is(equalTo(0)));
+  }
+
+  @Test
+  public void eachClaimHasItsOwnOwner() throws Exception {
+    Set<String> owners = ConcurrentHashMap.newKeySet();
+    BulkRescorer rescorer = newRescorer((entityIDs, context) -> {
+      owners.add(findOwner(entityIDs.get(0)));
+      scored.addAll(entityIDs);
+    });
+    rescorer.run();
+
+    // A thread which stalled past its lease is refused once another thread of the instance claimed the partition.
+    assertThat(owners.size(), is(equalTo(4)));
+    for (String owner : owners) {
+      assertThat(owner.startsWith("test#"), is(true));
+    }
+    assertThat(sortedScored(), is(equalTo(allEntityIDs())));
+  }
+
+  // Leaves the checkpoints of a run which stopped before anything was scored.
+  private void stopOnFirstPage() {
+    try {
+      newRescorer((entityIDs, context) -> {
+        throw new ServiceExecutionException("Scoring failed");
+      }).run();
+      fail("Expected the rescoring to stop");
+    } catch (ServiceExecutionException e) {
+      // Expected.
+    }
+  }
+
+  private BulkRescorer newRescorer(EntityScorer scorer) {
+    return newRescorer("test", scorer);
+  }
+
+  private BulkRescorer newRescorer(String instanceID, EntityScorer scorer) {
+    return new BulkRescorer(scorer, Collections.singletonList(new ScoringContext(dbService)), LENS_ID, 4, 10,
+        instanceID, 60000, 60000, 20);
+  }
+
+  private List<Long> allEntityIDs() {
+    List<Long> entityIDs = new ArrayList<>();
+    for (long entityID = 2; entityID <= 2 * ENTITY_COUNT; entityID += 2) {
+      entityIDs.add(entityID);
+    }
+    return entityIDs;
+  }
+
+  private List<Long> sortedScored() {
+    List<Long> entityIDs = new ArrayList<>(scored);
+    Collections.sort(entityIDs);
+    return entityIDs;
+  }
+
+  private String findOwner(long entityID) {
+    try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        PreparedStatement select = connection.prepareStatement("SELECT OWNER FROM RES_RISK_RESCORE "
+            + "WHERE LENS_ID = ? AND ? BETWEEN FIRST_ENT_ID AND LAST_ENT_ID")) {
+      select.setInt(1, LENS_ID);
+      select.setLong(2, entityID);
+      try (ResultSet result = select.executeQuery()) {
+        result.next();
+        return result.getString(1);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private int countCheckpoints() throws SQLException {
+    try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM RES_RISK_RESCORE")) {
+      result.next();
+      return result.getInt(1);
+    }
+  }
+}